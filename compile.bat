@@ -20,7 +20,7 @@ exit /b 1
 :found
 
 REM Compile Java files
-javac -d build\classes -cp %CP% src\main\java\com\p2p\*.java src\main\java\com\p2p\model\*.java src\main\java\com\p2p\database\*.java src\main\java\com\p2p\gui\*.java src\main\java\com\p2p\network\*.java src\main\java\com\p2p\utils\*.java
+javac -d build\classes -cp %CP% src\main\java\com\p2p\*.java src\main\java\com\p2p\cli\*.java src\main\java\com\p2p\model\*.java src\main\java\com\p2p\database\*.java src\main\java\com\p2p\gui\*.java src\main\java\com\p2p\network\*.java src\main\java\com\p2p\network\transport\*.java src\main\java\com\p2p\network\udp\*.java src\main\java\com\p2p\network\gossip\*.java src\main\java\com\p2p\network\dht\*.java src\main\java\com\p2p\network\catalog\*.java src\main\java\com\p2p\network\pull\*.java src\main\java\com\p2p\network\http\*.java src\main\java\com\p2p\hash\*.java src\main\java\com\p2p\network\dedup\*.java src\main\java\com\p2p\network\sync\*.java src\main\java\com\p2p\utils\*.java src\main\java\com\p2p\bench\*.java
 
 if %ERRORLEVEL% EQU 0 (
     echo Compilation successful!
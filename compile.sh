@@ -17,11 +17,23 @@ CP="$MYSQL_JAR:build/classes"
 # Compile Java files
 javac -d build/classes -cp "$CP" \
     src/main/java/com/p2p/*.java \
+    src/main/java/com/p2p/cli/*.java \
     src/main/java/com/p2p/model/*.java \
     src/main/java/com/p2p/database/*.java \
     src/main/java/com/p2p/gui/*.java \
     src/main/java/com/p2p/network/*.java \
-    src/main/java/com/p2p/utils/*.java
+    src/main/java/com/p2p/network/transport/*.java \
+    src/main/java/com/p2p/network/udp/*.java \
+    src/main/java/com/p2p/network/gossip/*.java \
+    src/main/java/com/p2p/network/dht/*.java \
+    src/main/java/com/p2p/network/catalog/*.java \
+    src/main/java/com/p2p/network/pull/*.java \
+    src/main/java/com/p2p/network/http/*.java \
+    src/main/java/com/p2p/hash/*.java \
+    src/main/java/com/p2p/network/dedup/*.java \
+    src/main/java/com/p2p/network/sync/*.java \
+    src/main/java/com/p2p/utils/*.java \
+    src/main/java/com/p2p/bench/*.java
 
 if [ $? -eq 0 ]; then
     echo "Compilation successful!"
@@ -0,0 +1,241 @@
+package com.p2p;
+
+import com.p2p.model.Transfer;
+import com.p2p.model.User;
+import com.p2p.network.LanDiscovery;
+import com.p2p.network.gossip.GossipMembership;
+import com.p2p.network.PeerDiscovery;
+import com.p2p.network.TransferEngine;
+import com.p2p.network.TransferListener;
+import com.p2p.network.dedup.ChunkStore;
+import com.p2p.network.dht.DhtNode;
+import com.p2p.network.http.HttpGateway;
+import com.p2p.network.pull.ChunkCache;
+import com.p2p.network.pull.SharedFileService;
+import com.p2p.network.sync.FolderSync;
+import com.p2p.utils.ConfigUtils;
+import com.p2p.utils.FileUtils;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Paths;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Headless entry point that runs the transfer engine without the Swing GUI
+ *
+ * Usage: Daemon [port]
+ *
+ * Intended for relay boxes: no login and no database, received files land in the
+ * downloads directory and every event goes to standard output. Stops on Ctrl+C.
+ */
+public class Daemon implements TransferListener {
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss");
+
+    private final AtomicLong filesReceived = new AtomicLong();
+    private final AtomicLong filesFailed = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private volatile DhtNode dht;
+    private volatile HttpGateway http;
+    private volatile FolderSync sync;
+
+    public static void main(String[] args) {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : ConfigUtils.getDefaultPort();
+
+        User node = new User();
+        node.setUsername(getNodeName());
+
+        Daemon daemon = new Daemon();
+        TransferEngine engine = new TransferEngine(node, port, daemon);
+        try {
+            engine.start();
+        } catch (IOException e) {
+            System.err.println("Failed to start file server on port " + port + ": " + e.getMessage());
+            System.exit(1);
+        }
+        daemon.log("Daemon " + node.getUsername() + " ready on port " + engine.getPort());
+        LanDiscovery lanDiscovery = PeerDiscovery.isLanDiscoveryEnabled()
+            ? daemon.startLanDiscovery(node.getUsername(), engine.getPort())
+            : null;
+        GossipMembership gossip = PeerDiscovery.isGossipEnabled()
+            ? daemon.startGossip(node.getUsername(), engine.getPort())
+            : null;
+        if (ConfigUtils.isDhtEnabled()) {
+            daemon.startDht(node.getUsername(), engine.getPort());
+        }
+        if (ConfigUtils.isHttpEnabled()) {
+            daemon.startHttp();
+        }
+        daemon.startSync(node);
+
+        CountDownLatch stopped = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            if (lanDiscovery != null) {
+                lanDiscovery.stop();
+            }
+            if (gossip != null) {
+                gossip.leave();
+            }
+            if (daemon.dht != null) {
+                daemon.dht.stop();
+            }
+            if (daemon.http != null) {
+                daemon.http.stop();
+            }
+            if (daemon.sync != null) {
+                daemon.sync.stop();
+            }
+            engine.stop();
+            daemon.log("Daemon stopped: " + daemon.getSummary());
+            stopped.countDown();
+        }, "daemon-shutdown"));
+
+        try {
+            stopped.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Announce this daemon on the local network; null if multicast is unavailable
+     */
+    private LanDiscovery startLanDiscovery(String name, int port) {
+        try {
+            LanDiscovery discovery = LanDiscovery.fromConfig(name, port);
+            discovery.start();
+            PeerDiscovery.addPeerSource(discovery);
+            log("Announcing on the local network");
+            return discovery;
+        } catch (IOException e) {
+            log("LAN discovery unavailable: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Join the gossip membership through the configured seeds; null if the port is unavailable
+     */
+    private GossipMembership startGossip(String name, int port) {
+        try {
+            GossipMembership gossip = GossipMembership.fromConfig(name, port);
+            gossip.start();
+            PeerDiscovery.addPeerSource(gossip);
+            log("Gossip membership on port " + gossip.getPort());
+            return gossip;
+        } catch (IOException e) {
+            log("Gossip membership unavailable: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Join the DHT through the configured seeds so received files can be found by hash
+     */
+    private void startDht(String name, int port) {
+        try {
+            DhtNode node = DhtNode.fromConfig(name, port);
+            node.startWithMaintenance();
+            dht = node;
+            log("DHT node on port " + node.getPort());
+            node.bootstrapAsync(DhtNode.parseSeeds(ConfigUtils.getDhtSeeds()))
+                .thenAccept(joined -> log(joined ? "Joined the DHT" : "No DHT seed answered; waiting to be contacted"));
+        } catch (IOException e) {
+            log("DHT unavailable: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Serve the downloads and shared directories over HTTP for clients without this protocol
+     */
+    private void startHttp() {
+        try {
+            HttpGateway gateway = HttpGateway.fromConfig(this);
+            gateway.start();
+            http = gateway;
+        } catch (IOException e) {
+            log("HTTP gateway unavailable: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Send new and changed files in the configured sync folders to the sync peers
+     */
+    private void startSync(User node) {
+        FolderSync folderSync = FolderSync.fromConfig(node.getUsername(), node.getUserId(), this);
+        if (folderSync == null) {
+            return;
+        }
+        try {
+            folderSync.start();
+            sync = folderSync;
+        } catch (IOException e) {
+            log("Folder sync unavailable: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Name this node sends as: daemon.name if configured, otherwise the host name
+     */
+    public static String getNodeName() {
+        String name = ConfigUtils.getDaemonName();
+        if (!name.isEmpty()) {
+            return name;
+        }
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (IOException e) {
+            return "daemon";
+        }
+    }
+
+    @Override
+    public void log(String message) {
+        System.out.println("[" + LocalTime.now().format(TIME_FORMAT) + "] " + message);
+    }
+
+    @Override
+    public void onTransferProgress(Transfer transfer, long bytesTransferred) {
+        // Per-percent progress is only interesting on screen
+    }
+
+    @Override
+    public void onTransferComplete(Transfer transfer, boolean success) {
+        log((success ? "Sent " : "Failed to send ") + transfer.getFileName());
+    }
+
+    @Override
+    public void onFileReceived(Transfer transfer) {
+        if (transfer.getStatus() == Transfer.TransferStatus.COMPLETED) {
+            filesReceived.incrementAndGet();
+            bytesReceived.addAndGet(transfer.getFileSize());
+            if (dht != null) {
+                dht.announceFileAsync(Paths.get(transfer.getFilePath())).whenComplete((key, error) -> log(error == null
+                    ? "Announced " + transfer.getFileName() + " as " + key.toHex()
+                    : "Failed to announce " + transfer.getFileName() + ": " + error.getCause().getMessage()));
+            }
+        } else {
+            filesFailed.incrementAndGet();
+        }
+    }
+
+    public String getSummary() {
+        String summary = filesReceived.get() + " files received (" +
+            FileUtils.formatFileSize(bytesReceived.get()) + "), " + filesFailed.get() + " failed";
+        if (http != null) {
+            summary += "; " + http.getRequestCount() + " HTTP requests (" +
+                FileUtils.formatFileSize(http.getBytesSent()) + ")";
+        }
+        if (ConfigUtils.isDedupEnabled()) {
+            summary += "; " + ChunkStore.getInstance().getSummary();
+        }
+        if (sync != null) {
+            summary += "; " + sync.getSummary();
+        }
+        ChunkCache cache = SharedFileService.getInstance().getCache();
+        return cache.isEnabled() ? summary + "; " + cache.getSummary() : summary;
+    }
+}
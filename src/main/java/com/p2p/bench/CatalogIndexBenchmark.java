@@ -0,0 +1,148 @@
+package com.p2p.bench;
+
+import com.p2p.network.PeerDiscovery;
+import com.p2p.network.catalog.CatalogEntry;
+import com.p2p.network.catalog.CatalogIndex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Build time, memory and query latency of the catalog search index
+ *
+ * Usage: CatalogIndexBenchmark [peers] [filesPerPeer] [queries]
+ *
+ * Every peer gets a full catalog of synthetic file names drawn from a skewed
+ * vocabulary, so some words are in most names and others in a handful. Each query
+ * type is then run the given number of times, and finally every peer applies a
+ * delta that adds, resizes and removes a few percent of its files.
+ */
+public class CatalogIndexBenchmark {
+    private static final String[] EXTENSIONS = {"pdf", "jpg", "mp3", "mp4", "txt", "zip", "docx", "png", "iso", "csv"};
+    private static final int VOCABULARY = 50_000;
+
+    public static void main(String[] args) {
+        int peerCount = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int filesPerPeer = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        int queryCount = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+
+        Random random = new Random(42);
+        String[] vocabulary = new String[VOCABULARY];
+        for (int i = 0; i < VOCABULARY; i++) {
+            vocabulary[i] = word(random, i);
+        }
+
+        List<PeerDiscovery.PeerInfo> peers = new ArrayList<>();
+        List<List<CatalogEntry>> catalogs = new ArrayList<>();
+        for (int p = 0; p < peerCount; p++) {
+            peers.add(new PeerDiscovery.PeerInfo("peer-" + p, "10.0." + (p / 250) + "." + (p % 250), 8888, null));
+            List<CatalogEntry> entries = new ArrayList<>(filesPerPeer);
+            for (int f = 0; f < filesPerPeer; f++) {
+                entries.add(file(random, vocabulary, "dir" + (f % 20) + "/" + f));
+            }
+            catalogs.add(entries);
+        }
+
+        Runtime runtime = Runtime.getRuntime();
+        long usedBefore = usedMemory(runtime);
+        CatalogIndex index = new CatalogIndex();
+        long start = System.nanoTime();
+        for (int p = 0; p < peerCount; p++) {
+            index.replace(peers.get(p), 1, 1, catalogs.get(p));
+        }
+        double buildSeconds = (System.nanoTime() - start) / 1e9;
+        long usedAfter = usedMemory(runtime);
+        System.out.printf("Indexed %,d files from %d peers in %.1f s (%,.0f files/s), about %d MB%n",
+            index.size(), peerCount, buildSeconds, index.size() / buildSeconds,
+            (usedAfter - usedBefore) >> 20);
+
+        run("common word", index, queryCount, r -> vocabulary[r.nextInt(10)]);
+        run("rare word", index, queryCount, r -> vocabulary[1000 + r.nextInt(VOCABULARY - 1000)]);
+        run("two words", index, queryCount, r -> vocabulary[r.nextInt(100)] + " " + vocabulary[r.nextInt(100)]);
+        run("prefix", index, queryCount, r -> vocabulary[100 + r.nextInt(1000)].substring(0, 3) + "*");
+        run("word+ext+size", index, queryCount,
+            r -> vocabulary[r.nextInt(50)] + " ext:" + EXTENSIONS[r.nextInt(EXTENSIONS.length)] + " size>10MB");
+        run("size only", index, Math.min(queryCount, 50), r -> "size>" + (1 + r.nextInt(1000)) + "MB size<2GB");
+
+        // Deltas: a few percent of every catalog changes
+        int changed = Math.max(1, filesPerPeer / 50);
+        long changes = 0;
+        start = System.nanoTime();
+        for (int p = 0; p < peerCount; p++) {
+            List<CatalogEntry> puts = new ArrayList<>();
+            List<String> removals = new ArrayList<>();
+            List<CatalogEntry> catalog = catalogs.get(p);
+            for (int i = 0; i < changed; i++) {
+                puts.add(file(random, vocabulary, "new/" + i));
+                CatalogEntry resized = catalog.get(random.nextInt(catalog.size()));
+                puts.add(new CatalogEntry(resized.getPath(), resized.getSize() + 1, resized.getLastModified() + 1));
+                removals.add(catalog.get(random.nextInt(catalog.size())).getPath());
+            }
+            index.update(peers.get(p), 2, puts, removals);
+            changes += puts.size() + removals.size();
+        }
+        double deltaSeconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Applied %,d changes in %.2f s (%,.0f changes/s), %,d files indexed%n",
+            changes, deltaSeconds, changes / deltaSeconds, index.size());
+        run("after deltas", index, queryCount, r -> vocabulary[1000 + r.nextInt(VOCABULARY - 1000)]);
+    }
+
+    private interface QueryMaker {
+        String make(Random random);
+    }
+
+    private static void run(String label, CatalogIndex index, int queryCount, QueryMaker maker) {
+        Random random = new Random(7);
+        // Warm up the JIT on the same kind of query
+        for (int i = 0; i < Math.min(queryCount, 200); i++) {
+            index.search(maker.make(random), 100);
+        }
+        long[] latencies = new long[queryCount];
+        long matches = 0;
+        for (int i = 0; i < queryCount; i++) {
+            CatalogIndex.SearchResult result = index.search(maker.make(random), 100);
+            latencies[i] = result.getElapsedNanos();
+            matches += result.getTotal();
+        }
+        Arrays.sort(latencies);
+        System.out.printf("%-14s p50 %7.3f ms  p99 %7.3f ms  max %7.3f ms  (%,d matches avg)%n",
+            label, latencies[queryCount / 2] / 1e6, latencies[queryCount * 99 / 100] / 1e6,
+            latencies[queryCount - 1] / 1e6, matches / queryCount);
+    }
+
+    /**
+     * A file name of two to four words, more often the low-numbered ones
+     */
+    private static CatalogEntry file(Random random, String[] vocabulary, String directory) {
+        StringBuilder name = new StringBuilder();
+        int words = 2 + random.nextInt(3);
+        for (int w = 0; w < words; w++) {
+            if (w > 0) {
+                name.append(random.nextBoolean() ? '_' : ' ');
+            }
+            // Cubing a uniform draw skews towards the start of the vocabulary
+            double skew = random.nextDouble();
+            name.append(vocabulary[(int) (skew * skew * skew * vocabulary.length)]);
+        }
+        name.append('.').append(EXTENSIONS[random.nextInt(EXTENSIONS.length)]);
+        long size = (long) Math.exp(random.nextDouble() * Math.log(4L << 30));
+        return new CatalogEntry(directory + "/" + name, size, 1_700_000_000_000L);
+    }
+
+    private static String word(Random random, int index) {
+        char[] letters = new char[4 + random.nextInt(6)];
+        for (int i = 0; i < letters.length; i++) {
+            letters[i] = (char) ('a' + random.nextInt(26));
+        }
+        return new String(letters) + (index % 7 == 0 ? Integer.toString(index % 100) : "");
+    }
+
+    private static long usedMemory(Runtime runtime) {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,261 @@
+package com.p2p.bench;
+
+import com.p2p.hash.ChunkList;
+import com.p2p.hash.FastCdc;
+import com.p2p.model.Transfer;
+import com.p2p.model.TransferType;
+import com.p2p.network.FileClient;
+import com.p2p.network.TransferListener;
+import com.p2p.network.dedup.ChunkStore;
+import com.p2p.network.dedup.DedupReceiver;
+import com.p2p.network.transport.Transports;
+import com.p2p.utils.ConfigUtils;
+import com.p2p.utils.FileUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Bytes saved by deduplicated pushes of a file and its next version
+ *
+ * Usage: DedupBenchmark [files] [editPercent]
+ *
+ * Builds an archive of random files, each behind a small header as in a tar, and a
+ * second version in which editPercent of the files have bytes inserted or removed
+ * somewhere inside and a few files are added, so everything after an edit shifts.
+ * Both versions are pushed over loopback to a receiver with an empty chunk store,
+ * counting the bytes that reach its socket. For comparison the second version is
+ * also split into fixed 64 KB blocks and matched against the first version's blocks,
+ * which is what block-level dedup without content-defined boundaries would save.
+ */
+public class DedupBenchmark {
+    private static final int FIXED_BLOCK = 64 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        int files = args.length > 0 ? Integer.parseInt(args[0]) : 400;
+        int editPercent = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        // Chunk lists are cached per file; keep them out of the working directory
+        ConfigUtils.setProperty("hash.cache.file", "");
+
+        Path root = Files.createTempDirectory("dedup-bench");
+        Path downloads = Files.createDirectories(root.resolve("downloads"));
+        try {
+            Random random = new Random(42);
+            List<byte[]> members = new ArrayList<>();
+            for (int i = 0; i < files; i++) {
+                byte[] member = new byte[1024 + random.nextInt(1 << 20)];
+                random.nextBytes(member);
+                members.add(member);
+            }
+            Path v1 = root.resolve("release-v1.tar");
+            Files.write(v1, archive(members));
+
+            int edited = 0;
+            for (int i = 0; i < members.size(); i++) {
+                if (random.nextInt(100) < editPercent) {
+                    members.set(i, edit(members.get(i), random));
+                    edited++;
+                }
+            }
+            for (int i = 0; i < Math.max(1, files * editPercent / 100 / 2); i++) {
+                byte[] member = new byte[1024 + random.nextInt(1 << 20)];
+                random.nextBytes(member);
+                members.add(random.nextInt(members.size()), member);
+            }
+            Path v2 = root.resolve("release-v2.tar");
+            Files.write(v2, archive(members));
+            long v2Size = Files.size(v2);
+            System.out.printf("v1 %s, v2 %s: %d of %d files edited, %d added%n",
+                FileUtils.formatFileSize(Files.size(v1)), FileUtils.formatFileSize(v2Size), edited, files,
+                members.size() - files);
+
+            // Chunking speed, best of three on a file in the page cache
+            double best = Double.MAX_VALUE;
+            ChunkList chunks = null;
+            for (int round = 0; round < 3; round++) {
+                long start = System.nanoTime();
+                chunks = FastCdc.chunk(v2);
+                best = Math.min(best, (System.nanoTime() - start) / 1e9);
+            }
+            System.out.printf("chunking + SHA-256  %.0f MB/s, %d chunks, mean %s%n", v2Size / best / (1 << 20),
+                chunks.size(), FileUtils.formatFileSize(v2Size / Math.max(1, chunks.size())));
+
+            long fixedNew = fixedBlockNewBytes(v1, v2);
+            System.out.printf("fixed 64 KB blocks  %s of v2 new, ratio %.2f%n", FileUtils.formatFileSize(fixedNew),
+                v2Size / (double) Math.max(1, fixedNew));
+
+            ChunkStore store = new ChunkStore(null);
+            AtomicLong wireBytes = new AtomicLong();
+            try (ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+                Thread receiver = new Thread(() -> serve(server, store, downloads, wireBytes), "dedup-bench-receiver");
+                receiver.setDaemon(true);
+                receiver.start();
+                FileClient client = new FileClient("bench", new QuietListener(), Transports.getDefault(), true);
+
+                for (Path version : new Path[] {v1, v2}) {
+                    long before = wireBytes.get();
+                    Transfer transfer = new Transfer(0, version.getFileName().toString(), Files.size(version),
+                        TransferType.SENT, "receiver");
+                    long start = System.nanoTime();
+                    client.sendFile(version.toFile(), "127.0.0.1", server.getLocalPort(), transfer);
+                    double seconds = (System.nanoTime() - start) / 1e9;
+                    if (transfer.getStatus() != Transfer.TransferStatus.COMPLETED) {
+                        throw new IllegalStateException("Push of " + version.getFileName() + " failed");
+                    }
+                    long sent = wireBytes.get() - before;
+                    System.out.printf("push %-14s %s on the wire, ratio %.2f, %.2f s%n", version.getFileName(),
+                        FileUtils.formatFileSize(sent), Files.size(version) / (double) sent, seconds);
+                }
+            }
+            try (Stream<Path> received = Files.list(downloads)) {
+                for (Path path : (Iterable<Path>) received::iterator) {
+                    Path original = root.resolve(path.getFileName());
+                    if (Files.mismatch(path, original) != -1) {
+                        throw new IllegalStateException(path.getFileName() + " differs from what was sent");
+                    }
+                }
+            }
+            System.out.println(store.getSummary());
+        } finally {
+            try (Stream<Path> paths = Files.walk(root)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    private static byte[] archive(List<byte[]> members) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < members.size(); i++) {
+            byte[] header = new byte[512];
+            ByteBuffer.wrap(header).putLong(members.get(i).length);
+            out.writeBytes(header);
+            out.writeBytes(members.get(i));
+            // Pad to the next 512 bytes, as tar does
+            out.writeBytes(new byte[(512 - members.get(i).length % 512) % 512]);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Insert or remove up to 4 KB at a random place
+     */
+    private static byte[] edit(byte[] member, Random random) {
+        int at = random.nextInt(member.length);
+        int length = 1 + random.nextInt(4096);
+        if (random.nextBoolean()) {
+            byte[] inserted = new byte[length];
+            random.nextBytes(inserted);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(member.length + length);
+            out.write(member, 0, at);
+            out.writeBytes(inserted);
+            out.write(member, at, member.length - at);
+            return out.toByteArray();
+        }
+        length = Math.min(length, member.length - at);
+        byte[] shorter = Arrays.copyOf(member, member.length - length);
+        System.arraycopy(member, at + length, shorter, at, member.length - at - length);
+        return shorter;
+    }
+
+    private static long fixedBlockNewBytes(Path v1, Path v2) throws Exception {
+        Set<ByteBuffer> known = new HashSet<>(blockHashes(Files.readAllBytes(v1)));
+        byte[] data = Files.readAllBytes(v2);
+        List<ByteBuffer> hashes = blockHashes(data);
+        long fresh = 0;
+        for (int i = 0; i < hashes.size(); i++) {
+            if (known.add(hashes.get(i))) {
+                fresh += Math.min(FIXED_BLOCK, data.length - (long) i * FIXED_BLOCK);
+            }
+        }
+        return fresh;
+    }
+
+    private static List<ByteBuffer> blockHashes(byte[] data) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        List<ByteBuffer> hashes = new ArrayList<>();
+        for (int offset = 0; offset < data.length; offset += FIXED_BLOCK) {
+            digest.update(data, offset, Math.min(FIXED_BLOCK, data.length - offset));
+            hashes.add(ByteBuffer.wrap(digest.digest()));
+        }
+        return hashes;
+    }
+
+    /**
+     * Accept pushes the way the file server does, counting the bytes read from each
+     */
+    private static void serve(ServerSocket server, ChunkStore store, Path downloads, AtomicLong wireBytes) {
+        DedupReceiver receiver = new DedupReceiver(store, downloads, 0, new QuietListener());
+        while (!server.isClosed()) {
+            try (Socket socket = server.accept()) {
+                InputStream counted = new FilterInputStream(socket.getInputStream()) {
+                    @Override
+                    public int read() throws IOException {
+                        int b = super.read();
+                        if (b >= 0) {
+                            wireBytes.incrementAndGet();
+                        }
+                        return b;
+                    }
+
+                    @Override
+                    public int read(byte[] buffer, int offset, int length) throws IOException {
+                        int read = super.read(buffer, offset, length);
+                        if (read > 0) {
+                            wireBytes.addAndGet(read);
+                        }
+                        return read;
+                    }
+                };
+                DataInputStream in = new DataInputStream(new BufferedInputStream(counted));
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                in.readUTF();
+                receiver.receive(in, out, socket.getRemoteSocketAddress().toString());
+            } catch (IOException e) {
+                if (!server.isClosed()) {
+                    System.err.println("Receiver error: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private static class QuietListener implements TransferListener {
+        @Override
+        public void log(String message) {
+        }
+
+        @Override
+        public void onTransferProgress(Transfer transfer, long bytesTransferred) {
+        }
+
+        @Override
+        public void onTransferComplete(Transfer transfer, boolean success) {
+            transfer.setStatus(success ? Transfer.TransferStatus.COMPLETED : Transfer.TransferStatus.FAILED);
+        }
+
+        @Override
+        public void onFileReceived(Transfer transfer) {
+        }
+    }
+}
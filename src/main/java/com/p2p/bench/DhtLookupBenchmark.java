@@ -0,0 +1,145 @@
+package com.p2p.bench;
+
+import com.p2p.network.dht.DhtNode;
+import com.p2p.network.dht.NodeId;
+import com.p2p.network.dht.SimulatedDhtNetwork;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Lookup latency and hop counts of the Kademlia DHT on a simulated network
+ *
+ * Usage: DhtLookupBenchmark [nodes] [lookups] [minLatencyMs] [maxLatencyMs] [churnPercent]
+ *
+ * Builds the network with no latency, each node joining through a random earlier
+ * one, and announces one key per node. Lookups for random keys from random nodes then
+ * run with the given one-way latency. The same lookups are repeated after the given
+ * share of nodes has crashed, before and after the survivors republish.
+ */
+public class DhtLookupBenchmark {
+    private static final int CONCURRENCY = 64;
+
+    public static void main(String[] args) throws Exception {
+        int nodeCount = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int lookupCount = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        long minLatency = args.length > 2 ? Long.parseLong(args[2]) : 10;
+        long maxLatency = args.length > 3 ? Long.parseLong(args[3]) : 50;
+        int churnPercent = args.length > 4 ? Integer.parseInt(args[4]) : 20;
+
+        Random random = new Random(42);
+        try (SimulatedDhtNetwork network = new SimulatedDhtNetwork()) {
+            List<DhtNode> nodes = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int i = 0; i < nodeCount; i++) {
+                DhtNode node = new DhtNode(NodeId.random(), network.endpoint(), "node-" + i, 10000 + i, 3_600_000);
+                node.start();
+                if (!nodes.isEmpty()) {
+                    DhtNode seed = nodes.get(random.nextInt(nodes.size()));
+                    node.bootstrap(List.of(new InetSocketAddress("127.0.0.1", seed.getPort())));
+                }
+                nodes.add(node);
+            }
+            double buildSeconds = (System.nanoTime() - start) / 1e9;
+            double tableSize = nodes.stream().mapToInt(DhtNode::getRoutingTableSize).average().orElse(0);
+            System.out.printf("Built %d nodes in %.1f s, %.0f contacts per routing table%n",
+                nodeCount, buildSeconds, tableSize);
+
+            List<NodeId> keys = new ArrayList<>();
+            long messagesBefore = network.getMessageCount();
+            for (DhtNode node : nodes) {
+                NodeId key = NodeId.random();
+                node.announce(key);
+                keys.add(key);
+            }
+            System.out.printf("Announced %d keys, %.0f messages each%n",
+                keys.size(), (network.getMessageCount() - messagesBefore) / (double) keys.size());
+
+            network.setLatency(minLatency, maxLatency);
+            network.setTimeout(maxLatency * 2 * 3);
+            System.out.printf("One-way latency %d-%d ms, RPC timeout %d ms%n",
+                minLatency, maxLatency, maxLatency * 2 * 3);
+            run("Healthy", nodes, keys, lookupCount, network);
+
+            // Crash a random share; only the survivors' own keys can be found once records are republished
+            List<Integer> order = new ArrayList<>();
+            for (int i = 0; i < nodeCount; i++) {
+                order.add(i);
+            }
+            Collections.shuffle(order, random);
+            int crashed = nodeCount * churnPercent / 100;
+            List<DhtNode> survivors = new ArrayList<>();
+            List<NodeId> surviving = new ArrayList<>();
+            for (int i = 0; i < nodeCount; i++) {
+                DhtNode node = nodes.get(order.get(i));
+                if (i < crashed) {
+                    node.stop();
+                } else {
+                    survivors.add(node);
+                    surviving.add(keys.get(order.get(i)));
+                }
+            }
+            run(churnPercent + "% crashed", survivors, surviving, lookupCount, network);
+
+            network.setLatency(0, 0);
+            for (DhtNode node : survivors) {
+                node.republishAll();
+            }
+            network.setLatency(minLatency, maxLatency);
+            run("Republished", survivors, surviving, lookupCount, network);
+
+            for (DhtNode node : survivors) {
+                node.stop();
+            }
+        }
+    }
+
+    private static void run(String label, List<DhtNode> nodes, List<NodeId> keys, int lookupCount,
+                            SimulatedDhtNetwork network) throws Exception {
+        Random random = new Random(7);
+        ExecutorService executor = Executors.newFixedThreadPool(CONCURRENCY);
+        long messagesBefore = network.getMessageCount();
+        try {
+            List<Future<long[]>> results = new ArrayList<>(lookupCount);
+            for (int i = 0; i < lookupCount; i++) {
+                DhtNode from = nodes.get(random.nextInt(nodes.size()));
+                NodeId key = keys.get(random.nextInt(keys.size()));
+                results.add(executor.submit(() -> {
+                    long start = System.nanoTime();
+                    DhtNode.LookupResult result = from.findProviders(key);
+                    long micros = (System.nanoTime() - start) / 1000;
+                    return new long[] {micros, result.getHops(), result.getRpcs(), result.getProviders().isEmpty() ? 0 : 1};
+                }));
+            }
+
+            long[] latencies = new long[lookupCount];
+            long hops = 0;
+            long maxHops = 0;
+            long rpcs = 0;
+            long found = 0;
+            for (int i = 0; i < lookupCount; i++) {
+                long[] result = results.get(i).get();
+                latencies[i] = result[0];
+                hops += result[1];
+                maxHops = Math.max(maxHops, result[1]);
+                rpcs += result[2];
+                found += result[3];
+            }
+            Arrays.sort(latencies);
+            System.out.printf("%-12s found %5.1f%%  hops avg %.2f max %d  rpcs %.1f  latency p50 %d ms p95 %d ms p99 %d ms  (%.0f messages/lookup)%n",
+                label, 100.0 * found / lookupCount, hops / (double) lookupCount, maxHops, rpcs / (double) lookupCount,
+                latencies[lookupCount / 2] / 1000, latencies[lookupCount * 95 / 100] / 1000,
+                latencies[lookupCount * 99 / 100] / 1000,
+                (network.getMessageCount() - messagesBefore) / (double) lookupCount);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.p2p.bench;
+
+import com.p2p.model.Transfer;
+import com.p2p.network.TransferListener;
+import com.p2p.network.sync.FolderSync;
+import com.p2p.network.sync.SyncProtocol;
+import com.p2p.network.transport.Transports;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+
+/**
+ * Startup cost and event coalescing of folder sync
+ *
+ * Usage: FolderSyncBenchmark [files] [filesPerDirectory]
+ *
+ * Fills a folder with small files and syncs it to a loopback receiver that takes
+ * sync pushes as the file server does and counts them by path. Then, with the sync
+ * stopped, rewrites some files in place and adds some in new names, and starts the
+ * sync again on the same state: the startup scan should list only the directories
+ * that gained files, and the sweep should find the rewritten ones. Last, one file is
+ * written in 50 appends over a second, which should arrive as a single push.
+ */
+public class FolderSyncBenchmark {
+    private static final long DEBOUNCE_MILLIS = 500;
+
+    public static void main(String[] args) throws Exception {
+        int files = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int perDirectory = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int changes = 10;
+
+        Path root = Files.createTempDirectory("folder-sync-bench");
+        Path folder = Files.createDirectories(root.resolve("watched"));
+        Path stateFile = root.resolve("sync.bin");
+        Map<String, Integer> received = new ConcurrentHashMap<>();
+        AtomicLong pushes = new AtomicLong();
+        ExecutorService receivers = Executors.newCachedThreadPool();
+        try (ServerSocket server = new ServerSocket(0, 200, InetAddress.getLoopbackAddress())) {
+            receivers.execute(() -> accept(server, receivers, received, pushes));
+            String peer = "127.0.0.1:" + server.getLocalPort();
+
+            long start = System.nanoTime();
+            for (int i = 0; i < files; i++) {
+                Path directory = folder.resolve("d" + (i / perDirectory));
+                if (i % perDirectory == 0) {
+                    Files.createDirectories(directory);
+                }
+                Files.write(directory.resolve(name(i)), ("file " + i).getBytes(StandardCharsets.UTF_8));
+            }
+            System.out.printf("%d files in %d directories written in %.1f s%n", files,
+                (files + perDirectory - 1) / perDirectory, (System.nanoTime() - start) / 1e9);
+            // Old enough that no file waits to settle and every directory listing is trusted
+            Thread.sleep(Math.max(DEBOUNCE_MILLIS, 2100));
+
+            FolderSync sync = newSync(folder, peer, stateFile);
+            start = System.nanoTime();
+            sync.start();
+            await(() -> pushes.get() >= files, 3600);
+            System.out.printf("first sync: %d pushes in %.1f s%n", pushes.get(), (System.nanoTime() - start) / 1e9);
+            sync.stop();
+
+            // Rewrite files in place, which leaves their directories' stamps alone,
+            // and add files in other directories, which changes theirs
+            int directories = (files + perDirectory - 1) / perDirectory;
+            for (int i = 0; i < changes; i++) {
+                int index = i * (files / changes);
+                int directory = index / perDirectory;
+                Files.write(folder.resolve("d" + directory).resolve(name(index)),
+                    "rewritten".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+                Files.write(folder.resolve("d" + (directory + 1) % directories).resolve("new-" + i + ".dat"),
+                    ("new " + i).getBytes(StandardCharsets.UTF_8));
+            }
+            Thread.sleep(Math.max(DEBOUNCE_MILLIS, 2100));
+
+            long before = pushes.get();
+            sync = newSync(folder, peer, stateFile);
+            start = System.nanoTime();
+            sync.start();
+            FolderSync restarted = sync;
+            await(() -> pushes.get() - before >= changes, 600);
+            System.out.printf("restart: added files pushed after %.2f s%n", (System.nanoTime() - start) / 1e9);
+            await(() -> pushes.get() - before >= 2L * changes && restarted.isCaughtUp(), 3600);
+            System.out.printf("restart: rewritten files pushed after %.2f s, %d pushes in all%n",
+                (System.nanoTime() - start) / 1e9, pushes.get() - before);
+            System.out.println(sync.getSummary());
+
+            Path burst = folder.resolve("d0").resolve("burst.dat");
+            try (OutputStream out = Files.newOutputStream(burst)) {
+                for (int i = 0; i < 50; i++) {
+                    out.write(new byte[4096]);
+                    out.flush();
+                    Thread.sleep(20);
+                }
+            }
+            String burstPath = "watched/d0/burst.dat";
+            await(() -> received.containsKey(burstPath), 60);
+            Thread.sleep(3 * DEBOUNCE_MILLIS + 1000);
+            System.out.printf("50 appends over 1 s: %d push(es)%n", received.get(burstPath));
+            sync.stop();
+        } finally {
+            receivers.shutdownNow();
+            try (Stream<Path> paths = Files.walk(root)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    private static String name(int index) {
+        return "f" + index + ".dat";
+    }
+
+    private static FolderSync newSync(Path folder, String peer, Path stateFile) {
+        return new FolderSync(List.of(folder), List.of(peer), DEBOUNCE_MILLIS, stateFile, "bench", 0,
+            new PrintingListener(), Transports.getDefault());
+    }
+
+    private static void await(BooleanSupplier condition, int timeoutSeconds) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutSeconds * 1000L;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException("Timed out");
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Take sync pushes as the file server does, counting them by path
+     */
+    private static void accept(ServerSocket server, ExecutorService receivers, Map<String, Integer> received,
+                               AtomicLong pushes) {
+        while (!server.isClosed()) {
+            Socket socket;
+            try {
+                socket = server.accept();
+            } catch (IOException e) {
+                return;
+            }
+            receivers.execute(() -> {
+                try (Socket s = socket) {
+                    DataInputStream in = new DataInputStream(s.getInputStream());
+                    DataOutputStream out = new DataOutputStream(s.getOutputStream());
+                    if (!SyncProtocol.COMMAND.equals(in.readUTF())) {
+                        out.writeUTF("UNSUPPORTED");
+                        out.flush();
+                        return;
+                    }
+                    String path = in.readUTF();
+                    long size = in.readLong();
+                    in.readUTF();
+                    out.writeUTF("READY");
+                    out.flush();
+                    in.skipNBytes(size);
+                    out.writeUTF("SUCCESS");
+                    out.flush();
+                    received.merge(path, 1, Integer::sum);
+                    pushes.incrementAndGet();
+                } catch (IOException e) {
+                    System.err.println("Receiver error: " + e.getMessage());
+                }
+            });
+        }
+    }
+
+    /**
+     * Prints only the sync's own log lines, not one per transfer
+     */
+    private static class PrintingListener implements TransferListener {
+        @Override
+        public void log(String message) {
+            if (message.startsWith("Watching") || message.startsWith("Sync")) {
+                System.out.println("  " + message);
+            }
+        }
+
+        @Override
+        public void onTransferProgress(Transfer transfer, long bytesTransferred) {
+        }
+
+        @Override
+        public void onTransferComplete(Transfer transfer, boolean success) {
+        }
+
+        @Override
+        public void onFileReceived(Transfer transfer) {
+        }
+    }
+}
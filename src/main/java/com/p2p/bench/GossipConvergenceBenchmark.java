@@ -0,0 +1,143 @@
+package com.p2p.bench;
+
+import com.p2p.network.gossip.GossipMembership;
+import com.p2p.network.gossip.Member;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Convergence time and per-node traffic of the gossip membership on loopback
+ *
+ * Usage: GossipConvergenceBenchmark [nodes] [crashed] [periodMillis]
+ *
+ * Starts the nodes together, seeded from the first one, and waits until every node
+ * lists all the others; that burst is bounded by how many updates fit in the
+ * piggyback space. It then times one more node joining the converged cluster, and
+ * finally kills some nodes without a goodbye and waits until every survivor has
+ * dropped them. Per-node packet rates should stay flat as the node count grows; the
+ * single join and the failure detection should grow roughly with its logarithm.
+ */
+public class GossipConvergenceBenchmark {
+    private static final long TIMEOUT_MILLIS = 120_000;
+
+    public static void main(String[] args) throws Exception {
+        int nodeCount = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        int crashCount = args.length > 1 ? Integer.parseInt(args[1]) : Math.max(1, nodeCount / 10);
+        long period = args.length > 2 ? Long.parseLong(args[2]) : 200;
+
+        List<GossipMembership> nodes = new ArrayList<>();
+        try {
+            GossipMembership seed = new GossipMembership("node-0", 10000, new InetSocketAddress("127.0.0.1", 0),
+                period, List.of());
+            seed.start();
+            nodes.add(seed);
+            List<InetSocketAddress> seeds = List.of(new InetSocketAddress("127.0.0.1", seed.getPort()));
+
+            long start = System.nanoTime();
+            for (int i = 1; i < nodeCount; i++) {
+                GossipMembership node = new GossipMembership("node-" + i, 10000 + i,
+                    new InetSocketAddress("127.0.0.1", 0), period, seeds);
+                node.start();
+                nodes.add(node);
+            }
+            if (!await(nodes, Set.of())) {
+                System.out.println("Join did not converge within " + TIMEOUT_MILLIS + " ms");
+                return;
+            }
+            double joinMillis = (System.nanoTime() - start) / 1e6;
+            System.out.printf("Burst: %d nodes converged in %.0f ms (%.1f periods)%n",
+                nodeCount, joinMillis, joinMillis / period);
+
+            // Steady-state traffic over a few periods
+            long packetsBefore = totalPackets(nodes);
+            long bytesBefore = totalBytes(nodes);
+            long steadyStart = System.nanoTime();
+            Thread.sleep(period * 10);
+            double steadySeconds = (System.nanoTime() - steadyStart) / 1e9;
+            System.out.printf("Load:  %.1f packets/s, %.0f bytes/s per node%n",
+                (totalPackets(nodes) - packetsBefore) / steadySeconds / nodeCount,
+                (totalBytes(nodes) - bytesBefore) / steadySeconds / nodeCount);
+
+            start = System.nanoTime();
+            GossipMembership latecomer = new GossipMembership("node-" + nodeCount, 10000 + nodeCount,
+                new InetSocketAddress("127.0.0.1", 0), period, seeds);
+            latecomer.start();
+            nodes.add(latecomer);
+            if (!await(nodes, Set.of())) {
+                System.out.println("Single join did not converge within " + TIMEOUT_MILLIS + " ms");
+                return;
+            }
+            double lateMillis = (System.nanoTime() - start) / 1e6;
+            System.out.printf("Late:  1 node known everywhere in %.0f ms (%.1f periods)%n",
+                lateMillis, lateMillis / period);
+
+            Set<String> crashed = new HashSet<>();
+            for (int i = 0; i < crashCount; i++) {
+                GossipMembership victim = nodes.remove(nodes.size() - 1);
+                crashed.add(victim.getId());
+                victim.stop();
+            }
+            start = System.nanoTime();
+            if (!await(nodes, crashed)) {
+                System.out.println("Failure detection did not converge within " + TIMEOUT_MILLIS + " ms");
+                return;
+            }
+            double detectMillis = (System.nanoTime() - start) / 1e6;
+            System.out.printf("Crash: %d nodes removed everywhere in %.0f ms (%.1f periods)%n",
+                crashCount, detectMillis, detectMillis / period);
+        } finally {
+            for (GossipMembership node : nodes) {
+                node.stop();
+            }
+        }
+    }
+
+    /**
+     * Wait until every node lists exactly the other running nodes
+     */
+    private static boolean await(List<GossipMembership> nodes, Set<String> crashed) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (System.currentTimeMillis() < deadline) {
+            if (converged(nodes, crashed)) {
+                return true;
+            }
+            Thread.sleep(10);
+        }
+        return false;
+    }
+
+    private static boolean converged(List<GossipMembership> nodes, Set<String> crashed) {
+        for (GossipMembership node : nodes) {
+            List<Member> members = node.getMembers();
+            if (members.size() != nodes.size() - 1) {
+                return false;
+            }
+            for (Member member : members) {
+                if (crashed.contains(member.getId())) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static long totalPackets(List<GossipMembership> nodes) {
+        long total = 0;
+        for (GossipMembership node : nodes) {
+            total += node.getPacketsSent();
+        }
+        return total;
+    }
+
+    private static long totalBytes(List<GossipMembership> nodes) {
+        long total = 0;
+        for (GossipMembership node : nodes) {
+            total += node.getBytesSent();
+        }
+        return total;
+    }
+}
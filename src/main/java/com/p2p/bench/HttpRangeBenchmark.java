@@ -0,0 +1,181 @@
+package com.p2p.bench;
+
+import com.p2p.model.Transfer;
+import com.p2p.network.TransferListener;
+import com.p2p.network.http.HttpGateway;
+import com.p2p.utils.FileUtils;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * Throughput and latency of the HTTP gateway under many concurrent range requests
+ *
+ * Usage: HttpRangeBenchmark [fileSizeMB] [clients] [requestsPerClient] [rangeKB]
+ *
+ * Serves one file from a temporary directory over loopback. Every client keeps a
+ * single connection alive and asks for random ranges of the file, checking each
+ * response's status and length before sending the next request.
+ */
+public class HttpRangeBenchmark {
+    public static void main(String[] args) throws Exception {
+        int fileSizeMb = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        int requestsPerClient = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+        int rangeKb = args.length > 3 ? Integer.parseInt(args[3]) : 64;
+
+        Path root = Files.createTempDirectory("http-range-bench");
+        HttpGateway gateway = new HttpGateway(new InetSocketAddress("127.0.0.1", 0),
+            Map.of("shared", root), new QuietListener());
+        try {
+            long fileSize = (long) fileSizeMb << 20;
+            Random random = new Random(42);
+            byte[] block = new byte[1 << 20];
+            try (OutputStream out = Files.newOutputStream(root.resolve("data.bin"))) {
+                for (int mb = 0; mb < fileSizeMb; mb++) {
+                    random.nextBytes(block);
+                    out.write(block);
+                }
+            }
+            gateway.start();
+            System.out.printf("%s file, %d keep-alive clients x %d requests of %d KB%n",
+                FileUtils.formatFileSize(fileSize), clients, requestsPerClient, rangeKb);
+
+            // Warm up the page cache and the JIT before measuring
+            runClients(gateway.getPort(), fileSize, Math.min(clients, 8), 200, rangeKb);
+            long start = System.nanoTime();
+            long[] latencies = runClients(gateway.getPort(), fileSize, clients, requestsPerClient, rangeKb);
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            Arrays.sort(latencies);
+            int total = latencies.length;
+            System.out.printf("%.0f requests/s  %.0f MB/s  p50 %.2f ms  p99 %.2f ms  max %.2f ms%n",
+                total / seconds, (double) total * rangeKb / 1024 / seconds, latencies[total / 2] / 1e6,
+                latencies[total * 99 / 100] / 1e6, latencies[total - 1] / 1e6);
+        } finally {
+            gateway.stop();
+            try (Stream<Path> paths = Files.walk(root)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    private static long[] runClients(int port, long fileSize, int clients, int requestsPerClient, int rangeKb)
+            throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(clients);
+        try {
+            List<Future<long[]>> results = new ArrayList<>();
+            for (int c = 0; c < clients; c++) {
+                long seed = c;
+                results.add(pool.submit(() -> runClient(port, fileSize, requestsPerClient, rangeKb << 10, seed)));
+            }
+            long[] latencies = new long[clients * requestsPerClient];
+            int next = 0;
+            for (Future<long[]> result : results) {
+                long[] client = result.get();
+                System.arraycopy(client, 0, latencies, next, client.length);
+                next += client.length;
+            }
+            return latencies;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static long[] runClient(int port, long fileSize, int requests, int rangeBytes, long seed)
+            throws IOException {
+        Random random = new Random(seed);
+        long[] latencies = new long[requests];
+        byte[] body = new byte[rangeBytes];
+        try (Socket socket = new Socket("127.0.0.1", port)) {
+            socket.setTcpNoDelay(true);
+            OutputStream out = socket.getOutputStream();
+            InputStream in = new BufferedInputStream(socket.getInputStream(), 64 * 1024);
+            for (int i = 0; i < requests; i++) {
+                long offset = (long) (random.nextDouble() * (fileSize - rangeBytes));
+                long began = System.nanoTime();
+                out.write(("GET /shared/data.bin HTTP/1.1\r\nHost: localhost\r\nRange: bytes=" + offset + "-"
+                    + (offset + rangeBytes - 1) + "\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+                out.flush();
+                readResponse(in, body);
+                latencies[i] = System.nanoTime() - began;
+            }
+        }
+        return latencies;
+    }
+
+    /**
+     * Read one 206 response whose body must exactly fill the buffer
+     */
+    private static void readResponse(InputStream in, byte[] body) throws IOException {
+        String status = readLine(in);
+        if (!status.startsWith("HTTP/1.1 206")) {
+            throw new IOException("Unexpected response: " + status);
+        }
+        long length = -1;
+        for (String line = readLine(in); !line.isEmpty(); line = readLine(in)) {
+            if (line.regionMatches(true, 0, "Content-Length:", 0, 15)) {
+                length = Long.parseLong(line.substring(15).trim());
+            }
+        }
+        if (length != body.length) {
+            throw new IOException("Expected " + body.length + " bytes but got " + length);
+        }
+        int read = 0;
+        while (read < body.length) {
+            int n = in.read(body, read, body.length - read);
+            if (n < 0) {
+                throw new IOException("Connection closed mid-body");
+            }
+            read += n;
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        for (int b = in.read(); b != '\n'; b = in.read()) {
+            if (b < 0) {
+                throw new IOException("Connection closed");
+            }
+            if (b != '\r') {
+                line.append((char) b);
+            }
+        }
+        return line.toString();
+    }
+
+    private static class QuietListener implements TransferListener {
+        @Override
+        public void log(String message) {
+        }
+
+        @Override
+        public void onTransferProgress(Transfer transfer, long bytesTransferred) {
+        }
+
+        @Override
+        public void onTransferComplete(Transfer transfer, boolean success) {
+        }
+
+        @Override
+        public void onFileReceived(Transfer transfer) {
+        }
+    }
+}
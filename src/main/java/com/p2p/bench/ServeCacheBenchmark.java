@@ -0,0 +1,147 @@
+package com.p2p.bench;
+
+import com.p2p.network.pull.ChunkCache;
+import com.p2p.network.pull.PullClient;
+import com.p2p.network.pull.PullProtocol;
+import com.p2p.network.pull.SharedFileService;
+import com.p2p.network.transport.TcpTransport;
+import com.p2p.network.transport.Transport;
+import com.p2p.network.transport.TransportChannel;
+import com.p2p.network.transport.TransportListener;
+import com.p2p.utils.FileUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * Throughput and hit ratio of the serve-side chunk cache under skewed demand
+ *
+ * Usage: ServeCacheBenchmark [files] [fileSizeMB] [requests] [clients] [cacheMB]
+ *
+ * Creates the files in a temporary shared directory and lets concurrent clients
+ * pull random 1 MB-aligned ranges of them over loopback TCP, choosing files with a
+ * Zipf distribution so a few are hot. The same request sequence runs without the
+ * cache (zero-copy from the page cache) and with it.
+ */
+public class ServeCacheBenchmark {
+    private static final double ZIPF_EXPONENT = 1.1;
+    private static final int RANGE_CHUNKS = 2;
+
+    public static void main(String[] args) throws Exception {
+        int fileCount = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int fileSizeMb = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        int requests = args.length > 2 ? Integer.parseInt(args[2]) : 4000;
+        int clients = args.length > 3 ? Integer.parseInt(args[3]) : 8;
+        long cacheMb = args.length > 4 ? Long.parseLong(args[4]) : 128;
+
+        Path root = Files.createTempDirectory("serve-cache-bench");
+        try {
+            Random random = new Random(42);
+            byte[] block = new byte[ChunkCache.CHUNK_SIZE];
+            for (int f = 0; f < fileCount; f++) {
+                try (OutputStream out = Files.newOutputStream(root.resolve("file-" + f + ".bin"))) {
+                    for (int mb = 0; mb < fileSizeMb; mb++) {
+                        random.nextBytes(block);
+                        out.write(block);
+                    }
+                }
+            }
+            System.out.printf("%d files of %d MB (%s), %d clients, %d requests of %d MB, cache %d MB%n",
+                fileCount, fileSizeMb, FileUtils.formatFileSize((long) fileCount * fileSizeMb << 20),
+                clients, requests, RANGE_CHUNKS, cacheMb);
+
+            run("no cache", new SharedFileService(root, new ChunkCache(0)), fileCount, fileSizeMb, requests, clients);
+            run("cache", new SharedFileService(root, new ChunkCache(cacheMb << 20)), fileCount, fileSizeMb,
+                requests, clients);
+        } finally {
+            try (Stream<Path> paths = Files.walk(root)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    private static void run(String label, SharedFileService service, int fileCount, int fileSizeMb,
+                            int requests, int clients) throws Exception {
+        Transport transport = new TcpTransport();
+        TransportListener listener = transport.listen(0);
+        ExecutorService server = Executors.newCachedThreadPool();
+        server.submit(() -> {
+            while (!listener.isClosed()) {
+                try {
+                    TransportChannel channel = listener.accept();
+                    server.submit(() -> serve(service, channel));
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        });
+
+        double[] weights = new double[fileCount];
+        double sum = 0;
+        for (int f = 0; f < fileCount; f++) {
+            sum += 1 / Math.pow(f + 1, ZIPF_EXPONENT);
+            weights[f] = sum;
+        }
+        Random random = new Random(7);
+        PullClient client = new PullClient(null, transport);
+        ExecutorService pool = Executors.newFixedThreadPool(clients);
+        try {
+            List<Future<Long>> results = new ArrayList<>(requests);
+            long start = System.nanoTime();
+            for (int i = 0; i < requests; i++) {
+                double pick = random.nextDouble() * sum;
+                int file = Math.min(fileCount - 1, Math.abs(Arrays.binarySearch(weights, pick) + 1));
+                long offset = (long) random.nextInt(fileSizeMb - RANGE_CHUNKS + 1) * ChunkCache.CHUNK_SIZE;
+                results.add(pool.submit(() -> {
+                    long began = System.nanoTime();
+                    client.readRange("127.0.0.1", listener.getPort(), "file-" + file + ".bin", offset,
+                        RANGE_CHUNKS * ChunkCache.CHUNK_SIZE);
+                    return System.nanoTime() - began;
+                }));
+            }
+            long[] latencies = new long[requests];
+            for (int i = 0; i < requests; i++) {
+                latencies[i] = results.get(i).get();
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            Arrays.sort(latencies);
+            double megabytes = (double) requests * RANGE_CHUNKS * ChunkCache.CHUNK_SIZE / (1 << 20);
+            System.out.printf("%-9s %6.0f MB/s  %5.0f requests/s  p50 %5.2f ms  p99 %6.2f ms%n",
+                label, megabytes / seconds, requests / seconds, latencies[requests / 2] / 1e6,
+                latencies[requests * 99 / 100] / 1e6);
+            if (service.getCache().isEnabled()) {
+                System.out.println("          " + service.getCache().getSummary());
+            }
+        } finally {
+            pool.shutdownNow();
+            listener.close();
+            server.shutdownNow();
+        }
+    }
+
+    private static void serve(SharedFileService service, TransportChannel channel) {
+        try (TransportChannel open = channel) {
+            DataInputStream in = new DataInputStream(open.getInputStream());
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(open.getOutputStream()));
+            if (PullProtocol.COMMAND.equals(in.readUTF())) {
+                service.serve(in, out, open);
+            }
+        } catch (IOException e) {
+            System.err.println("Serve failed: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.p2p.bench;
+
+import com.p2p.network.transport.InMemoryTransport;
+import com.p2p.network.transport.NioTransport;
+import com.p2p.network.transport.TcpTransport;
+import com.p2p.network.transport.Transport;
+import com.p2p.network.transport.TransportChannel;
+import com.p2p.network.transport.TransportListener;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Raw throughput of each transport with the 8 KB writes FileClient uses
+ *
+ * Usage: TransportBenchmark [sizeMB] [rounds]
+ *
+ * The gap between the in-memory transport and the socket transports is the share of
+ * a transfer spent in the kernel network stack.
+ */
+public class TransportBenchmark {
+    private static final int BUFFER_SIZE = 8192;
+
+    public static void main(String[] args) throws Exception {
+        int sizeMb = args.length > 0 ? Integer.parseInt(args[0]) : 512;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        long size = sizeMb * 1024L * 1024L;
+
+        Transport[] transports = {new TcpTransport(), new NioTransport(), new InMemoryTransport()};
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            for (Transport transport : transports) {
+                double best = 0;
+                for (int round = 0; round < rounds; round++) {
+                    best = Math.max(best, run(transport, size, executor));
+                }
+                System.out.printf("%-8s %10.1f MB/s (best of %d, %d MB)%n",
+                    transport.getName(), best, rounds, sizeMb);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static double run(Transport transport, long size, ExecutorService executor) throws Exception {
+        try (TransportListener listener = transport.listen(0)) {
+            Future<Long> sink = executor.submit(() -> drain(listener));
+            long start = System.nanoTime();
+            try (TransportChannel channel = transport.connect("127.0.0.1", listener.getPort(), 10000);
+                 DataOutputStream out = new DataOutputStream(channel.getOutputStream());
+                 DataInputStream in = new DataInputStream(channel.getInputStream())) {
+                out.writeLong(size);
+                byte[] buffer = new byte[BUFFER_SIZE];
+                for (long sent = 0; sent < size; sent += BUFFER_SIZE) {
+                    out.write(buffer, 0, (int) Math.min(BUFFER_SIZE, size - sent));
+                }
+                out.flush();
+                if (in.readLong() != size) {
+                    throw new IOException("Short transfer");
+                }
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            sink.get();
+            return size / seconds / (1024 * 1024);
+        }
+    }
+
+    private static long drain(TransportListener listener) throws IOException {
+        try (TransportChannel channel = listener.accept();
+             DataInputStream in = new DataInputStream(channel.getInputStream());
+             DataOutputStream out = new DataOutputStream(channel.getOutputStream())) {
+            long size = in.readLong();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long total = 0;
+            while (total < size) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, size - total));
+                if (read < 0) {
+                    break;
+                }
+                total += read;
+            }
+            out.writeLong(total);
+            out.flush();
+            return total;
+        }
+    }
+}
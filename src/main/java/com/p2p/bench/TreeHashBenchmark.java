@@ -0,0 +1,103 @@
+package com.p2p.bench;
+
+import com.p2p.hash.TreeHash;
+import com.p2p.utils.FileUtils;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Throughput of the parallel tree hash by core count
+ *
+ * Usage: TreeHashBenchmark [fileSizeMB] [rounds]
+ *
+ * Writes a file of random bytes and reads it once so it sits in the page cache,
+ * then hashes it with a plain streaming SHA-256, the sequential tree hash, and the
+ * parallel tree hash on pools of 1, 2, 4 ... up to the available processors. Each
+ * figure is the best of the rounds. Every parallel root is checked against the
+ * sequential one.
+ */
+public class TreeHashBenchmark {
+    public static void main(String[] args) throws Exception {
+        int fileSizeMb = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        int processors = Runtime.getRuntime().availableProcessors();
+
+        Path file = Files.createTempFile("tree-hash-bench", ".bin");
+        try {
+            Random random = new Random(42);
+            byte[] block = new byte[1 << 20];
+            try (OutputStream out = Files.newOutputStream(file)) {
+                for (int mb = 0; mb < fileSizeMb; mb++) {
+                    random.nextBytes(block);
+                    out.write(block);
+                }
+            }
+            long size = Files.size(file);
+            System.out.printf("%s file, %d processors, best of %d rounds%n", FileUtils.formatFileSize(size),
+                processors, rounds);
+
+            double streaming = best(rounds, () -> streamingSha256(file));
+            print("SHA-256 stream", size, streaming, 0);
+            byte[][] reference = new byte[1][];
+            double sequential = best(rounds, () -> reference[0] = TreeHash.hashSequential(file));
+            print("tree sequential", size, sequential, 0);
+
+            for (int threads = 1; ; threads = Math.min(threads * 2, processors)) {
+                ForkJoinPool pool = new ForkJoinPool(threads);
+                try {
+                    byte[][] root = new byte[1][];
+                    double seconds = best(rounds, () -> root[0] = TreeHash.hash(file, pool));
+                    if (!Arrays.equals(root[0], reference[0])) {
+                        throw new IllegalStateException("Parallel root differs from the sequential root");
+                    }
+                    print("tree " + threads + " thread" + (threads == 1 ? "" : "s"), size, seconds, sequential);
+                } finally {
+                    pool.shutdown();
+                }
+                if (threads == processors) {
+                    break;
+                }
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private interface Run {
+        void run() throws Exception;
+    }
+
+    private static double best(int rounds, Run run) throws Exception {
+        double best = Double.MAX_VALUE;
+        for (int i = 0; i < rounds; i++) {
+            long start = System.nanoTime();
+            run.run();
+            best = Math.min(best, (System.nanoTime() - start) / 1e9);
+        }
+        return best;
+    }
+
+    private static void print(String label, long size, double seconds, double baseline) {
+        System.out.printf("%-16s %7.0f MB/s  %6.2f s%s%n", label, size / seconds / (1 << 20), seconds,
+            baseline > 0 ? String.format("  %.2fx", baseline / seconds) : "");
+    }
+
+    private static byte[] streamingSha256(Path file) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return digest.digest();
+    }
+}
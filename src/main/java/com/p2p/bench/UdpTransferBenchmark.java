@@ -0,0 +1,280 @@
+package com.p2p.bench;
+
+import com.p2p.network.udp.ChannelPacketLink;
+import com.p2p.network.udp.NetworkConditioner;
+import com.p2p.network.udp.PacketLink;
+import com.p2p.network.udp.UdpListener;
+import com.p2p.network.udp.UdpSender;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loopback benchmark of the TCP path against the UDP transfer mode
+ *
+ * Usage: UdpTransferBenchmark [sizeMB] [one-way latency ms] [loss %] [bandwidth Mbit/s] [fec group]
+ *
+ * The UDP path runs through NetworkConditioner in both directions. The TCP path runs
+ * the FileClient/FileServer framing through a delaying relay that applies the same
+ * latency and bandwidth; packet loss cannot be injected into kernel TCP from user space,
+ * so the TCP numbers are a best case for lossy links.
+ */
+public class UdpTransferBenchmark {
+    private static final int TCP_BUFFER_SIZE = 8192;
+
+    public static void main(String[] args) throws Exception {
+        int sizeMb = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        double latencyMs = args.length > 1 ? Double.parseDouble(args[1]) : 25;
+        double lossPercent = args.length > 2 ? Double.parseDouble(args[2]) : 1;
+        long bandwidthMbit = args.length > 3 ? Long.parseLong(args[3]) : 200;
+        int fecGroup = args.length > 4 ? Integer.parseInt(args[4]) : 0;
+        long bytesPerSecond = bandwidthMbit * 1_000_000 / 8;
+
+        Path source = Files.createTempFile("p2p-bench-", ".bin");
+        Path tcpTarget = Files.createTempFile("p2p-bench-tcp-", ".bin");
+        Path udpTarget = Files.createTempFile("p2p-bench-udp-", ".bin");
+        try {
+            writeRandomFile(source, sizeMb * 1024L * 1024L);
+            System.out.printf("File %d MB, one-way latency %.1f ms, loss %.2f%%, bottleneck %d Mbit/s, FEC group %d%n",
+                sizeMb, latencyMs, lossPercent, bandwidthMbit, fecGroup);
+
+            double tcpSeconds = runTcp(source, tcpTarget, latencyMs, bytesPerSecond);
+            report("TCP (latency only)", source, tcpTarget, tcpSeconds);
+
+            double udpSeconds = runUdp(source, udpTarget, latencyMs, lossPercent / 100.0,
+                bytesPerSecond, fecGroup);
+            report("UDP", source, udpTarget, udpSeconds);
+        } finally {
+            Files.deleteIfExists(source);
+            Files.deleteIfExists(tcpTarget);
+            Files.deleteIfExists(udpTarget);
+        }
+    }
+
+    private static void writeRandomFile(Path path, long size) throws IOException {
+        Random random = new Random(42);
+        byte[] block = new byte[1024 * 1024];
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(path))) {
+            for (long written = 0; written < size; written += block.length) {
+                random.nextBytes(block);
+                out.write(block, 0, (int) Math.min(block.length, size - written));
+            }
+        }
+    }
+
+    private static void report(String label, Path source, Path target, double seconds) throws IOException {
+        long size = Files.size(source);
+        boolean intact = seconds > 0 && Files.mismatch(source, target) == -1;
+        System.out.printf("%-20s %8.2f s %10.2f MB/s  %s%n", label, seconds,
+            seconds > 0 ? size / seconds / (1024 * 1024) : 0, intact ? "verified" : "FAILED");
+    }
+
+    private static double runUdp(Path source, Path target, double latencyMs, double loss,
+                                 long bytesPerSecond, int fecGroup) throws Exception {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        CountDownLatch received = new CountDownLatch(1);
+        boolean[] receivedOk = new boolean[1];
+
+        UdpListener.SessionHandler handler = new UdpListener.SessionHandler() {
+            @Override
+            public Path accept(UdpListener.Incoming incoming) {
+                return target;
+            }
+
+            @Override
+            public void onProgress(UdpListener.Incoming incoming, long bytesReceived) {
+            }
+
+            @Override
+            public void onComplete(UdpListener.Incoming incoming, Path path, boolean success) {
+                receivedOk[0] = success;
+                received.countDown();
+            }
+
+            @Override
+            public void log(String message) {
+                System.out.println("  [receiver] " + message);
+            }
+        };
+
+        InetSocketAddress loopback = new InetSocketAddress("127.0.0.1", 0);
+        PacketLink listenerLink = new ChannelPacketLink(loopback);
+        int port = listenerLink.getLocalAddress().getPort();
+        // The return path carries ACKs, so it gets the same loss and latency but no bottleneck
+        UdpListener listener = new UdpListener(listenerLink, handler, executor,
+            bind -> new NetworkConditioner(new ChannelPacketLink(bind), loss, latencyMs, 0, 0, 0));
+        executor.submit(listener);
+
+        try (NetworkConditioner link = new NetworkConditioner(new ChannelPacketLink(loopback),
+                loss, latencyMs, 0, bytesPerSecond, Math.max(50, 2 * latencyMs))) {
+            UdpSender sender = new UdpSender(link, 1400, fecGroup,
+                message -> System.out.println("  [sender] " + message), bytes -> { });
+            long start = System.nanoTime();
+            boolean ok = sender.send(source, "bench.bin", "bench", new InetSocketAddress("127.0.0.1", port));
+            double seconds = (System.nanoTime() - start) / 1e9;
+            received.await(10, TimeUnit.SECONDS);
+            System.out.printf("  [link] %d packets, %d dropped%n", link.getPacketsSent(), link.getPacketsDropped());
+            return ok && receivedOk[0] ? seconds : -1;
+        } finally {
+            listener.stop();
+            executor.shutdownNow();
+        }
+    }
+
+    private static double runTcp(Path source, Path target, double latencyMs, long bytesPerSecond)
+            throws Exception {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try (ServerSocket receiverSocket = new ServerSocket(0);
+             ServerSocket relaySocket = new ServerSocket(0)) {
+            executor.submit(() -> receiveTcp(receiverSocket, target));
+            executor.submit(() -> relay(relaySocket, receiverSocket.getLocalPort(), latencyMs,
+                bytesPerSecond, executor));
+
+            long start = System.nanoTime();
+            boolean ok = sendTcp(source, relaySocket.getLocalPort());
+            return ok ? (System.nanoTime() - start) / 1e9 : -1;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Same framing and buffer size as FileClient
+     */
+    private static boolean sendTcp(Path source, int port) throws IOException {
+        try (Socket socket = new Socket("127.0.0.1", port);
+             DataOutputStream dos = new DataOutputStream(socket.getOutputStream());
+             DataInputStream dis = new DataInputStream(socket.getInputStream());
+             InputStream in = new BufferedInputStream(Files.newInputStream(source))) {
+            dos.writeUTF("bench.bin");
+            dos.writeLong(Files.size(source));
+            dos.writeUTF("bench");
+            dos.flush();
+            if (!"READY".equals(dis.readUTF())) {
+                return false;
+            }
+            byte[] buffer = new byte[TCP_BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                dos.write(buffer, 0, read);
+            }
+            dos.flush();
+            return "SUCCESS".equals(dis.readUTF());
+        }
+    }
+
+    /**
+     * Same framing and buffer size as FileServer
+     */
+    private static Void receiveTcp(ServerSocket serverSocket, Path target) throws IOException {
+        try (Socket socket = serverSocket.accept();
+             DataInputStream dis = new DataInputStream(socket.getInputStream());
+             DataOutputStream dos = new DataOutputStream(socket.getOutputStream());
+             OutputStream out = new BufferedOutputStream(Files.newOutputStream(target))) {
+            dis.readUTF();
+            long size = dis.readLong();
+            dis.readUTF();
+            dos.writeUTF("READY");
+            dos.flush();
+            byte[] buffer = new byte[TCP_BUFFER_SIZE];
+            long total = 0;
+            while (total < size) {
+                int read = dis.read(buffer, 0, (int) Math.min(buffer.length, size - total));
+                if (read < 0) {
+                    break;
+                }
+                out.write(buffer, 0, read);
+                total += read;
+            }
+            out.flush();
+            dos.writeUTF(total == size ? "SUCCESS" : "FAILED");
+            dos.flush();
+        }
+        return null;
+    }
+
+    private static Void relay(ServerSocket relaySocket, int targetPort, double latencyMs,
+                              long bytesPerSecond, ExecutorService executor) throws IOException {
+        Socket inbound = relaySocket.accept();
+        Socket outbound = new Socket("127.0.0.1", targetPort);
+        executor.submit(() -> delayLine(inbound, outbound, latencyMs, bytesPerSecond));
+        executor.submit(() -> delayLine(outbound, inbound, latencyMs, 0));
+        return null;
+    }
+
+    private static final class Chunk {
+        final byte[] data;
+        final int length;
+        final long releaseNanos;
+
+        Chunk(byte[] data, int length, long releaseNanos) {
+            this.data = data;
+            this.length = length;
+            this.releaseNanos = releaseNanos;
+        }
+    }
+
+    /**
+     * Forward bytes from one socket to another after the one-way latency, serialized at
+     * the bottleneck bandwidth. The bounded queue keeps TCP's flow control end to end.
+     */
+    private static Void delayLine(Socket from, Socket to, double latencyMs, long bytesPerSecond) {
+        long latencyNanos = (long) (latencyMs * 1_000_000);
+        BlockingQueue<Chunk> queue = new ArrayBlockingQueue<>(256);
+        Thread writer = new Thread(() -> {
+            try {
+                OutputStream out = to.getOutputStream();
+                while (true) {
+                    Chunk chunk = queue.take();
+                    if (chunk.length < 0) {
+                        to.shutdownOutput();
+                        return;
+                    }
+                    long wait = chunk.releaseNanos - System.nanoTime();
+                    if (wait > 0) {
+                        TimeUnit.NANOSECONDS.sleep(wait);
+                    }
+                    out.write(chunk.data, 0, chunk.length);
+                    out.flush();
+                }
+            } catch (IOException | InterruptedException e) {
+                // Benchmark connection torn down
+            }
+        });
+        writer.setDaemon(true);
+        writer.start();
+
+        try {
+            InputStream in = from.getInputStream();
+            long nextDeparture = 0;
+            while (true) {
+                byte[] buffer = new byte[16 * 1024];
+                int read = in.read(buffer);
+                if (read < 0) {
+                    queue.put(new Chunk(buffer, -1, 0));
+                    return null;
+                }
+                long now = System.nanoTime();
+                long departure = now;
+                if (bytesPerSecond > 0) {
+                    departure = Math.max(now, nextDeparture) + read * 1_000_000_000L / bytesPerSecond;
+                    nextDeparture = departure;
+                }
+                queue.put(new Chunk(buffer, read, departure + latencyNanos));
+            }
+        } catch (IOException | InterruptedException e) {
+            return null;
+        }
+    }
+}
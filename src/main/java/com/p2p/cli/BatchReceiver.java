@@ -0,0 +1,60 @@
+package com.p2p.cli;
+
+import com.p2p.model.Transfer;
+import com.p2p.network.TransferListener;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Records every incoming file for the report and counts down to an expected total
+ */
+public class BatchReceiver implements TransferListener {
+    private final boolean quiet;
+    private final TransferReport report = new TransferReport("receive");
+    // Received transfers have no start callback, so the first progress report stands in
+    private final Map<Transfer, Long> firstSeenNanos = new ConcurrentHashMap<>();
+    private volatile long lastActivityNanos = System.nanoTime();
+
+    public BatchReceiver(boolean quiet) {
+        this.quiet = quiet;
+    }
+
+    public TransferReport getReport() {
+        return report;
+    }
+
+    public long getLastActivityNanos() {
+        return lastActivityNanos;
+    }
+
+    @Override
+    public void log(String message) {
+        lastActivityNanos = System.nanoTime();
+        if (!quiet) {
+            System.err.println(message);
+        }
+    }
+
+    @Override
+    public void onTransferProgress(Transfer transfer, long bytesTransferred) {
+        lastActivityNanos = System.nanoTime();
+        firstSeenNanos.putIfAbsent(transfer, lastActivityNanos);
+    }
+
+    @Override
+    public void onTransferComplete(Transfer transfer, boolean success) {
+    }
+
+    @Override
+    public void onFileReceived(Transfer transfer) {
+        long now = System.nanoTime();
+        lastActivityNanos = now;
+        Long first = firstSeenNanos.remove(transfer);
+        long durationMillis = first == null ? 0 : (now - first) / 1_000_000;
+        boolean success = transfer.getStatus() == Transfer.TransferStatus.COMPLETED;
+        report.add(new TransferReport.Entry(transfer.getFilePath(),
+            transfer.getPeerUsername() + "@" + transfer.getPeerIpAddress(),
+            transfer.getFileSize(), success, durationMillis, success ? null : "Transfer failed"));
+    }
+}
@@ -0,0 +1,167 @@
+package com.p2p.cli;
+
+import com.p2p.model.Transfer;
+import com.p2p.model.TransferType;
+import com.p2p.model.User;
+import com.p2p.network.TransferEngine;
+import com.p2p.network.TransferListener;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Sends every file to every peer with a bounded number of transfers in flight
+ */
+public class BatchSender implements TransferListener {
+    private final TransferEngine engine;
+    private final int concurrency;
+    private final boolean quiet;
+    private final TransferReport report = new TransferReport("send");
+
+    // FileClient logs the reason for a failure on the thread that then completes the
+    // transfer, so the last message seen on that thread is the error for the report
+    private final ThreadLocal<String> lastMessage = new ThreadLocal<>();
+    private final Map<Transfer, Boolean> outcomes = new ConcurrentHashMap<>();
+    private final Map<Transfer, String> errors = new ConcurrentHashMap<>();
+
+    public BatchSender(User localUser, int concurrency, boolean quiet) {
+        this.engine = new TransferEngine(localUser, 0, this);
+        this.concurrency = concurrency;
+        this.quiet = quiet;
+    }
+
+    public TransferReport send(List<Path> files, List<String> peers) throws InterruptedException {
+        ExecutorService workers = Executors.newFixedThreadPool(concurrency);
+        for (Path file : files) {
+            for (String peer : peers) {
+                workers.submit(() -> sendOne(file, peer));
+            }
+        }
+        workers.shutdown();
+        workers.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        engine.stop();
+        return report;
+    }
+
+    private void sendOne(Path path, String peer) {
+        File file = path.toFile();
+        int colon = peer.lastIndexOf(':');
+        String peerIp = peer.substring(0, colon);
+        int peerPort = Integer.parseInt(peer.substring(colon + 1));
+
+        Transfer transfer = new Transfer(0, file.getName(), file.length(), TransferType.SENT, "Unknown");
+        transfer.setPeerIpAddress(peerIp);
+        transfer.setFilePath(file.getAbsolutePath());
+
+        long start = System.nanoTime();
+        try {
+            engine.sendFile(file, peerIp, peerPort, transfer).get();
+        } catch (ExecutionException e) {
+            errors.put(transfer, String.valueOf(e.getCause()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            errors.put(transfer, "Interrupted");
+        }
+        long durationMillis = (System.nanoTime() - start) / 1_000_000;
+
+        boolean success = Boolean.TRUE.equals(outcomes.remove(transfer));
+        String error = errors.remove(transfer);
+        report.add(new TransferReport.Entry(path.toString(), peer, file.length(), success,
+            durationMillis, success ? null : error));
+    }
+
+    @Override
+    public void log(String message) {
+        lastMessage.set(message);
+        if (!quiet) {
+            System.err.println(message);
+        }
+    }
+
+    @Override
+    public void onTransferProgress(Transfer transfer, long bytesTransferred) {
+    }
+
+    @Override
+    public void onTransferComplete(Transfer transfer, boolean success) {
+        outcomes.put(transfer, success);
+        if (!success && lastMessage.get() != null) {
+            errors.put(transfer, lastMessage.get());
+        }
+        lastMessage.remove();
+    }
+
+    @Override
+    public void onFileReceived(Transfer transfer) {
+    }
+
+    /**
+     * Expand a path or glob such as {@code data/*.bin} or {@code logs/**.gz} into the
+     * regular files it matches, walking only below the part without wildcards
+     */
+    public static List<Path> expand(String pattern) throws IOException {
+        Path whole = Paths.get(pattern);
+        Path base = whole.getRoot();
+        int firstWild = -1;
+        for (int i = 0; i < whole.getNameCount(); i++) {
+            String segment = whole.getName(i).toString();
+            if (segment.chars().anyMatch(c -> "*?[{".indexOf(c) >= 0)) {
+                firstWild = i;
+                break;
+            }
+            base = base == null ? whole.getName(i) : base.resolve(whole.getName(i));
+        }
+
+        List<Path> matches = new ArrayList<>();
+        if (firstWild < 0) {
+            if (Files.isRegularFile(whole)) {
+                matches.add(whole);
+            }
+            return matches;
+        }
+
+        Path root = base == null ? Paths.get(".") : base;
+        String remainder = whole.subpath(firstWild, whole.getNameCount()).toString();
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + remainder);
+        int depth = remainder.contains("**") ? Integer.MAX_VALUE : whole.getNameCount() - firstWild;
+        try (Stream<Path> walk = Files.walk(root, depth)) {
+            walk.filter(Files::isRegularFile)
+                .filter(p -> matcher.matches(root.relativize(p)))
+                .map(Path::normalize)
+                .sorted()
+                .forEach(matches::add);
+        }
+        return matches;
+    }
+
+    /**
+     * Expand all patterns, dropping duplicates but keeping the order given
+     */
+    public static List<Path> expandAll(List<String> patterns) throws IOException {
+        Set<Path> files = new LinkedHashSet<>();
+        for (String pattern : patterns) {
+            List<Path> expanded = expand(pattern);
+            if (expanded.isEmpty()) {
+                System.err.println("No files match: " + pattern);
+            }
+            files.addAll(expanded);
+        }
+        return new ArrayList<>(files);
+    }
+}
@@ -0,0 +1,387 @@
+package com.p2p.cli;
+
+import com.p2p.Daemon;
+import com.p2p.model.User;
+import com.p2p.network.PeerDiscovery;
+import com.p2p.network.TransferEngine;
+import com.p2p.network.catalog.CatalogIndex;
+import com.p2p.network.catalog.CatalogSync;
+import com.p2p.network.dht.DhtNode;
+import com.p2p.network.dht.NodeId;
+import com.p2p.network.dht.UdpDhtNetwork;
+import com.p2p.network.pull.PullClient;
+import com.p2p.utils.ConfigUtils;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Command-line batch transfers for scripts
+ *
+ * <pre>
+ * TransferCli send --peer HOST:PORT [--peer HOST:PORT ...] [--concurrency N]
+ *                  [--list FILE] [--name NAME] [--output FILE] [--quiet] PATH|GLOB ...
+ * TransferCli receive [--port PORT] [--count N] [--idle SECONDS] [--output FILE] [--quiet]
+ * TransferCli locate [--seed HOST:PORT ...] HASH|FILE
+ * TransferCli search [--peer HOST:PORT ...] [--count N] QUERY ...
+ * TransferCli fetch --peer HOST:PORT [--concurrency N] [--range OFFSET:LENGTH] [--output FILE] PATH
+ * </pre>
+ *
+ * locate joins the DHT through the seeds (dht.seeds by default) and prints the peers
+ * that announced the content as JSON; it exits with 1 when none did.
+ *
+ * search fetches the catalogs of the given peers (all available peers by default) and
+ * prints the first N matches (100 by default) as JSON; it exits with 1 when none match.
+ *
+ * fetch downloads a file from the peer's shared directory into the downloads
+ * directory over up to --concurrency connections and prints a receive report. With
+ * --range it writes only those bytes, to --output or standard output.
+ *
+ * Logs go to standard error and the JSON report to standard output (or --output).
+ * The exit status is 0 when every transfer succeeded, 1 when any failed and 2 for
+ * bad arguments.
+ */
+public class TransferCli {
+    private static final int EXIT_OK = 0;
+    private static final int EXIT_FAILURES = 1;
+    private static final int EXIT_USAGE = 2;
+
+    private final List<String> peers = new ArrayList<>();
+    private final List<String> patterns = new ArrayList<>();
+    private final List<InetSocketAddress> seeds = new ArrayList<>();
+    private int concurrency = 4;
+    private int port = ConfigUtils.getDefaultPort();
+    private int expectedCount;
+    private long idleSeconds;
+    private String name;
+    private String output;
+    private boolean quiet;
+    private long rangeOffset = -1;
+    private int rangeLength;
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            usage("Missing command");
+        }
+        TransferCli cli = new TransferCli();
+        try {
+            cli.parse(args);
+            int status;
+            if ("send".equals(args[0])) {
+                status = cli.send();
+            } else if ("receive".equals(args[0])) {
+                status = cli.receive();
+            } else if ("locate".equals(args[0])) {
+                status = cli.locate();
+            } else if ("search".equals(args[0])) {
+                status = cli.search();
+            } else if ("fetch".equals(args[0])) {
+                status = cli.fetch();
+            } else {
+                usage("Unknown command: " + args[0]);
+                return;
+            }
+            System.exit(status);
+        } catch (IllegalArgumentException e) {
+            usage(e.getMessage());
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(EXIT_FAILURES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.exit(EXIT_FAILURES);
+        }
+    }
+
+    private void parse(String[] args) throws IOException {
+        for (int i = 1; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "--peer":
+                    for (String peer : value(args, ++i, arg).split(",")) {
+                        int colon = peer.lastIndexOf(':');
+                        if (colon <= 0 || !peer.substring(colon + 1).trim().matches("\\d+")) {
+                            throw new IllegalArgumentException("Peer must be HOST:PORT: " + peer);
+                        }
+                        peers.add(peer.trim());
+                    }
+                    break;
+                case "--seed":
+                    seeds.addAll(DhtNode.parseSeeds(value(args, ++i, arg)));
+                    break;
+                case "--concurrency":
+                    concurrency = positive(value(args, ++i, arg), arg);
+                    break;
+                case "--list":
+                    for (String line : Files.readAllLines(Paths.get(value(args, ++i, arg)), StandardCharsets.UTF_8)) {
+                        line = line.trim();
+                        if (!line.isEmpty() && !line.startsWith("#")) {
+                            patterns.add(line);
+                        }
+                    }
+                    break;
+                case "--name":
+                    name = value(args, ++i, arg);
+                    break;
+                case "--port":
+                    port = Integer.parseInt(value(args, ++i, arg));
+                    break;
+                case "--count":
+                    expectedCount = positive(value(args, ++i, arg), arg);
+                    break;
+                case "--idle":
+                    idleSeconds = positive(value(args, ++i, arg), arg);
+                    break;
+                case "--output":
+                    output = value(args, ++i, arg);
+                    break;
+                case "--range":
+                    String range = value(args, ++i, arg);
+                    int colon = range.indexOf(':');
+                    try {
+                        rangeOffset = Long.parseLong(range.substring(0, Math.max(0, colon)));
+                        rangeLength = Integer.parseInt(range.substring(colon + 1));
+                    } catch (NumberFormatException e) {
+                        rangeOffset = -1;
+                    }
+                    if (rangeOffset < 0 || rangeLength < 0) {
+                        throw new IllegalArgumentException("Range must be OFFSET:LENGTH: " + range);
+                    }
+                    break;
+                case "--quiet":
+                    quiet = true;
+                    break;
+                default:
+                    if (arg.startsWith("--")) {
+                        throw new IllegalArgumentException("Unknown option: " + arg);
+                    }
+                    patterns.add(arg);
+            }
+        }
+    }
+
+    private int send() throws IOException, InterruptedException {
+        if (peers.isEmpty()) {
+            throw new IllegalArgumentException("At least one --peer is required");
+        }
+        List<Path> files = BatchSender.expandAll(patterns);
+        if (files.isEmpty()) {
+            throw new IllegalArgumentException("No files to send");
+        }
+
+        User node = new User();
+        node.setUsername(name != null ? name : Daemon.getNodeName());
+        BatchSender sender = new BatchSender(node, concurrency, quiet);
+        TransferReport report = sender.send(files, peers);
+        writeReport(report);
+        return report.getFailureCount() == 0 ? EXIT_OK : EXIT_FAILURES;
+    }
+
+    private int receive() throws IOException, InterruptedException {
+        User node = new User();
+        node.setUsername(name != null ? name : Daemon.getNodeName());
+        BatchReceiver receiver = new BatchReceiver(quiet);
+        TransferEngine engine = new TransferEngine(node, port, receiver);
+        engine.start();
+        receiver.log("Receiving on port " + engine.getPort());
+
+        // Ctrl+C still produces a report for whatever arrived
+        AtomicBoolean reported = new AtomicBoolean();
+        Thread hook = new Thread(() -> {
+            engine.stop();
+            if (reported.compareAndSet(false, true)) {
+                writeReportQuietly(receiver.getReport());
+            }
+        }, "cli-shutdown");
+        Runtime.getRuntime().addShutdownHook(hook);
+
+        long idleNanos = TimeUnit.SECONDS.toNanos(idleSeconds);
+        while (expectedCount == 0 || receiver.getReport().size() < expectedCount) {
+            if (idleNanos > 0 && System.nanoTime() - receiver.getLastActivityNanos() > idleNanos) {
+                receiver.log("No activity for " + idleSeconds + " s, stopping");
+                break;
+            }
+            Thread.sleep(100);
+        }
+
+        engine.stop();
+        if (reported.compareAndSet(false, true)) {
+            writeReport(receiver.getReport());
+        }
+        return receiver.getReport().getFailureCount() == 0 ? EXIT_OK : EXIT_FAILURES;
+    }
+
+    private int locate() throws IOException {
+        if (patterns.size() != 1) {
+            throw new IllegalArgumentException("locate needs one content hash or file");
+        }
+        String target = patterns.get(0);
+        NodeId key = Files.isRegularFile(Paths.get(target)) ? NodeId.ofFile(Paths.get(target)) : NodeId.fromHex(target);
+        if (seeds.isEmpty()) {
+            seeds.addAll(DhtNode.parseSeeds(ConfigUtils.getDhtSeeds()));
+        }
+        if (seeds.isEmpty()) {
+            throw new IllegalArgumentException("locate needs --seed or dht.seeds");
+        }
+
+        // A short-lived node on a free port, so it can run next to a local daemon
+        DhtNode node = new DhtNode(NodeId.random(), new UdpDhtNetwork(new InetSocketAddress(0),
+            ConfigUtils.getDhtRpcTimeout()), Daemon.getNodeName(), 0, ConfigUtils.getDhtRepublishInterval());
+        node.start();
+        try {
+            if (!node.bootstrap(seeds)) {
+                throw new IOException("No DHT seed answered");
+            }
+            DhtNode.LookupResult result = node.findProviders(key);
+            StringBuilder json = new StringBuilder();
+            json.append("{\n  \"key\": ").append(TransferReport.quote(key.toHex()))
+                .append(",\n  \"hops\": ").append(result.getHops())
+                .append(",\n  \"providers\": [");
+            List<PeerDiscovery.PeerInfo> providers = result.getProviders();
+            for (int i = 0; i < providers.size(); i++) {
+                PeerDiscovery.PeerInfo provider = providers.get(i);
+                json.append(i == 0 ? "\n" : ",\n")
+                    .append("    {\"name\": ").append(TransferReport.quote(provider.getUsername()))
+                    .append(", \"peer\": ").append(TransferReport.quote(provider.getIpAddress() + ":" + provider.getPort()))
+                    .append("}");
+            }
+            json.append(providers.isEmpty() ? "]\n}" : "\n  ]\n}");
+            System.out.println(json);
+            return providers.isEmpty() ? EXIT_FAILURES : EXIT_OK;
+        } finally {
+            node.stop();
+        }
+    }
+
+    private int search() {
+        if (patterns.isEmpty()) {
+            throw new IllegalArgumentException("search needs a query");
+        }
+        CatalogSync sync = new CatalogSync(new CatalogIndex(), null, ConfigUtils.getCatalogSyncInterval());
+        if (peers.isEmpty()) {
+            System.err.println("Fetched catalogs from " + sync.syncAll() + " peers");
+        } else {
+            for (String peer : peers) {
+                int colon = peer.lastIndexOf(':');
+                PeerDiscovery.PeerInfo info = new PeerDiscovery.PeerInfo(peer, peer.substring(0, colon),
+                    Integer.parseInt(peer.substring(colon + 1).trim()), null);
+                try {
+                    sync.sync(info);
+                } catch (IOException e) {
+                    System.err.println("Failed to fetch the catalog of " + peer + ": " + e.getMessage());
+                }
+            }
+        }
+
+        CatalogIndex.SearchResult result = sync.getIndex().search(String.join(" ", patterns),
+            expectedCount > 0 ? expectedCount : 100);
+        StringBuilder json = new StringBuilder();
+        json.append("{\n  \"files\": ").append(sync.getIndex().size())
+            .append(",\n  \"total\": ").append(result.getTotal())
+            .append(",\n  \"hits\": [");
+        List<CatalogIndex.Hit> hits = result.getHits();
+        for (int i = 0; i < hits.size(); i++) {
+            CatalogIndex.Hit hit = hits.get(i);
+            json.append(i == 0 ? "\n" : ",\n")
+                .append("    {\"path\": ").append(TransferReport.quote(hit.getPath()))
+                .append(", \"size\": ").append(hit.getSize())
+                .append(", \"name\": ").append(TransferReport.quote(hit.getPeer().getUsername()))
+                .append(", \"peer\": ").append(TransferReport.quote(hit.getPeer().getIpAddress() + ":" + hit.getPeer().getPort()))
+                .append("}");
+        }
+        json.append(hits.isEmpty() ? "]\n}" : "\n  ]\n}");
+        System.out.println(json);
+        return hits.isEmpty() ? EXIT_FAILURES : EXIT_OK;
+    }
+
+    private int fetch() throws IOException {
+        if (peers.size() != 1 || patterns.size() != 1) {
+            throw new IllegalArgumentException("fetch needs one --peer and one path");
+        }
+        String peer = peers.get(0);
+        int colon = peer.lastIndexOf(':');
+        PeerDiscovery.PeerInfo info = new PeerDiscovery.PeerInfo(peer, peer.substring(0, colon),
+            Integer.parseInt(peer.substring(colon + 1).trim()), null);
+        BatchReceiver receiver = new BatchReceiver(quiet);
+        PullClient client = new PullClient(receiver);
+
+        if (rangeOffset >= 0) {
+            byte[] data = client.readRange(info.getIpAddress(), info.getPort(), patterns.get(0), rangeOffset, rangeLength);
+            if (output == null) {
+                System.out.write(data);
+                System.out.flush();
+            } else {
+                Files.write(Paths.get(output), data);
+            }
+            return EXIT_OK;
+        }
+
+        try {
+            client.download(info, patterns.get(0), Paths.get(ConfigUtils.getDownloadsDirectory()), concurrency, 0);
+        } catch (IOException e) {
+            // The failure is in the report
+        }
+        writeReport(receiver.getReport());
+        return receiver.getReport().getFailureCount() == 0 ? EXIT_OK : EXIT_FAILURES;
+    }
+
+    private void writeReport(TransferReport report) throws IOException {
+        if (output == null) {
+            System.out.println(report.toJson());
+        } else {
+            try (PrintStream out = new PrintStream(Files.newOutputStream(Paths.get(output)), true, "UTF-8")) {
+                out.println(report.toJson());
+            }
+        }
+    }
+
+    private void writeReportQuietly(TransferReport report) {
+        try {
+            writeReport(report);
+        } catch (IOException e) {
+            System.err.println("Failed to write report: " + e.getMessage());
+        }
+    }
+
+    private static String value(String[] args, int index, String option) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException(option + " needs a value");
+        }
+        return args[index];
+    }
+
+    private static int positive(String value, String option) {
+        try {
+            int parsed = Integer.parseInt(value);
+            if (parsed > 0) {
+                return parsed;
+            }
+        } catch (NumberFormatException e) {
+            // fall through
+        }
+        throw new IllegalArgumentException(option + " must be a positive number: " + value);
+    }
+
+    private static void usage(String error) {
+        System.err.println("Error: " + error);
+        System.err.println("Usage:");
+        System.err.println("  TransferCli send --peer HOST:PORT [--peer HOST:PORT ...] [--concurrency N]");
+        System.err.println("                   [--list FILE] [--name NAME] [--output FILE] [--quiet] PATH|GLOB ...");
+        System.err.println("  TransferCli receive [--port PORT] [--count N] [--idle SECONDS] [--name NAME]");
+        System.err.println("                      [--output FILE] [--quiet]");
+        System.err.println("  TransferCli locate [--seed HOST:PORT ...] HASH|FILE");
+        System.err.println("  TransferCli search [--peer HOST:PORT ...] [--count N] QUERY ...");
+        System.err.println("  TransferCli fetch --peer HOST:PORT [--concurrency N] [--range OFFSET:LENGTH]");
+        System.err.println("                    [--output FILE] PATH");
+        System.exit(EXIT_USAGE);
+    }
+}
@@ -0,0 +1,122 @@
+package com.p2p.cli;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Per-file results of a batch run, rendered as JSON for scripts
+ *
+ * The shape is stable: a "mode", a "files" array with one object per file (and per
+ * peer when sending), and a "totals" object.
+ */
+public class TransferReport {
+    private final String mode;
+    private final long startNanos = System.nanoTime();
+    private final List<Entry> entries = new ArrayList<>();
+
+    public static class Entry {
+        final String file;
+        final String peer;
+        final long bytes;
+        final boolean success;
+        final long durationMillis;
+        final String error;
+
+        public Entry(String file, String peer, long bytes, boolean success, long durationMillis, String error) {
+            this.file = file;
+            this.peer = peer;
+            this.bytes = bytes;
+            this.success = success;
+            this.durationMillis = durationMillis;
+            this.error = error;
+        }
+    }
+
+    public TransferReport(String mode) {
+        this.mode = mode;
+    }
+
+    public synchronized void add(Entry entry) {
+        entries.add(entry);
+    }
+
+    public synchronized int getFailureCount() {
+        int failed = 0;
+        for (Entry entry : entries) {
+            if (!entry.success) {
+                failed++;
+            }
+        }
+        return failed;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized String toJson() {
+        long elapsedMillis = (System.nanoTime() - startNanos) / 1_000_000;
+        long totalBytes = 0;
+        int succeeded = 0;
+
+        StringBuilder json = new StringBuilder();
+        json.append("{\n  \"mode\": ").append(quote(mode)).append(",\n  \"files\": [");
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            if (entry.success) {
+                totalBytes += entry.bytes;
+                succeeded++;
+            }
+            json.append(i == 0 ? "\n" : ",\n");
+            json.append("    {\"file\": ").append(quote(entry.file))
+                .append(", \"peer\": ").append(quote(entry.peer))
+                .append(", \"bytes\": ").append(entry.bytes)
+                .append(", \"status\": ").append(quote(entry.success ? "COMPLETED" : "FAILED"))
+                .append(", \"durationMs\": ").append(entry.durationMillis)
+                .append(", \"throughputMBps\": ").append(throughput(entry.success ? entry.bytes : 0, entry.durationMillis))
+                .append(", \"error\": ").append(quote(entry.error))
+                .append('}');
+        }
+        json.append(entries.isEmpty() ? "],\n" : "\n  ],\n");
+        json.append("  \"totals\": {\"files\": ").append(entries.size())
+            .append(", \"succeeded\": ").append(succeeded)
+            .append(", \"failed\": ").append(entries.size() - succeeded)
+            .append(", \"bytes\": ").append(totalBytes)
+            .append(", \"durationMs\": ").append(elapsedMillis)
+            .append(", \"throughputMBps\": ").append(throughput(totalBytes, elapsedMillis))
+            .append("}\n}");
+        return json.toString();
+    }
+
+    private static String throughput(long bytes, long millis) {
+        if (millis <= 0) {
+            return "0.00";
+        }
+        return String.format(Locale.ROOT, "%.2f", bytes / (millis / 1000.0) / (1024 * 1024));
+    }
+
+    static String quote(String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': quoted.append("\\\""); break;
+                case '\\': quoted.append("\\\\"); break;
+                case '\n': quoted.append("\\n"); break;
+                case '\r': quoted.append("\\r"); break;
+                case '\t': quoted.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        quoted.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        quoted.append(c);
+                    }
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
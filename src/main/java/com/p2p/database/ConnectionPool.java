@@ -0,0 +1,365 @@
+package com.p2p.database;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Small JDBC connection pool used by DatabaseManager
+ *
+ * Borrowed connections are proxies whose close() hands the physical connection back,
+ * so callers use plain try-with-resources. Each borrow gets a proxy of its own, so one
+ * kept or closed again after its borrow ended cannot reach the next borrower's work.
+ * At most maxSize connections exist; a borrow waits up to the borrow timeout and then
+ * fails with SQLTimeoutException. Connections idle for longer than the validation
+ * interval are checked with isValid() before reuse, and connections held longer than
+ * the leak threshold are reported once with the stack trace of the code that borrowed
+ * them.
+ */
+public class ConnectionPool implements AutoCloseable {
+    private static final long VALIDATION_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(30);
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int maxSize;
+    private final long borrowTimeoutMillis;
+    private final long leakThresholdMillis;
+
+    private final Semaphore permits;
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    private final Set<PooledConnection> inUse = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService leakDetector;
+    private volatile boolean closed = false;
+
+    private final LongAdder borrowCount = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final LongAdder timeoutCount = new LongAdder();
+    private final LongAdder createdCount = new LongAdder();
+    private final LongAdder discardedCount = new LongAdder();
+    private final LongAdder leakCount = new LongAdder();
+
+    public ConnectionPool(String url, String user, String password, int maxSize,
+                          long borrowTimeoutMillis, long leakThresholdMillis) {
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.maxSize = Math.max(1, maxSize);
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.leakThresholdMillis = leakThresholdMillis;
+        this.permits = new Semaphore(this.maxSize, true);
+
+        if (leakThresholdMillis > 0) {
+            leakDetector = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "db-pool-leak-detector");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long period = Math.max(1000, leakThresholdMillis / 2);
+            leakDetector.scheduleAtFixedRate(this::detectLeaks, period, period, TimeUnit.MILLISECONDS);
+        } else {
+            leakDetector = null;
+        }
+    }
+
+    /**
+     * Borrow a connection; close it to give it back
+     */
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                timeoutCount.increment();
+                throw new SQLTimeoutException("Timed out after " + borrowTimeoutMillis +
+                    " ms waiting for a database connection (" + maxSize + " in use)");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        }
+        recordWait(System.nanoTime() - start);
+
+        try {
+            PooledConnection pooled;
+            while ((pooled = idle.pollFirst()) != null && !isUsable(pooled)) {
+                discard(pooled);
+            }
+            if (pooled == null) {
+                pooled = new PooledConnection(DriverManager.getConnection(url, user, password));
+                createdCount.increment();
+            }
+            Connection lease = pooled.borrow(leakThresholdMillis > 0);
+            inUse.add(pooled);
+            return lease;
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private void recordWait(long waitNanos) {
+        borrowCount.increment();
+        totalWaitNanos.add(waitNanos);
+        maxWaitNanos.accumulateAndGet(waitNanos, Math::max);
+    }
+
+    private boolean isUsable(PooledConnection pooled) {
+        if (System.nanoTime() - pooled.returnedAtNanos < VALIDATION_INTERVAL_NANOS) {
+            return true;
+        }
+        try {
+            return pooled.physical.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void release(PooledConnection pooled) {
+        inUse.remove(pooled);
+        try {
+            if (closed || pooled.broken || pooled.physical.isClosed()) {
+                discard(pooled);
+            } else {
+                if (!pooled.physical.getAutoCommit()) {
+                    // Never hand the next borrower someone else's open transaction
+                    pooled.physical.rollback();
+                    pooled.physical.setAutoCommit(true);
+                }
+                pooled.returnedAtNanos = System.nanoTime();
+                // LIFO keeps a few hot connections busy and lets the rest go stale
+                idle.offerFirst(pooled);
+            }
+        } catch (SQLException e) {
+            discard(pooled);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void discard(PooledConnection pooled) {
+        discardedCount.increment();
+        try {
+            pooled.physical.close();
+        } catch (SQLException e) {
+            System.err.println("Error closing pooled connection: " + e.getMessage());
+        }
+    }
+
+    private void detectLeaks() {
+        long now = System.nanoTime();
+        for (PooledConnection pooled : inUse) {
+            long heldMillis = TimeUnit.NANOSECONDS.toMillis(now - pooled.borrowedAtNanos);
+            if (heldMillis > leakThresholdMillis && !pooled.leakReported) {
+                pooled.leakReported = true;
+                leakCount.increment();
+                System.err.println("Possible database connection leak: held by thread " +
+                    pooled.borrower + " for " + heldMillis + " ms");
+                if (pooled.borrowSite != null) {
+                    pooled.borrowSite.printStackTrace();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        if (leakDetector != null) {
+            leakDetector.shutdownNow();
+        }
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            discard(pooled);
+        }
+        // Borrowed connections are closed as they come back
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getActiveCount() {
+        return inUse.size();
+    }
+
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    /**
+     * Threads currently blocked waiting for a connection
+     */
+    public int getWaitingCount() {
+        return permits.getQueueLength();
+    }
+
+    public long getBorrowCount() {
+        return borrowCount.sum();
+    }
+
+    public long getTimeoutCount() {
+        return timeoutCount.sum();
+    }
+
+    public long getLeakCount() {
+        return leakCount.sum();
+    }
+
+    public double getAverageWaitMillis() {
+        long borrows = borrowCount.sum();
+        return borrows == 0 ? 0 : totalWaitNanos.sum() / 1e6 / borrows;
+    }
+
+    public double getMaxWaitMillis() {
+        return maxWaitNanos.get() / 1e6;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("active=%d idle=%d waiting=%d max=%d borrows=%d avgWait=%.2fms maxWait=%.2fms " +
+                "timeouts=%d created=%d discarded=%d leaks=%d",
+            getActiveCount(), getIdleCount(), getWaitingCount(), maxSize, getBorrowCount(),
+            getAverageWaitMillis(), getMaxWaitMillis(), getTimeoutCount(), createdCount.sum(),
+            discardedCount.sum(), getLeakCount());
+    }
+
+    /**
+     * One physical connection, lent to one borrower at a time
+     */
+    private final class PooledConnection {
+        final Connection physical;
+        volatile long borrowedAtNanos;
+        volatile long returnedAtNanos = System.nanoTime();
+        volatile String borrower;
+        volatile Throwable borrowSite;
+        volatile boolean leakReported;
+        volatile boolean broken;
+
+        PooledConnection(Connection physical) {
+            this.physical = physical;
+        }
+
+        /**
+         * Start a borrow; the proxy returned works until its first close()
+         */
+        Connection borrow(boolean recordSite) {
+            borrowedAtNanos = System.nanoTime();
+            borrower = Thread.currentThread().getName();
+            borrowSite = recordSite ? new Throwable("Connection borrowed here") : null;
+            leakReported = false;
+            return new Lease(this).proxy;
+        }
+
+        Object call(Object target, Method method, Object[] args) throws Throwable {
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof SQLException) {
+                    String state = ((SQLException) cause).getSQLState();
+                    // SQLSTATE class 08 is a connection exception; drop it instead of reusing it
+                    if (state != null && state.startsWith("08")) {
+                        broken = true;
+                    }
+                }
+                throw cause;
+            }
+        }
+    }
+
+    /**
+     * One borrow of a pooled connection. Statements and metadata made through it are
+     * wrapped too, so their getConnection() gives this proxy and not the physical
+     * connection, and they stop working once the borrow ends.
+     */
+    private final class Lease implements InvocationHandler {
+        final PooledConnection pooled;
+        final Connection proxy;
+        volatile boolean returned;
+
+        Lease(PooledConnection pooled) {
+            this.pooled = pooled;
+            this.proxy = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[] {Connection.class}, this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    synchronized (this) {
+                        if (!returned) {
+                            returned = true;
+                            release(pooled);
+                        }
+                    }
+                    return null;
+                case "isClosed":
+                    return returned || pooled.physical.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled" + pooled.physical;
+                default:
+                    break;
+            }
+            checkNotReturned();
+            Object result = pooled.call(pooled.physical, method, args);
+            if (result instanceof Statement || result instanceof DatabaseMetaData) {
+                return wrap(result, method.getReturnType());
+            }
+            return result;
+        }
+
+        private Object wrap(Object target, Class<?> type) {
+            return Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, (wrapper, method, args) -> {
+                switch (method.getName()) {
+                    case "getConnection":
+                        return proxy;
+                    case "close":
+                    case "isClosed":
+                        return pooled.call(target, method, args);
+                    case "equals":
+                        return wrapper == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(wrapper);
+                    case "toString":
+                        return target.toString();
+                    default:
+                        checkNotReturned();
+                        return pooled.call(target, method, args);
+                }
+            });
+        }
+
+        private void checkNotReturned() throws SQLException {
+            if (returned) {
+                throw new SQLException("Connection has already been returned to the pool");
+            }
+        }
+    }
+}
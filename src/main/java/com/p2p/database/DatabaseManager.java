@@ -3,12 +3,16 @@ package com.p2p.database;
 import com.p2p.model.User;
 import com.p2p.model.Transfer;
 import com.p2p.model.TransferType;
+import com.p2p.utils.ConfigUtils;
 import com.p2p.utils.EnvLoader;
 import com.p2p.utils.PasswordUtils;
 import java.sql.*;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Database manager for MySQL operations
@@ -23,7 +27,14 @@ public class DatabaseManager {
     private final String DB_PASSWORD;
     private final String DB_DRIVER;
 
-    private Connection connection;
+    private static final String TRANSFER_COLUMNS = """
+        SELECT transfer_id, user_id, file_name, file_size, transfer_type, peer_username,
+        peer_ip_address, timestamp, status, file_path FROM transfers""";
+
+    private final ConnectionPool pool;
+    private final TransferLogWriter transferLogWriter;
+    private final List<Runnable> onlineStatusListeners = new CopyOnWriteArrayList<>();
+    private boolean closed = false;
 
     private DatabaseManager() {
         // Load configuration from .env file
@@ -37,10 +48,21 @@ public class DatabaseManager {
         System.out.println("  User: " + DB_USER);
         System.out.println("  Driver: " + DB_DRIVER);
 
+        this.pool = new ConnectionPool(DB_URL, DB_USER, DB_PASSWORD,
+            ConfigUtils.getDbPoolMaxSize(),
+            ConfigUtils.getDbPoolBorrowTimeout(),
+            ConfigUtils.getDbPoolLeakThreshold());
+        this.transferLogWriter = new TransferLogWriter(pool,
+            ConfigUtils.getDbWriteBatchSize(),
+            ConfigUtils.getDbWriteFlushInterval());
+        // Queued transfer log entries are written out before the JVM exits
+        Runtime.getRuntime().addShutdownHook(new Thread(this::closeConnection, "database-shutdown"));
+
         try {
             // Load MySQL JDBC driver
             Class.forName(DB_DRIVER);
-            connection = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
+            // Open the first pooled connection now so a missing database is found early
+            pool.getConnection().close();
             System.out.println("Database connection established successfully");
         } catch (SQLException | ClassNotFoundException e) {
             System.err.println("Failed to connect to database: " + e.getMessage());
@@ -72,7 +94,7 @@ public class DatabaseManager {
             tempConnection.close();
 
             // Now connect to the created database
-            connection = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
+            pool.getConnection().close();
             System.out.println("Database connection established after creation");
 
         } catch (SQLException e) {
@@ -128,17 +150,24 @@ public class DatabaseManager {
             )
         """;
 
-        try (Statement stmt = connection.createStatement()) {
+        try (Connection conn = pool.getConnection();
+             Statement stmt = conn.createStatement()) {
             stmt.executeUpdate(createUsersTable);
             stmt.executeUpdate(createTransfersTable);
             System.out.println("Database tables created successfully");
         }
+
+        // Indexes and later schema changes, also applied to existing installs
+        try (Connection conn = pool.getConnection()) {
+            new SchemaMigrator().migrate(conn);
+        }
     }
 
     // User Management Methods
     public boolean registerUser(User user) {
         String sql = "INSERT INTO users (username, password, email) VALUES (?, ?, ?)";
-        try (PreparedStatement pstmt = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+        try (Connection conn = pool.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
             pstmt.setString(1, user.getUsername());
 
             // Hash the password before storing
@@ -165,7 +194,8 @@ public class DatabaseManager {
 
     public User authenticateUser(String username, String password) {
         String sql = "SELECT * FROM users WHERE username = ?";
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+        try (Connection conn = pool.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
             pstmt.setString(1, username);
 
             try (ResultSet rs = pstmt.executeQuery()) {
@@ -187,7 +217,7 @@ public class DatabaseManager {
                         // If this is an old plain text password, update it to hashed version
                         if (!PasswordUtils.isSecureHash(storedPasswordHash)) {
                             System.out.println("Upgrading password to secure hash for user: " + username);
-                            updateUserPasswordHash(user.getUserId(), password);
+                            updateUserPasswordHash(conn, user.getUserId(), password);
                         }
 
                         return user;
@@ -202,7 +232,8 @@ public class DatabaseManager {
 
     public boolean isUsernameExists(String username) {
         String sql = "SELECT COUNT(*) FROM users WHERE username = ?";
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+        try (Connection conn = pool.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
             pstmt.setString(1, username);
             try (ResultSet rs = pstmt.executeQuery()) {
                 if (rs.next()) {
@@ -216,8 +247,9 @@ public class DatabaseManager {
     }
 
     public void updateUserOnlineStatus(int userId, boolean isOnline, String ipAddress, int port) {
-        String sql = "UPDATE users SET is_online = ?, ip_address = ?, port = ? WHERE user_id = ?";
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+        String sql = "UPDATE users SET is_online = ?, ip_address = ?, port = ?, last_seen = CURRENT_TIMESTAMP WHERE user_id = ?";
+        try (Connection conn = pool.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
             pstmt.setBoolean(1, isOnline);
             pstmt.setString(2, ipAddress);
             pstmt.setInt(3, port);
@@ -225,9 +257,79 @@ public class DatabaseManager {
             pstmt.executeUpdate();
         } catch (SQLException e) {
             System.err.println("Error updating user status: " + e.getMessage());
+            return;
+        }
+        fireOnlineStatusChanged();
+    }
+
+    /**
+     * Mark users as still online; one statement for all of them. It also puts back
+     * users a sweep marked offline meanwhile, after a pause longer than the expiry for
+     * instance, since they are evidently still here; the sweep left their address.
+     */
+    public void recordHeartbeats(Collection<Integer> userIds) {
+        if (userIds.isEmpty()) {
+            return;
+        }
+        StringBuilder sql = new StringBuilder("UPDATE users SET is_online = TRUE, last_seen = CURRENT_TIMESTAMP WHERE user_id IN (");
+        for (int i = 0; i < userIds.size(); i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        sql.append(')');
+        try (Connection conn = pool.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql.toString())) {
+            int index = 1;
+            for (int userId : userIds) {
+                pstmt.setInt(index++, userId);
+            }
+            pstmt.executeUpdate();
+        } catch (SQLException e) {
+            System.err.println("Error recording heartbeats: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Mark users offline whose last heartbeat is older than the presence expiry, judged
+     * by the database clock so peers with skewed clocks agree
+     *
+     * @return the number of users marked offline
+     */
+    public int expireStalePresence() {
+        String sql = """
+            UPDATE users SET is_online = FALSE
+            WHERE is_online = TRUE AND (last_seen IS NULL OR last_seen < CURRENT_TIMESTAMP - INTERVAL ? SECOND)
+        """;
+        int expired = 0;
+        try (Connection conn = pool.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setLong(1, getPresenceExpirySeconds());
+            expired = pstmt.executeUpdate();
+        } catch (SQLException e) {
+            System.err.println("Error expiring stale users: " + e.getMessage());
+        }
+        if (expired > 0) {
+            fireOnlineStatusChanged();
+        }
+        return expired;
+    }
+
+    private static long getPresenceExpirySeconds() {
+        return Math.max(1, (ConfigUtils.getPresenceExpiry() + 999) / 1000);
+    }
+
+    private void fireOnlineStatusChanged() {
+        for (Runnable listener : onlineStatusListeners) {
+            listener.run();
         }
     }
 
+    /**
+     * Run a callback after every online status change made through this process
+     */
+    public void addOnlineStatusListener(Runnable listener) {
+        onlineStatusListeners.add(listener);
+    }
+
     // Transfer Management Methods
     public boolean logTransfer(Transfer transfer) {
         String sql = """
@@ -235,7 +337,8 @@ public class DatabaseManager {
             peer_username, peer_ip_address, status, file_path)
             VALUES (?, ?, ?, ?, ?, ?, ?, ?)
         """;
-        try (PreparedStatement pstmt = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+        try (Connection conn = pool.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
             pstmt.setInt(1, transfer.getUserId());
             pstmt.setString(2, transfer.getFileName());
             pstmt.setLong(3, transfer.getFileSize());
@@ -260,9 +363,34 @@ public class DatabaseManager {
         return false;
     }
 
+    /**
+     * Queue a transfer insert without blocking; the future completes with the generated
+     * id (also set on the transfer) once the batch holding it is committed
+     */
+    public CompletableFuture<Integer> logTransferAsync(Transfer transfer) {
+        return transferLogWriter.insert(transfer);
+    }
+
+    /**
+     * Queue a status change without blocking. It is written after any queued insert of
+     * the same transfer, so it can be called before the transfer id is known.
+     */
+    public CompletableFuture<Integer> updateTransferStatusAsync(Transfer transfer, Transfer.TransferStatus status) {
+        transfer.setStatus(status);
+        return transferLogWriter.updateStatus(transfer, status);
+    }
+
+    /**
+     * Write queued transfer log entries now instead of at the next interval
+     */
+    public void flushTransferLog() {
+        transferLogWriter.flush();
+    }
+
     public void updateTransferStatus(int transferId, Transfer.TransferStatus status) {
         String sql = "UPDATE transfers SET status = ? WHERE transfer_id = ?";
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+        try (Connection conn = pool.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
             pstmt.setString(1, status.name());
             pstmt.setInt(2, transferId);
             pstmt.executeUpdate();
@@ -273,24 +401,14 @@ public class DatabaseManager {
 
     public List<Transfer> getUserTransfers(int userId) {
         List<Transfer> transfers = new ArrayList<>();
-        String sql = "SELECT * FROM transfers WHERE user_id = ? ORDER BY timestamp DESC";
+        String sql = TRANSFER_COLUMNS + " WHERE user_id = ? ORDER BY timestamp DESC, transfer_id DESC";
 
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+        try (Connection conn = pool.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
             pstmt.setInt(1, userId);
             try (ResultSet rs = pstmt.executeQuery()) {
                 while (rs.next()) {
-                    Transfer transfer = new Transfer();
-                    transfer.setTransferId(rs.getInt("transfer_id"));
-                    transfer.setUserId(rs.getInt("user_id"));
-                    transfer.setFileName(rs.getString("file_name"));
-                    transfer.setFileSize(rs.getLong("file_size"));
-                    transfer.setTransferType(TransferType.valueOf(rs.getString("transfer_type")));
-                    transfer.setPeerUsername(rs.getString("peer_username"));
-                    transfer.setPeerIpAddress(rs.getString("peer_ip_address"));
-                    transfer.setTimestamp(rs.getTimestamp("timestamp").toLocalDateTime());
-                    transfer.setStatus(Transfer.TransferStatus.valueOf(rs.getString("status")));
-                    transfer.setFilePath(rs.getString("file_path"));
-                    transfers.add(transfer);
+                    transfers.add(mapTransfer(rs));
                 }
             }
         } catch (SQLException e) {
@@ -299,21 +417,159 @@ public class DatabaseManager {
         return transfers;
     }
 
+    /**
+     * One page of a user's history, newest first, using the (user_id, timestamp) index;
+     * pass query.nextPage(page) to continue after the returned page
+     */
+    public TransferPage getTransferPage(TransferQuery query) {
+        StringBuilder sql = new StringBuilder(TRANSFER_COLUMNS);
+        List<Object> params = new ArrayList<>();
+        appendTransferFilters(query, sql, params, true);
+        sql.append(" ORDER BY timestamp DESC, transfer_id DESC LIMIT ?");
+        // One extra row tells whether another page follows
+        params.add(query.getPageSize() + 1);
+        return queryTransferPage(sql.toString(), params, query.getPageSize(), "Error getting transfer page: ");
+    }
+
+    /**
+     * One page starting at a row offset, for jumping into the middle of the history
+     * where no keyset position is known. The offset is walked in the index alone and
+     * only the rows of the page are fetched from the table.
+     */
+    public TransferPage getTransferPageAt(TransferQuery query, long offset) {
+        StringBuilder sql = new StringBuilder("""
+            SELECT t.transfer_id, t.user_id, t.file_name, t.file_size, t.transfer_type, t.peer_username,
+            t.peer_ip_address, t.timestamp, t.status, t.file_path FROM transfers t
+            JOIN (SELECT transfer_id FROM transfers""");
+        List<Object> params = new ArrayList<>();
+        appendTransferFilters(query, sql, params, false);
+        sql.append(" ORDER BY timestamp DESC, transfer_id DESC LIMIT ? OFFSET ?) k")
+            .append(" ON t.transfer_id = k.transfer_id ORDER BY t.timestamp DESC, t.transfer_id DESC");
+        params.add(query.getPageSize() + 1);
+        params.add(offset);
+        return queryTransferPage(sql.toString(), params, query.getPageSize(), "Error getting transfer page at offset: ");
+    }
+
+    /**
+     * Number of transfers matching the query's filters (its keyset position is ignored)
+     */
+    public long countTransfers(TransferQuery query) {
+        StringBuilder sql = new StringBuilder("SELECT COUNT(*) FROM transfers");
+        List<Object> params = new ArrayList<>();
+        appendTransferFilters(query, sql, params, false);
+        try (Connection conn = pool.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql.toString())) {
+            setParameters(pstmt, params);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getLong(1);
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("Error counting transfers: " + e.getMessage());
+        }
+        return 0;
+    }
+
+    private void appendTransferFilters(TransferQuery query, StringBuilder sql, List<Object> params,
+                                       boolean includeKeyset) {
+        sql.append(" WHERE user_id = ?");
+        params.add(query.getUserId());
+        if (query.getTransferType() != null) {
+            sql.append(" AND transfer_type = ?");
+            params.add(query.getTransferType().name());
+        }
+        if (query.getStatus() != null) {
+            sql.append(" AND status = ?");
+            params.add(query.getStatus().name());
+        }
+        if (query.getPeer() != null) {
+            sql.append(" AND (peer_username = ? OR peer_ip_address = ?)");
+            params.add(query.getPeer());
+            params.add(query.getPeer());
+        }
+        if (query.getFrom() != null) {
+            sql.append(" AND timestamp >= ?");
+            params.add(Timestamp.valueOf(query.getFrom()));
+        }
+        if (query.getTo() != null) {
+            sql.append(" AND timestamp < ?");
+            params.add(Timestamp.valueOf(query.getTo()));
+        }
+        if (includeKeyset && query.getAfterTimestamp() != null) {
+            // Keyset: strictly after the last row of the previous page in (timestamp, id) order
+            Timestamp after = Timestamp.valueOf(query.getAfterTimestamp());
+            sql.append(" AND (timestamp < ? OR (timestamp = ? AND transfer_id < ?))");
+            params.add(after);
+            params.add(after);
+            params.add(query.getAfterTransferId());
+        }
+    }
+
+    private TransferPage queryTransferPage(String sql, List<Object> params, int pageSize, String errorPrefix) {
+        List<Transfer> transfers = new ArrayList<>();
+        try (Connection conn = pool.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            setParameters(pstmt, params);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    transfers.add(mapTransfer(rs));
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println(errorPrefix + e.getMessage());
+        }
+
+        boolean hasMore = transfers.size() > pageSize;
+        if (hasMore) {
+            transfers.remove(transfers.size() - 1);
+        }
+        return new TransferPage(transfers, hasMore);
+    }
+
+    private void setParameters(PreparedStatement pstmt, List<Object> params) throws SQLException {
+        for (int i = 0; i < params.size(); i++) {
+            pstmt.setObject(i + 1, params.get(i));
+        }
+    }
+
+    private Transfer mapTransfer(ResultSet rs) throws SQLException {
+        Transfer transfer = new Transfer();
+        transfer.setTransferId(rs.getInt("transfer_id"));
+        transfer.setUserId(rs.getInt("user_id"));
+        transfer.setFileName(rs.getString("file_name"));
+        transfer.setFileSize(rs.getLong("file_size"));
+        transfer.setTransferType(TransferType.valueOf(rs.getString("transfer_type")));
+        transfer.setPeerUsername(rs.getString("peer_username"));
+        transfer.setPeerIpAddress(rs.getString("peer_ip_address"));
+        transfer.setTimestamp(rs.getTimestamp("timestamp").toLocalDateTime());
+        transfer.setStatus(Transfer.TransferStatus.valueOf(rs.getString("status")));
+        transfer.setFilePath(rs.getString("file_path"));
+        return transfer;
+    }
+
     public List<User> getOnlineUsers() {
         List<User> users = new ArrayList<>();
-        String sql = "SELECT * FROM users WHERE is_online = TRUE";
-
-        try (Statement stmt = connection.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
-            while (rs.next()) {
-                User user = new User();
-                user.setUserId(rs.getInt("user_id"));
-                user.setUsername(rs.getString("username"));
-                user.setEmail(rs.getString("email"));
-                user.setOnline(rs.getBoolean("is_online"));
-                user.setIpAddress(rs.getString("ip_address"));
-                user.setPort(rs.getInt("port"));
-                users.add(user);
+        // Only the columns peers need, never the password hash, and only users heard from recently
+        String sql = """
+            SELECT user_id, username, email, ip_address, port FROM users
+            WHERE is_online = TRUE AND last_seen >= CURRENT_TIMESTAMP - INTERVAL ? SECOND
+        """;
+
+        try (Connection conn = pool.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setLong(1, getPresenceExpirySeconds());
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    User user = new User();
+                    user.setUserId(rs.getInt("user_id"));
+                    user.setUsername(rs.getString("username"));
+                    user.setEmail(rs.getString("email"));
+                    user.setOnline(true);
+                    user.setIpAddress(rs.getString("ip_address"));
+                    user.setPort(rs.getInt("port"));
+                    users.add(user);
+                }
             }
         } catch (SQLException e) {
             System.err.println("Error getting online users: " + e.getMessage());
@@ -324,9 +580,10 @@ public class DatabaseManager {
     /**
      * Update user password to hashed version (for upgrading existing plain text passwords)
      */
-    private void updateUserPasswordHash(int userId, String plainTextPassword) {
+    private void updateUserPasswordHash(Connection conn, int userId, String plainTextPassword) {
+        // Runs on the caller's connection so a login never needs two pooled connections
         String sql = "UPDATE users SET password = ? WHERE user_id = ?";
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
             String hashedPassword = PasswordUtils.hashPassword(plainTextPassword);
             pstmt.setString(1, hashedPassword);
             pstmt.setInt(2, userId);
@@ -346,7 +603,8 @@ public class DatabaseManager {
     public boolean changeUserPassword(int userId, String oldPassword, String newPassword) {
         // First verify the old password
         String sql = "SELECT password FROM users WHERE user_id = ?";
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+        try (Connection conn = pool.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
             pstmt.setInt(1, userId);
 
             try (ResultSet rs = pstmt.executeQuery()) {
@@ -356,7 +614,7 @@ public class DatabaseManager {
                     if (PasswordUtils.verifyPassword(oldPassword, storedPasswordHash)) {
                         // Old password is correct, update to new password
                         String updateSql = "UPDATE users SET password = ? WHERE user_id = ?";
-                        try (PreparedStatement updatePstmt = connection.prepareStatement(updateSql)) {
+                        try (PreparedStatement updatePstmt = conn.prepareStatement(updateSql)) {
                             String newHashedPassword = PasswordUtils.hashPassword(newPassword);
                             updatePstmt.setString(1, newHashedPassword);
                             updatePstmt.setInt(2, userId);
@@ -373,14 +631,21 @@ public class DatabaseManager {
         return false;
     }
 
-    public void closeConnection() {
-        try {
-            if (connection != null && !connection.isClosed()) {
-                connection.close();
-                System.out.println("Database connection closed");
-            }
-        } catch (SQLException e) {
-            System.err.println("Error closing connection: " + e.getMessage());
+    /**
+     * Pool usage and wait-time metrics
+     */
+    public ConnectionPool getConnectionPool() {
+        return pool;
+    }
+
+    public synchronized void closeConnection() {
+        if (closed) {
+            return;
         }
+        closed = true;
+        // Drain queued transfer log entries while connections are still available
+        transferLogWriter.shutdown();
+        pool.close();
+        System.out.println("Database connection pool closed: " + pool);
     }
 }
\ No newline at end of file
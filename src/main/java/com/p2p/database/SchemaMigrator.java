@@ -0,0 +1,125 @@
+package com.p2p.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Brings an existing database up to the current schema
+ *
+ * Applied versions are recorded in a schema_version table. Each migration runs once,
+ * in version order, and must be safe on databases created by older releases that
+ * already have some of its objects; the baseline tables themselves are still created
+ * by DatabaseManager with CREATE TABLE IF NOT EXISTS.
+ */
+class SchemaMigrator {
+
+    interface MigrationStep {
+        void apply(Connection conn) throws SQLException;
+    }
+
+    private static final class Migration {
+        final int version;
+        final String description;
+        final MigrationStep step;
+
+        Migration(int version, String description, MigrationStep step) {
+            this.version = version;
+            this.description = description;
+            this.step = step;
+        }
+    }
+
+    private final List<Migration> migrations = new ArrayList<>();
+
+    SchemaMigrator() {
+        add(1, "Index transfers for per-user history pages",
+            conn -> createIndexIfMissing(conn, "transfers", "idx_transfers_user_time",
+                "CREATE INDEX idx_transfers_user_time ON transfers (user_id, timestamp)"));
+        add(2, "Index users by online status for the peer directory",
+            conn -> createIndexIfMissing(conn, "users", "idx_users_online",
+                "CREATE INDEX idx_users_online ON users (is_online)"));
+        add(3, "Record when each user was last seen for presence expiry",
+            conn -> addColumnIfMissing(conn, "users", "last_seen",
+                "ALTER TABLE users ADD COLUMN last_seen TIMESTAMP NULL"));
+    }
+
+    private void add(int version, String description, MigrationStep step) {
+        migrations.add(new Migration(version, description, step));
+    }
+
+    void migrate(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("""
+                CREATE TABLE IF NOT EXISTS schema_version (
+                    version INT PRIMARY KEY,
+                    description VARCHAR(255) NOT NULL,
+                    applied_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+                )
+            """);
+        }
+
+        int current = getCurrentVersion(conn);
+        for (Migration migration : migrations) {
+            if (migration.version <= current) {
+                continue;
+            }
+            System.out.println("Applying schema migration " + migration.version + ": " + migration.description);
+            migration.step.apply(conn);
+            try (PreparedStatement pstmt = conn.prepareStatement(
+                    "INSERT INTO schema_version (version, description) VALUES (?, ?)")) {
+                pstmt.setInt(1, migration.version);
+                pstmt.setString(2, migration.description);
+                pstmt.executeUpdate();
+            }
+        }
+    }
+
+    private int getCurrentVersion(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COALESCE(MAX(version), 0) FROM schema_version")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    static void addColumnIfMissing(Connection conn, String table, String column, String ddl) throws SQLException {
+        String sql = """
+            SELECT COUNT(*) FROM information_schema.columns
+            WHERE table_schema = DATABASE() AND table_name = ? AND column_name = ?
+        """;
+        if (count(conn, sql, table, column) == 0) {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.executeUpdate(ddl);
+            }
+        }
+    }
+
+    /**
+     * MySQL has no CREATE INDEX IF NOT EXISTS, so check information_schema first
+     */
+    static void createIndexIfMissing(Connection conn, String table, String index, String ddl) throws SQLException {
+        String sql = """
+            SELECT COUNT(*) FROM information_schema.statistics
+            WHERE table_schema = DATABASE() AND table_name = ? AND index_name = ?
+        """;
+        if (count(conn, sql, table, index) == 0) {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.executeUpdate(ddl);
+            }
+        }
+    }
+
+    private static int count(Connection conn, String sql, String table, String name) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, table);
+            pstmt.setString(2, name);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package com.p2p.database;
+
+import com.p2p.model.Transfer;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-behind queue for transfer inserts and status changes
+ *
+ * Callers enqueue and get a future back; a single writer thread groups whatever has
+ * queued up into one JDBC batch per statement type and one transaction, flushing when
+ * the batch is full or the oldest entry has waited the flush interval. Work is applied
+ * in submission order, so a status change always lands after the insert it refers to.
+ * When a batch fails for anything but a lost connection, its entries are written again
+ * one at a time, so a bad row fails only its own future.
+ */
+class TransferLogWriter {
+    private static final String INSERT_SQL = """
+        INSERT INTO transfers (user_id, file_name, file_size, transfer_type,
+        peer_username, peer_ip_address, status, file_path)
+        VALUES (?, ?, ?, ?, ?, ?, ?, ?)
+    """;
+    private static final String UPDATE_STATUS_SQL = "UPDATE transfers SET status = ? WHERE transfer_id = ?";
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = 10000;
+
+    private final ConnectionPool pool;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    private final BlockingQueue<Operation> queue = new LinkedBlockingQueue<>();
+    private final Thread writerThread;
+    private volatile boolean running = true;
+
+    private static final class Operation {
+        final Transfer transfer;
+        // Null for an insert
+        final Transfer.TransferStatus status;
+        final CompletableFuture<Integer> result = new CompletableFuture<>();
+
+        Operation(Transfer transfer, Transfer.TransferStatus status) {
+            this.transfer = transfer;
+            this.status = status;
+        }
+    }
+
+    // Marks a flush request from flush(); never written
+    private final Operation flushMarker = new Operation(null, null);
+
+    TransferLogWriter(ConnectionPool pool, int batchSize, long flushIntervalMillis) {
+        this.pool = pool;
+        this.batchSize = Math.max(1, batchSize);
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, flushIntervalMillis));
+        this.writerThread = new Thread(this::run, "transfer-log-writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /**
+     * Queue an insert; the future completes with the generated transfer id, which is
+     * also set on the transfer
+     */
+    CompletableFuture<Integer> insert(Transfer transfer) {
+        return enqueue(new Operation(transfer, null));
+    }
+
+    /**
+     * Queue a status change; the future completes with the number of rows updated
+     */
+    CompletableFuture<Integer> updateStatus(Transfer transfer, Transfer.TransferStatus status) {
+        return enqueue(new Operation(transfer, status));
+    }
+
+    private CompletableFuture<Integer> enqueue(Operation operation) {
+        if (!running) {
+            operation.result.completeExceptionally(new IllegalStateException("Transfer log writer is shut down"));
+            return operation.result;
+        }
+        queue.add(operation);
+        return operation.result;
+    }
+
+    /**
+     * Write everything queued so far without waiting for the interval
+     */
+    void flush() {
+        queue.add(flushMarker);
+    }
+
+    /**
+     * Stop accepting work and wait for the queue to drain
+     */
+    void shutdown() {
+        running = false;
+        // Wakes the writer; it then drains without waiting and exits
+        queue.add(flushMarker);
+        try {
+            writerThread.join(SHUTDOWN_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (writerThread.isAlive()) {
+            System.err.println("Transfer log writer did not drain within " + SHUTDOWN_TIMEOUT_MILLIS + " ms");
+        }
+    }
+
+    private void run() {
+        List<Operation> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                Operation first = running ? queue.take() : queue.poll();
+                if (first == null) {
+                    break;
+                }
+                long deadline = System.nanoTime() + flushIntervalNanos;
+                boolean flushNow = first == flushMarker;
+                if (!flushNow) {
+                    batch.add(first);
+                }
+                while (!flushNow && batch.size() < batchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    Operation next = remaining > 0 && running
+                        ? queue.poll(remaining, TimeUnit.NANOSECONDS)
+                        : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    if (next == flushMarker) {
+                        flushNow = true;
+                    } else {
+                        batch.add(next);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                running = false;
+            }
+            if (!batch.isEmpty()) {
+                write(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private void write(List<Operation> batch) {
+        List<Operation> inserts = new ArrayList<>();
+        // Only the last status change per transfer needs to reach the database
+        Map<Transfer, Operation> updates = new LinkedHashMap<>();
+        List<Operation> superseded = new ArrayList<>();
+        for (Operation operation : batch) {
+            if (operation.status == null) {
+                inserts.add(operation);
+            } else {
+                Operation previous = updates.remove(operation.transfer);
+                if (previous != null) {
+                    superseded.add(previous);
+                }
+                updates.put(operation.transfer, operation);
+            }
+        }
+
+        try (Connection conn = pool.getConnection()) {
+            try {
+                conn.setAutoCommit(false);
+                if (!inserts.isEmpty()) {
+                    executeInserts(conn, inserts);
+                }
+                int[] updated = updates.isEmpty() ? new int[0] : executeUpdates(conn, updates.values());
+                conn.commit();
+
+                for (Operation operation : inserts) {
+                    operation.result.complete(operation.transfer.getTransferId());
+                }
+                int i = 0;
+                for (Operation operation : updates.values()) {
+                    operation.result.complete(updated[i++]);
+                }
+            } catch (SQLException e) {
+                if (inserts.size() + updates.size() == 1 || isConnectionError(e)) {
+                    throw e;
+                }
+                conn.rollback();
+                System.err.println("Error writing " + batch.size() + " transfer log entries, retrying one at a time: "
+                    + e.getMessage());
+                conn.setAutoCommit(true);
+                writeEach(conn, inserts, updates.values());
+            }
+            for (Operation operation : superseded) {
+                operation.result.complete(0);
+            }
+        } catch (SQLException e) {
+            System.err.println("Error writing " + batch.size() + " transfer log entries: " + e.getMessage());
+            // Entries a retry already wrote keep their result
+            for (Operation operation : batch) {
+                operation.result.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * Write each entry in its own transaction, failing only the ones the database rejects
+     */
+    private void writeEach(Connection conn, List<Operation> inserts, Collection<Operation> updates)
+            throws SQLException {
+        int failed = 0;
+        for (Operation operation : inserts) {
+            try {
+                executeInserts(conn, List.of(operation));
+                operation.result.complete(operation.transfer.getTransferId());
+            } catch (SQLException e) {
+                if (isConnectionError(e)) {
+                    throw e;
+                }
+                failed++;
+                operation.result.completeExceptionally(e);
+            }
+        }
+        for (Operation operation : updates) {
+            try {
+                operation.result.complete(executeUpdates(conn, List.of(operation))[0]);
+            } catch (SQLException e) {
+                if (isConnectionError(e)) {
+                    throw e;
+                }
+                failed++;
+                operation.result.completeExceptionally(e);
+            }
+        }
+        if (failed > 0) {
+            System.err.println(failed + " of " + (inserts.size() + updates.size())
+                + " transfer log entries could not be written");
+        }
+    }
+
+    // SQLSTATE class 08: nothing more will get through this connection
+    private static boolean isConnectionError(SQLException e) {
+        return e.getSQLState() != null && e.getSQLState().startsWith("08");
+    }
+
+    private void executeInserts(Connection conn, List<Operation> inserts) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(INSERT_SQL, Statement.RETURN_GENERATED_KEYS)) {
+            for (Operation operation : inserts) {
+                Transfer transfer = operation.transfer;
+                pstmt.setInt(1, transfer.getUserId());
+                pstmt.setString(2, transfer.getFileName());
+                pstmt.setLong(3, transfer.getFileSize());
+                pstmt.setString(4, transfer.getTransferType().name());
+                pstmt.setString(5, transfer.getPeerUsername());
+                pstmt.setString(6, transfer.getPeerIpAddress());
+                pstmt.setString(7, transfer.getStatus().name());
+                pstmt.setString(8, transfer.getFilePath());
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+
+            int index = 0;
+            try (ResultSet generatedKeys = pstmt.getGeneratedKeys()) {
+                while (generatedKeys.next() && index < inserts.size()) {
+                    inserts.get(index++).transfer.setTransferId(generatedKeys.getInt(1));
+                }
+            }
+            if (index != inserts.size()) {
+                throw new SQLException("Expected " + inserts.size() + " generated keys, got " + index);
+            }
+        }
+    }
+
+    private int[] executeUpdates(Connection conn, Iterable<Operation> updates) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(UPDATE_STATUS_SQL)) {
+            for (Operation operation : updates) {
+                pstmt.setString(1, operation.status.name());
+                pstmt.setInt(2, operation.transfer.getTransferId());
+                pstmt.addBatch();
+            }
+            return pstmt.executeBatch();
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.p2p.database;
+
+import com.p2p.model.Transfer;
+
+import java.util.List;
+
+/**
+ * One page of transfer history and whether more rows follow it
+ */
+public class TransferPage {
+    private final List<Transfer> transfers;
+    private final boolean hasMore;
+
+    public TransferPage(List<Transfer> transfers, boolean hasMore) {
+        this.transfers = transfers;
+        this.hasMore = hasMore;
+    }
+
+    public List<Transfer> getTransfers() {
+        return transfers;
+    }
+
+    public boolean hasMore() {
+        return hasMore;
+    }
+
+    public Transfer getLastTransfer() {
+        return transfers.isEmpty() ? null : transfers.get(transfers.size() - 1);
+    }
+}
@@ -0,0 +1,124 @@
+package com.p2p.database;
+
+import com.p2p.model.Transfer;
+import com.p2p.model.TransferType;
+
+import java.time.LocalDateTime;
+
+/**
+ * Filters and position for one page of a user's transfer history
+ *
+ * Pages are ordered newest first by (timestamp, transfer_id) and addressed by keyset:
+ * the next page starts strictly after the last row of the previous one, so fetching
+ * page N costs the same as fetching page 1. Leave a filter null to not filter on it.
+ */
+public class TransferQuery {
+    private final int userId;
+    private final int pageSize;
+    private TransferType transferType;
+    private Transfer.TransferStatus status;
+    private String peer;
+    private LocalDateTime from;
+    private LocalDateTime to;
+    private LocalDateTime afterTimestamp;
+    private int afterTransferId;
+
+    public TransferQuery(int userId, int pageSize) {
+        this.userId = userId;
+        this.pageSize = Math.max(1, pageSize);
+    }
+
+    /**
+     * The same filters, positioned after the last row of the given page
+     */
+    public TransferQuery nextPage(TransferPage page) {
+        TransferQuery next = new TransferQuery(userId, pageSize);
+        next.transferType = transferType;
+        next.status = status;
+        next.peer = peer;
+        next.from = from;
+        next.to = to;
+        Transfer last = page.getLastTransfer();
+        if (last != null) {
+            next.afterTimestamp = last.getTimestamp();
+            next.afterTransferId = last.getTransferId();
+        } else {
+            next.afterTimestamp = afterTimestamp;
+            next.afterTransferId = afterTransferId;
+        }
+        return next;
+    }
+
+    public int getUserId() {
+        return userId;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public TransferType getTransferType() {
+        return transferType;
+    }
+
+    public void setTransferType(TransferType transferType) {
+        this.transferType = transferType;
+    }
+
+    public Transfer.TransferStatus getStatus() {
+        return status;
+    }
+
+    public void setStatus(Transfer.TransferStatus status) {
+        this.status = status;
+    }
+
+    public String getPeer() {
+        return peer;
+    }
+
+    /**
+     * Match transfers whose peer username or peer IP address equals this value
+     */
+    public void setPeer(String peer) {
+        this.peer = peer;
+    }
+
+    public LocalDateTime getFrom() {
+        return from;
+    }
+
+    /**
+     * Inclusive lower bound on the transfer timestamp
+     */
+    public void setFrom(LocalDateTime from) {
+        this.from = from;
+    }
+
+    public LocalDateTime getTo() {
+        return to;
+    }
+
+    /**
+     * Exclusive upper bound on the transfer timestamp
+     */
+    public void setTo(LocalDateTime to) {
+        this.to = to;
+    }
+
+    public LocalDateTime getAfterTimestamp() {
+        return afterTimestamp;
+    }
+
+    public int getAfterTransferId() {
+        return afterTransferId;
+    }
+
+    /**
+     * Start after the row with this timestamp and id (newest-first order)
+     */
+    public void setAfter(LocalDateTime timestamp, int transferId) {
+        this.afterTimestamp = timestamp;
+        this.afterTransferId = transferId;
+    }
+}
@@ -0,0 +1,255 @@
+package com.p2p.gui;
+
+import com.p2p.model.Transfer;
+import com.p2p.model.TransferType;
+import com.p2p.utils.FileUtils;
+
+import javax.swing.table.AbstractTableModel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Live table of the transfers in progress, one row per transfer
+ *
+ * Progress events only record the latest byte count, which costs a map lookup. The
+ * table itself changes only in {@link #sample}, which the dashboard calls on a fixed
+ * timer: it turns the byte counts into a rate, smooths the rate for the ETA and
+ * repaints every row once. The repaint cost therefore depends on the sample rate,
+ * not on how many transfers are running or how often they report. Finished transfers
+ * stay visible for FINISHED_LINGER_NANOS and are then removed.
+ *
+ * Must be used on the EDT only.
+ */
+public class ActiveTransfersTableModel extends AbstractTableModel {
+    private static final long serialVersionUID = 1L;
+
+    private static final String[] COLUMN_NAMES = {"Type", "File Name", "Peer", "Progress", "Done", "Rate", "ETA", "State"};
+    public static final int PROGRESS_COLUMN = 3;
+
+    private static final long FINISHED_LINGER_NANOS = 5_000_000_000L;
+    private static final long STALL_NANOS = 3_000_000_000L;
+    // Weight of the newest sample in the smoothed rate
+    private static final double RATE_SMOOTHING = 0.3;
+
+    private final Map<Transfer, Entry> entries = new LinkedHashMap<>();
+    private final List<Entry> rows = new ArrayList<>();
+    // Entries were added or removed since rows was last rebuilt
+    private boolean rowsChanged;
+
+    private static final class Entry {
+        final Transfer transfer;
+        long bytes;
+        long sampledBytes;
+        long sampledAtNanos;
+        long lastAdvanceNanos;
+        double rate;
+        double smoothedRate;
+        String state;
+        long finishedAtNanos;
+
+        Entry(Transfer transfer, long now) {
+            this.transfer = transfer;
+            this.sampledAtNanos = now;
+            this.lastAdvanceNanos = now;
+        }
+
+        boolean isFinished() {
+            return finishedAtNanos != 0;
+        }
+    }
+
+    /**
+     * Record progress; shown at the next sample
+     */
+    public void progress(Transfer transfer, long bytesTransferred) {
+        Entry entry = entries.get(transfer);
+        if (entry == null) {
+            entry = new Entry(transfer, System.nanoTime());
+            entries.put(transfer, entry);
+            rowsChanged = true;
+        }
+        if (!entry.isFinished()) {
+            entry.bytes = bytesTransferred;
+        }
+    }
+
+    /**
+     * Mark a transfer finished; it stays listed briefly with its final state
+     */
+    public void finish(Transfer transfer, boolean success) {
+        Entry entry = entries.get(transfer);
+        if (entry == null) {
+            entry = new Entry(transfer, System.nanoTime());
+            entries.put(transfer, entry);
+            rowsChanged = true;
+        }
+        if (success) {
+            entry.bytes = transfer.getFileSize();
+        }
+        entry.state = success ? "Completed" : "Failed";
+        entry.finishedAtNanos = System.nanoTime();
+    }
+
+    /**
+     * Update rates from the counters recorded since the last sample and repaint
+     */
+    public void sample() {
+        long now = System.nanoTime();
+        for (Iterator<Entry> it = entries.values().iterator(); it.hasNext(); ) {
+            Entry entry = it.next();
+            if (entry.isFinished()) {
+                if (now - entry.finishedAtNanos > FINISHED_LINGER_NANOS) {
+                    it.remove();
+                    rowsChanged = true;
+                }
+                entry.rate = 0;
+                continue;
+            }
+
+            long elapsed = now - entry.sampledAtNanos;
+            if (elapsed <= 0) {
+                continue;
+            }
+            long delta = entry.bytes - entry.sampledBytes;
+            entry.rate = delta * 1e9 / elapsed;
+            entry.smoothedRate = entry.smoothedRate == 0
+                ? entry.rate
+                : RATE_SMOOTHING * entry.rate + (1 - RATE_SMOOTHING) * entry.smoothedRate;
+            entry.sampledBytes = entry.bytes;
+            entry.sampledAtNanos = now;
+            if (delta > 0) {
+                entry.lastAdvanceNanos = now;
+            }
+
+            if (entry.bytes == 0 && entry.transfer.getTransferType() == TransferType.SENT) {
+                entry.state = "Connecting";
+            } else if (now - entry.lastAdvanceNanos > STALL_NANOS) {
+                entry.state = "Stalled";
+            } else {
+                entry.state = entry.transfer.getTransferType() == TransferType.SENT ? "Sending" : "Receiving";
+            }
+        }
+
+        if (rowsChanged) {
+            rowsChanged = false;
+            rows.clear();
+            rows.addAll(entries.values());
+            fireTableDataChanged();
+        } else if (!rows.isEmpty()) {
+            fireTableRowsUpdated(0, rows.size() - 1);
+        }
+    }
+
+    /**
+     * Transfers still running
+     */
+    public int getActiveCount() {
+        int active = 0;
+        for (Entry entry : rows) {
+            if (!entry.isFinished()) {
+                active++;
+            }
+        }
+        return active;
+    }
+
+    public long getActiveBytes() {
+        long bytes = 0;
+        for (Entry entry : rows) {
+            if (!entry.isFinished()) {
+                bytes += entry.bytes;
+            }
+        }
+        return bytes;
+    }
+
+    public long getActiveSize() {
+        long size = 0;
+        for (Entry entry : rows) {
+            if (!entry.isFinished()) {
+                size += entry.transfer.getFileSize();
+            }
+        }
+        return size;
+    }
+
+    public double getActiveRate() {
+        double rate = 0;
+        for (Entry entry : rows) {
+            rate += entry.rate;
+        }
+        return rate;
+    }
+
+    @Override
+    public int getRowCount() {
+        return rows.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMN_NAMES.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMN_NAMES[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int column) {
+        return column == PROGRESS_COLUMN ? Integer.class : String.class;
+    }
+
+    @Override
+    public boolean isCellEditable(int row, int column) {
+        return false;
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        Entry entry = rows.get(row);
+        Transfer transfer = entry.transfer;
+        long size = transfer.getFileSize();
+        switch (column) {
+            case 0:
+                return transfer.getTransferType().getDisplayName();
+            case 1:
+                return transfer.getFileName();
+            case 2:
+                return transfer.getPeerUsername() != null ? transfer.getPeerUsername() : transfer.getPeerIpAddress();
+            case 3:
+                return size == 0 ? 100 : (int) (entry.bytes * 100 / size);
+            case 4:
+                return FileUtils.formatFileSize(entry.bytes) + " / " + FileUtils.formatFileSize(size);
+            case 5:
+                return entry.isFinished() ? "" : FileUtils.formatFileSize((long) entry.rate) + "/s";
+            case 6:
+                return entry.isFinished() ? "" : formatEta(size - entry.bytes, entry.smoothedRate);
+            case 7:
+                return entry.state != null ? entry.state : "";
+            default:
+                return "";
+        }
+    }
+
+    static String formatEta(long remainingBytes, double rate) {
+        if (remainingBytes <= 0) {
+            return "0s";
+        }
+        if (rate < 1) {
+            return "--";
+        }
+        long seconds = (long) Math.ceil(remainingBytes / rate);
+        if (seconds >= 3600) {
+            return String.format("%dh %02dm", seconds / 3600, seconds % 3600 / 60);
+        }
+        if (seconds >= 60) {
+            return String.format("%dm %02ds", seconds / 60, seconds % 60);
+        }
+        return seconds + "s";
+    }
+}
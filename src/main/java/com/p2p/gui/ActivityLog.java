@@ -0,0 +1,101 @@
+package com.p2p.gui;
+
+import com.p2p.utils.RotatingFileLog;
+
+import javax.swing.JTextArea;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+
+/**
+ * The dashboard's activity log: the last maxLines lines in a ring, shown in a text area
+ *
+ * Lines are added as events are drained and rendered together by {@link #render},
+ * which the dashboard calls once per frame: one append for the whole batch, then the
+ * oldest lines are cut from the front of the document so it never holds more than
+ * maxLines. Every line also goes to the optional file log, which keeps the full history.
+ *
+ * Must be used on the EDT only.
+ */
+public class ActivityLog {
+    private final JTextArea textArea;
+    private final RotatingFileLog fileLog;
+    private final String[] lines;
+    private int start;
+    private int count;
+    // Lines added since the last render, at most lines.length
+    private int unrendered;
+    private long added;
+
+    public ActivityLog(JTextArea textArea, int maxLines, RotatingFileLog fileLog) {
+        this.textArea = textArea;
+        this.lines = new String[Math.max(1, maxLines)];
+        this.fileLog = fileLog;
+    }
+
+    public void add(String line) {
+        if (count < lines.length) {
+            lines[(start + count++) % lines.length] = line;
+        } else {
+            lines[start] = line;
+            start = (start + 1) % lines.length;
+        }
+        unrendered = Math.min(lines.length, unrendered + 1);
+        added++;
+        if (fileLog != null) {
+            fileLog.append(line + System.lineSeparator());
+        }
+    }
+
+    /**
+     * Show the lines added since the last call, if any
+     */
+    public void render() {
+        if (unrendered == 0) {
+            return;
+        }
+        boolean replaceAll = unrendered == lines.length;
+        StringBuilder text = new StringBuilder();
+        for (int i = count - unrendered; i < count; i++) {
+            text.append(lines[(start + i) % lines.length]).append('\n');
+        }
+        unrendered = 0;
+
+        if (replaceAll) {
+            // More new lines than fit; nothing already shown survives
+            textArea.setText(text.toString());
+        } else {
+            textArea.append(text.toString());
+            trim();
+        }
+        textArea.setCaretPosition(textArea.getDocument().getLength());
+    }
+
+    private void trim() {
+        Document document = textArea.getDocument();
+        Element root = document.getDefaultRootElement();
+        // The text ends with a newline, which leaves one empty element at the end
+        int excess = root.getElementCount() - 1 - lines.length;
+        if (excess <= 0) {
+            return;
+        }
+        try {
+            document.remove(0, root.getElement(excess - 1).getEndOffset());
+        } catch (BadLocationException e) {
+            textArea.setText("");
+        }
+    }
+
+    /**
+     * Lines added since the dashboard opened, including those no longer shown
+     */
+    public long getAddedCount() {
+        return added;
+    }
+
+    public void close() {
+        if (fileLog != null) {
+            fileLog.close();
+        }
+    }
+}
@@ -4,13 +4,26 @@ import com.p2p.database.DatabaseManager;
 import com.p2p.model.User;
 import com.p2p.model.Transfer;
 import com.p2p.model.TransferType;
-import com.p2p.network.FileServer;
-import com.p2p.network.FileClient;
+import com.p2p.network.TransferEngine;
+import com.p2p.network.TransferEventBus;
+import com.p2p.network.TransferListener;
+import com.p2p.network.LanDiscovery;
+import com.p2p.network.catalog.CatalogIndex;
+import com.p2p.network.catalog.CatalogSync;
+import com.p2p.network.dht.DhtNode;
+import com.p2p.network.http.HttpGateway;
+import com.p2p.network.gossip.GossipMembership;
+import com.p2p.network.pull.PullClient;
+import com.p2p.network.sync.FolderSync;
+import com.p2p.network.PeerDiscovery;
+import com.p2p.network.PresenceService;
 import com.p2p.utils.FileUtils;
 import com.p2p.utils.ConfigUtils;
+import com.p2p.utils.NetworkUtils;
+import com.p2p.utils.RotatingFileLog;
 
 import javax.swing.*;
-import javax.swing.table.DefaultTableModel;
+import javax.swing.table.TableCellRenderer;
 import javax.swing.table.TableColumnModel;
 import java.awt.*;
 import java.awt.event.ActionEvent;
@@ -18,15 +31,16 @@ import java.awt.event.ActionListener;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.time.format.DateTimeFormatter;
-import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 /**
  * Main dashboard window for authenticated users
  */
-public class DashboardFrame extends JFrame {
+public class DashboardFrame extends JFrame implements TransferListener {
     private User currentUser;
     private int serverPort;
     private JLabel welcomeLabel;
@@ -36,28 +50,58 @@ public class DashboardFrame extends JFrame {
     private JButton selectFileButton;
     private JButton sendFileButton;
     private JButton refreshLogsButton;
+    private JButton searchButton;
     private JButton logoutButton;
     private JTable transferTable;
-    private DefaultTableModel tableModel;
+    private TransferTableModel tableModel;
     private JLabel selectedFileLabel;
     private JProgressBar transferProgressBar;
     private JTextArea logArea;
 
     private File selectedFile;
-    private FileServer fileServer;
-    private ExecutorService executorService;
+    private TransferEngine transferEngine;
+    private TransferEventBus eventBus;
+    private Timer eventTimer;
+    private Timer sampleTimer;
+    private ActivityLog activityLog;
+    private String advertisedAddress;
+    private LanDiscovery lanDiscovery;
+    private GossipMembership gossip;
+    private volatile DhtNode dht;
+    private CatalogSync catalogSync;
+    private HttpGateway httpGateway;
+    private FolderSync folderSync;
+    private ExecutorService downloadExecutor;
+    private ActiveTransfersTableModel activeTransfersModel;
+    private JTable activeTransfersTable;
+
+    // Timestamp for log lines replayed in the current batch
+    private String drainTimestamp;
 
     private static final int DEFAULT_PORT = ConfigUtils.getDefaultPort();
+    private static final int EVENT_BUS_CAPACITY = 8192;
+    private static final int EVENT_DRAIN_INTERVAL_MS = 40;
+    private static final int ACTIVE_SAMPLE_INTERVAL_MS = 500;
+    private static final DateTimeFormatter LOG_TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss");
 
     // Constructor with custom port
     public DashboardFrame(User user, int port) {
         this.currentUser = user;
         this.serverPort = port;
-        this.executorService = Executors.newCachedThreadPool();
+        this.eventBus = new TransferEventBus(EVENT_BUS_CAPACITY);
+        this.transferEngine = new TransferEngine(user, port, eventBus);
+        this.downloadExecutor = Executors.newFixedThreadPool(2);
 
         initializeComponents();
         setupLayout();
         setupEventHandlers();
+
+        // Network threads publish to the bus; the EDT picks events up in batches
+        eventTimer = new Timer(EVENT_DRAIN_INTERVAL_MS, e -> drainEvents());
+        eventTimer.start();
+        // Active transfer rates and ETAs are recomputed on their own, slower clock
+        sampleTimer = new Timer(ACTIVE_SAMPLE_INTERVAL_MS, e -> sampleActiveTransfers());
+        sampleTimer.start();
         loadTransferHistory();
         startFileServer();
 
@@ -65,9 +109,6 @@ public class DashboardFrame extends JFrame {
         setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
         setExtendedState(JFrame.MAXIMIZED_BOTH);
         setLocationRelativeTo(null);
-
-        // Update user online status
-        updateUserOnlineStatus(true);
     }
 
     // Constructor with default port (for backward compatibility)
@@ -83,10 +124,12 @@ public class DashboardFrame extends JFrame {
         selectFileButton = new JButton("Select File");
         sendFileButton = new JButton("Send File");
         refreshLogsButton = new JButton("Refresh");
+        searchButton = new JButton("Search Network");
         logoutButton = new JButton("Logout");
         selectedFileLabel = new JLabel("No file selected");
         transferProgressBar = new JProgressBar(0, 100);
         logArea = new JTextArea(8, 50);
+        activityLog = new ActivityLog(logArea, ConfigUtils.getLogMaxLines(), openActivityLogFile());
 
         // Style components
         Font headerFont = new Font("Arial", Font.BOLD, 18);
@@ -115,6 +158,12 @@ public class DashboardFrame extends JFrame {
         refreshLogsButton.setForeground(Color.WHITE);
         refreshLogsButton.setFocusPainted(false);
 
+        searchButton.setBackground(new Color(70, 130, 180));
+        searchButton.setForeground(Color.WHITE);
+        searchButton.setFocusPainted(false);
+        // Enabled once catalog sync starts
+        searchButton.setEnabled(false);
+
         logoutButton.setBackground(new Color(220, 20, 60));
         logoutButton.setForeground(Color.WHITE);
         logoutButton.setFocusPainted(false);
@@ -130,13 +179,7 @@ public class DashboardFrame extends JFrame {
         logArea.setBackground(new Color(248, 248, 248));
 
         // Initialize transfer table
-        String[] columnNames = {"Type", "File Name", "Size", "Peer", "Status", "Timestamp"};
-        tableModel = new DefaultTableModel(columnNames, 0) {
-            @Override
-            public boolean isCellEditable(int row, int column) {
-                return false;
-            }
-        };
+        tableModel = new TransferTableModel(currentUser.getUserId());
         transferTable = new JTable(tableModel);
         transferTable.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
         transferTable.setRowHeight(25);
@@ -149,6 +192,13 @@ public class DashboardFrame extends JFrame {
         columnModel.getColumn(3).setPreferredWidth(120); // Peer
         columnModel.getColumn(4).setPreferredWidth(100); // Status
         columnModel.getColumn(5).setPreferredWidth(150); // Timestamp
+
+        // Initialize active transfers table
+        activeTransfersModel = new ActiveTransfersTableModel();
+        activeTransfersTable = new JTable(activeTransfersModel);
+        activeTransfersTable.setRowHeight(22);
+        activeTransfersTable.getColumnModel().getColumn(ActiveTransfersTableModel.PROGRESS_COLUMN)
+            .setCellRenderer(new ProgressCellRenderer());
     }
 
     private void setupLayout() {
@@ -167,6 +217,7 @@ public class DashboardFrame extends JFrame {
 
         JPanel headerButtonPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
         headerButtonPanel.setBackground(Color.WHITE);
+        headerButtonPanel.add(searchButton);
         headerButtonPanel.add(refreshLogsButton);
         headerButtonPanel.add(logoutButton);
 
@@ -187,9 +238,16 @@ public class DashboardFrame extends JFrame {
         splitPane.setDividerLocation(300);
         splitPane.setResizeWeight(0.6);
 
+        // Active transfers above the history
+        JSplitPane tablesPane = new JSplitPane(JSplitPane.VERTICAL_SPLIT);
+        tablesPane.setDividerLocation(130);
+        tablesPane.setResizeWeight(0.3);
+        tablesPane.setTopComponent(createActiveTransfersPanel());
+
         // Transfer history panel
         JPanel historyPanel = createTransferHistoryPanel();
-        splitPane.setTopComponent(historyPanel);
+        tablesPane.setBottomComponent(historyPanel);
+        splitPane.setTopComponent(tablesPane);
 
         // Log panel
         JPanel logPanel = createLogPanel();
@@ -266,6 +324,19 @@ public class DashboardFrame extends JFrame {
         return panel;
     }
 
+    private JPanel createActiveTransfersPanel() {
+        JPanel panel = new JPanel(new BorderLayout());
+        panel.setBorder(BorderFactory.createTitledBorder(
+            BorderFactory.createEtchedBorder(), "Active Transfers",
+            0, 0, new Font("Arial", Font.BOLD, 14)));
+
+        JScrollPane scrollPane = new JScrollPane(activeTransfersTable);
+        scrollPane.setPreferredSize(new Dimension(0, 100));
+        panel.add(scrollPane, BorderLayout.CENTER);
+
+        return panel;
+    }
+
     private JPanel createTransferHistoryPanel() {
         JPanel panel = new JPanel(new BorderLayout());
         panel.setBorder(BorderFactory.createTitledBorder(
@@ -315,6 +386,14 @@ public class DashboardFrame extends JFrame {
             }
         });
 
+        searchButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                new SearchDialog(DashboardFrame.this, catalogSync.getIndex(), DashboardFrame.this::downloadFile)
+                    .setVisible(true);
+            }
+        });
+
         logoutButton.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
@@ -374,18 +453,16 @@ public class DashboardFrame extends JFrame {
             transfer.setPeerIpAddress(peerIp);
             transfer.setFilePath(selectedFile.getAbsolutePath());
 
-            // Log transfer to database
-            DatabaseManager.getInstance().logTransfer(transfer);
+            // Log transfer to database; the insert is written behind, off the EDT
+            DatabaseManager.getInstance().logTransferAsync(transfer)
+                .whenComplete((id, error) -> showTransfer(transfer, error, true));
 
             // Disable UI during transfer
             sendFileButton.setEnabled(false);
             selectFileButton.setEnabled(false);
 
             // Start file transfer in background
-            FileClient fileClient = new FileClient(this);
-            executorService.submit(() -> {
-                fileClient.sendFile(selectedFile, peerIp, peerPort, transfer);
-            });
+            transferEngine.sendFile(selectedFile, peerIp, peerPort, transfer);
 
             addLog("Starting file transfer to " + peerIp + ":" + peerPort);
             updateStatus("Transferring file...");
@@ -397,62 +474,165 @@ public class DashboardFrame extends JFrame {
 
     private void startFileServer() {
         try {
-            fileServer = new FileServer(serverPort, this);
-            executorService.submit(fileServer);
+            transferEngine.start();
             addLog("File server started on port " + serverPort);
             updateStatus("Ready to receive files on port " + serverPort);
+
+            // Only advertise this user to peers once something is listening
+            advertisedAddress = NetworkUtils.getAdvertisedAddress();
+            PresenceService.getInstance().goOnline(currentUser.getUserId(), advertisedAddress, serverPort);
+            addLog("Online as " + advertisedAddress + ":" + serverPort);
+            startLanDiscovery();
+            startGossip();
+            startDht();
+            startCatalogSync();
+            startHttpGateway();
+            startFolderSync();
         } catch (Exception e) {
             addLog("Failed to start file server on port " + serverPort + ": " + e.getMessage());
             updateStatus("Server startup failed - try a different port");
         }
     }
 
-    private void loadTransferHistory() {
-        SwingWorker<List<Transfer>, Void> worker = new SwingWorker<List<Transfer>, Void>() {
-            @Override
-            protected List<Transfer> doInBackground() throws Exception {
-                return DatabaseManager.getInstance().getUserTransfers(currentUser.getUserId());
-            }
+    private void startLanDiscovery() {
+        if (!PeerDiscovery.isLanDiscoveryEnabled()) {
+            return;
+        }
+        try {
+            lanDiscovery = LanDiscovery.fromConfig(currentUser.getUsername(), serverPort);
+            lanDiscovery.start();
+            PeerDiscovery.addPeerSource(lanDiscovery);
+            addLog("LAN discovery started");
+        } catch (IOException e) {
+            lanDiscovery = null;
+            addLog("LAN discovery unavailable: " + e.getMessage());
+        }
+    }
 
-            @Override
-            protected void done() {
-                try {
-                    List<Transfer> transfers = get();
-                    updateTransferTable(transfers);
-                } catch (Exception e) {
-                    addLog("Failed to load transfer history: " + e.getMessage());
-                }
+    private void startGossip() {
+        if (!PeerDiscovery.isGossipEnabled()) {
+            return;
+        }
+        try {
+            gossip = GossipMembership.fromConfig(currentUser.getUsername(), serverPort);
+            gossip.start();
+            PeerDiscovery.addPeerSource(gossip);
+            addLog("Gossip membership started on port " + gossip.getPort());
+        } catch (IOException e) {
+            gossip = null;
+            addLog("Gossip membership unavailable: " + e.getMessage());
+        }
+    }
+
+    private void startDht() {
+        if (!ConfigUtils.isDhtEnabled()) {
+            return;
+        }
+        try {
+            DhtNode node = DhtNode.fromConfig(currentUser.getUsername(), serverPort);
+            node.startWithMaintenance();
+            dht = node;
+            addLog("DHT node started on port " + node.getPort());
+            node.bootstrapAsync(DhtNode.parseSeeds(ConfigUtils.getDhtSeeds()))
+                .thenAccept(joined -> addLog(joined ? "Joined the DHT" : "No DHT seed answered"));
+        } catch (IOException e) {
+            addLog("DHT unavailable: " + e.getMessage());
+        }
+    }
+
+    private void startCatalogSync() {
+        addLog("Sharing files from " + Paths.get(ConfigUtils.getSharedDirectory()).toAbsolutePath());
+        if (!ConfigUtils.isCatalogSyncEnabled()) {
+            return;
+        }
+        catalogSync = new CatalogSync(new CatalogIndex(), currentUser.getUsername(), ConfigUtils.getCatalogSyncInterval());
+        catalogSync.start();
+        searchButton.setEnabled(true);
+    }
+
+    private void startHttpGateway() {
+        if (!ConfigUtils.isHttpEnabled()) {
+            return;
+        }
+        try {
+            HttpGateway gateway = HttpGateway.fromConfig(eventBus);
+            gateway.start();
+            httpGateway = gateway;
+        } catch (IOException e) {
+            addLog("HTTP gateway unavailable: " + e.getMessage());
+        }
+    }
+
+    private void startFolderSync() {
+        FolderSync sync = FolderSync.fromConfig(currentUser.getUsername(), currentUser.getUserId(), eventBus);
+        if (sync == null) {
+            return;
+        }
+        // Sends start on their own, so record them in the history as a manual send is
+        sync.setSendListener(transfer -> DatabaseManager.getInstance().logTransferAsync(transfer)
+            .whenComplete((id, error) -> showTransfer(transfer, error, true)));
+        try {
+            sync.start();
+            folderSync = sync;
+            addLog("Syncing " + sync.getRoots() + " to " + ConfigUtils.getSyncPeers());
+        } catch (IOException e) {
+            addLog("Folder sync unavailable: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Fetch a file found by search from the peer sharing it, in the background
+     */
+    private void downloadFile(CatalogIndex.Hit hit) {
+        PullClient client = new PullClient(eventBus);
+        downloadExecutor.submit(() -> {
+            try {
+                client.download(hit.getPeer(), hit.getPath(), Paths.get(ConfigUtils.getDownloadsDirectory()),
+                    ConfigUtils.getPullConnections(), currentUser.getUserId());
+            } catch (IOException e) {
+                // Already reported through the event bus
             }
-        };
-        worker.execute();
-    }
-
-    private void updateTransferTable(List<Transfer> transfers) {
-        tableModel.setRowCount(0);
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
-
-        for (Transfer transfer : transfers) {
-            Object[] row = {
-                transfer.getTransferType().getDisplayName(),
-                transfer.getFileName(),
-                transfer.getFormattedFileSize(),
-                transfer.getPeerUsername() != null ? transfer.getPeerUsername() : transfer.getPeerIpAddress(),
-                transfer.getStatus().name(),
-                transfer.getTimestamp().format(formatter)
-            };
-            tableModel.addRow(row);
+        });
+    }
+
+    /**
+     * Let other peers find a file this node now holds by its content hash
+     */
+    private void announceFile(Transfer transfer) {
+        DhtNode node = dht;
+        if (node == null || transfer.getFilePath() == null) {
+            return;
         }
+        node.announceFileAsync(Paths.get(transfer.getFilePath())).whenComplete((key, error) -> {
+            if (error != null) {
+                addLog("Failed to announce " + transfer.getFileName() + ": " + error.getCause().getMessage());
+            }
+        });
     }
 
-    private void updateUserOnlineStatus(boolean isOnline) {
-        DatabaseManager.getInstance().updateUserOnlineStatus(
-            currentUser.getUserId(),
-            isOnline,
-            "127.0.0.1",
-            serverPort
-        );
+    private void loadTransferHistory() {
+        // Re-counts in the background; rows are fetched page by page as they scroll into view
+        tableModel.refresh();
+    }
+
+    /**
+     * Reflect a transfer in the history once its write has finished, without a reload;
+     * called from the database writer thread
+     */
+    private void showTransfer(Transfer transfer, Throwable error, boolean inserted) {
+        if (error != null) {
+            return;
+        }
+        SwingUtilities.invokeLater(() -> {
+            if (inserted) {
+                tableModel.addTransfer(transfer);
+            } else {
+                tableModel.updateTransfer(transfer);
+            }
+        });
     }
 
+
     private void logout() {
         int option = JOptionPane.showConfirmDialog(
             this,
@@ -462,16 +642,41 @@ public class DashboardFrame extends JFrame {
         );
 
         if (option == JOptionPane.YES_OPTION) {
-            // Stop file server
-            if (fileServer != null) {
-                fileServer.stop();
-            }
-
-            // Shutdown executor service
-            executorService.shutdown();
+            // Stop file servers and outgoing transfers
+            transferEngine.stop();
+            eventTimer.stop();
+            sampleTimer.stop();
+            tableModel.shutdown();
+            activityLog.close();
+            DatabaseManager.getInstance().flushTransferLog();
 
             // Update user offline status
-            updateUserOnlineStatus(false);
+            PresenceService.getInstance().goOffline(currentUser.getUserId(), advertisedAddress, serverPort);
+            if (lanDiscovery != null) {
+                PeerDiscovery.removePeerSource(lanDiscovery);
+                lanDiscovery.stop();
+            }
+            if (gossip != null) {
+                PeerDiscovery.removePeerSource(gossip);
+                gossip.leave();
+            }
+            if (dht != null) {
+                dht.stop();
+                dht = null;
+            }
+            if (catalogSync != null) {
+                catalogSync.stop();
+                catalogSync = null;
+            }
+            if (httpGateway != null) {
+                httpGateway.stop();
+                httpGateway = null;
+            }
+            if (folderSync != null) {
+                folderSync.stop();
+                folderSync = null;
+            }
+            downloadExecutor.shutdownNow();
 
             // Return to login
             SwingUtilities.invokeLater(() -> {
@@ -481,53 +686,98 @@ public class DashboardFrame extends JFrame {
         }
     }
 
-    // Public methods for file transfer callbacks
-    public void onTransferProgress(int progress, String message) {
-        SwingUtilities.invokeLater(() -> {
-            transferProgressBar.setValue(progress);
-            transferProgressBar.setString(message);
-        });
+    /**
+     * Replay everything published since the last tick; runs on the EDT. Log lines are
+     * rendered in one append per tick; progress is only recorded for the next sample.
+     */
+    private void drainEvents() {
+        drainTimestamp = java.time.LocalTime.now().format(LOG_TIME_FORMAT);
+        eventBus.drain(this, EVENT_BUS_CAPACITY);
+        activityLog.render();
     }
 
-    public void onTransferComplete(Transfer transfer, boolean success) {
-        SwingUtilities.invokeLater(() -> {
-            // Update transfer status in database
-            Transfer.TransferStatus status = success ?
-                Transfer.TransferStatus.COMPLETED : Transfer.TransferStatus.FAILED;
-            DatabaseManager.getInstance().updateTransferStatus(transfer.getTransferId(), status);
-
-            // Reset UI
-            sendFileButton.setEnabled(selectedFile != null);
-            selectFileButton.setEnabled(true);
+    /**
+     * Refresh the active transfers table and the overall progress bar from the latest counters
+     */
+    private void sampleActiveTransfers() {
+        activeTransfersModel.sample();
+
+        int active = activeTransfersModel.getActiveCount();
+        if (active == 0) {
             transferProgressBar.setValue(0);
             transferProgressBar.setString("No active transfer");
+            return;
+        }
+        long bytes = activeTransfersModel.getActiveBytes();
+        long size = activeTransfersModel.getActiveSize();
+        int progress = size == 0 ? 100 : (int) ((bytes * 100) / size);
+        transferProgressBar.setValue(progress);
+        transferProgressBar.setString(active + (active == 1 ? " transfer: " : " transfers: ") + progress + "% (" +
+            FileUtils.formatFileSize(bytes) + "/" + FileUtils.formatFileSize(size) + ", " +
+            FileUtils.formatFileSize((long) activeTransfersModel.getActiveRate()) + "/s)");
+    }
 
-            // Update status and logs
-            String message = success ? "Transfer completed successfully" : "Transfer failed";
-            updateStatus(message);
-            addLog(message + ": " + transfer.getFileName());
+    /**
+     * The on-disk copy of the activity log, or null when log.file is empty
+     */
+    private static RotatingFileLog openActivityLogFile() {
+        String path = ConfigUtils.getLogFile();
+        if (path.isEmpty()) {
+            return null;
+        }
+        return new RotatingFileLog(new File(path), ConfigUtils.getLogFileMaxSize(), ConfigUtils.getLogFileCount());
+    }
 
-            // Refresh history
-            loadTransferHistory();
-        });
+    // TransferListener callbacks, replayed on the EDT by drainEvents()
+    @Override
+    public void log(String message) {
+        activityLog.add("[" + drainTimestamp + "] " + message);
+    }
+
+    @Override
+    public void onTransferProgress(Transfer transfer, long bytesTransferred) {
+        activeTransfersModel.progress(transfer, bytesTransferred);
+    }
+
+    @Override
+    public void onTransferComplete(Transfer transfer, boolean success) {
+        // Update transfer status in database, then its row once it is written
+        Transfer.TransferStatus status = success ?
+            Transfer.TransferStatus.COMPLETED : Transfer.TransferStatus.FAILED;
+        DatabaseManager.getInstance().updateTransferStatusAsync(transfer, status)
+            .whenComplete((rows, error) -> showTransfer(transfer, error, false));
+
+        // Reset UI; the progress bar follows the active transfers table
+        activeTransfersModel.finish(transfer, success);
+        if (success) {
+            announceFile(transfer);
+        }
+        sendFileButton.setEnabled(selectedFile != null);
+        selectFileButton.setEnabled(true);
+
+        // Update status and logs
+        String message = success ? "Transfer completed successfully" : "Transfer failed";
+        updateStatus(message);
+        log(message + ": " + transfer.getFileName());
     }
 
+    @Override
     public void onFileReceived(Transfer transfer) {
-        SwingUtilities.invokeLater(() -> {
-            // Log the received transfer
-            DatabaseManager.getInstance().logTransfer(transfer);
-            addLog("File received: " + transfer.getFileName() + " from " + transfer.getPeerIpAddress());
-            loadTransferHistory();
-        });
+        // Log the received transfer, then add its row once it is written
+        DatabaseManager.getInstance().logTransferAsync(transfer)
+            .whenComplete((id, error) -> showTransfer(transfer, error, true));
+        activeTransfersModel.finish(transfer, transfer.getStatus() == Transfer.TransferStatus.COMPLETED);
+        if (transfer.getStatus() == Transfer.TransferStatus.COMPLETED) {
+            announceFile(transfer);
+        }
+        log("File received: " + transfer.getFileName() + " from " + transfer.getPeerIpAddress());
     }
 
+    /**
+     * Queue a line for the activity log; safe to call from any thread
+     */
     public void addLog(String message) {
-        SwingUtilities.invokeLater(() -> {
-            String timestamp = java.time.LocalTime.now().format(
-                DateTimeFormatter.ofPattern("HH:mm:ss"));
-            logArea.append("[" + timestamp + "] " + message + "\n");
-            logArea.setCaretPosition(logArea.getDocument().getLength());
-        });
+        eventBus.log(message);
     }
 
     public void updateStatus(String status) {
@@ -543,4 +793,25 @@ public class DashboardFrame extends JFrame {
     public User getCurrentUser() {
         return currentUser;
     }
+
+    /**
+     * Draws the active transfers' progress column as a bar
+     */
+    private static class ProgressCellRenderer extends JProgressBar implements TableCellRenderer {
+        private static final long serialVersionUID = 1L;
+
+        ProgressCellRenderer() {
+            super(0, 100);
+            setStringPainted(true);
+        }
+
+        @Override
+        public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected,
+                                                       boolean hasFocus, int row, int column) {
+            int progress = value instanceof Integer ? (Integer) value : 0;
+            setValue(progress);
+            setString(progress + "%");
+            return this;
+        }
+    }
 }
\ No newline at end of file
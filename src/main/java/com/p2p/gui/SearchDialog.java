@@ -0,0 +1,144 @@
+package com.p2p.gui;
+
+import com.p2p.network.catalog.CatalogIndex;
+import com.p2p.utils.FileUtils;
+
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Search the file catalogs of all known peers
+ *
+ * Queries run against the local index on the EDT; they take milliseconds, so there
+ * is nothing to gain from a worker thread.
+ */
+public class SearchDialog extends JDialog {
+    private static final long serialVersionUID = 1L;
+
+    private static final int MAX_RESULTS = 500;
+
+    private final CatalogIndex index;
+    private final Consumer<CatalogIndex.Hit> downloader;
+    private final JTextField queryField = new JTextField(30);
+    private final JLabel summaryLabel = new JLabel(" ");
+    private final ResultsTableModel resultsModel = new ResultsTableModel();
+    private final JTable resultsTable = new JTable(resultsModel);
+
+    /**
+     * @param downloader starts fetching the chosen file; called on the EDT
+     */
+    public SearchDialog(Frame owner, CatalogIndex index, Consumer<CatalogIndex.Hit> downloader) {
+        super(owner, "Search Network", false);
+        this.index = index;
+        this.downloader = downloader;
+
+        queryField.setToolTipText("Words in the name, word* for prefixes, ext:pdf, size>10MB, size<1GB");
+        JButton searchButton = new JButton("Search");
+        searchButton.addActionListener(e -> search());
+        queryField.addActionListener(e -> search());
+
+        JPanel queryPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        queryPanel.add(new JLabel("Query:"));
+        queryPanel.add(queryField);
+        queryPanel.add(searchButton);
+
+        JButton downloadButton = new JButton("Download");
+        downloadButton.setEnabled(false);
+        downloadButton.addActionListener(e -> download());
+        queryPanel.add(downloadButton);
+
+        resultsTable.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        resultsTable.getSelectionModel().addListSelectionListener(
+            e -> downloadButton.setEnabled(resultsTable.getSelectedRow() >= 0));
+        resultsTable.setRowHeight(22);
+        resultsTable.getColumnModel().getColumn(0).setPreferredWidth(220);
+        resultsTable.getColumnModel().getColumn(1).setPreferredWidth(80);
+        resultsTable.getColumnModel().getColumn(2).setPreferredWidth(260);
+        resultsTable.getColumnModel().getColumn(3).setPreferredWidth(160);
+
+        summaryLabel.setFont(new Font("Arial", Font.ITALIC, 11));
+        summaryLabel.setForeground(Color.GRAY);
+
+        setLayout(new BorderLayout(5, 5));
+        add(queryPanel, BorderLayout.NORTH);
+        add(new JScrollPane(resultsTable), BorderLayout.CENTER);
+        add(summaryLabel, BorderLayout.SOUTH);
+        setSize(760, 420);
+        setLocationRelativeTo(owner);
+    }
+
+    private void search() {
+        String query = queryField.getText().trim();
+        if (query.isEmpty()) {
+            return;
+        }
+        try {
+            CatalogIndex.SearchResult result = index.search(query, MAX_RESULTS);
+            resultsModel.setHits(result.getHits());
+            summaryLabel.setText(String.format("%d matches in %d files from %d peers (%.1f ms)%s",
+                result.getTotal(), index.size(), index.getPeerKeys().size(), result.getElapsedNanos() / 1e6,
+                result.getTotal() > MAX_RESULTS ? ", showing the first " + MAX_RESULTS : ""));
+        } catch (IllegalArgumentException e) {
+            summaryLabel.setText(e.getMessage());
+        }
+    }
+
+    private void download() {
+        int row = resultsTable.getSelectedRow();
+        if (row >= 0) {
+            CatalogIndex.Hit hit = resultsModel.getHit(resultsTable.convertRowIndexToModel(row));
+            downloader.accept(hit);
+            summaryLabel.setText("Downloading " + hit.getName() + " from " + hit.getPeer().getUsername());
+        }
+    }
+
+    private static class ResultsTableModel extends AbstractTableModel {
+        private static final long serialVersionUID = 1L;
+
+        private static final String[] COLUMN_NAMES = {"File Name", "Size", "Path", "Peer"};
+        private List<CatalogIndex.Hit> hits = new ArrayList<>();
+
+        void setHits(List<CatalogIndex.Hit> hits) {
+            this.hits = hits;
+            fireTableDataChanged();
+        }
+
+        CatalogIndex.Hit getHit(int row) {
+            return hits.get(row);
+        }
+
+        @Override
+        public int getRowCount() {
+            return hits.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return COLUMN_NAMES.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return COLUMN_NAMES[column];
+        }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            CatalogIndex.Hit hit = hits.get(row);
+            switch (column) {
+                case 0:
+                    return hit.getName();
+                case 1:
+                    return FileUtils.formatFileSize(hit.getSize());
+                case 2:
+                    return hit.getPath();
+                default:
+                    return hit.getPeer().toString();
+            }
+        }
+    }
+}
@@ -0,0 +1,317 @@
+package com.p2p.gui;
+
+import com.p2p.database.DatabaseManager;
+import com.p2p.database.TransferPage;
+import com.p2p.database.TransferQuery;
+import com.p2p.model.Transfer;
+
+import javax.swing.SwingUtilities;
+import javax.swing.table.AbstractTableModel;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transfer history table model that loads rows a page at a time as they are shown
+ *
+ * Only the row count is fetched up front. A page that is painted but not cached shows
+ * placeholder cells while a background thread loads it; the most recently requested
+ * page is loaded first, so fast scrolling does not queue up pages already scrolled
+ * past. Pages following a cached one are read by keyset, jumps elsewhere by offset.
+ * Rows are formatted once when loaded, and at most MAX_CACHED_PAGES pages are kept,
+ * so memory stays flat however long the history is.
+ *
+ * Transfers logged or updated while the table is open are applied with
+ * {@link #addTransfer} and {@link #updateTransfer} instead of a reload: new ones are
+ * stacked above the paged rows, which shift down by that many, and changed ones are
+ * re-formatted in place.
+ * Only {@link #refresh} re-counts and drops the cache.
+ *
+ * All methods except the loaders must be called on the EDT.
+ */
+public class TransferTableModel extends AbstractTableModel {
+    private static final long serialVersionUID = 1L;
+
+    private static final String[] COLUMN_NAMES = {"Type", "File Name", "Size", "Peer", "Status", "Timestamp"};
+    private static final int PAGE_SIZE = 200;
+    private static final int MAX_CACHED_PAGES = 32;
+    private static final int MAX_RECENT_ROWS = 1000;
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private final int userId;
+    private final ExecutorService loader;
+
+    private final Map<Integer, Page> pages = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Page> eldest) {
+            return size() > MAX_CACHED_PAGES;
+        }
+    };
+    // Last row of every page seen since the last refresh, for keyset continuation
+    private final Map<Integer, Transfer> pageEnds = new HashMap<>();
+    private final Set<Integer> pendingPages = new HashSet<>();
+    // Rows upserted since the last refresh, oldest first; shown above the paged rows
+    private final List<Object[]> recentRows = new ArrayList<>();
+    private final List<Transfer> recentTransfers = new ArrayList<>();
+    // Rows in the database as of the last refresh or fold
+    private int pagedCount;
+    private int generation;
+
+    private static final class Page {
+        final Transfer[] transfers;
+        final Object[][] rows;
+
+        Page(Transfer[] transfers, Object[][] rows) {
+            this.transfers = transfers;
+            this.rows = rows;
+        }
+    }
+
+    public TransferTableModel(int userId) {
+        this.userId = userId;
+        // Single loader thread taking the newest request first
+        this.loader = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new LinkedBlockingDeque<Runnable>() {
+                @Override
+                public boolean offer(Runnable task) {
+                    return offerFirst(task);
+                }
+            },
+            r -> {
+                Thread thread = new Thread(r, "transfer-history-loader");
+                thread.setDaemon(true);
+                return thread;
+            });
+    }
+
+    /**
+     * Re-count the history and drop every cached page
+     */
+    public void refresh() {
+        int requested = ++generation;
+        loader.submit(() -> {
+            long count = loadCount(newQuery());
+            SwingUtilities.invokeLater(() -> {
+                if (requested != generation) {
+                    return;
+                }
+                // Loads started before this point belong to the old generation and are discarded
+                generation++;
+                pages.clear();
+                pageEnds.clear();
+                pendingPages.clear();
+                recentRows.clear();
+                recentTransfers.clear();
+                pagedCount = (int) Math.min(Integer.MAX_VALUE, count);
+                fireTableDataChanged();
+            });
+        });
+    }
+
+    /**
+     * Show a transfer that has just been inserted as the newest row
+     */
+    public void addTransfer(Transfer transfer) {
+        if (updateTransfer(transfer)) {
+            return;
+        }
+        recentTransfers.add(transfer);
+        recentRows.add(toRow(transfer));
+        fireTableRowsInserted(0, 0);
+
+        if (recentRows.size() > MAX_RECENT_ROWS) {
+            // Fold the stacked rows into the paged ones; page boundaries move, so reload the visible pages
+            generation++;
+            pagedCount += recentRows.size();
+            recentRows.clear();
+            recentTransfers.clear();
+            pages.clear();
+            pageEnds.clear();
+            pendingPages.clear();
+            fireTableRowsUpdated(0, getRowCount() - 1);
+        }
+    }
+
+    /**
+     * Re-render a transfer whose status changed, if its row is loaded; rows that are
+     * not loaded pick the change up from the database when scrolled to
+     *
+     * @return true if the row was loaded
+     */
+    public boolean updateTransfer(Transfer transfer) {
+        for (int i = 0; i < recentTransfers.size(); i++) {
+            if (sameTransfer(recentTransfers.get(i), transfer)) {
+                recentTransfers.set(i, transfer);
+                recentRows.set(i, toRow(transfer));
+                int row = recentRows.size() - 1 - i;
+                fireTableRowsUpdated(row, row);
+                return true;
+            }
+        }
+        for (Map.Entry<Integer, Page> entry : pages.entrySet()) {
+            Page page = entry.getValue();
+            for (int i = 0; i < page.transfers.length; i++) {
+                if (sameTransfer(page.transfers[i], transfer)) {
+                    page.transfers[i] = transfer;
+                    page.rows[i] = toRow(transfer);
+                    int row = recentRows.size() + entry.getKey() * PAGE_SIZE + i;
+                    fireTableRowsUpdated(row, row);
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean sameTransfer(Transfer a, Transfer b) {
+        return a == b || (a.getTransferId() > 0 && a.getTransferId() == b.getTransferId());
+    }
+
+    public void shutdown() {
+        loader.shutdownNow();
+    }
+
+    @Override
+    public int getRowCount() {
+        return recentRows.size() + pagedCount;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMN_NAMES.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMN_NAMES[column];
+    }
+
+    @Override
+    public boolean isCellEditable(int row, int column) {
+        return false;
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        int recent = recentRows.size();
+        if (row < recent) {
+            return recentRows.get(recent - 1 - row)[column];
+        }
+        row -= recent;
+        int pageIndex = row / PAGE_SIZE;
+        Page page = pages.get(pageIndex);
+        if (page == null) {
+            requestPage(pageIndex, true);
+            return column == 1 ? "Loading..." : "";
+        }
+        int offset = row % PAGE_SIZE;
+        return offset < page.rows.length ? page.rows[offset][column] : "";
+    }
+
+    /**
+     * The transfer shown at a row, or null while its page is loading
+     */
+    public Transfer getTransferAt(int row) {
+        int recent = recentTransfers.size();
+        if (row < recent) {
+            return recentTransfers.get(recent - 1 - row);
+        }
+        row -= recent;
+        Page page = pages.get(row / PAGE_SIZE);
+        int offset = row % PAGE_SIZE;
+        return page != null && offset < page.transfers.length ? page.transfers[offset] : null;
+    }
+
+    /**
+     * Load a page in the background; with prefetchNext the following page is loaded by
+     * keyset as soon as this one arrives, ready for scrolling on
+     */
+    private void requestPage(int pageIndex, boolean prefetchNext) {
+        if ((long) pageIndex * PAGE_SIZE >= pagedCount || pages.containsKey(pageIndex)
+                || !pendingPages.add(pageIndex)) {
+            return;
+        }
+        int requestGeneration = generation;
+        // Upserted rows are in the database too, ahead of the paged ones
+        long offset = (long) pageIndex * PAGE_SIZE + recentRows.size();
+        Transfer previousEnd = pageEnds.get(pageIndex - 1);
+        loader.submit(() -> {
+            TransferQuery query = newQuery();
+            TransferPage result;
+            if (previousEnd != null) {
+                query.setAfter(previousEnd.getTimestamp(), previousEnd.getTransferId());
+                result = loadPage(query);
+            } else {
+                result = loadPageAt(query, offset);
+            }
+            Page page = format(result.getTransfers());
+            SwingUtilities.invokeLater(() -> onPageLoaded(requestGeneration, pageIndex, page, prefetchNext));
+        });
+    }
+
+    private void onPageLoaded(int requestGeneration, int pageIndex, Page page, boolean prefetchNext) {
+        if (requestGeneration != generation) {
+            return;
+        }
+        pendingPages.remove(pageIndex);
+        pages.put(pageIndex, page);
+        if (page.transfers.length > 0) {
+            pageEnds.put(pageIndex, page.transfers[page.transfers.length - 1]);
+        }
+        int first = recentRows.size() + pageIndex * PAGE_SIZE;
+        int last = Math.min(getRowCount(), first + PAGE_SIZE) - 1;
+        if (last >= first) {
+            fireTableRowsUpdated(first, last);
+        }
+        if (prefetchNext) {
+            requestPage(pageIndex + 1, false);
+        }
+    }
+
+    private static Page format(List<Transfer> transfers) {
+        Transfer[] loaded = transfers.toArray(new Transfer[0]);
+        Object[][] rows = new Object[loaded.length][];
+        for (int i = 0; i < loaded.length; i++) {
+            rows[i] = toRow(loaded[i]);
+        }
+        return new Page(loaded, rows);
+    }
+
+    static Object[] toRow(Transfer transfer) {
+        return new Object[] {
+            transfer.getTransferType().getDisplayName(),
+            transfer.getFileName(),
+            transfer.getFormattedFileSize(),
+            transfer.getPeerUsername() != null ? transfer.getPeerUsername() : transfer.getPeerIpAddress(),
+            transfer.getStatus().name(),
+            transfer.getTimestamp() != null ? transfer.getTimestamp().format(TIMESTAMP_FORMAT) : ""
+        };
+    }
+
+    private TransferQuery newQuery() {
+        return new TransferQuery(userId, PAGE_SIZE);
+    }
+
+    // Loaders, called on the loader thread
+
+    protected long loadCount(TransferQuery query) {
+        return DatabaseManager.getInstance().countTransfers(query);
+    }
+
+    protected TransferPage loadPage(TransferQuery query) {
+        return DatabaseManager.getInstance().getTransferPage(query);
+    }
+
+    protected TransferPage loadPageAt(TransferQuery query, long offset) {
+        return DatabaseManager.getInstance().getTransferPageAt(query, offset);
+    }
+}
@@ -0,0 +1,123 @@
+package com.p2p.hash;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+/**
+ * The chunks a file was cut into, in order: each chunk's length and SHA-256
+ */
+public final class ChunkList {
+    public static final int HASH_SIZE = 32;
+    // Lists read from a stream grow from this many chunks as they arrive, so a count
+    // that the data does not back up cannot make the reader allocate for it
+    private static final int READ_BLOCK_CHUNKS = 4096;
+
+    private final int[] lengths;
+    private final byte[] hashes;
+    // offsets[i] is where chunk i starts; offsets[size()] is the total size
+    private final long[] offsets;
+
+    /**
+     * @param hashes the chunk hashes back to back, HASH_SIZE bytes each
+     */
+    public ChunkList(int[] lengths, byte[] hashes) {
+        if (hashes.length != lengths.length * HASH_SIZE) {
+            throw new IllegalArgumentException(lengths.length + " chunks need " + lengths.length * HASH_SIZE
+                + " bytes of hashes, got " + hashes.length);
+        }
+        this.lengths = lengths;
+        this.hashes = hashes;
+        this.offsets = new long[lengths.length + 1];
+        for (int i = 0; i < lengths.length; i++) {
+            if (lengths[i] <= 0) {
+                throw new IllegalArgumentException("Chunk " + i + " has length " + lengths[i]);
+            }
+            offsets[i + 1] = offsets[i] + lengths[i];
+        }
+    }
+
+    public int size() {
+        return lengths.length;
+    }
+
+    public int getLength(int index) {
+        return lengths[index];
+    }
+
+    public long getOffset(int index) {
+        return offsets[index];
+    }
+
+    public long getTotalSize() {
+        return offsets[lengths.length];
+    }
+
+    public byte[] getHash(int index) {
+        return Arrays.copyOfRange(hashes, index * HASH_SIZE, (index + 1) * HASH_SIZE);
+    }
+
+    /**
+     * Compact form for the hash cache: the count, every length, then every hash
+     */
+    public byte[] encode() {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(4 + lengths.length * (4 + HASH_SIZE));
+        DataOutputStream out = new DataOutputStream(buffer);
+        try {
+            write(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return buffer.toByteArray();
+    }
+
+    public static ChunkList decode(byte[] encoded) throws IOException {
+        return read(new DataInputStream(new ByteArrayInputStream(encoded)), Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(lengths.length);
+        for (int length : lengths) {
+            out.writeInt(length);
+        }
+        out.write(hashes);
+    }
+
+    /**
+     * Read a list written by {@link #write}, refusing one of more than maxChunks
+     * chunks or with a chunk longer than maxLength
+     */
+    public static ChunkList read(DataInputStream in, int maxChunks, int maxLength) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || count > Math.min(maxChunks, Integer.MAX_VALUE / HASH_SIZE)) {
+            throw new IOException("Chunk count out of range: " + count);
+        }
+        int[] lengths = new int[Math.min(count, READ_BLOCK_CHUNKS)];
+        for (int i = 0; i < count; i++) {
+            if (i == lengths.length) {
+                lengths = Arrays.copyOf(lengths, (int) Math.min(count, 2L * lengths.length));
+            }
+            lengths[i] = in.readInt();
+            if (lengths[i] <= 0 || lengths[i] > maxLength) {
+                throw new IOException("Chunk " + i + " has length " + lengths[i]);
+            }
+        }
+        int hashBytes = count * HASH_SIZE;
+        byte[] hashes = new byte[Math.min(count, READ_BLOCK_CHUNKS) * HASH_SIZE];
+        in.readFully(hashes);
+        while (hashes.length < hashBytes) {
+            int read = hashes.length;
+            hashes = Arrays.copyOf(hashes, (int) Math.min(hashBytes, 2L * hashes.length));
+            in.readFully(hashes, read, hashes.length - read);
+        }
+        try {
+            return new ChunkList(lengths, hashes);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.p2p.hash;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Content-defined chunking in the style of FastCDC
+ *
+ * A gear hash rolls over the bytes and a chunk ends where its masked bits are all
+ * zero, so boundaries follow the content rather than fixed offsets: bytes inserted
+ * into a file only change the chunks around the insertion, and the rest are found
+ * again by hash. No boundary is looked for in the first MIN_SIZE bytes of a chunk,
+ * and every chunk ends by MAX_SIZE. Before AVERAGE_SIZE the mask has two more bits
+ * than the average needs and after it two fewer, which pulls chunk sizes towards
+ * the average (FastCDC's normalized chunking).
+ *
+ * The gear table is generated from a fixed seed, so every peer cuts the same bytes
+ * at the same places.
+ */
+public final class FastCdc {
+    public static final String KIND = "cdc";
+    public static final int MIN_SIZE = 16 * 1024;
+    public static final int AVERAGE_SIZE = 64 * 1024;
+    public static final int MAX_SIZE = 256 * 1024;
+
+    private static final int AVERAGE_BITS = Integer.numberOfTrailingZeros(AVERAGE_SIZE);
+    // The high bits of the gear hash depend on the most bytes, so the masks use those
+    private static final long MASK_SMALL = -1L << (64 - (AVERAGE_BITS + 2));
+    private static final long MASK_LARGE = -1L << (64 - (AVERAGE_BITS - 2));
+    private static final long[] GEAR = new long[256];
+    private static final int READ_BUFFER_SIZE = 4 * MAX_SIZE;
+
+    static {
+        SplittableRandom random = new SplittableRandom(0x5EED_FA57_CDCL);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    private FastCdc() {
+    }
+
+    /**
+     * The chunks of a file, from the hash cache while the file is unchanged
+     */
+    public static ChunkList ofFile(Path file) throws IOException {
+        return ChunkList.decode(HashCache.getInstance().get(file, KIND, f -> chunk(f).encode()));
+    }
+
+    /**
+     * Cut a file into chunks and hash each one
+     */
+    public static ChunkList chunk(Path file) throws IOException {
+        MessageDigest digest = newDigest();
+        int[] lengths = new int[64];
+        byte[] hashes = new byte[lengths.length * ChunkList.HASH_SIZE];
+        int count = 0;
+
+        byte[] buffer = new byte[READ_BUFFER_SIZE];
+        int start = 0;
+        int end = 0;
+        boolean eof = false;
+        try (InputStream in = Files.newInputStream(file)) {
+            while (true) {
+                if (!eof && end - start < MAX_SIZE) {
+                    // Keep at least one maximum chunk in view unless the file has ended
+                    System.arraycopy(buffer, start, buffer, 0, end - start);
+                    end -= start;
+                    start = 0;
+                    int read = in.readNBytes(buffer, end, buffer.length - end);
+                    end += read;
+                    eof = end < buffer.length;
+                }
+                if (start == end) {
+                    break;
+                }
+                int cut = cut(buffer, start, end);
+                if (count == lengths.length) {
+                    lengths = Arrays.copyOf(lengths, count * 2);
+                    hashes = Arrays.copyOf(hashes, count * 2 * ChunkList.HASH_SIZE);
+                }
+                digest.update(buffer, start, cut - start);
+                System.arraycopy(digest.digest(), 0, hashes, count * ChunkList.HASH_SIZE, ChunkList.HASH_SIZE);
+                lengths[count++] = cut - start;
+                start = cut;
+            }
+        }
+        return new ChunkList(Arrays.copyOf(lengths, count), Arrays.copyOf(hashes, count * ChunkList.HASH_SIZE));
+    }
+
+    /**
+     * Where the chunk starting at start ends, given the bytes up to end; end itself
+     * when there is no boundary before it, which callers must only accept at the end
+     * of the data or once MAX_SIZE bytes are available
+     */
+    public static int cut(byte[] data, int start, int end) {
+        int available = end - start;
+        if (available <= MIN_SIZE) {
+            return end;
+        }
+        int limit = start + Math.min(available, MAX_SIZE);
+        int normal = start + Math.min(available, AVERAGE_SIZE);
+        long hash = 0;
+        int i = start + MIN_SIZE;
+        for (; i < normal; i++) {
+            hash = (hash << 1) + GEAR[data[i] & 0xFF];
+            if ((hash & MASK_SMALL) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < limit; i++) {
+            hash = (hash << 1) + GEAR[data[i] & 0xFF];
+            if ((hash & MASK_LARGE) == 0) {
+                return i + 1;
+            }
+        }
+        return limit;
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
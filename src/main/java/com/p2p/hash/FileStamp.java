@@ -0,0 +1,75 @@
+package com.p2p.hash;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What identifies one version of a file without reading it: size, modification time
+ * and inode
+ *
+ * The inode catches a file replaced by another of the same size and time, as a
+ * rename over it or an extracted archive can do. Where the file system has no
+ * inodes it is 0 and only size and time count.
+ */
+public final class FileStamp {
+    private static final boolean UNIX_ATTRIBUTES =
+        FileSystems.getDefault().supportedFileAttributeViews().contains("unix");
+
+    private final long size;
+    private final long modifiedNanos;
+    private final long inode;
+
+    public FileStamp(long size, long modifiedNanos, long inode) {
+        this.size = size;
+        this.modifiedNanos = modifiedNanos;
+        this.inode = inode;
+    }
+
+    public static FileStamp of(Path file) throws IOException {
+        if (UNIX_ATTRIBUTES) {
+            Map<String, Object> attributes = Files.readAttributes(file, "unix:size,lastModifiedTime,ino");
+            return new FileStamp((Long) attributes.get("size"),
+                ((FileTime) attributes.get("lastModifiedTime")).to(TimeUnit.NANOSECONDS),
+                ((Number) attributes.get("ino")).longValue());
+        }
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        return new FileStamp(attributes.size(), attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS), 0);
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getModifiedNanos() {
+        return modifiedNanos;
+    }
+
+    public long getInode() {
+        return inode;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof FileStamp)) {
+            return false;
+        }
+        FileStamp other = (FileStamp) o;
+        return size == other.size && modifiedNanos == other.modifiedNanos && inode == other.inode;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(size) * 31 * 31 + Long.hashCode(modifiedNanos) * 31 + Long.hashCode(inode);
+    }
+
+    @Override
+    public String toString() {
+        return size + " bytes, modified " + modifiedNanos + " ns, inode " + inode;
+    }
+}
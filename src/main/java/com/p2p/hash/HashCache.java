@@ -0,0 +1,258 @@
+package com.p2p.hash;
+
+import com.p2p.utils.ConfigUtils;
+import com.p2p.utils.FileUtils;
+import com.p2p.utils.RecordLog;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hashes of local files, remembered across runs for as long as the files are unchanged
+ *
+ * Values are keyed by absolute path and a kind (such as {@link TreeHash#KIND}), and
+ * belong to one {@link FileStamp}. Asking for a file whose size, time or inode has
+ * changed hashes it again and replaces everything stored for the old version, so a
+ * hash is never served for content it was not computed from.
+ *
+ * The store on disk is a {@link RecordLog}, read into memory at startup. When
+ * superseded records outnumber live ones the log is rewritten with only the live
+ * records of files that still exist unchanged.
+ *
+ * A file written less than RACY_WINDOW before it was hashed is hashed but not
+ * remembered: a second write within the same timestamp tick could leave its stamp
+ * unchanged.
+ */
+public class HashCache {
+    private static final int MAGIC = 0x50325048;
+    private static final int FORMAT_VERSION = 1;
+    private static final int MIN_COMPACT_GARBAGE = 1024;
+    private static final long RACY_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+    private static HashCache instance;
+
+    // Guarded by this; null keeps the cache in memory only
+    private RecordLog log;
+    private final Map<String, Entry> entries = new HashMap<>();
+    private long liveRecords;
+    private long garbageRecords;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder bytesHashed = new LongAdder();
+
+    /**
+     * Computes one kind of hash of a file
+     */
+    @FunctionalInterface
+    public interface Hasher {
+        byte[] hash(Path file) throws IOException;
+    }
+
+    private static final class Entry {
+        final FileStamp stamp;
+        final Map<String, byte[]> values = new HashMap<>(4);
+
+        Entry(FileStamp stamp) {
+            this.stamp = stamp;
+        }
+    }
+
+    /**
+     * @param storeFile where to keep the hashes between runs; null for memory only
+     */
+    public HashCache(Path storeFile) {
+        if (storeFile != null) {
+            log = new RecordLog(storeFile, MAGIC, FORMAT_VERSION);
+            try {
+                log.read(this::decode);
+                if (garbageRecords > liveRecords && garbageRecords >= MIN_COMPACT_GARBAGE) {
+                    compact();
+                }
+            } catch (IOException e) {
+                System.err.println("Hash cache " + storeFile + " unavailable, keeping hashes in memory: " + e.getMessage());
+                log = null;
+            }
+        }
+    }
+
+    public static synchronized HashCache getInstance() {
+        if (instance == null) {
+            String file = ConfigUtils.getHashCacheFile();
+            instance = new HashCache(file.isEmpty() ? null : Paths.get(file));
+        }
+        return instance;
+    }
+
+    /**
+     * The cached value of this kind for the file as it is now, or the hasher's result
+     * for it, which is remembered if the file did not change while it was read
+     */
+    public byte[] get(Path file, String kind, Hasher hasher) throws IOException {
+        String key = file.toAbsolutePath().normalize().toString();
+        FileStamp before = FileStamp.of(file);
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.stamp.equals(before)) {
+                byte[] cached = entry.values.get(kind);
+                if (cached != null) {
+                    hits.increment();
+                    return cached.clone();
+                }
+            }
+        }
+
+        misses.increment();
+        long startedNanos = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+        byte[] value = hasher.hash(file);
+        bytesHashed.add(before.getSize());
+        if (FileStamp.of(file).equals(before) && startedNanos - before.getModifiedNanos() >= RACY_WINDOW_NANOS) {
+            put(key, before, kind, value.clone());
+        }
+        return value;
+    }
+
+    private synchronized void put(String key, FileStamp stamp, String kind, byte[] value) {
+        apply(key, stamp, kind, value);
+        if (log != null) {
+            try {
+                byte[] record = encode(key, stamp, kind, value);
+                if (record != null) {
+                    log.append(record);
+                }
+            } catch (IOException e) {
+                System.err.println("Failed to write hash cache " + log.getFile() + ": " + e.getMessage());
+                log.close();
+                log = null;
+            }
+        }
+        if (garbageRecords > liveRecords && garbageRecords >= MIN_COMPACT_GARBAGE) {
+            compact();
+        }
+    }
+
+    /**
+     * Record a value in memory, replacing anything stored for another version of the file
+     */
+    private void apply(String key, FileStamp stamp, String kind, byte[] value) {
+        Entry entry = entries.get(key);
+        if (entry == null || !entry.stamp.equals(stamp)) {
+            if (entry != null) {
+                liveRecords -= entry.values.size();
+                garbageRecords += entry.values.size();
+            }
+            entry = new Entry(stamp);
+            entries.put(key, entry);
+        }
+        if (entry.values.put(kind, value) != null) {
+            garbageRecords++;
+        } else {
+            liveRecords++;
+        }
+    }
+
+    /**
+     * Rewrite the store with only the values of files that are still unchanged
+     */
+    private void compact() {
+        for (Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Entry> entry = it.next();
+            try {
+                if (FileStamp.of(Paths.get(entry.getKey())).equals(entry.getValue().stamp)) {
+                    continue;
+                }
+            } catch (NoSuchFileException e) {
+                // Deleted
+            } catch (IOException e) {
+                continue;
+            }
+            liveRecords -= entry.getValue().values.size();
+            it.remove();
+        }
+        garbageRecords = 0;
+        if (log == null) {
+            return;
+        }
+
+        List<byte[]> records = new ArrayList<>();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            for (Map.Entry<String, byte[]> value : entry.getValue().values.entrySet()) {
+                byte[] record;
+                try {
+                    record = encode(entry.getKey(), entry.getValue().stamp, value.getKey(), value.getValue());
+                } catch (IOException e) {
+                    continue;
+                }
+                if (record != null) {
+                    records.add(record);
+                }
+            }
+        }
+        try {
+            log.rewrite(records);
+        } catch (IOException e) {
+            System.err.println("Failed to compact hash cache " + log.getFile() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * One record's payload, or null for a path too long for the format
+     */
+    private static byte[] encode(String key, FileStamp stamp, String kind, byte[] value) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(64 + key.length() + value.length);
+        DataOutputStream out = new DataOutputStream(buffer);
+        try {
+            out.writeUTF(key);
+        } catch (UTFDataFormatException e) {
+            return null;
+        }
+        out.writeLong(stamp.getSize());
+        out.writeLong(stamp.getModifiedNanos());
+        out.writeLong(stamp.getInode());
+        out.writeUTF(kind);
+        out.writeInt(value.length);
+        out.write(value);
+        return buffer.toByteArray();
+    }
+
+    private void decode(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        String key = in.readUTF();
+        FileStamp stamp = new FileStamp(in.readLong(), in.readLong(), in.readLong());
+        String kind = in.readUTF();
+        byte[] value = new byte[in.readInt()];
+        in.readFully(value);
+        apply(key, stamp, kind, value);
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public String getSummary() {
+        return String.format("hash cache %d files, %d hits, %d misses, %s hashed", size(), hits.sum(),
+            misses.sum(), FileUtils.formatFileSize(bytesHashed.sum()));
+    }
+}
@@ -0,0 +1,202 @@
+package com.p2p.hash;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Content hash of a file as a Merkle tree over fixed-size leaves, so it can be
+ * computed on every core at once
+ *
+ * The file is cut into LEAF_SIZE leaves (an empty file is one empty leaf). A leaf
+ * hashes as SHA-256(0x00 || bytes) and an inner node as SHA-256(0x01 || left || right);
+ * the prefixes keep a leaf from ever being taken for a node. Like RFC 6962, the left
+ * subtree of n leaves holds the largest power of two below n, so every subtree
+ * covers one contiguous, independent range of the file.
+ *
+ * {@link #hash} forks a task per subtree and maps each range of at most
+ * LEAVES_PER_TASK leaves into memory; {@link #hashSequential} reads the file once in
+ * order on the calling thread. Both give the same root.
+ */
+public final class TreeHash {
+    public static final String KIND = "tree";
+    public static final int LEAF_SIZE = 1024 * 1024;
+
+    private static final int LEAVES_PER_TASK = 16;
+    private static final byte LEAF_PREFIX = 0;
+    private static final byte NODE_PREFIX = 1;
+    private static final ThreadLocal<MessageDigest> DIGEST = ThreadLocal.withInitial(TreeHash::newDigest);
+
+    private TreeHash() {
+    }
+
+    /**
+     * The root hash, computed on the common fork/join pool
+     */
+    public static byte[] hash(Path file) throws IOException {
+        return hash(file, ForkJoinPool.commonPool());
+    }
+
+    public static byte[] hash(Path file, ForkJoinPool pool) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            int leaves = leafCount(size);
+            try {
+                return pool.invoke(new SubtreeTask(channel, size, 0, leaves));
+            } catch (HashFailure e) {
+                throw e.error;
+            }
+        }
+    }
+
+    /**
+     * The root hash from one sequential read and a stack of pending subtrees; the
+     * reference the parallel version must agree with
+     */
+    public static byte[] hashSequential(Path file) throws IOException {
+        MessageDigest digest = newDigest();
+        // Complete subtrees, left to right, with the leaf count of each
+        Deque<byte[]> hashes = new ArrayDeque<>();
+        Deque<Long> widths = new ArrayDeque<>();
+        byte[] buffer = new byte[LEAF_SIZE];
+        try (InputStream in = Files.newInputStream(file)) {
+            int read = in.readNBytes(buffer, 0, LEAF_SIZE);
+            boolean first = true;
+            while (read > 0 || first) {
+                digest.update(LEAF_PREFIX);
+                digest.update(buffer, 0, read);
+                byte[] hash = digest.digest();
+                long width = 1;
+                // Merge equal-sized neighbours, like carrying in binary addition
+                while (!widths.isEmpty() && widths.peek() == width) {
+                    hash = node(digest, hashes.pop(), hash);
+                    width += widths.pop();
+                }
+                hashes.push(hash);
+                widths.push(width);
+                first = false;
+                read = read == LEAF_SIZE ? in.readNBytes(buffer, 0, LEAF_SIZE) : 0;
+            }
+        }
+        // The leftover subtrees shrink from left to right; fold them from the right
+        byte[] root = hashes.pop();
+        while (!hashes.isEmpty()) {
+            root = node(digest, hashes.pop(), root);
+        }
+        return root;
+    }
+
+    static int leafCount(long size) {
+        long leaves = Math.max(1, (size + LEAF_SIZE - 1) / LEAF_SIZE);
+        if (leaves > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("File too large to hash: " + size + " bytes");
+        }
+        return (int) leaves;
+    }
+
+    /**
+     * Size of the left subtree of n leaves: the largest power of two below n
+     */
+    private static int split(int n) {
+        return Integer.highestOneBit(n - 1);
+    }
+
+    private static byte[] node(MessageDigest digest, byte[] left, byte[] right) {
+        digest.update(NODE_PREFIX);
+        digest.update(left);
+        digest.update(right);
+        return digest.digest();
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * Carries an IOException out of a fork/join task
+     */
+    private static final class HashFailure extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        final IOException error;
+
+        HashFailure(IOException error) {
+            super(error);
+            this.error = error;
+        }
+    }
+
+    /**
+     * Root of the subtree over leaves [from, to)
+     */
+    private static final class SubtreeTask extends RecursiveTask<byte[]> {
+        private static final long serialVersionUID = 1L;
+
+        private final FileChannel channel;
+        private final long size;
+        private final int from;
+        private final int to;
+
+        SubtreeTask(FileChannel channel, long size, int from, int to) {
+            this.channel = channel;
+            this.size = size;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected byte[] compute() {
+            int count = to - from;
+            if (count <= LEAVES_PER_TASK) {
+                return hashRange();
+            }
+            int middle = from + split(count);
+            SubtreeTask left = new SubtreeTask(channel, size, from, middle);
+            left.fork();
+            byte[] right = new SubtreeTask(channel, size, middle, to).compute();
+            return node(DIGEST.get(), left.join(), right);
+        }
+
+        private byte[] hashRange() {
+            long start = (long) from * LEAF_SIZE;
+            long end = Math.min(size, (long) to * LEAF_SIZE);
+            MessageDigest digest = DIGEST.get();
+            byte[][] leaves = new byte[to - from][];
+            try {
+                MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+                for (int i = 0; i < leaves.length; i++) {
+                    int offset = i * LEAF_SIZE;
+                    region.limit(Math.min(region.capacity(), offset + LEAF_SIZE)).position(offset);
+                    digest.update(LEAF_PREFIX);
+                    digest.update(region);
+                    leaves[i] = digest.digest();
+                }
+            } catch (IOException e) {
+                throw new HashFailure(e);
+            }
+            return combine(digest, leaves, 0, leaves.length);
+        }
+
+        private static byte[] combine(MessageDigest digest, byte[][] leaves, int from, int to) {
+            if (to - from == 1) {
+                return leaves[from];
+            }
+            int middle = from + split(to - from);
+            return node(digest, combine(digest, leaves, from, middle), combine(digest, leaves, middle, to));
+        }
+    }
+}
@@ -1,7 +1,11 @@
 package com.p2p.network;
 
-import com.p2p.gui.DashboardFrame;
 import com.p2p.model.Transfer;
+import com.p2p.network.dedup.DedupSender;
+import com.p2p.network.transport.Transport;
+import com.p2p.network.transport.TransportChannel;
+import com.p2p.network.transport.Transports;
+import com.p2p.utils.ConfigUtils;
 import com.p2p.utils.FileUtils;
 
 import java.io.*;
@@ -11,34 +15,66 @@ import java.net.*;
  * File client for sending files to peers
  */
 public class FileClient {
-    private DashboardFrame dashboard;
+    private String senderName;
+    private TransferListener listener;
+    private Transport transport;
+    private boolean dedup;
     private static final int BUFFER_SIZE = 8192;
     private static final int CONNECTION_TIMEOUT = 10000; // 10 seconds
 
-    public FileClient(DashboardFrame dashboard) {
-        this.dashboard = dashboard;
+    public FileClient(String senderName, TransferListener listener) {
+        this(senderName, listener, Transports.getDefault());
+    }
+
+    public FileClient(String senderName, TransferListener listener, Transport transport) {
+        this(senderName, listener, transport, ConfigUtils.isDedupEnabled());
+    }
+
+    /**
+     * @param dedup offer files as content-defined chunks first, falling back to a plain
+     *              push when the peer does not deduplicate
+     */
+    public FileClient(String senderName, TransferListener listener, Transport transport, boolean dedup) {
+        this.senderName = senderName;
+        this.listener = listener;
+        this.transport = transport;
+        this.dedup = dedup;
     }
 
     public void sendFile(File file, String peerIp, int peerPort, Transfer transfer) {
-        Socket socket = null;
+        TransportChannel channel = null;
         try {
-            dashboard.addLog("Connecting to peer: " + peerIp + ":" + peerPort);
-            dashboard.onTransferProgress(0, "Connecting to peer...");
+            listener.log("Connecting to peer: " + peerIp + ":" + peerPort);
+            listener.onTransferProgress(transfer, 0);
             
-            // Create socket with timeout
-            socket = new Socket();
-            socket.connect(new InetSocketAddress(peerIp, peerPort), CONNECTION_TIMEOUT);
-            socket.setSoTimeout(30000); // 30 seconds read timeout
+            // Open channel with timeout
+            channel = transport.connect(peerIp, peerPort, CONNECTION_TIMEOUT);
+            channel.setReadTimeout(30000); // 30 seconds read timeout
             
-            dashboard.addLog("Connected to peer, starting file transfer");
+            listener.log("Connected to peer, starting file transfer");
+
+            if (dedup) {
+                // Buffered for the chunk list; the sender flushes before sending chunk bytes
+                DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(channel.getOutputStream()));
+                DataInputStream dis = new DataInputStream(channel.getInputStream());
+                DedupSender sender = new DedupSender(channel, dis, dos, senderName, listener);
+                if (sender.offer(file)) {
+                    listener.onTransferComplete(transfer, sender.send(transfer));
+                    return;
+                }
+                listener.log("Peer does not deduplicate, sending the whole file");
+                channel.close();
+                channel = transport.connect(peerIp, peerPort, CONNECTION_TIMEOUT);
+                channel.setReadTimeout(30000);
+            }
             
-            try (DataOutputStream dos = new DataOutputStream(socket.getOutputStream());
-                 DataInputStream dis = new DataInputStream(socket.getInputStream())) {
+            try (DataOutputStream dos = new DataOutputStream(channel.getOutputStream());
+                 DataInputStream dis = new DataInputStream(channel.getInputStream())) {
                 
                 // Send file information
                 dos.writeUTF(file.getName());
                 dos.writeLong(file.length());
-                dos.writeUTF(dashboard.getCurrentUser().getUsername());
+                dos.writeUTF(senderName);
                 dos.flush();
                 
                 // Wait for acknowledgment
@@ -47,7 +83,7 @@ public class FileClient {
                     throw new IOException("Peer not ready to receive file: " + response);
                 }
                 
-                dashboard.addLog("Peer ready, transferring file data");
+                listener.log("Peer ready, transferring file data");
                 transfer.setStatus(Transfer.TransferStatus.IN_PROGRESS);
                 
                 // Send file data
@@ -59,31 +95,31 @@ public class FileClient {
                     success = "SUCCESS".equals(finalResponse);
                     
                     if (success) {
-                        dashboard.addLog("File sent successfully: " + file.getName());
+                        listener.log("File sent successfully: " + file.getName());
                     } else {
-                        dashboard.addLog("Peer reported transfer failure: " + finalResponse);
+                        listener.log("Peer reported transfer failure: " + finalResponse);
                     }
                 }
                 
-                dashboard.onTransferComplete(transfer, success);
+                listener.onTransferComplete(transfer, success);
                 
             }
             
         } catch (ConnectException e) {
-            dashboard.addLog("Connection failed: Peer not available at " + peerIp + ":" + peerPort);
-            dashboard.onTransferComplete(transfer, false);
+            listener.log("Connection failed: Peer not available at " + peerIp + ":" + peerPort);
+            listener.onTransferComplete(transfer, false);
         } catch (SocketTimeoutException e) {
-            dashboard.addLog("Transfer timeout: " + e.getMessage());
-            dashboard.onTransferComplete(transfer, false);
+            listener.log("Transfer timeout: " + e.getMessage());
+            listener.onTransferComplete(transfer, false);
         } catch (IOException e) {
-            dashboard.addLog("Transfer error: " + e.getMessage());
-            dashboard.onTransferComplete(transfer, false);
+            listener.log("Transfer error: " + e.getMessage());
+            listener.onTransferComplete(transfer, false);
         } finally {
-            if (socket != null && !socket.isClosed()) {
+            if (channel != null && channel.isOpen()) {
                 try {
-                    socket.close();
+                    channel.close();
                 } catch (IOException e) {
-                    dashboard.addLog("Error closing socket: " + e.getMessage());
+                    listener.log("Error closing socket: " + e.getMessage());
                 }
             }
         }
@@ -107,10 +143,7 @@ public class FileClient {
                 int progress = (int) ((totalBytesSent * 100) / fileSize);
                 if (progress != lastProgress) {
                     lastProgress = progress;
-                    dashboard.onTransferProgress(progress, 
-                        "Sending: " + progress + "% (" + 
-                        FileUtils.formatFileSize(totalBytesSent) + "/" + 
-                        FileUtils.formatFileSize(fileSize) + ")");
+                    listener.onTransferProgress(transfer, totalBytesSent);
                 }
                 
                 // Small delay to prevent overwhelming the network
@@ -125,11 +158,11 @@ public class FileClient {
             }
             
             dos.flush();
-            dashboard.addLog("File data sent: " + FileUtils.formatFileSize(totalBytesSent) + " bytes");
+            listener.log("File data sent: " + FileUtils.formatFileSize(totalBytesSent) + " bytes");
             return true;
             
         } catch (IOException e) {
-            dashboard.addLog("Error sending file data: " + e.getMessage());
+            listener.log("Error sending file data: " + e.getMessage());
             return false;
         }
     }
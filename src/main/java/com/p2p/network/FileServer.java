@@ -1,13 +1,26 @@
 package com.p2p.network;
 
-import com.p2p.gui.DashboardFrame;
 import com.p2p.model.Transfer;
 import com.p2p.model.TransferType;
+import com.p2p.network.catalog.CatalogProtocol;
+import com.p2p.network.catalog.LocalCatalog;
+import com.p2p.network.dedup.ChunkStore;
+import com.p2p.network.dedup.DedupProtocol;
+import com.p2p.network.dedup.DedupReceiver;
+import com.p2p.network.pull.PullProtocol;
+import com.p2p.network.pull.SharedFileService;
+import com.p2p.network.sync.SyncProtocol;
+import com.p2p.network.sync.SyncReceiver;
+import com.p2p.network.transport.Transport;
+import com.p2p.network.transport.TransportChannel;
+import com.p2p.network.transport.TransportListener;
+import com.p2p.network.transport.Transports;
+import com.p2p.utils.ConfigUtils;
 import com.p2p.utils.FileUtils;
 
 import java.io.*;
-import java.net.*;
 import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.concurrent.ExecutorService;
@@ -17,19 +30,26 @@ import java.util.concurrent.Executors;
  * File server for receiving files from peers
  */
 public class FileServer implements Runnable {
-    private ServerSocket serverSocket;
+    private TransportListener listener;
     private int port;
-    private DashboardFrame dashboard;
+    private int localUserId;
+    private TransferListener transferListener;
     private volatile boolean running = false;
     private ExecutorService clientExecutor;
     
     private static final String DOWNLOADS_DIR = "downloads";
     private static final int BUFFER_SIZE = 8192;
 
-    public FileServer(int port, DashboardFrame dashboard) throws IOException {
-        this.port = port;
-        this.dashboard = dashboard;
-        this.serverSocket = new ServerSocket(port);
+    public FileServer(int port, int localUserId, TransferListener transferListener) throws IOException {
+        this(port, localUserId, transferListener, Transports.getDefault());
+    }
+
+    public FileServer(int port, int localUserId, TransferListener transferListener,
+                      Transport transport) throws IOException {
+        this.localUserId = localUserId;
+        this.transferListener = transferListener;
+        this.listener = transport.listen(port);
+        this.port = listener.getPort();
         this.clientExecutor = Executors.newCachedThreadPool();
         
         // Create downloads directory if it doesn't exist
@@ -41,75 +61,76 @@ public class FileServer implements Runnable {
             Path downloadsPath = Paths.get(DOWNLOADS_DIR);
             if (!Files.exists(downloadsPath)) {
                 Files.createDirectories(downloadsPath);
-                dashboard.addLog("Created downloads directory: " + downloadsPath.toAbsolutePath());
+                transferListener.log("Created downloads directory: " + downloadsPath.toAbsolutePath());
             }
         } catch (IOException e) {
-            dashboard.addLog("Failed to create downloads directory: " + e.getMessage());
+            transferListener.log("Failed to create downloads directory: " + e.getMessage());
         }
     }
 
     @Override
     public void run() {
         running = true;
-        dashboard.addLog("File server listening on port " + port);
+        transferListener.log("File server listening on port " + port);
         
-        while (running && !serverSocket.isClosed()) {
+        while (running && !listener.isClosed()) {
             try {
-                Socket clientSocket = serverSocket.accept();
-                dashboard.addLog("Incoming connection from: " + clientSocket.getInetAddress());
+                TransportChannel clientChannel = listener.accept();
                 
                 // Handle each client in a separate thread
-                clientExecutor.submit(() -> handleClient(clientSocket));
+                clientExecutor.submit(() -> handleClient(clientChannel));
                 
             } catch (IOException e) {
                 if (running) {
-                    dashboard.addLog("Server error: " + e.getMessage());
+                    transferListener.log("Server error: " + e.getMessage());
                 }
             }
         }
         
-        dashboard.addLog("File server stopped");
+        transferListener.log("File server stopped");
     }
 
-    private void handleClient(Socket clientSocket) {
-        try (DataInputStream dis = new DataInputStream(clientSocket.getInputStream());
-             DataOutputStream dos = new DataOutputStream(clientSocket.getOutputStream())) {
+    private void handleClient(TransportChannel clientChannel) {
+        try (DataInputStream dis = new DataInputStream(clientChannel.getInputStream());
+             DataOutputStream dos = new DataOutputStream(clientChannel.getOutputStream())) {
             
-            // Read file information
+            // Read file information; a leading NUL marks a request instead of a file
             String fileName = dis.readUTF();
+            if (fileName.startsWith("\0")) {
+                handleCommand(fileName, dis, dos, clientChannel);
+                return;
+            }
+            transferListener.log("Incoming connection from: " + clientChannel.getRemoteAddress());
             long fileSize = dis.readLong();
             String senderUsername = dis.readUTF();
             
-            dashboard.addLog("Receiving file: " + fileName + " (" + 
+            transferListener.log("Receiving file: " + fileName + " (" + 
                 FileUtils.formatFileSize(fileSize) + ") from " + senderUsername);
             
+            // Prepare file path, handling file name conflicts
+            Path filePath;
+            try {
+                filePath = FileUtils.resolveUniquePath(Paths.get(DOWNLOADS_DIR), fileName);
+            } catch (InvalidPathException e) {
+                transferListener.log("Refused file with an invalid name from " + senderUsername);
+                dos.writeUTF("INVALID_NAME");
+                dos.flush();
+                return;
+            }
+            
             // Send acknowledgment
             dos.writeUTF("READY");
             dos.flush();
             
-            // Prepare file path
-            Path filePath = Paths.get(DOWNLOADS_DIR, fileName);
-            
-            // Handle file name conflicts
-            int counter = 1;
-            while (Files.exists(filePath)) {
-                String nameWithoutExt = FileUtils.getFileNameWithoutExtension(fileName);
-                String extension = FileUtils.getFileExtension(fileName);
-                String newFileName = nameWithoutExt + "_" + counter + 
-                    (extension.isEmpty() ? "" : "." + extension);
-                filePath = Paths.get(DOWNLOADS_DIR, newFileName);
-                counter++;
-            }
-            
             // Create transfer record
             Transfer transfer = new Transfer(
-                dashboard.getCurrentUser().getUserId(),
+                localUserId,
                 filePath.getFileName().toString(),
                 fileSize,
                 TransferType.RECEIVED,
                 senderUsername
             );
-            transfer.setPeerIpAddress(clientSocket.getInetAddress().getHostAddress());
+            transfer.setPeerIpAddress(clientChannel.getRemoteAddress());
             transfer.setFilePath(filePath.toString());
             transfer.setStatus(Transfer.TransferStatus.IN_PROGRESS);
             
@@ -119,36 +140,56 @@ public class FileServer implements Runnable {
             if (success) {
                 dos.writeUTF("SUCCESS");
                 transfer.setStatus(Transfer.TransferStatus.COMPLETED);
-                dashboard.addLog("File received successfully: " + filePath.getFileName());
+                transferListener.log("File received successfully: " + filePath.getFileName());
             } else {
                 dos.writeUTF("FAILED");
                 transfer.setStatus(Transfer.TransferStatus.FAILED);
-                dashboard.addLog("Failed to receive file: " + fileName);
+                transferListener.log("Failed to receive file: " + fileName);
                 
                 // Clean up partial file
                 try {
                     Files.deleteIfExists(filePath);
                 } catch (IOException e) {
-                    dashboard.addLog("Failed to clean up partial file: " + e.getMessage());
+                    transferListener.log("Failed to clean up partial file: " + e.getMessage());
                 }
             }
             
             dos.flush();
             
-            // Notify dashboard
-            dashboard.onFileReceived(transfer);
+            // Notify listener
+            transferListener.onFileReceived(transfer);
             
         } catch (IOException e) {
-            dashboard.addLog("Client handling error: " + e.getMessage());
+            transferListener.log("Client handling error: " + e.getMessage());
         } finally {
             try {
-                clientSocket.close();
+                clientChannel.close();
             } catch (IOException e) {
-                dashboard.addLog("Error closing client socket: " + e.getMessage());
+                transferListener.log("Error closing client socket: " + e.getMessage());
             }
         }
     }
 
+    private void handleCommand(String command, DataInputStream dis, DataOutputStream dos,
+                               TransportChannel clientChannel) throws IOException {
+        if (CatalogProtocol.COMMAND.equals(command)) {
+            LocalCatalog.getInstance().serve(dis, new DataOutputStream(new BufferedOutputStream(dos)));
+        } else if (PullProtocol.COMMAND.equals(command)) {
+            SharedFileService.getInstance().serve(dis, new DataOutputStream(new BufferedOutputStream(dos)), clientChannel);
+        } else if (DedupProtocol.COMMAND.equals(command) && ConfigUtils.isDedupEnabled()) {
+            new DedupReceiver(ChunkStore.getInstance(), Paths.get(DOWNLOADS_DIR), localUserId, transferListener)
+                .receive(new DataInputStream(new BufferedInputStream(dis)), new DataOutputStream(new BufferedOutputStream(dos)),
+                    clientChannel.getRemoteAddress());
+        } else if (SyncProtocol.COMMAND.equals(command) && ConfigUtils.isSyncReceiveEnabled()) {
+            new SyncReceiver(Paths.get(DOWNLOADS_DIR), localUserId, transferListener)
+                .receive(new DataInputStream(new BufferedInputStream(dis)), new DataOutputStream(new BufferedOutputStream(dos)),
+                    clientChannel.getRemoteAddress());
+        } else {
+            dos.writeUTF("UNSUPPORTED");
+            dos.flush();
+        }
+    }
+
     private boolean receiveFile(DataInputStream dis, Path filePath, long fileSize, Transfer transfer) {
         try (FileOutputStream fos = new FileOutputStream(filePath.toFile());
              BufferedOutputStream bos = new BufferedOutputStream(fos)) {
@@ -162,7 +203,7 @@ public class FileServer implements Runnable {
                 int bytesRead = dis.read(buffer, 0, bytesToRead);
                 
                 if (bytesRead == -1) {
-                    dashboard.addLog("Unexpected end of stream while receiving file");
+                    transferListener.log("Unexpected end of stream while receiving file");
                     return false;
                 }
                 
@@ -173,10 +214,7 @@ public class FileServer implements Runnable {
                 int progress = (int) ((totalBytesReceived * 100) / fileSize);
                 if (progress != lastProgress) {
                     lastProgress = progress;
-                    dashboard.onTransferProgress(progress, 
-                        "Receiving: " + progress + "% (" + 
-                        FileUtils.formatFileSize(totalBytesReceived) + "/" + 
-                        FileUtils.formatFileSize(fileSize) + ")");
+                    transferListener.onTransferProgress(transfer, totalBytesReceived);
                 }
             }
             
@@ -184,7 +222,7 @@ public class FileServer implements Runnable {
             return true;
             
         } catch (IOException e) {
-            dashboard.addLog("Error receiving file: " + e.getMessage());
+            transferListener.log("Error receiving file: " + e.getMessage());
             return false;
         }
     }
@@ -192,14 +230,14 @@ public class FileServer implements Runnable {
     public void stop() {
         running = false;
         try {
-            if (serverSocket != null && !serverSocket.isClosed()) {
-                serverSocket.close();
+            if (listener != null && !listener.isClosed()) {
+                listener.close();
             }
             if (clientExecutor != null && !clientExecutor.isShutdown()) {
                 clientExecutor.shutdown();
             }
         } catch (IOException e) {
-            dashboard.addLog("Error stopping server: " + e.getMessage());
+            transferListener.log("Error stopping server: " + e.getMessage());
         }
     }
 
@@ -0,0 +1,277 @@
+package com.p2p.network;
+
+import com.p2p.utils.ConfigUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
+import java.net.StandardSocketOptions;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serverless peer discovery on the local network segment over UDP multicast
+ *
+ * Every node announces its name and transfer port to the multicast group on start,
+ * then every announce interval (with jitter so nodes do not fire in step), and says
+ * goodbye on stop. A node that starts sends a query as well, which every other node
+ * answers with an announcement after a short random delay, so it learns the segment
+ * within a fraction of a second instead of one interval. Answers go to the group
+ * rather than back to the asker, because instances sharing a host also share the
+ * group port and only one of them would receive a unicast reply.
+ *
+ * Peers are kept in a local table keyed by node id and dropped when nothing has been
+ * heard from them for three intervals. The address recorded for a peer is the source
+ * address of its packets, which is the one that actually reaches it.
+ *
+ * Several instances can run on one host: the group port is shared and each instance
+ * ignores its own packets by node id.
+ */
+public class LanDiscovery implements PeerSource {
+    private static final int MAGIC = 0x50325044; // "P2PD"
+    private static final byte VERSION = 1;
+    private static final byte ANNOUNCE = 1;
+    private static final byte QUERY = 2;
+    private static final byte BYE = 3;
+    private static final int MAX_PACKET_SIZE = 512;
+    private static final long QUERY_REPLY_SPREAD_MILLIS = 100;
+
+    private final String name;
+    private final int transferPort;
+    private final InetSocketAddress group;
+    private final NetworkInterface networkInterface;
+    private final long announceIntervalMillis;
+    private final long expiryNanos;
+    private final UUID nodeId = UUID.randomUUID();
+    private final Map<UUID, Peer> peers = new ConcurrentHashMap<>();
+
+    private MulticastSocket socket;
+    private ScheduledExecutorService scheduler;
+    private Thread receiverThread;
+    private volatile boolean running = false;
+
+    private static final class Peer {
+        final PeerDiscovery.PeerInfo info;
+        final long lastSeenNanos;
+
+        Peer(PeerDiscovery.PeerInfo info, long lastSeenNanos) {
+            this.info = info;
+            this.lastSeenNanos = lastSeenNanos;
+        }
+    }
+
+    /**
+     * @param networkInterface interface to join the group on, or null for the system default
+     */
+    public LanDiscovery(String name, int transferPort, InetSocketAddress group,
+                        NetworkInterface networkInterface, long announceIntervalMillis) {
+        this.name = name;
+        this.transferPort = transferPort;
+        this.group = group;
+        this.networkInterface = networkInterface;
+        this.announceIntervalMillis = Math.max(100, announceIntervalMillis);
+        this.expiryNanos = TimeUnit.MILLISECONDS.toNanos(this.announceIntervalMillis * 3);
+    }
+
+    public synchronized void start() throws IOException {
+        if (running) {
+            return;
+        }
+        socket = new MulticastSocket(group.getPort());
+        socket.setTimeToLive(1);
+        // Deliver the group's packets to other instances on this host too
+        socket.setOption(StandardSocketOptions.IP_MULTICAST_LOOP, true);
+        if (networkInterface != null) {
+            socket.setNetworkInterface(networkInterface);
+        }
+        socket.joinGroup(group, networkInterface);
+        running = true;
+
+        receiverThread = new Thread(this::receiveLoop, "lan-discovery-receiver");
+        receiverThread.setDaemon(true);
+        receiverThread.start();
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "lan-discovery-announcer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        send(QUERY, group);
+        send(ANNOUNCE, group);
+        scheduleAnnounce();
+    }
+
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        scheduler.shutdownNow();
+        send(BYE, group);
+        try {
+            socket.leaveGroup(group, networkInterface);
+        } catch (IOException e) {
+            // Closing the socket leaves the group anyway
+        }
+        socket.close();
+        peers.clear();
+    }
+
+    /**
+     * Peers heard from within the expiry, excluding this node
+     */
+    @Override
+    public List<PeerDiscovery.PeerInfo> getPeers() {
+        long now = System.nanoTime();
+        List<PeerDiscovery.PeerInfo> result = new ArrayList<>();
+        peers.values().removeIf(peer -> now - peer.lastSeenNanos > expiryNanos);
+        for (Peer peer : peers.values()) {
+            result.add(peer.info);
+        }
+        return result;
+    }
+
+    /**
+     * Ask every node on the segment to announce itself now
+     */
+    public void query() {
+        if (running) {
+            send(QUERY, group);
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    private void scheduleAnnounce() {
+        // +/- 20% so nodes started together spread out
+        long jitter = announceIntervalMillis / 5;
+        long delay = announceIntervalMillis + ThreadLocalRandom.current().nextLong(-jitter, jitter + 1);
+        try {
+            scheduler.schedule(() -> {
+                send(ANNOUNCE, group);
+                if (running) {
+                    scheduleAnnounce();
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Stopping
+        }
+    }
+
+    private void send(byte type, InetSocketAddress target) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeByte(type);
+            out.writeLong(nodeId.getMostSignificantBits());
+            out.writeLong(nodeId.getLeastSignificantBits());
+            if (type == ANNOUNCE) {
+                out.writeUTF(name);
+                out.writeInt(transferPort);
+            }
+            byte[] data = bytes.toByteArray();
+            socket.send(new DatagramPacket(data, data.length, target));
+        } catch (IOException e) {
+            if (running) {
+                System.err.println("LAN discovery send failed: " + e.getMessage());
+            }
+        }
+    }
+
+    private void receiveLoop() {
+        byte[] buffer = new byte[MAX_PACKET_SIZE];
+        while (running) {
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            try {
+                socket.receive(packet);
+                handle(packet);
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("LAN discovery receive failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void handle(DatagramPacket packet) throws IOException {
+        DataInputStream in = new DataInputStream(
+            new ByteArrayInputStream(packet.getData(), packet.getOffset(), packet.getLength()));
+        if (packet.getLength() < 22 || in.readInt() != MAGIC || in.readByte() != VERSION) {
+            return;
+        }
+        byte type = in.readByte();
+        UUID sender = new UUID(in.readLong(), in.readLong());
+        if (sender.equals(nodeId)) {
+            return;
+        }
+
+        switch (type) {
+            case ANNOUNCE:
+                String peerName = in.readUTF();
+                int peerPort = in.readInt();
+                String address = packet.getAddress().getHostAddress();
+                peers.put(sender, new Peer(new PeerDiscovery.PeerInfo(peerName, address, peerPort, null), System.nanoTime()));
+                break;
+            case QUERY:
+                long delay = ThreadLocalRandom.current().nextLong(QUERY_REPLY_SPREAD_MILLIS);
+                try {
+                    scheduler.schedule(() -> send(ANNOUNCE, group), delay, TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException e) {
+                    // Stopping
+                }
+                break;
+            case BYE:
+                peers.remove(sender);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * A discovery node configured from lan.discovery.* settings
+     */
+    public static LanDiscovery fromConfig(String name, int transferPort) throws IOException {
+        InetSocketAddress group = new InetSocketAddress(
+            InetAddress.getByName(ConfigUtils.getLanDiscoveryGroup()), ConfigUtils.getLanDiscoveryPort());
+        return new LanDiscovery(name, transferPort, group,
+            findInterface(ConfigUtils.getLanDiscoveryInterface()), ConfigUtils.getLanDiscoveryInterval());
+    }
+
+    /**
+     * The interface with this name or address, or null for the system default
+     */
+    static NetworkInterface findInterface(String nameOrAddress) throws IOException {
+        if (nameOrAddress == null || nameOrAddress.isEmpty()) {
+            return null;
+        }
+        NetworkInterface nic = NetworkInterface.getByName(nameOrAddress);
+        if (nic == null) {
+            nic = NetworkInterface.getByInetAddress(InetAddress.getByName(nameOrAddress));
+        }
+        if (nic == null) {
+            throw new IOException("No network interface " + nameOrAddress);
+        }
+        return nic;
+    }
+}
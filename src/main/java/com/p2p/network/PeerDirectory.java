@@ -0,0 +1,144 @@
+package com.p2p.network;
+
+import com.p2p.database.DatabaseManager;
+import com.p2p.model.User;
+import com.p2p.utils.ConfigUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * In-memory directory of online peers, loaded from the users table
+ *
+ * Lookups read an immutable snapshot and never touch the database. A snapshot older
+ * than the TTL is still served while one background thread loads its replacement,
+ * so only the very first lookup, or the first after {@link #invalidate}, waits for a
+ * query. Online status changes made through DatabaseManager invalidate the snapshot
+ * at once; changes made by other processes are picked up within the TTL.
+ */
+public class PeerDirectory {
+    private static PeerDirectory instance;
+
+    private final Supplier<List<User>> loader;
+    private final long ttlNanos;
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+    // Bumped by invalidate() so a load that started earlier is not installed
+    private final AtomicLong version = new AtomicLong();
+    private final ExecutorService refresher;
+    private final Object loadLock = new Object();
+    private volatile Snapshot snapshot;
+
+    private static final class Snapshot {
+        final List<User> users;
+        final List<PeerDiscovery.PeerInfo> peers;
+        final Map<String, PeerDiscovery.PeerInfo> peersByUsername;
+        final long expiresAtNanos;
+
+        Snapshot(List<User> users, long expiresAtNanos) {
+            List<PeerDiscovery.PeerInfo> peers = new ArrayList<>();
+            Map<String, PeerDiscovery.PeerInfo> byUsername = new HashMap<>();
+            for (User user : users) {
+                if (user.getIpAddress() != null && user.getPort() > 0) {
+                    PeerDiscovery.PeerInfo peer = new PeerDiscovery.PeerInfo(
+                        user.getUsername(), user.getIpAddress(), user.getPort(), user.getEmail());
+                    peers.add(peer);
+                    byUsername.put(user.getUsername(), peer);
+                }
+            }
+            this.users = Collections.unmodifiableList(new ArrayList<>(users));
+            this.peers = Collections.unmodifiableList(peers);
+            this.peersByUsername = byUsername;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+    }
+
+    public PeerDirectory(Supplier<List<User>> loader, long ttlMillis) {
+        this.loader = loader;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, ttlMillis));
+        this.refresher = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "peer-directory-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static synchronized PeerDirectory getInstance() {
+        if (instance == null) {
+            DatabaseManager db = DatabaseManager.getInstance();
+            instance = new PeerDirectory(db::getOnlineUsers, ConfigUtils.getPeerCacheTtl());
+            db.addOnlineStatusListener(instance::invalidate);
+        }
+        return instance;
+    }
+
+    /**
+     * Online users; shared, read-only objects
+     */
+    public List<User> getOnlineUsers() {
+        return current().users;
+    }
+
+    /**
+     * Online users that can be connected to
+     */
+    public List<PeerDiscovery.PeerInfo> getAvailablePeers() {
+        return current().peers;
+    }
+
+    /**
+     * The online peer with this username, or null
+     */
+    public PeerDiscovery.PeerInfo findPeer(String username) {
+        return current().peersByUsername.get(username);
+    }
+
+    /**
+     * Drop the snapshot; the next lookup reloads it
+     */
+    public void invalidate() {
+        version.incrementAndGet();
+        snapshot = null;
+    }
+
+    private Snapshot current() {
+        Snapshot current = snapshot;
+        if (current == null) {
+            synchronized (loadLock) {
+                // Another caller may have loaded it while this one waited
+                current = snapshot;
+                if (current == null) {
+                    current = load();
+                }
+            }
+        } else if (System.nanoTime() - current.expiresAtNanos > 0 && refreshing.compareAndSet(false, true)) {
+            refresher.execute(() -> {
+                try {
+                    synchronized (loadLock) {
+                        load();
+                    }
+                } finally {
+                    refreshing.set(false);
+                }
+            });
+        }
+        return current;
+    }
+
+    private Snapshot load() {
+        long startVersion = version.get();
+        Snapshot loaded = new Snapshot(loader.get(), System.nanoTime() + ttlNanos);
+        if (version.get() == startVersion) {
+            snapshot = loaded;
+        }
+        return loaded;
+    }
+}
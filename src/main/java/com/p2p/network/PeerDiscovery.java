@@ -1,44 +1,119 @@
 package com.p2p.network;
 
-import com.p2p.database.DatabaseManager;
 import com.p2p.model.User;
-import java.util.List;
+import com.p2p.utils.ConfigUtils;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Utility class for discovering online peers
+ *
+ * discovery.mode is a comma-separated list of sources: "database" (the peer
+ * directory), "lan" (UDP multicast on the local segment) and "gossip" (SWIM
+ * membership across subnets); "both" means database,lan. The network sources are
+ * registered as {@link PeerSource}s once running, and their peers are appended to
+ * the database ones unless the same address and port is already listed.
  */
 public class PeerDiscovery {
+    private static final List<PeerSource> peerSources = new CopyOnWriteArrayList<>();
+
+    /**
+     * Make a running peer source available to lookups
+     */
+    public static void addPeerSource(PeerSource source) {
+        peerSources.add(source);
+    }
+
+    public static void removePeerSource(PeerSource source) {
+        peerSources.remove(source);
+    }
+
+    /**
+     * Whether discovery.mode lists a source, e.g. "lan" or "gossip"
+     */
+    public static boolean isSourceEnabled(String source) {
+        for (String mode : ConfigUtils.getDiscoveryMode().split(",")) {
+            mode = mode.trim();
+            if (mode.equalsIgnoreCase(source)
+                    || (mode.equalsIgnoreCase("both") && (source.equals("database") || source.equals("lan")))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static boolean isLanDiscoveryEnabled() {
+        return isSourceEnabled("lan");
+    }
+
+    public static boolean isGossipEnabled() {
+        return isSourceEnabled("gossip");
+    }
+
+    private static boolean isDatabaseDiscoveryEnabled() {
+        return isSourceEnabled("database");
+    }
     
     /**
-     * Get list of online users from database
+     * Get list of online users, served from the peer directory cache
      */
     public static List<User> getOnlinePeers() {
-        return DatabaseManager.getInstance().getOnlineUsers();
+        return PeerDirectory.getInstance().getOnlineUsers();
     }
     
     /**
      * Get list of available peers with their connection info
      */
     public static List<PeerInfo> getAvailablePeers() {
-        List<User> onlineUsers = getOnlinePeers();
-        List<PeerInfo> peers = new ArrayList<>();
-        
-        for (User user : onlineUsers) {
-            if (user.getIpAddress() != null && user.getPort() > 0) {
-                PeerInfo peerInfo = new PeerInfo(
-                    user.getUsername(),
-                    user.getIpAddress(),
-                    user.getPort(),
-                    user.getEmail()
-                );
-                peers.add(peerInfo);
+        List<PeerInfo> databasePeers = isDatabaseDiscoveryEnabled()
+            ? PeerDirectory.getInstance().getAvailablePeers()
+            : List.of();
+        if (peerSources.isEmpty()) {
+            return databasePeers;
+        }
+
+        List<PeerInfo> peers = new ArrayList<>(databasePeers);
+        Set<String> known = new HashSet<>();
+        for (PeerInfo peer : databasePeers) {
+            known.add(peer.getIpAddress() + ":" + peer.getPort());
+        }
+        for (PeerSource source : peerSources) {
+            if (!source.isRunning()) {
+                continue;
+            }
+            for (PeerInfo peer : source.getPeers()) {
+                if (known.add(peer.getIpAddress() + ":" + peer.getPort())) {
+                    peers.add(peer);
+                }
             }
         }
-        
         return peers;
     }
     
+    /**
+     * Find an online peer by username, or null
+     */
+    public static PeerInfo findPeer(String username) {
+        PeerInfo peer = isDatabaseDiscoveryEnabled() ? PeerDirectory.getInstance().findPeer(username) : null;
+        if (peer != null) {
+            return peer;
+        }
+        for (PeerSource source : peerSources) {
+            if (!source.isRunning()) {
+                continue;
+            }
+            for (PeerInfo sourcePeer : source.getPeers()) {
+                if (sourcePeer.getUsername().equals(username)) {
+                    return sourcePeer;
+                }
+            }
+        }
+        return null;
+    }
+    
     /**
      * Inner class to represent peer information
      */
@@ -0,0 +1,17 @@
+package com.p2p.network;
+
+import java.util.List;
+
+/**
+ * A live source of peers besides the database, such as LAN multicast or gossip
+ * membership, that PeerDiscovery merges into its lookups
+ */
+public interface PeerSource {
+
+    /**
+     * Peers this source currently believes are reachable, excluding this node
+     */
+    List<PeerDiscovery.PeerInfo> getPeers();
+
+    boolean isRunning();
+}
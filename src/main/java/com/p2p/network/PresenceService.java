@@ -0,0 +1,88 @@
+package com.p2p.network;
+
+import com.p2p.database.DatabaseManager;
+import com.p2p.utils.ConfigUtils;
+
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps this process's logged-in users marked online and expires peers that stopped
+ * reporting
+ *
+ * Every heartbeat interval one UPDATE refreshes last_seen for all local users, and
+ * users whose last_seen is older than the presence expiry are marked offline, so a
+ * client that crashed or lost its network drops out of the peer directory within
+ * the expiry instead of staying online forever. Lookups also ignore such users
+ * between sweeps.
+ */
+public class PresenceService {
+    private static PresenceService instance;
+
+    private final DatabaseManager database;
+    private final long intervalMillis;
+    private final Set<Integer> localUsers = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> heartbeatTask;
+
+    public PresenceService(DatabaseManager database, long intervalMillis) {
+        this.database = database;
+        this.intervalMillis = Math.max(1000, intervalMillis);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "presence-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static synchronized PresenceService getInstance() {
+        if (instance == null) {
+            instance = new PresenceService(DatabaseManager.getInstance(), ConfigUtils.getPresenceHeartbeatInterval());
+        }
+        return instance;
+    }
+
+    /**
+     * Publish a user as online at the address peers should connect to, and keep them
+     * online until {@link #goOffline}
+     */
+    public synchronized void goOnline(int userId, String ipAddress, int port) {
+        database.updateUserOnlineStatus(userId, true, ipAddress, port);
+        localUsers.add(userId);
+        if (heartbeatTask == null) {
+            heartbeatTask = scheduler.scheduleWithFixedDelay(this::heartbeat,
+                intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public synchronized void goOffline(int userId, String ipAddress, int port) {
+        localUsers.remove(userId);
+        database.updateUserOnlineStatus(userId, false, ipAddress, port);
+        if (localUsers.isEmpty() && heartbeatTask != null) {
+            heartbeatTask.cancel(false);
+            heartbeatTask = null;
+        }
+    }
+
+    private void heartbeat() {
+        try {
+            // Under the lock, so a heartbeat cannot mark a user online again right
+            // after goOffline
+            synchronized (this) {
+                database.recordHeartbeats(new ArrayList<>(localUsers));
+            }
+            int expired = database.expireStalePresence();
+            if (expired > 0) {
+                System.out.println("Marked " + expired + " unresponsive peer(s) offline");
+            }
+        } catch (RuntimeException e) {
+            // Keep the schedule alive; the next beat retries
+            System.err.println("Presence heartbeat failed: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.p2p.network;
+
+import com.p2p.model.Transfer;
+import com.p2p.model.User;
+import com.p2p.network.transport.Transport;
+import com.p2p.network.transport.Transports;
+import com.p2p.utils.ConfigUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Owns the file servers and outgoing transfers for one local user
+ *
+ * Everything is reported through a {@link TransferListener}, so the same engine runs
+ * behind DashboardFrame and behind the headless {@link com.p2p.Daemon}.
+ */
+public class TransferEngine {
+    private final User localUser;
+    private final int port;
+    private final TransferListener listener;
+    private final Transport transport;
+    private final boolean udpEnabled;
+    private final ExecutorService executorService;
+
+    private FileServer fileServer;
+    private UdpFileServer udpFileServer;
+
+    public TransferEngine(User localUser, int port, TransferListener listener) {
+        this(localUser, port, listener, Transports.getDefault(), ConfigUtils.isUdpTransferEnabled());
+    }
+
+    public TransferEngine(User localUser, int port, TransferListener listener,
+                          Transport transport, boolean udpEnabled) {
+        this.localUser = localUser;
+        this.port = port;
+        this.listener = listener;
+        this.transport = transport;
+        this.udpEnabled = udpEnabled;
+        this.executorService = Executors.newCachedThreadPool();
+    }
+
+    /**
+     * Start listening for incoming files; throws if the TCP server cannot bind
+     */
+    public void start() throws IOException {
+        fileServer = new FileServer(port, localUser.getUserId(), listener, transport);
+        executorService.submit(fileServer);
+
+        if (udpEnabled) {
+            try {
+                udpFileServer = new UdpFileServer(fileServer.getPort(), localUser.getUserId(), listener);
+                executorService.submit(udpFileServer);
+            } catch (IOException e) {
+                listener.log("Failed to start UDP file server on port " + fileServer.getPort() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Send a file in the background; the outcome arrives through
+     * {@link TransferListener#onTransferComplete}
+     */
+    public Future<?> sendFile(File file, String peerIp, int peerPort, Transfer transfer) {
+        if (udpEnabled) {
+            UdpFileClient client = new UdpFileClient(localUser.getUsername(), listener);
+            return executorService.submit(() -> client.sendFile(file, peerIp, peerPort, transfer));
+        }
+        FileClient client = new FileClient(localUser.getUsername(), listener, transport);
+        return executorService.submit(() -> client.sendFile(file, peerIp, peerPort, transfer));
+    }
+
+    public void stop() {
+        if (fileServer != null) {
+            fileServer.stop();
+        }
+        if (udpFileServer != null) {
+            udpFileServer.stop();
+        }
+        executorService.shutdown();
+    }
+
+    /**
+     * The bound TCP port, which differs from the requested one when that was 0
+     */
+    public int getPort() {
+        return fileServer != null ? fileServer.getPort() : port;
+    }
+
+    public User getLocalUser() {
+        return localUser;
+    }
+}
@@ -0,0 +1,193 @@
+package com.p2p.network;
+
+import com.p2p.model.Transfer;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free multi-producer, single-consumer queue of transfer events
+ *
+ * Network threads publish by calling the {@link TransferListener} methods; one consumer
+ * thread (for the dashboard, a Swing timer on the EDT) calls {@link #drain} to replay
+ * the events in batches onto its own listener. Publishing claims a preallocated slot
+ * with one CAS and never blocks or allocates.
+ *
+ * When the ring is full, progress events are dropped, since the next one supersedes
+ * them anyway. Log, completion and received events spill into an unbounded overflow
+ * queue instead so none are lost. Once anything is in overflow, later lifecycle
+ * events follow it there to keep their order.
+ */
+public class TransferEventBus implements TransferListener {
+    private static final byte LOG = 1;
+    private static final byte PROGRESS = 2;
+    private static final byte COMPLETE = 3;
+    private static final byte RECEIVED = 4;
+
+    private static final class Event {
+        byte type;
+        Transfer transfer;
+        long bytes;
+        boolean success;
+        String message;
+    }
+
+    private final int mask;
+    private final Event[] slots;
+    // Per-slot sequence: equals the position when free to write, position + 1 when published
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private long head;
+
+    private final Queue<Event> overflow = new ConcurrentLinkedQueue<>();
+    private final AtomicLong droppedProgress = new AtomicLong();
+
+    public TransferEventBus(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.mask = size - 1;
+        this.slots = new Event[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Event();
+            sequences.set(i, i);
+        }
+    }
+
+    @Override
+    public void log(String message) {
+        publish(LOG, null, 0, false, message);
+    }
+
+    @Override
+    public void onTransferProgress(Transfer transfer, long bytesTransferred) {
+        publish(PROGRESS, transfer, bytesTransferred, false, null);
+    }
+
+    @Override
+    public void onTransferComplete(Transfer transfer, boolean success) {
+        publish(COMPLETE, transfer, 0, success, null);
+    }
+
+    @Override
+    public void onFileReceived(Transfer transfer) {
+        publish(RECEIVED, transfer, 0, false, null);
+    }
+
+    private void publish(byte type, Transfer transfer, long bytes, boolean success, String message) {
+        if (type != PROGRESS && !overflow.isEmpty()) {
+            overflow.add(newEvent(type, transfer, bytes, success, message));
+            return;
+        }
+
+        long position = tail.get();
+        while (true) {
+            int index = (int) (position & mask);
+            long difference = sequences.getAcquire(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    break;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                // Full: the consumer has not released this slot from the previous lap
+                if (type == PROGRESS) {
+                    droppedProgress.incrementAndGet();
+                } else {
+                    overflow.add(newEvent(type, transfer, bytes, success, message));
+                }
+                return;
+            } else {
+                position = tail.get();
+            }
+        }
+
+        int index = (int) (position & mask);
+        Event event = slots[index];
+        event.type = type;
+        event.transfer = transfer;
+        event.bytes = bytes;
+        event.success = success;
+        event.message = message;
+        sequences.setRelease(index, position + 1);
+    }
+
+    private static Event newEvent(byte type, Transfer transfer, long bytes, boolean success, String message) {
+        Event event = new Event();
+        event.type = type;
+        event.transfer = transfer;
+        event.bytes = bytes;
+        event.success = success;
+        event.message = message;
+        return event;
+    }
+
+    /**
+     * Deliver up to maxEvents pending events to the listener, in publish order, on the
+     * calling thread. Must only be called from one thread at a time.
+     *
+     * @return the number of events delivered
+     */
+    public int drain(TransferListener listener, int maxEvents) {
+        int delivered = 0;
+        while (delivered < maxEvents) {
+            int index = (int) (head & mask);
+            if (sequences.getAcquire(index) != head + 1) {
+                break;
+            }
+            Event event = slots[index];
+            byte type = event.type;
+            Transfer transfer = event.transfer;
+            long bytes = event.bytes;
+            boolean success = event.success;
+            String message = event.message;
+            event.transfer = null;
+            event.message = null;
+            sequences.setRelease(index, head + mask + 1);
+            head++;
+
+            dispatch(listener, type, transfer, bytes, success, message);
+            delivered++;
+        }
+
+        // Overflowed events were published after everything in the ring at the time
+        Event event;
+        while (delivered < maxEvents && (event = overflow.poll()) != null) {
+            dispatch(listener, event.type, event.transfer, event.bytes, event.success, event.message);
+            delivered++;
+        }
+        return delivered;
+    }
+
+    private static void dispatch(TransferListener listener, byte type, Transfer transfer,
+                                 long bytes, boolean success, String message) {
+        switch (type) {
+            case LOG:
+                listener.log(message);
+                break;
+            case PROGRESS:
+                listener.onTransferProgress(transfer, bytes);
+                break;
+            case COMPLETE:
+                listener.onTransferComplete(transfer, success);
+                break;
+            case RECEIVED:
+                listener.onFileReceived(transfer);
+                break;
+            default:
+                break;
+        }
+    }
+
+    public int getCapacity() {
+        return slots.length;
+    }
+
+    /**
+     * Progress events discarded because the ring was full
+     */
+    public long getDroppedProgressEvents() {
+        return droppedProgress.get();
+    }
+}
@@ -0,0 +1,28 @@
+package com.p2p.network;
+
+import com.p2p.model.Transfer;
+
+/**
+ * Callbacks from the transfer engine to whatever is hosting it
+ *
+ * Callbacks arrive on transfer threads; implementations that touch a UI must hand off
+ * to it themselves. Progress is reported at most once per whole percent per transfer.
+ */
+public interface TransferListener {
+    void log(String message);
+
+    /**
+     * Bytes moved so far for a transfer; the total is {@link Transfer#getFileSize()}
+     */
+    void onTransferProgress(Transfer transfer, long bytesTransferred);
+
+    /**
+     * An outgoing transfer finished
+     */
+    void onTransferComplete(Transfer transfer, boolean success);
+
+    /**
+     * An incoming transfer finished; its status says whether it succeeded
+     */
+    void onFileReceived(Transfer transfer);
+}
@@ -0,0 +1,50 @@
+package com.p2p.network;
+
+import com.p2p.model.Transfer;
+import com.p2p.network.udp.ChannelPacketLink;
+import com.p2p.network.udp.PacketLink;
+import com.p2p.network.udp.UdpSender;
+import com.p2p.utils.ConfigUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+/**
+ * File client for sending files to peers over the UDP transfer mode
+ */
+public class UdpFileClient {
+    private String senderName;
+    private TransferListener listener;
+
+    public UdpFileClient(String senderName, TransferListener listener) {
+        this.senderName = senderName;
+        this.listener = listener;
+    }
+
+    public void sendFile(File file, String peerIp, int peerPort, Transfer transfer) {
+        listener.log("Connecting to peer over UDP: " + peerIp + ":" + peerPort);
+        listener.onTransferProgress(transfer, 0);
+
+        try (PacketLink link = new ChannelPacketLink(new InetSocketAddress(0))) {
+            UdpSender sender = new UdpSender(link, ConfigUtils.getUdpPayloadSize(),
+                ConfigUtils.getUdpFecGroup(), listener::log,
+                bytesSent -> listener.onTransferProgress(transfer, bytesSent));
+
+            transfer.setStatus(Transfer.TransferStatus.IN_PROGRESS);
+            boolean success = sender.send(file.toPath(), file.getName(),
+                senderName, new InetSocketAddress(peerIp, peerPort));
+
+            if (success) {
+                listener.log("File sent successfully: " + file.getName());
+            } else {
+                listener.log("UDP transfer failed: " + file.getName());
+            }
+            listener.onTransferComplete(transfer, success);
+
+        } catch (IOException e) {
+            listener.log("Transfer error: " + e.getMessage());
+            listener.onTransferComplete(transfer, false);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.p2p.network;
+
+import com.p2p.model.Transfer;
+import com.p2p.model.TransferType;
+import com.p2p.network.udp.ChannelPacketLink;
+import com.p2p.network.udp.UdpListener;
+import com.p2p.utils.FileUtils;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * File server for receiving files from peers over the UDP transfer mode
+ * Listens on the same port number as the TCP FileServer
+ */
+public class UdpFileServer implements Runnable, UdpListener.SessionHandler {
+    private UdpListener listener;
+    private int port;
+    private int localUserId;
+    private TransferListener transferListener;
+    private ExecutorService sessionExecutor;
+    private final Map<UdpListener.Incoming, Transfer> transfers = new ConcurrentHashMap<>();
+
+    private static final String DOWNLOADS_DIR = "downloads";
+
+    public UdpFileServer(int port, int localUserId, TransferListener transferListener) throws IOException {
+        this.port = port;
+        this.localUserId = localUserId;
+        this.transferListener = transferListener;
+        this.sessionExecutor = Executors.newCachedThreadPool();
+        this.listener = new UdpListener(new ChannelPacketLink(new InetSocketAddress(port)),
+            this, sessionExecutor);
+    }
+
+    @Override
+    public void run() {
+        transferListener.log("UDP file server listening on port " + port);
+        listener.run();
+        transferListener.log("UDP file server stopped");
+    }
+
+    @Override
+    public synchronized Path accept(UdpListener.Incoming incoming) {
+        transferListener.log("Receiving file over UDP: " + incoming.getFileName() + " (" +
+            FileUtils.formatFileSize(incoming.getFileSize()) + ") from " + incoming.getSenderName());
+
+        Path filePath = FileUtils.resolveUniquePath(Paths.get(DOWNLOADS_DIR), incoming.getFileName());
+
+        Transfer transfer = new Transfer(
+            localUserId,
+            filePath.getFileName().toString(),
+            incoming.getFileSize(),
+            TransferType.RECEIVED,
+            incoming.getSenderName()
+        );
+        transfer.setPeerIpAddress(incoming.getRemoteAddress().getAddress().getHostAddress());
+        transfer.setFilePath(filePath.toString());
+        transfer.setStatus(Transfer.TransferStatus.IN_PROGRESS);
+        transfers.put(incoming, transfer);
+        return filePath;
+    }
+
+    @Override
+    public void onProgress(UdpListener.Incoming incoming, long bytesReceived) {
+        Transfer transfer = transfers.get(incoming);
+        if (transfer != null) {
+            transferListener.onTransferProgress(transfer, bytesReceived);
+        }
+    }
+
+    @Override
+    public void onComplete(UdpListener.Incoming incoming, Path path, boolean success) {
+        Transfer transfer = transfers.remove(incoming);
+        if (transfer == null) {
+            return;
+        }
+        if (success) {
+            transfer.setStatus(Transfer.TransferStatus.COMPLETED);
+            transferListener.log("File received successfully: " + path.getFileName());
+        } else {
+            transfer.setStatus(Transfer.TransferStatus.FAILED);
+            transferListener.log("Failed to receive file: " + incoming.getFileName());
+        }
+        transferListener.onFileReceived(transfer);
+    }
+
+    @Override
+    public void log(String message) {
+        transferListener.log(message);
+    }
+
+    public void stop() {
+        listener.stop();
+        if (sessionExecutor != null && !sessionExecutor.isShutdown()) {
+            sessionExecutor.shutdown();
+        }
+    }
+
+    public int getPort() {
+        return port;
+    }
+}
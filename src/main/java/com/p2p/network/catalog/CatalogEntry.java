@@ -0,0 +1,39 @@
+package com.p2p.network.catalog;
+
+/**
+ * One file a peer offers, by its path relative to the peer's shared directory
+ */
+public final class CatalogEntry {
+    private final String path;
+    private final long size;
+    private final long lastModified;
+
+    public CatalogEntry(String path, long size, long lastModified) {
+        this.path = path;
+        this.size = size;
+        this.lastModified = lastModified;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * The last path segment
+     */
+    public String getName() {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    boolean sameFile(CatalogEntry other) {
+        return other != null && size == other.size && lastModified == other.lastModified;
+    }
+}
@@ -0,0 +1,536 @@
+package com.p2p.network.catalog;
+
+import com.p2p.network.PeerDiscovery;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory inverted index over the catalogs of every known peer
+ *
+ * Each file is a document number with parallel arrays for its peer, path and size.
+ * Every word of a file name and every extension has a postings list of document
+ * numbers in ascending order, which holds because documents are only ever appended.
+ * A search intersects the lists of its words starting from the shortest, so its cost
+ * follows the rarest word rather than the size of the index.
+ *
+ * Catalog deltas are applied in place: a new path appends a document, a changed size
+ * is overwritten, and a removed path only clears the document's live bit. Dead
+ * documents are skipped by searches and dropped in one pass once they make up a
+ * quarter of the index, which renumbers the rest without reordering them.
+ */
+public class CatalogIndex {
+    private static final int MIN_COMPACTION = 4096;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Guarded by lock
+    private int[] docPeers = new int[1024];
+    private String[] docPaths = new String[1024];
+    private long[] docSizes = new long[1024];
+    private int docCount;
+    private final BitSet live = new BitSet();
+    private int liveCount;
+    private final TreeMap<String, Postings> words = new TreeMap<>();
+    private final Map<String, Postings> extensions = new HashMap<>();
+    private final List<Peer> peers = new ArrayList<>();
+    private final Map<String, Peer> peersByKey = new HashMap<>();
+
+    /**
+     * Growable sorted list of document numbers
+     */
+    private static final class Postings {
+        int[] docs = new int[2];
+        int size;
+
+        void add(int doc) {
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+            }
+            docs[size++] = doc;
+        }
+    }
+
+    /**
+     * What the index holds for one peer
+     */
+    private static final class Peer {
+        final int number;
+        PeerDiscovery.PeerInfo info;
+        long epoch;
+        long version;
+        final Map<String, Integer> docs = new HashMap<>();
+
+        Peer(int number, PeerDiscovery.PeerInfo info) {
+            this.number = number;
+            this.info = info;
+        }
+    }
+
+    /**
+     * One matching file
+     */
+    public static final class Hit {
+        private final PeerDiscovery.PeerInfo peer;
+        private final String path;
+        private final long size;
+
+        Hit(PeerDiscovery.PeerInfo peer, String path, long size) {
+            this.peer = peer;
+            this.path = path;
+            this.size = size;
+        }
+
+        public PeerDiscovery.PeerInfo getPeer() {
+            return peer;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public String getName() {
+            return path.substring(path.lastIndexOf('/') + 1);
+        }
+
+        public long getSize() {
+            return size;
+        }
+    }
+
+    /**
+     * The first hits of a search, with the total number of matches
+     */
+    public static final class SearchResult {
+        private final List<Hit> hits;
+        private final int total;
+        private final long elapsedNanos;
+
+        SearchResult(List<Hit> hits, int total, long elapsedNanos) {
+            this.hits = hits;
+            this.total = total;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public List<Hit> getHits() {
+            return hits;
+        }
+
+        public int getTotal() {
+            return total;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+    }
+
+    static String key(PeerDiscovery.PeerInfo peer) {
+        return peer.getIpAddress() + ":" + peer.getPort();
+    }
+
+    /**
+     * Lower-case words of letters and digits, in order
+     */
+    static List<String> tokens(String text) {
+        List<String> tokens = new ArrayList<>(4);
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                tokens.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    static String extension(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot > 0 && dot < name.length() - 1 ? name.substring(dot + 1).toLowerCase(Locale.ROOT) : "";
+    }
+
+    /**
+     * The epoch and version of the peer's catalog held here, or {0, 0} for none
+     */
+    public long[] getSyncState(PeerDiscovery.PeerInfo peer) {
+        lock.readLock().lock();
+        try {
+            Peer state = peersByKey.get(key(peer));
+            return state == null ? new long[] {0, 0} : new long[] {state.epoch, state.version};
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Replace everything held for a peer with a full copy of its catalog
+     *
+     * Paths already present keep their document, so a full resync of an unchanged
+     * catalog leaves the index as it was.
+     */
+    public void replace(PeerDiscovery.PeerInfo peer, long epoch, long version, Collection<CatalogEntry> entries) {
+        lock.writeLock().lock();
+        try {
+            Peer state = peer(peer);
+            Set<String> present = new HashSet<>(entries.size() * 2);
+            for (CatalogEntry entry : entries) {
+                present.add(entry.getPath());
+                put(state, entry.getPath(), entry.getSize());
+            }
+            for (Iterator<Map.Entry<String, Integer>> it = state.docs.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry<String, Integer> doc = it.next();
+                if (!present.contains(doc.getKey())) {
+                    kill(doc.getValue());
+                    it.remove();
+                }
+            }
+            state.epoch = epoch;
+            state.version = version;
+            maybeCompact();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Apply the changes a peer made since the version held here
+     */
+    public void update(PeerDiscovery.PeerInfo peer, long version, Collection<CatalogEntry> puts,
+                       Collection<String> removals) {
+        lock.writeLock().lock();
+        try {
+            Peer state = peer(peer);
+            for (CatalogEntry entry : puts) {
+                put(state, entry.getPath(), entry.getSize());
+            }
+            for (String path : removals) {
+                Integer doc = state.docs.remove(path);
+                if (doc != null) {
+                    kill(doc);
+                }
+            }
+            state.version = version;
+            maybeCompact();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void apply(PeerDiscovery.PeerInfo peer, CatalogProtocol.Response response) {
+        List<CatalogEntry> puts = new ArrayList<>(response.changes.size());
+        List<String> removals = new ArrayList<>();
+        for (CatalogProtocol.Change change : response.changes) {
+            if (change.entry != null) {
+                puts.add(change.entry);
+            } else {
+                removals.add(change.path);
+            }
+        }
+        if (response.full) {
+            replace(peer, response.epoch, response.version, puts);
+        } else {
+            update(peer, response.version, puts, removals);
+        }
+    }
+
+    /**
+     * Forget a peer and all of its files
+     */
+    public void removePeer(PeerDiscovery.PeerInfo peer) {
+        removePeer(key(peer));
+    }
+
+    void removePeer(String key) {
+        lock.writeLock().lock();
+        try {
+            Peer state = peersByKey.remove(key);
+            if (state == null) {
+                return;
+            }
+            for (int doc : state.docs.values()) {
+                kill(doc);
+            }
+            peers.set(state.number, null);
+            maybeCompact();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Keys ("host:port") of the peers with files in the index
+     */
+    public Set<String> getPeerKeys() {
+        lock.readLock().lock();
+        try {
+            return new HashSet<>(peersByKey.keySet());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Number of files in the index
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return liveCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public SearchResult search(String query, int limit) {
+        return search(CatalogQuery.parse(query), limit);
+    }
+
+    public SearchResult search(CatalogQuery query, int limit) {
+        long start = System.nanoTime();
+        lock.readLock().lock();
+        try {
+            List<Postings> lists = new ArrayList<>();
+            for (String word : query.getWords()) {
+                Postings postings = words.get(word);
+                if (postings == null) {
+                    return empty(start);
+                }
+                lists.add(postings);
+            }
+            if (query.getExtension() != null) {
+                Postings postings = extensions.get(query.getExtension());
+                if (postings == null) {
+                    return empty(start);
+                }
+                lists.add(postings);
+            }
+            for (String prefix : query.getPrefixes()) {
+                Postings union = union(prefix);
+                if (union.size == 0) {
+                    return empty(start);
+                }
+                lists.add(union);
+            }
+
+            List<Hit> hits = new ArrayList<>(Math.min(limit, 256));
+            int total = 0;
+            if (lists.isEmpty()) {
+                if (query.getMinSize() == 0 && query.getMaxSize() == Long.MAX_VALUE) {
+                    return empty(start);
+                }
+                for (int doc = live.nextSetBit(0); doc >= 0; doc = live.nextSetBit(doc + 1)) {
+                    if (matchesSize(doc, query)) {
+                        if (total++ < limit) {
+                            hits.add(hit(doc));
+                        }
+                    }
+                }
+                return new SearchResult(hits, total, System.nanoTime() - start);
+            }
+
+            // Drive the intersection from the shortest list
+            lists.sort((a, b) -> Integer.compare(a.size, b.size));
+            Postings driver = lists.get(0);
+            int[] cursors = new int[lists.size()];
+            candidates:
+            for (int i = 0; i < driver.size; i++) {
+                int doc = driver.docs[i];
+                if (!live.get(doc) || !matchesSize(doc, query)) {
+                    continue;
+                }
+                for (int j = 1; j < lists.size(); j++) {
+                    Postings other = lists.get(j);
+                    int position = advance(other.docs, other.size, cursors[j], doc);
+                    cursors[j] = position;
+                    if (position == other.size) {
+                        break candidates;
+                    }
+                    if (other.docs[position] != doc) {
+                        continue candidates;
+                    }
+                }
+                if (total++ < limit) {
+                    hits.add(hit(doc));
+                }
+            }
+            return new SearchResult(hits, total, System.nanoTime() - start);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private SearchResult empty(long start) {
+        return new SearchResult(Collections.emptyList(), 0, System.nanoTime() - start);
+    }
+
+    private boolean matchesSize(int doc, CatalogQuery query) {
+        long size = docSizes[doc];
+        return size >= query.getMinSize() && size <= query.getMaxSize();
+    }
+
+    private Hit hit(int doc) {
+        return new Hit(peers.get(docPeers[doc]).info, docPaths[doc], docSizes[doc]);
+    }
+
+    /**
+     * Sorted documents of every word starting with the prefix
+     */
+    private Postings union(String prefix) {
+        Collection<Postings> matching = words.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values();
+        if (matching.size() == 1) {
+            return matching.iterator().next();
+        }
+        BitSet docs = new BitSet(docCount);
+        for (Postings postings : matching) {
+            for (int i = 0; i < postings.size; i++) {
+                docs.set(postings.docs[i]);
+            }
+        }
+        Postings union = new Postings();
+        union.docs = docs.stream().toArray();
+        union.size = union.docs.length;
+        return union;
+    }
+
+    /**
+     * Index of the first element at or after from that is not below target,
+     * galloping ahead before the binary search
+     */
+    private static int advance(int[] docs, int size, int from, int target) {
+        if (from >= size || docs[from] >= target) {
+            return from;
+        }
+        int step = 1;
+        int low = from;
+        int high = from + 1;
+        while (high < size && docs[high] < target) {
+            low = high;
+            step <<= 1;
+            high = from + step;
+        }
+        high = Math.min(high, size);
+        int index = Arrays.binarySearch(docs, low + 1, high, target);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    private Peer peer(PeerDiscovery.PeerInfo info) {
+        String key = key(info);
+        Peer state = peersByKey.get(key);
+        if (state == null) {
+            state = new Peer(peers.size(), info);
+            peers.add(state);
+            peersByKey.put(key, state);
+        } else {
+            // The same address may now belong to a different user name
+            state.info = info;
+        }
+        return state;
+    }
+
+    private void put(Peer state, String path, long size) {
+        Integer existing = state.docs.get(path);
+        if (existing != null) {
+            // Same path, same words; only the size can have changed
+            docSizes[existing] = size;
+            return;
+        }
+        int doc = docCount++;
+        if (doc == docPaths.length) {
+            int capacity = docPaths.length * 2;
+            docPeers = Arrays.copyOf(docPeers, capacity);
+            docPaths = Arrays.copyOf(docPaths, capacity);
+            docSizes = Arrays.copyOf(docSizes, capacity);
+        }
+        docPeers[doc] = state.number;
+        docPaths[doc] = path;
+        docSizes[doc] = size;
+        live.set(doc);
+        liveCount++;
+        state.docs.put(path, doc);
+
+        String name = path.substring(path.lastIndexOf('/') + 1);
+        List<String> tokens = tokens(name);
+        for (int i = 0; i < tokens.size(); i++) {
+            String token = tokens.get(i);
+            // A word repeated in one name is posted once
+            if (tokens.indexOf(token) == i) {
+                words.computeIfAbsent(token, t -> new Postings()).add(doc);
+            }
+        }
+        extensions.computeIfAbsent(extension(name), e -> new Postings()).add(doc);
+    }
+
+    private void kill(int doc) {
+        live.clear(doc);
+        docPaths[doc] = null;
+        liveCount--;
+    }
+
+    private void maybeCompact() {
+        int dead = docCount - liveCount;
+        if (dead < MIN_COMPACTION || dead * 4 < docCount) {
+            return;
+        }
+        int[] renumbered = new int[docCount];
+        int next = 0;
+        for (int doc = 0; doc < docCount; doc++) {
+            if (live.get(doc)) {
+                renumbered[doc] = next;
+                docPeers[next] = docPeers[doc];
+                docPaths[next] = docPaths[doc];
+                docSizes[next] = docSizes[doc];
+                next++;
+            } else {
+                renumbered[doc] = -1;
+            }
+        }
+        Arrays.fill(docPaths, next, docCount, null);
+        docCount = next;
+        live.clear();
+        live.set(0, next);
+
+        compact(words.values(), renumbered);
+        compact(extensions.values(), renumbered);
+        for (Peer state : peers) {
+            if (state != null) {
+                state.docs.replaceAll((path, doc) -> renumbered[doc]);
+            }
+        }
+    }
+
+    private static void compact(Collection<Postings> lists, int[] renumbered) {
+        for (Iterator<Postings> it = lists.iterator(); it.hasNext(); ) {
+            Postings postings = it.next();
+            int kept = 0;
+            for (int i = 0; i < postings.size; i++) {
+                int doc = renumbered[postings.docs[i]];
+                if (doc >= 0) {
+                    postings.docs[kept++] = doc;
+                }
+            }
+            if (kept == 0) {
+                it.remove();
+            } else {
+                postings.size = kept;
+                if (kept < postings.docs.length / 4) {
+                    postings.docs = Arrays.copyOf(postings.docs, Math.max(2, kept));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.p2p.network.catalog;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Wire format of catalog requests on the file server port
+ *
+ * Request: the command string, then the epoch and version of the copy the asker
+ * already holds (0, 0 for none). Response: FULL or DELTA, the catalog's epoch and
+ * current version, then the changes. A FULL response lists every entry; a DELTA
+ * lists the entries added or changed and the paths removed since the asker's
+ * version. The epoch changes whenever the serving catalog restarts, which forces a
+ * full copy.
+ */
+public final class CatalogProtocol {
+    public static final String COMMAND = "\0CATALOG";
+
+    static final byte FULL = 1;
+    static final byte DELTA = 2;
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+
+    private CatalogProtocol() {
+    }
+
+    /**
+     * A change to one path; entry is null for a removal
+     */
+    static final class Change {
+        final String path;
+        final CatalogEntry entry;
+
+        Change(String path, CatalogEntry entry) {
+            this.path = path;
+            this.entry = entry;
+        }
+    }
+
+    /**
+     * A decoded response
+     */
+    static final class Response {
+        final boolean full;
+        final long epoch;
+        final long version;
+        final List<Change> changes;
+
+        Response(boolean full, long epoch, long version, List<Change> changes) {
+            this.full = full;
+            this.epoch = epoch;
+            this.version = version;
+            this.changes = changes;
+        }
+    }
+
+    static void writeRequest(DataOutputStream out, long epoch, long version) throws IOException {
+        out.writeUTF(COMMAND);
+        out.writeLong(epoch);
+        out.writeLong(version);
+        out.flush();
+    }
+
+    static void writeResponse(DataOutputStream out, boolean full, long epoch, long version,
+                              List<Change> changes) throws IOException {
+        out.writeByte(full ? FULL : DELTA);
+        out.writeLong(epoch);
+        out.writeLong(version);
+        out.writeInt(changes.size());
+        for (Change change : changes) {
+            if (change.entry == null) {
+                out.writeByte(REMOVE);
+                out.writeUTF(change.path);
+            } else {
+                out.writeByte(PUT);
+                out.writeUTF(change.path);
+                out.writeLong(change.entry.getSize());
+                out.writeLong(change.entry.getLastModified());
+            }
+        }
+        out.flush();
+    }
+
+    static Response readResponse(DataInputStream in) throws IOException {
+        byte kind = in.readByte();
+        if (kind != FULL && kind != DELTA) {
+            throw new IOException("Peer does not serve a catalog");
+        }
+        long epoch = in.readLong();
+        long version = in.readLong();
+        int count = in.readInt();
+        List<Change> changes = new ArrayList<>(Math.min(count, 1 << 16));
+        for (int i = 0; i < count; i++) {
+            byte op = in.readByte();
+            String path = in.readUTF();
+            if (op == PUT) {
+                changes.add(new Change(path, new CatalogEntry(path, in.readLong(), in.readLong())));
+            } else if (op == REMOVE) {
+                changes.add(new Change(path, null));
+            } else {
+                throw new IOException("Unknown catalog change " + op);
+            }
+        }
+        return new Response(kind == FULL, epoch, version, changes);
+    }
+}
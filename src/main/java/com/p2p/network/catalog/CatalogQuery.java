@@ -0,0 +1,118 @@
+package com.p2p.network.catalog;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A parsed catalog search
+ *
+ * Words must all appear in the file name; a word ending in * matches any name word
+ * starting with it. ext:pdf restricts the extension, and size>10MB, size<1GB,
+ * size>=... and size<=... bound the size, with B, KB, MB, GB and TB as units.
+ * For example: holiday 2023* ext:jpg size>1MB
+ */
+public final class CatalogQuery {
+    private final List<String> words;
+    private final List<String> prefixes;
+    private final String extension;
+    private final long minSize;
+    private final long maxSize;
+
+    private CatalogQuery(List<String> words, List<String> prefixes, String extension, long minSize, long maxSize) {
+        this.words = words;
+        this.prefixes = prefixes;
+        this.extension = extension;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+    }
+
+    public static CatalogQuery parse(String text) {
+        List<String> words = new ArrayList<>();
+        List<String> prefixes = new ArrayList<>();
+        String extension = null;
+        long minSize = 0;
+        long maxSize = Long.MAX_VALUE;
+        for (String part : text.trim().split("\\s+")) {
+            String lower = part.toLowerCase(Locale.ROOT);
+            if (lower.isEmpty()) {
+                continue;
+            }
+            if (lower.startsWith("ext:")) {
+                extension = lower.substring(4);
+                if (extension.startsWith(".")) {
+                    extension = extension.substring(1);
+                }
+            } else if (lower.startsWith("size>=")) {
+                minSize = Math.max(minSize, parseSize(lower.substring(6)));
+            } else if (lower.startsWith("size>")) {
+                minSize = Math.max(minSize, parseSize(lower.substring(5)) + 1);
+            } else if (lower.startsWith("size<=")) {
+                maxSize = Math.min(maxSize, parseSize(lower.substring(6)));
+            } else if (lower.startsWith("size<")) {
+                maxSize = Math.min(maxSize, parseSize(lower.substring(5)) - 1);
+            } else if (lower.endsWith("*")) {
+                List<String> tokens = CatalogIndex.tokens(lower);
+                if (!tokens.isEmpty()) {
+                    // Only the last word of something like "mp3-2023*" is a prefix
+                    words.addAll(tokens.subList(0, tokens.size() - 1));
+                    prefixes.add(tokens.get(tokens.size() - 1));
+                }
+            } else {
+                words.addAll(CatalogIndex.tokens(lower));
+            }
+        }
+        return new CatalogQuery(Collections.unmodifiableList(words), Collections.unmodifiableList(prefixes),
+            extension, minSize, maxSize);
+    }
+
+    static long parseSize(String text) {
+        String digits = text.trim().toUpperCase(Locale.ROOT);
+        long unit = 1;
+        String[] suffixes = {"TB", "GB", "MB", "KB", "B"};
+        long[] units = {1L << 40, 1L << 30, 1L << 20, 1L << 10, 1};
+        for (int i = 0; i < suffixes.length; i++) {
+            if (digits.endsWith(suffixes[i])) {
+                digits = digits.substring(0, digits.length() - suffixes[i].length()).trim();
+                unit = units[i];
+                break;
+            }
+        }
+        try {
+            return (long) (Double.parseDouble(digits) * unit);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid size: " + text);
+        }
+    }
+
+    public List<String> getWords() {
+        return words;
+    }
+
+    public List<String> getPrefixes() {
+        return prefixes;
+    }
+
+    /**
+     * The required extension without the dot, or null for any
+     */
+    public String getExtension() {
+        return extension;
+    }
+
+    public long getMinSize() {
+        return minSize;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Whether the query has neither words nor an extension, so every file would need checking
+     */
+    public boolean isUnrestricted() {
+        return words.isEmpty() && prefixes.isEmpty() && extension == null;
+    }
+}
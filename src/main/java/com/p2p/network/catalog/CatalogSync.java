@@ -0,0 +1,139 @@
+package com.p2p.network.catalog;
+
+import com.p2p.network.PeerDiscovery;
+import com.p2p.network.transport.Transport;
+import com.p2p.network.transport.TransportChannel;
+import com.p2p.network.transport.Transports;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a CatalogIndex in step with the catalogs of the available peers
+ *
+ * Each round asks every peer for the changes since the version already indexed, so
+ * an unchanged catalog costs one short exchange. Peers that are no longer listed are
+ * dropped from the index; a listed peer is only dropped after it has failed to answer
+ * several rounds in a row, so one missed round does not force a full copy later.
+ */
+public class CatalogSync {
+    private static final int CONNECT_TIMEOUT = 5000;
+    private static final int READ_TIMEOUT = 30000;
+    private static final int MAX_FAILURES = 3;
+
+    private final CatalogIndex index;
+    private final String localUsername;
+    private final long intervalMillis;
+    private final Transport transport;
+    private final Map<String, Integer> failures = new HashMap<>();
+    private ScheduledExecutorService scheduler;
+
+    public CatalogSync(CatalogIndex index, String localUsername, long intervalMillis) {
+        this(index, localUsername, intervalMillis, Transports.getDefault());
+    }
+
+    public CatalogSync(CatalogIndex index, String localUsername, long intervalMillis, Transport transport) {
+        this.index = index;
+        this.localUsername = localUsername;
+        this.intervalMillis = Math.max(1000, intervalMillis);
+        this.transport = transport;
+    }
+
+    public CatalogIndex getIndex() {
+        return index;
+    }
+
+    public synchronized void start() {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "catalog-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::syncAllQuietly, 0, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    private void syncAllQuietly() {
+        try {
+            syncAll();
+        } catch (RuntimeException e) {
+            System.err.println("Catalog sync failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Bring the index up to date with every available peer
+     *
+     * @return the number of peers that answered
+     */
+    public int syncAll() {
+        List<PeerDiscovery.PeerInfo> peers = PeerDiscovery.getAvailablePeers();
+        Set<String> listed = new HashSet<>();
+        int answered = 0;
+        for (PeerDiscovery.PeerInfo peer : peers) {
+            if (peer.getUsername() != null && peer.getUsername().equals(localUsername)) {
+                continue;
+            }
+            String key = CatalogIndex.key(peer);
+            listed.add(key);
+            try {
+                sync(peer);
+                synchronized (failures) {
+                    failures.remove(key);
+                }
+                answered++;
+            } catch (IOException e) {
+                int failed;
+                synchronized (failures) {
+                    failed = failures.merge(key, 1, Integer::sum);
+                }
+                if (failed >= MAX_FAILURES) {
+                    index.removePeer(key);
+                }
+            }
+        }
+        for (String key : index.getPeerKeys()) {
+            if (!listed.contains(key)) {
+                index.removePeer(key);
+                synchronized (failures) {
+                    failures.remove(key);
+                }
+            }
+        }
+        return answered;
+    }
+
+    /**
+     * Fetch one peer's changes since the indexed version and apply them
+     */
+    public void sync(PeerDiscovery.PeerInfo peer) throws IOException {
+        long[] state = index.getSyncState(peer);
+        try (TransportChannel channel = transport.connect(peer.getIpAddress(), peer.getPort(), CONNECT_TIMEOUT)) {
+            channel.setReadTimeout(READ_TIMEOUT);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(channel.getOutputStream()));
+            DataInputStream in = new DataInputStream(new BufferedInputStream(channel.getInputStream()));
+            CatalogProtocol.writeRequest(out, state[0], state[1]);
+            index.apply(peer, CatalogProtocol.readResponse(in));
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.p2p.network.catalog;
+
+import com.p2p.utils.ConfigUtils;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The catalog of files this peer serves from its shared directory
+ *
+ * Every change found by a rescan gets the next version number, and the latest
+ * change per path is kept in version order, so a peer holding version v is brought
+ * up to date with just the changes after v. Removals are kept as tombstones for the
+ * same purpose; once there are more than MAX_TOMBSTONES the oldest are dropped and
+ * peers older than them get a full copy instead.
+ *
+ * The directory is rescanned when a peer asks and the last scan is older than the
+ * rescan interval, so an idle peer does no work.
+ */
+public class LocalCatalog {
+    private static final int MAX_TOMBSTONES = 100_000;
+    private static LocalCatalog instance;
+
+    private final Path root;
+    private final long rescanIntervalMillis;
+    // A new epoch for every process, so peers never mistake one run's versions for another's
+    private final long epoch = ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE);
+
+    // Guarded by this
+    private final Map<String, CatalogEntry> entries = new HashMap<>();
+    private final TreeMap<Long, CatalogProtocol.Change> changes = new TreeMap<>();
+    private final Map<String, Long> changeVersions = new HashMap<>();
+    private final TreeMap<Long, String> tombstones = new TreeMap<>();
+    private long version;
+    // Peers older than this may have missed a dropped tombstone
+    private long horizon;
+    private long lastScanMillis;
+
+    public LocalCatalog(Path root, long rescanIntervalMillis) {
+        this.root = root;
+        this.rescanIntervalMillis = rescanIntervalMillis;
+    }
+
+    public static synchronized LocalCatalog getInstance() {
+        if (instance == null) {
+            instance = new LocalCatalog(Paths.get(ConfigUtils.getSharedDirectory()), ConfigUtils.getCatalogRescanInterval());
+        }
+        return instance;
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    /**
+     * Walk the shared directory and record what changed since the last scan
+     *
+     * @return the number of changed paths
+     */
+    public synchronized int rescan() throws IOException {
+        lastScanMillis = System.currentTimeMillis();
+        Map<String, CatalogEntry> found = new HashMap<>();
+        if (Files.isDirectory(root)) {
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                    if (attributes.isRegularFile()) {
+                        String path = root.relativize(file).toString().replace('\\', '/');
+                        found.put(path, new CatalogEntry(path, attributes.size(), attributes.lastModifiedTime().toMillis()));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    // Unreadable files are simply not offered
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+
+        int changed = 0;
+        for (CatalogEntry entry : found.values()) {
+            if (!entry.sameFile(entries.get(entry.getPath()))) {
+                entries.put(entry.getPath(), entry);
+                record(new CatalogProtocol.Change(entry.getPath(), entry));
+                changed++;
+            }
+        }
+        for (Iterator<String> it = entries.keySet().iterator(); it.hasNext(); ) {
+            String path = it.next();
+            if (!found.containsKey(path)) {
+                it.remove();
+                record(new CatalogProtocol.Change(path, null));
+                changed++;
+            }
+        }
+        return changed;
+    }
+
+    private void record(CatalogProtocol.Change change) {
+        Long previous = changeVersions.put(change.path, ++version);
+        if (previous != null) {
+            changes.remove(previous);
+            tombstones.remove(previous);
+        }
+        changes.put(version, change);
+        if (change.entry == null) {
+            tombstones.put(version, change.path);
+        }
+        while (tombstones.size() > MAX_TOMBSTONES) {
+            Map.Entry<Long, String> oldest = tombstones.pollFirstEntry();
+            changes.remove(oldest.getKey());
+            changeVersions.remove(oldest.getValue());
+            horizon = oldest.getKey();
+        }
+    }
+
+    public synchronized List<CatalogEntry> getEntries() {
+        return new ArrayList<>(entries.values());
+    }
+
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * Answer a catalog request whose command has already been read
+     */
+    public void serve(DataInputStream in, DataOutputStream out) throws IOException {
+        long peerEpoch = in.readLong();
+        long peerVersion = in.readLong();
+        boolean full;
+        long currentVersion;
+        List<CatalogProtocol.Change> reply;
+        synchronized (this) {
+            if (System.currentTimeMillis() - lastScanMillis >= rescanIntervalMillis) {
+                rescan();
+            }
+            currentVersion = version;
+            full = peerEpoch != epoch || peerVersion < horizon || peerVersion > version;
+            if (full) {
+                reply = new ArrayList<>(entries.size());
+                for (CatalogEntry entry : entries.values()) {
+                    reply.add(new CatalogProtocol.Change(entry.getPath(), entry));
+                }
+            } else {
+                reply = new ArrayList<>(changes.tailMap(peerVersion, false).values());
+            }
+        }
+        // Write outside the lock so a slow peer does not hold up others
+        CatalogProtocol.writeResponse(out, full, epoch, currentVersion, reply);
+    }
+}
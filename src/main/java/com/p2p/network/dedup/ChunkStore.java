@@ -0,0 +1,367 @@
+package com.p2p.network.dedup;
+
+import com.p2p.hash.ChunkList;
+import com.p2p.hash.FileStamp;
+import com.p2p.utils.ConfigUtils;
+import com.p2p.utils.FileUtils;
+import com.p2p.utils.RecordLog;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.UTFDataFormatException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Every chunk this peer has received, by hash, and where to read it back
+ *
+ * The store keeps no copy of the data: a chunk is found inside a received file by
+ * offset, and that file's {@link FileStamp} is checked before any of its chunks is
+ * offered as known, so a file edited or deleted since it arrived stops counting.
+ * Readers still check each chunk's hash, since the file can change after the check.
+ * A chunk that several files hold keeps all of them as locations, so it stays known
+ * while any of them is unchanged.
+ *
+ * Which files hold which chunks is kept in a {@link RecordLog}: one record per
+ * received file with its stamp and chunk list. At startup the records of files that
+ * changed are skipped, and the log is rewritten once they outnumber the rest.
+ */
+public class ChunkStore {
+    private static final int MAGIC = 0x50324353;
+    private static final int FORMAT_VERSION = 1;
+    private static final int MIN_COMPACT_GARBAGE = 256;
+
+    private static ChunkStore instance;
+
+    // Guarded by this; null keeps the index in memory only
+    private RecordLog log;
+    private final Map<String, StoredFile> files = new HashMap<>();
+    // Each key maps to the first of its locations, chained through Location.next
+    private final Map<ChunkKey, Location> chunks = new HashMap<>();
+    private long garbageRecords;
+
+    private final LongAdder filesReceived = new LongAdder();
+    private final LongAdder logicalBytes = new LongAdder();
+    private final LongAdder transferredBytes = new LongAdder();
+
+    /**
+     * A received file whose chunks are indexed
+     */
+    private static final class StoredFile {
+        final Path path;
+        final FileStamp stamp;
+        final ChunkList chunks;
+
+        StoredFile(Path path, FileStamp stamp, ChunkList chunks) {
+            this.path = path;
+            this.stamp = stamp;
+            this.chunks = chunks;
+        }
+
+        boolean isUnchanged() {
+            try {
+                return FileStamp.of(path).equals(stamp);
+            } catch (IOException e) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Where one chunk can be read
+     */
+    public static final class Location {
+        private final StoredFile file;
+        private final int index;
+        // Guarded by the store; another file holding the same chunk
+        private Location next;
+
+        private Location(StoredFile file, int index) {
+            this.file = file;
+            this.index = index;
+        }
+
+        public Path getPath() {
+            return file.path;
+        }
+
+        public long getOffset() {
+            return file.chunks.getOffset(index);
+        }
+
+        public int getLength() {
+            return file.chunks.getLength(index);
+        }
+    }
+
+    /**
+     * A chunk hash as a map key
+     */
+    static final class ChunkKey {
+        private final byte[] hash;
+        private final int hashCode;
+
+        ChunkKey(byte[] hash) {
+            this.hash = hash;
+            // The bytes of a SHA-256 are already uniformly spread
+            this.hashCode = (hash[0] & 0xFF) << 24 | (hash[1] & 0xFF) << 16 | (hash[2] & 0xFF) << 8 | (hash[3] & 0xFF);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof ChunkKey && Arrays.equals(hash, ((ChunkKey) o).hash);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    /**
+     * @param indexFile where to keep the index between runs; null for memory only
+     */
+    public ChunkStore(Path indexFile) {
+        if (indexFile != null) {
+            log = new RecordLog(indexFile, MAGIC, FORMAT_VERSION);
+            try {
+                log.read(this::decode);
+                for (Iterator<StoredFile> it = files.values().iterator(); it.hasNext(); ) {
+                    StoredFile file = it.next();
+                    if (!file.isUnchanged()) {
+                        it.remove();
+                        unindex(file);
+                        garbageRecords++;
+                    }
+                }
+                if (garbageRecords > files.size() && garbageRecords >= MIN_COMPACT_GARBAGE) {
+                    compact();
+                }
+            } catch (IOException e) {
+                System.err.println("Chunk store " + indexFile + " unavailable, keeping the index in memory: "
+                    + e.getMessage());
+                log = null;
+            }
+        }
+    }
+
+    public static synchronized ChunkStore getInstance() {
+        if (instance == null) {
+            String file = ConfigUtils.getChunkStoreFile();
+            instance = new ChunkStore(file.isEmpty() ? null : Paths.get(file));
+        }
+        return instance;
+    }
+
+    /**
+     * The chunks of the list that this store cannot supply and that do not repeat an
+     * earlier chunk of the same list
+     */
+    public synchronized BitSet findMissing(ChunkList list) {
+        BitSet missing = new BitSet(list.size());
+        Map<StoredFile, Boolean> checked = new HashMap<>();
+        Map<ChunkKey, Boolean> seen = new HashMap<>();
+        for (int i = 0; i < list.size(); i++) {
+            ChunkKey key = new ChunkKey(list.getHash(i));
+            if (seen.putIfAbsent(key, Boolean.TRUE) != null) {
+                continue;
+            }
+            Location location = chunks.get(key);
+            while (location != null && !checked.computeIfAbsent(location.file, StoredFile::isUnchanged)) {
+                location = location.next;
+            }
+            if (location == null) {
+                missing.set(i);
+            }
+        }
+        for (Map.Entry<StoredFile, Boolean> entry : checked.entrySet()) {
+            if (!entry.getValue()) {
+                remove(entry.getKey());
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * Where to read the chunk with this hash, or null if no stored file holds it
+     */
+    public synchronized Location find(byte[] hash) {
+        return chunks.get(new ChunkKey(hash));
+    }
+
+    /**
+     * Index a file that has just been written, whose content is exactly these chunks
+     */
+    public synchronized void add(Path path, ChunkList list) throws IOException {
+        Path absolute = path.toAbsolutePath().normalize();
+        StoredFile file = new StoredFile(absolute, FileStamp.of(absolute), list);
+        apply(file);
+        if (log != null) {
+            try {
+                byte[] record = encode(file);
+                if (record != null) {
+                    log.append(record);
+                }
+            } catch (IOException e) {
+                System.err.println("Failed to write chunk store " + log.getFile() + ": " + e.getMessage());
+                log.close();
+                log = null;
+            }
+        }
+    }
+
+    /**
+     * Stop offering the chunks of a file, after one of them failed its hash
+     */
+    public synchronized void invalidate(Path path) {
+        StoredFile file = files.get(path.toAbsolutePath().normalize().toString());
+        if (file != null) {
+            remove(file);
+        }
+    }
+
+    /**
+     * Count one received file towards the dedup ratio
+     *
+     * @param logical the file's size
+     * @param transferred the chunk bytes that actually crossed the network for it
+     */
+    public void recordTransfer(long logical, long transferred) {
+        filesReceived.increment();
+        logicalBytes.add(logical);
+        transferredBytes.add(transferred);
+    }
+
+    /**
+     * Received bytes per byte transferred; 1 when nothing was deduplicated
+     */
+    public double getDedupRatio() {
+        long transferred = transferredBytes.sum();
+        return transferred == 0 ? (logicalBytes.sum() == 0 ? 1 : Double.POSITIVE_INFINITY)
+            : logicalBytes.sum() / (double) transferred;
+    }
+
+    public synchronized int getChunkCount() {
+        return chunks.size();
+    }
+
+    public String getSummary() {
+        return String.format("dedup %d files, %s received as %s (ratio %.2f), %d chunks indexed",
+            filesReceived.sum(), FileUtils.formatFileSize(logicalBytes.sum()),
+            FileUtils.formatFileSize(transferredBytes.sum()), getDedupRatio(), getChunkCount());
+    }
+
+    private void apply(StoredFile file) {
+        StoredFile previous = files.put(file.path.toString(), file);
+        if (previous != null) {
+            unindex(previous);
+            garbageRecords++;
+        }
+        for (int i = 0; i < file.chunks.size(); i++) {
+            Location location = new Location(file, i);
+            Location first = chunks.putIfAbsent(new ChunkKey(file.chunks.getHash(i)), location);
+            // Later holders go right behind the first, so a chunk this file repeats
+            // is found there and not chained again
+            if (first != null && first.file != file && (first.next == null || first.next.file != file)) {
+                location.next = first.next;
+                first.next = location;
+            }
+        }
+    }
+
+    private void remove(StoredFile file) {
+        if (files.remove(file.path.toString(), file)) {
+            unindex(file);
+            garbageRecords++;
+            if (garbageRecords > files.size() && garbageRecords >= MIN_COMPACT_GARBAGE) {
+                compact();
+            }
+        }
+    }
+
+    private void unindex(StoredFile file) {
+        for (int i = 0; i < file.chunks.size(); i++) {
+            ChunkKey key = new ChunkKey(file.chunks.getHash(i));
+            Location first = chunks.get(key);
+            Location kept = null;
+            Location last = null;
+            for (Location location = first; location != null; location = location.next) {
+                if (location.file == file) {
+                    continue;
+                }
+                if (last == null) {
+                    kept = location;
+                } else {
+                    last.next = location;
+                }
+                last = location;
+            }
+            if (last != null) {
+                last.next = null;
+            }
+            if (kept == null) {
+                chunks.remove(key);
+            } else if (kept != first) {
+                chunks.put(key, kept);
+            }
+        }
+    }
+
+    private void compact() {
+        garbageRecords = 0;
+        if (log == null) {
+            return;
+        }
+        List<byte[]> records = new ArrayList<>();
+        for (StoredFile file : files.values()) {
+            byte[] record = encode(file);
+            if (record != null) {
+                records.add(record);
+            }
+        }
+        try {
+            log.rewrite(records);
+        } catch (IOException e) {
+            System.err.println("Failed to compact chunk store " + log.getFile() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * One record's payload, or null for a path too long for the format
+     */
+    private static byte[] encode(StoredFile file) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(64 + file.chunks.size() * (4 + ChunkList.HASH_SIZE));
+        DataOutputStream out = new DataOutputStream(buffer);
+        try {
+            out.writeUTF(file.path.toString());
+            out.writeLong(file.stamp.getSize());
+            out.writeLong(file.stamp.getModifiedNanos());
+            out.writeLong(file.stamp.getInode());
+            file.chunks.write(out);
+        } catch (UTFDataFormatException e) {
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return buffer.toByteArray();
+    }
+
+    private void decode(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        Path path = Paths.get(in.readUTF());
+        FileStamp stamp = new FileStamp(in.readLong(), in.readLong(), in.readLong());
+        apply(new StoredFile(path, stamp, ChunkList.read(in, Integer.MAX_VALUE, Integer.MAX_VALUE)));
+    }
+}
@@ -0,0 +1,72 @@
+package com.p2p.network.dedup;
+
+import com.p2p.hash.ChunkList;
+import com.p2p.hash.FastCdc;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.BitSet;
+
+/**
+ * Wire format of deduplicated pushes on the file server port
+ *
+ * The sender opens with the command string, the file name, its size, the sender's
+ * name and the number of chunks. The receiver answers READY, or UNSUPPORTED when it
+ * does not deduplicate (the sender then pushes the whole file on a new connection).
+ * The sender follows with the chunk list: every length, then every SHA-256. The
+ * receiver answers with a bitmap of the chunks it needs, and the sender sends those
+ * chunks' bytes back to back in file order. The receiver closes with SUCCESS or
+ * FAILED.
+ */
+public final class DedupProtocol {
+    public static final String COMMAND = "\0DEDUP";
+
+    static final String READY = "READY";
+    static final String REFUSED = "REFUSED";
+    static final String UNSUPPORTED = "UNSUPPORTED";
+    static final String SUCCESS = "SUCCESS";
+    static final String FAILED = "FAILED";
+
+    // Keeps a hostile offer from making the receiver allocate a huge chunk list; 16M
+    // chunks of the 64 KB average is a 1 TB file
+    static final int MAX_CHUNKS = 1 << 24;
+
+    private DedupProtocol() {
+    }
+
+    static void writeOffer(DataOutputStream out, String fileName, long fileSize, String senderName,
+                           int chunkCount) throws IOException {
+        out.writeUTF(COMMAND);
+        out.writeUTF(fileName);
+        out.writeLong(fileSize);
+        out.writeUTF(senderName);
+        out.writeInt(chunkCount);
+        out.flush();
+    }
+
+    static void writeMissing(DataOutputStream out, BitSet missing) throws IOException {
+        byte[] bits = missing.toByteArray();
+        out.writeInt(bits.length);
+        out.write(bits);
+        out.flush();
+    }
+
+    static BitSet readMissing(DataInputStream in, int chunkCount) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > (chunkCount + 7) / 8) {
+            throw new IOException("Bad chunk bitmap length: " + length);
+        }
+        byte[] bits = new byte[length];
+        in.readFully(bits);
+        return BitSet.valueOf(bits);
+    }
+
+    static ChunkList readChunkList(DataInputStream in, int expectedCount) throws IOException {
+        ChunkList list = ChunkList.read(in, MAX_CHUNKS, FastCdc.MAX_SIZE);
+        if (list.size() != expectedCount) {
+            throw new IOException("Offered " + expectedCount + " chunks but listed " + list.size());
+        }
+        return list;
+    }
+}
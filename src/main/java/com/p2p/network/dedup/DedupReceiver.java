@@ -0,0 +1,234 @@
+package com.p2p.network.dedup;
+
+import com.p2p.hash.ChunkList;
+import com.p2p.hash.FastCdc;
+import com.p2p.model.Transfer;
+import com.p2p.model.TransferType;
+import com.p2p.network.TransferListener;
+import com.p2p.utils.FileUtils;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Receives one deduplicated push: asks only for the chunks the {@link ChunkStore}
+ * lacks and assembles the file from those and the chunks it already holds
+ *
+ * Every chunk, received or copied from a stored file, is checked against the hash
+ * the sender listed before it is written, so a stored file that changed after it
+ * was checked fails the transfer instead of corrupting the new file.
+ */
+public class DedupReceiver {
+    private final ChunkStore store;
+    private final Path downloadsDirectory;
+    private final int localUserId;
+    private final TransferListener listener;
+
+    public DedupReceiver(ChunkStore store, Path downloadsDirectory, int localUserId, TransferListener listener) {
+        this.store = store;
+        this.downloadsDirectory = downloadsDirectory;
+        this.localUserId = localUserId;
+        this.listener = listener;
+    }
+
+    /**
+     * Handle a push after its command string has been read
+     */
+    public void receive(DataInputStream in, DataOutputStream out, String remoteAddress) throws IOException {
+        String offeredName = in.readUTF();
+        long fileSize = in.readLong();
+        String senderUsername = in.readUTF();
+        int chunkCount = in.readInt();
+        // Only the last segment, so a name like "../x" cannot leave the downloads directory
+        Path namePath;
+        try {
+            namePath = Paths.get(offeredName).getFileName();
+        } catch (InvalidPathException e) {
+            namePath = null;
+        }
+        // Every chunk but the last is at least MIN_SIZE and none is over MAX_SIZE, so
+        // the size bounds the count before any chunk list is read
+        if (namePath == null || fileSize < 0 || chunkCount < 0 || chunkCount > DedupProtocol.MAX_CHUNKS
+                || chunkCount > fileSize / FastCdc.MIN_SIZE + 1 || (long) chunkCount * FastCdc.MAX_SIZE < fileSize) {
+            out.writeUTF(DedupProtocol.REFUSED);
+            out.flush();
+            return;
+        }
+        String fileName = namePath.toString();
+        out.writeUTF(DedupProtocol.READY);
+        out.flush();
+
+        ChunkList chunks = DedupProtocol.readChunkList(in, chunkCount);
+        if (chunks.getTotalSize() != fileSize) {
+            throw new IOException("Chunks of " + fileName + " add up to " + chunks.getTotalSize()
+                + " bytes, not " + fileSize);
+        }
+        BitSet missing = store.findMissing(chunks);
+        DedupProtocol.writeMissing(out, missing);
+
+        long transferred = 0;
+        for (int i = missing.nextSetBit(0); i >= 0; i = missing.nextSetBit(i + 1)) {
+            transferred += chunks.getLength(i);
+        }
+        listener.log("Receiving file: " + fileName + " (" + FileUtils.formatFileSize(fileSize) + ") from "
+            + senderUsername + ", " + missing.cardinality() + " of " + chunkCount + " chunks needed ("
+            + FileUtils.formatFileSize(transferred) + ")");
+
+        // Creating the file claims the name, so concurrent receives never share one
+        Path filePath;
+        FileChannel claimed;
+        while (true) {
+            filePath = FileUtils.resolveUniquePath(downloadsDirectory, fileName);
+            try {
+                claimed = FileChannel.open(filePath, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE,
+                    StandardOpenOption.READ);
+                break;
+            } catch (FileAlreadyExistsException e) {
+                // Taken since it was picked; pick again
+            }
+        }
+        Transfer transfer = new Transfer(localUserId, filePath.getFileName().toString(), fileSize,
+            TransferType.RECEIVED, senderUsername);
+        transfer.setPeerIpAddress(remoteAddress);
+        transfer.setFilePath(filePath.toString());
+        transfer.setStatus(Transfer.TransferStatus.IN_PROGRESS);
+
+        boolean success;
+        try {
+            try (FileChannel target = claimed) {
+                assemble(in, target, chunks, missing, transfer);
+            }
+            store.add(filePath, chunks);
+            store.recordTransfer(fileSize, transferred);
+            success = true;
+        } catch (IOException e) {
+            listener.log("Failed to receive file: " + fileName + ": " + e.getMessage());
+            success = false;
+        }
+
+        if (success) {
+            transfer.setStatus(Transfer.TransferStatus.COMPLETED);
+            listener.log(String.format("File received successfully: %s, %s of %s transferred (dedup ratio %.2f)",
+                filePath.getFileName(), FileUtils.formatFileSize(transferred), FileUtils.formatFileSize(fileSize),
+                transferred == 0 ? Double.POSITIVE_INFINITY : fileSize / (double) transferred));
+        } else {
+            transfer.setStatus(Transfer.TransferStatus.FAILED);
+            try {
+                Files.deleteIfExists(filePath);
+            } catch (IOException e) {
+                listener.log("Failed to clean up partial file: " + e.getMessage());
+            }
+        }
+        try {
+            out.writeUTF(success ? DedupProtocol.SUCCESS : DedupProtocol.FAILED);
+            out.flush();
+        } finally {
+            listener.onFileReceived(transfer);
+        }
+    }
+
+    /**
+     * Write the file chunk by chunk, reading missing chunks from the stream and the
+     * rest from stored files or from earlier in the same file
+     */
+    private void assemble(DataInputStream in, FileChannel target, ChunkList chunks, BitSet missing,
+                          Transfer transfer) throws IOException {
+        MessageDigest digest = newDigest();
+        Map<Path, FileChannel> sources = new HashMap<>();
+        // First index of each hash in this file, for chunks that repeat within it
+        Map<ChunkStore.ChunkKey, Integer> firstIndex = new HashMap<>();
+        byte[] buffer = new byte[0];
+        int lastProgress = 0;
+        try {
+            for (int i = 0; i < chunks.size(); i++) {
+                int length = chunks.getLength(i);
+                if (buffer.length < length) {
+                    buffer = new byte[length];
+                }
+                byte[] hash = chunks.getHash(i);
+                ChunkStore.ChunkKey key = new ChunkStore.ChunkKey(hash);
+                Integer earlier = firstIndex.putIfAbsent(key, i);
+
+                if (missing.get(i)) {
+                    in.readFully(buffer, 0, length);
+                    verify(digest, buffer, length, hash, "Received chunk " + i);
+                } else if (earlier != null) {
+                    readFully(target, chunks.getOffset(earlier), buffer, length);
+                } else {
+                    ChunkStore.Location location = store.find(hash);
+                    if (location == null) {
+                        throw new IOException("Chunk " + i + " is no longer stored");
+                    }
+                    FileChannel source = sources.get(location.getPath());
+                    if (source == null) {
+                        source = FileChannel.open(location.getPath(), StandardOpenOption.READ);
+                        sources.put(location.getPath(), source);
+                    }
+                    try {
+                        readFully(source, location.getOffset(), buffer, length);
+                        verify(digest, buffer, length, hash, "Stored chunk " + i);
+                    } catch (IOException e) {
+                        store.invalidate(location.getPath());
+                        throw e;
+                    }
+                }
+                ByteBuffer data = ByteBuffer.wrap(buffer, 0, length);
+                long position = chunks.getOffset(i);
+                while (data.hasRemaining()) {
+                    position += target.write(data, position);
+                }
+
+                int progress = (int) (chunks.getOffset(i + 1) * 100 / Math.max(1, chunks.getTotalSize()));
+                if (progress != lastProgress) {
+                    lastProgress = progress;
+                    listener.onTransferProgress(transfer, chunks.getOffset(i + 1));
+                }
+            }
+        } finally {
+            for (FileChannel source : sources.values()) {
+                source.close();
+            }
+        }
+    }
+
+    private static void readFully(FileChannel channel, long position, byte[] buffer, int length) throws IOException {
+        ByteBuffer data = ByteBuffer.wrap(buffer, 0, length);
+        while (data.hasRemaining()) {
+            int read = channel.read(data, position + data.position());
+            if (read < 0) {
+                throw new IOException("Stored file ended before the chunk");
+            }
+        }
+    }
+
+    private static void verify(MessageDigest digest, byte[] buffer, int length, byte[] expected, String what)
+            throws IOException {
+        digest.update(buffer, 0, length);
+        if (!Arrays.equals(digest.digest(), expected)) {
+            throw new IOException(what + " does not match its hash");
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
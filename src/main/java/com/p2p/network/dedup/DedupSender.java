@@ -0,0 +1,118 @@
+package com.p2p.network.dedup;
+
+import com.p2p.hash.ChunkList;
+import com.p2p.hash.FastCdc;
+import com.p2p.model.Transfer;
+import com.p2p.network.TransferListener;
+import com.p2p.network.transport.TransportChannel;
+import com.p2p.utils.FileUtils;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+
+/**
+ * Sends one file as content-defined chunks, of which the receiver only takes the
+ * ones it has never seen
+ *
+ * The file is chunked with {@link FastCdc} through the hash cache, so sending an
+ * unchanged file again does not read it to chunk it. Runs of needed chunks that are
+ * adjacent in the file go out as one zero-copy range.
+ */
+public class DedupSender {
+    private final TransportChannel channel;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final String senderName;
+    private final TransferListener listener;
+
+    private File file;
+    private ChunkList chunks;
+    private BitSet missing;
+
+    public DedupSender(TransportChannel channel, DataInputStream in, DataOutputStream out, String senderName,
+                       TransferListener listener) {
+        this.channel = channel;
+        this.in = in;
+        this.out = out;
+        this.senderName = senderName;
+        this.listener = listener;
+    }
+
+    /**
+     * Chunk the file, offer it and learn which chunks the peer needs
+     *
+     * A peer that predates deduplication takes the command for a file name and drops
+     * the connection, or waits for bytes that never come; both count as unsupported.
+     *
+     * @return false if the peer does not take deduplicated pushes
+     */
+    public boolean offer(File file) throws IOException {
+        this.file = file;
+        this.chunks = FastCdc.ofFile(file.toPath());
+        try {
+            DedupProtocol.writeOffer(out, file.getName(), chunks.getTotalSize(), senderName, chunks.size());
+            String response = in.readUTF();
+            if (DedupProtocol.UNSUPPORTED.equals(response)) {
+                return false;
+            }
+            if (!DedupProtocol.READY.equals(response)) {
+                throw new IOException("Peer not ready to receive file: " + response);
+            }
+            chunks.write(out);
+            out.flush();
+            missing = DedupProtocol.readMissing(in, chunks.size());
+            return true;
+        } catch (EOFException | SocketException | SocketTimeoutException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Send the chunks the peer asked for and wait for its verdict
+     */
+    public boolean send(Transfer transfer) throws IOException {
+        transfer.setStatus(Transfer.TransferStatus.IN_PROGRESS);
+
+        long transferred = 0;
+        int lastProgress = 0;
+        try (FileChannel source = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            int i = missing.nextSetBit(0);
+            while (i >= 0 && i < chunks.size()) {
+                int runEnd = missing.nextClearBit(i);
+                long start = chunks.getOffset(i);
+                long length = chunks.getOffset(Math.min(runEnd, chunks.size())) - start;
+                channel.transferFrom(source, start, length);
+                transferred += length;
+
+                long covered = chunks.getOffset(Math.min(runEnd, chunks.size()));
+                int progress = (int) (covered * 100 / Math.max(1, chunks.getTotalSize()));
+                if (progress != lastProgress) {
+                    lastProgress = progress;
+                    listener.onTransferProgress(transfer, covered);
+                }
+                i = missing.nextSetBit(runEnd);
+            }
+        }
+        listener.onTransferProgress(transfer, chunks.getTotalSize());
+
+        String response = in.readUTF();
+        boolean success = DedupProtocol.SUCCESS.equals(response);
+        if (success) {
+            listener.log(String.format("File sent successfully: %s, %d of %d chunks sent, %s of %s (dedup ratio %.2f)",
+                file.getName(), missing.cardinality(), chunks.size(), FileUtils.formatFileSize(transferred),
+                FileUtils.formatFileSize(chunks.getTotalSize()),
+                transferred == 0 ? Double.POSITIVE_INFINITY : chunks.getTotalSize() / (double) transferred));
+        } else {
+            listener.log("Peer reported transfer failure: " + response);
+        }
+        return success;
+    }
+}
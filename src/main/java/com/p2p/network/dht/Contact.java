@@ -0,0 +1,47 @@
+package com.p2p.network.dht;
+
+/**
+ * A DHT node and the address its RPCs are sent to
+ */
+public final class Contact {
+    private final NodeId id;
+    private final String host;
+    private final int port;
+
+    public Contact(NodeId id, String host, int port) {
+        this.id = id;
+        this.host = host;
+        this.port = port;
+    }
+
+    Contact withHost(String host) {
+        return new Contact(id, host, port);
+    }
+
+    public NodeId getId() {
+        return id;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Contact && id.equals(((Contact) o).id);
+    }
+
+    @Override
+    public int hashCode() {
+        return id.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return id + "@" + host + ":" + port;
+    }
+}
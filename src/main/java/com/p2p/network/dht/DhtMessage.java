@@ -0,0 +1,118 @@
+package com.p2p.network.dht;
+
+import com.p2p.network.PeerDiscovery;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One Kademlia RPC, request or response, and its wire format
+ *
+ * The sender's host is not sent: the receiving network fills it in from the packet
+ * source, which is the address that actually reaches the sender. Providers stored
+ * with a blank host get the same treatment.
+ */
+public final class DhtMessage {
+    static final byte PING = 1;
+    static final byte PONG = 2;
+    static final byte FIND_NODE = 3;
+    static final byte FIND_VALUE = 4;
+    static final byte STORE = 5;
+    static final byte NODES = 6;
+    static final byte VALUES = 7;
+    static final byte STORED = 8;
+
+    private static final int MAGIC = 0x5032504B; // "P2PK"
+    private static final byte VERSION = 1;
+
+    final byte type;
+    final long rpcId;
+    final Contact sender;
+    // FIND_NODE, FIND_VALUE and STORE
+    final NodeId key;
+    // NODES
+    final List<Contact> contacts;
+    // STORE and VALUES
+    final List<PeerDiscovery.PeerInfo> providers;
+
+    DhtMessage(byte type, long rpcId, Contact sender, NodeId key,
+               List<Contact> contacts, List<PeerDiscovery.PeerInfo> providers) {
+        this.type = type;
+        this.rpcId = rpcId;
+        this.sender = sender;
+        this.key = key;
+        this.contacts = contacts;
+        this.providers = providers;
+    }
+
+    boolean isRequest() {
+        return type == PING || type == FIND_NODE || type == FIND_VALUE || type == STORE;
+    }
+
+    byte[] encode() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeByte(type);
+        out.writeLong(rpcId);
+        out.write(sender.getId().bytes());
+        out.writeShort(sender.getPort());
+        out.writeBoolean(key != null);
+        if (key != null) {
+            out.write(key.bytes());
+        }
+        out.writeShort(contacts.size());
+        for (Contact contact : contacts) {
+            out.write(contact.getId().bytes());
+            out.writeUTF(contact.getHost());
+            out.writeShort(contact.getPort());
+        }
+        out.writeShort(providers.size());
+        for (PeerDiscovery.PeerInfo provider : providers) {
+            out.writeUTF(provider.getUsername());
+            out.writeUTF(provider.getIpAddress());
+            out.writeShort(provider.getPort());
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @param sourceHost address the message came from, recorded as the sender's host
+     */
+    static DhtMessage decode(byte[] data, int offset, int length, String sourceHost) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, offset, length));
+        if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+            throw new IOException("Not a DHT message");
+        }
+        byte type = in.readByte();
+        long rpcId = in.readLong();
+        Contact sender = new Contact(readId(in), sourceHost, in.readUnsignedShort());
+        NodeId key = in.readBoolean() ? readId(in) : null;
+        if (key == null && (type == FIND_NODE || type == FIND_VALUE || type == STORE)) {
+            throw new IOException("Request without a key");
+        }
+        int contactCount = in.readUnsignedShort();
+        List<Contact> contacts = new ArrayList<>(contactCount);
+        for (int i = 0; i < contactCount; i++) {
+            contacts.add(new Contact(readId(in), in.readUTF(), in.readUnsignedShort()));
+        }
+        int providerCount = in.readUnsignedShort();
+        List<PeerDiscovery.PeerInfo> providers = new ArrayList<>(providerCount);
+        for (int i = 0; i < providerCount; i++) {
+            providers.add(new PeerDiscovery.PeerInfo(in.readUTF(), in.readUTF(), in.readUnsignedShort(), null));
+        }
+        return new DhtMessage(type, rpcId, sender, key, contacts, providers);
+    }
+
+    private static NodeId readId(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[NodeId.BYTES];
+        in.readFully(bytes);
+        return NodeId.of(bytes);
+    }
+}
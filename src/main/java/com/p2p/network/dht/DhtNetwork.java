@@ -0,0 +1,31 @@
+package com.p2p.network.dht;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * How a DHT node exchanges RPCs: over UDP ({@link UdpDhtNetwork}) or inside one
+ * process ({@link SimulatedDhtNetwork}) for simulations of many nodes
+ *
+ * Received messages carry the sender's host as seen by the network.
+ */
+public interface DhtNetwork {
+
+    /**
+     * Start receiving; handler answers each incoming request
+     */
+    void start(Function<DhtMessage, DhtMessage> handler) throws IOException;
+
+    /**
+     * Send a request; the future fails with an IOException when no answer comes in time
+     */
+    CompletableFuture<DhtMessage> request(String host, int port, DhtMessage request);
+
+    /**
+     * The port requests reach this node on
+     */
+    int getPort();
+
+    void close();
+}
@@ -0,0 +1,559 @@
+package com.p2p.network.dht;
+
+import com.p2p.network.PeerDiscovery;
+import com.p2p.utils.ConfigUtils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A Kademlia node mapping content hashes to the peers that hold the content
+ *
+ * Keys are the tree hash of a file ({@link NodeId#ofFile}); values are provider
+ * records naming a peer and its transfer port. A peer announces a file by storing
+ * its record on the K nodes whose ids are closest to the key, found by an iterative
+ * lookup: ALPHA of the closest known nodes are asked for their closest contacts at
+ * a time, and the lookup ends once the K closest it has heard of have all answered.
+ * A lookup for providers ends as soon as a node returns some. Each round of queries
+ * is one hop; a network of n nodes needs about log2(n) / 5 hops with K = 20.
+ *
+ * Records expire after twice the republish interval, so a peer that goes away
+ * drops out of lookups unless it republishes. Live peers republish their keys every
+ * interval, which also moves records onto nodes that joined closer to the key.
+ * Buckets that saw no lookup in an interval are refreshed with a lookup for a
+ * random id in their range.
+ */
+public class DhtNode {
+    public static final int K = 20;
+    public static final int ALPHA = 3;
+    // Keeps a VALUES answer well inside one datagram
+    private static final int MAX_PROVIDERS_PER_KEY = 64;
+
+    private final NodeId id;
+    private final DhtNetwork network;
+    private final RoutingTable routingTable;
+    private final String name;
+    private final int transferPort;
+    private final long republishMillis;
+    private final long recordTtlMillis;
+    private final Map<NodeId, Map<String, Record>> records = new ConcurrentHashMap<>();
+    private final Map<NodeId, Long> published = new ConcurrentHashMap<>();
+    private final AtomicLong rpcIds = new AtomicLong(ThreadLocalRandom.current().nextLong());
+
+    private ScheduledExecutorService maintenance;
+    private volatile boolean running = false;
+
+    private static final class Record {
+        final PeerDiscovery.PeerInfo provider;
+        final long expiresAtMillis;
+
+        Record(PeerDiscovery.PeerInfo provider, long expiresAtMillis) {
+            this.provider = provider;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+    }
+
+    /**
+     * The outcome of an iterative lookup
+     */
+    public static final class LookupResult {
+        private final List<Contact> closest;
+        private final List<PeerDiscovery.PeerInfo> providers;
+        private final int hops;
+        private final int rpcs;
+
+        LookupResult(List<Contact> closest, List<PeerDiscovery.PeerInfo> providers, int hops, int rpcs) {
+            this.closest = closest;
+            this.providers = providers;
+            this.hops = hops;
+            this.rpcs = rpcs;
+        }
+
+        /**
+         * The closest nodes that answered, closest first
+         */
+        public List<Contact> getClosest() {
+            return closest;
+        }
+
+        public List<PeerDiscovery.PeerInfo> getProviders() {
+            return providers;
+        }
+
+        /**
+         * Rounds of queries the lookup took
+         */
+        public int getHops() {
+            return hops;
+        }
+
+        public int getRpcs() {
+            return rpcs;
+        }
+    }
+
+    /**
+     * @param name         peer name announced with this node's files
+     * @param transferPort port this node's files can be fetched on
+     */
+    public DhtNode(NodeId id, DhtNetwork network, String name, int transferPort, long republishMillis) {
+        this.id = id;
+        this.network = network;
+        this.routingTable = new RoutingTable(id, K);
+        this.name = name;
+        this.transferPort = transferPort;
+        this.republishMillis = republishMillis;
+        this.recordTtlMillis = republishMillis * 2;
+    }
+
+    /**
+     * Start answering RPCs; no lookups run until {@link #bootstrap}
+     */
+    public void start() throws IOException {
+        network.start(this::handle);
+        running = true;
+    }
+
+    /**
+     * Start answering RPCs and run maintenance every tenth of the republish interval
+     */
+    public void startWithMaintenance() throws IOException {
+        start();
+        maintenance = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "dht-maintenance");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1000, republishMillis / 10);
+        maintenance.scheduleWithFixedDelay(() -> {
+            try {
+                maintain();
+            } catch (RuntimeException e) {
+                System.err.println("DHT maintenance failed: " + e.getMessage());
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        running = false;
+        if (maintenance != null) {
+            maintenance.shutdownNow();
+        }
+        network.close();
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public NodeId getId() {
+        return id;
+    }
+
+    public int getPort() {
+        return network.getPort();
+    }
+
+    /**
+     * Number of contacts in the routing table
+     */
+    public int getRoutingTableSize() {
+        return routingTable.size();
+    }
+
+    /**
+     * Join through any of the seeds, then fill the routing table with a lookup for
+     * this node's own id and refreshes of the buckets beyond its nearest neighbour
+     *
+     * @return whether any seed answered
+     */
+    public boolean bootstrap(List<InetSocketAddress> seeds) {
+        boolean joined = false;
+        for (InetSocketAddress seed : seeds) {
+            try {
+                DhtMessage response = call(seed.getHostString(), seed.getPort(), request(DhtMessage.FIND_NODE, id, List.of()));
+                routingTable.seen(response.sender);
+                joined = true;
+            } catch (IOException e) {
+                System.err.println("DHT seed " + seed + " did not answer: " + e.getMessage());
+            }
+        }
+        if (!joined) {
+            return false;
+        }
+        lookup(id, false);
+        refreshBuckets(0);
+        return true;
+    }
+
+    /**
+     * {@link #bootstrap} on the maintenance thread
+     */
+    public CompletableFuture<Boolean> bootstrapAsync(List<InetSocketAddress> seeds) {
+        return CompletableFuture.supplyAsync(() -> bootstrap(seeds), executor());
+    }
+
+    /**
+     * Announce that this node holds the content with this key, and keep announcing
+     * it every republish interval
+     *
+     * @return the number of nodes that stored the record
+     */
+    public int announce(NodeId key) {
+        published.put(key, System.currentTimeMillis());
+        return store(key);
+    }
+
+    /**
+     * Hash a file and announce it
+     */
+    public NodeId announceFile(Path file) throws IOException {
+        NodeId key = NodeId.ofFile(file);
+        announce(key);
+        return key;
+    }
+
+    /**
+     * Hash and announce a file on the maintenance thread, off the caller's
+     */
+    public CompletableFuture<NodeId> announceFileAsync(Path file) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return announceFile(file);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, executor());
+    }
+
+    public void withdraw(NodeId key) {
+        published.remove(key);
+    }
+
+    /**
+     * Peers that announced the content with this key
+     */
+    public LookupResult findProviders(NodeId key) {
+        List<PeerDiscovery.PeerInfo> local = new ArrayList<>();
+        for (PeerDiscovery.PeerInfo provider : localProviders(key)) {
+            local.add(withHost(provider, "127.0.0.1"));
+        }
+        if (!local.isEmpty()) {
+            return new LookupResult(List.of(), local, 0, 0);
+        }
+        return lookup(key, true);
+    }
+
+    /**
+     * The K nodes closest to target
+     */
+    public LookupResult findNode(NodeId target) {
+        return lookup(target, false);
+    }
+
+    /**
+     * Expire records, republish this node's keys and refresh idle buckets
+     */
+    public void maintain() {
+        long now = System.currentTimeMillis();
+        for (Iterator<Map<String, Record>> it = records.values().iterator(); it.hasNext(); ) {
+            Map<String, Record> providers = it.next();
+            synchronized (providers) {
+                providers.values().removeIf(record -> record.expiresAtMillis <= now);
+                if (providers.isEmpty()) {
+                    it.remove();
+                }
+            }
+        }
+        for (Map.Entry<NodeId, Long> entry : published.entrySet()) {
+            if (now - entry.getValue() >= republishMillis) {
+                entry.setValue(now);
+                store(entry.getKey());
+            }
+        }
+        refreshBuckets(TimeUnit.MILLISECONDS.toNanos(republishMillis));
+    }
+
+    /**
+     * Republish every key this node announced now, whatever its age
+     */
+    public void republishAll() {
+        for (Map.Entry<NodeId, Long> entry : published.entrySet()) {
+            entry.setValue(System.currentTimeMillis());
+            store(entry.getKey());
+        }
+    }
+
+    private Executor executor() {
+        return maintenance != null ? maintenance : ForkJoinPool.commonPool();
+    }
+
+    private void refreshBuckets(long maxAgeNanos) {
+        for (int bucket : routingTable.staleBuckets(maxAgeNanos)) {
+            lookup(NodeId.randomInBucket(id, bucket), false);
+        }
+    }
+
+    private int store(NodeId key) {
+        PeerDiscovery.PeerInfo self = new PeerDiscovery.PeerInfo(name, "", transferPort, null);
+        // The publisher answers for its own content too, which is all a lone node can do
+        putRecord(key, self);
+        LookupResult result = lookup(key, false);
+        List<CompletableFuture<DhtMessage>> calls = new ArrayList<>();
+        for (Contact contact : result.getClosest()) {
+            calls.add(network.request(contact.getHost(), contact.getPort(),
+                request(DhtMessage.STORE, key, List.of(self))));
+        }
+        int stored = 0;
+        for (int i = 0; i < calls.size(); i++) {
+            try {
+                await(calls.get(i));
+                stored++;
+            } catch (IOException e) {
+                routingTable.failed(result.getClosest().get(i));
+            }
+        }
+        return stored;
+    }
+
+    /**
+     * Iterative lookup: query ALPHA of the closest unqueried nodes per round; when a
+     * round brings nothing closer, query all of the K closest not yet queried
+     */
+    private LookupResult lookup(NodeId target, boolean findValue) {
+        routingTable.touch(target);
+        List<Contact> shortlist = routingTable.closest(target, K);
+        Set<NodeId> seen = new HashSet<>();
+        Set<NodeId> queried = new HashSet<>();
+        Set<NodeId> answered = new HashSet<>();
+        Map<String, PeerDiscovery.PeerInfo> providers = new LinkedHashMap<>();
+        for (Contact contact : shortlist) {
+            seen.add(contact.getId());
+        }
+        seen.add(id);
+
+        int hops = 0;
+        int rpcs = 0;
+        Contact closestBefore = null;
+        boolean widen = false;
+        while (true) {
+            shortlist.sort((a, b) -> target.compareDistance(a.getId(), b.getId()));
+            List<Contact> batch = new ArrayList<>();
+            int limit = widen ? K : ALPHA;
+            for (int i = 0; i < Math.min(K, shortlist.size()) && batch.size() < limit; i++) {
+                if (!queried.contains(shortlist.get(i).getId())) {
+                    batch.add(shortlist.get(i));
+                }
+            }
+            if (batch.isEmpty()) {
+                break;
+            }
+            hops++;
+
+            byte type = findValue ? DhtMessage.FIND_VALUE : DhtMessage.FIND_NODE;
+            List<CompletableFuture<DhtMessage>> calls = new ArrayList<>(batch.size());
+            for (Contact contact : batch) {
+                queried.add(contact.getId());
+                calls.add(network.request(contact.getHost(), contact.getPort(), request(type, target, List.of())));
+                rpcs++;
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                Contact contact = batch.get(i);
+                DhtMessage response;
+                try {
+                    response = await(calls.get(i));
+                } catch (IOException e) {
+                    routingTable.failed(contact);
+                    shortlist.remove(contact);
+                    continue;
+                }
+                routingTable.seen(response.sender);
+                answered.add(contact.getId());
+                for (PeerDiscovery.PeerInfo provider : response.providers) {
+                    // A blank host is the answering node's own record
+                    provider = withHost(provider, response.sender.getHost());
+                    providers.putIfAbsent(provider.getIpAddress() + ":" + provider.getPort(), provider);
+                }
+                for (Contact found : response.contacts) {
+                    if (seen.add(found.getId())) {
+                        shortlist.add(found);
+                    }
+                }
+            }
+            if (findValue && !providers.isEmpty()) {
+                break;
+            }
+
+            shortlist.sort((a, b) -> target.compareDistance(a.getId(), b.getId()));
+            Contact closestNow = shortlist.isEmpty() ? null : shortlist.get(0);
+            widen = closestNow != null && closestNow.equals(closestBefore);
+            closestBefore = closestNow;
+        }
+
+        List<Contact> closest = new ArrayList<>(K);
+        for (Contact contact : shortlist) {
+            if (answered.contains(contact.getId())) {
+                closest.add(contact);
+                if (closest.size() == K) {
+                    break;
+                }
+            }
+        }
+        return new LookupResult(closest, new ArrayList<>(providers.values()), hops, rpcs);
+    }
+
+    // Answering RPCs
+
+    private DhtMessage handle(DhtMessage request) {
+        routingTable.seen(request.sender);
+        switch (request.type) {
+            case DhtMessage.PING:
+                return response(DhtMessage.PONG, request, List.of(), List.of());
+            case DhtMessage.FIND_NODE:
+                return response(DhtMessage.NODES, request, closestExcept(request.key, request.sender), List.of());
+            case DhtMessage.FIND_VALUE:
+                List<PeerDiscovery.PeerInfo> local = localProviders(request.key);
+                if (!local.isEmpty()) {
+                    return response(DhtMessage.VALUES, request, List.of(), local);
+                }
+                return response(DhtMessage.NODES, request, closestExcept(request.key, request.sender), List.of());
+            case DhtMessage.STORE:
+                for (PeerDiscovery.PeerInfo provider : request.providers) {
+                    // Publishers leave their own host blank; the packet source reaches them
+                    putRecord(request.key, withHost(provider, request.sender.getHost()));
+                }
+                return response(DhtMessage.STORED, request, List.of(), List.of());
+            default:
+                return null;
+        }
+    }
+
+    private List<Contact> closestExcept(NodeId target, Contact requester) {
+        List<Contact> closest = routingTable.closest(target, K + 1);
+        closest.remove(requester);
+        return closest.size() > K ? closest.subList(0, K) : closest;
+    }
+
+    private void putRecord(NodeId key, PeerDiscovery.PeerInfo provider) {
+        Map<String, Record> providers = records.computeIfAbsent(key, k -> new LinkedHashMap<>());
+        synchronized (providers) {
+            String endpoint = provider.getIpAddress() + ":" + provider.getPort();
+            providers.remove(endpoint);
+            providers.put(endpoint, new Record(provider, System.currentTimeMillis() + recordTtlMillis));
+            if (providers.size() > MAX_PROVIDERS_PER_KEY) {
+                // The least recently stored record goes first
+                Iterator<Record> oldest = providers.values().iterator();
+                oldest.next();
+                oldest.remove();
+            }
+        }
+    }
+
+    private static PeerDiscovery.PeerInfo withHost(PeerDiscovery.PeerInfo provider, String host) {
+        if (!provider.getIpAddress().isEmpty()) {
+            return provider;
+        }
+        return new PeerDiscovery.PeerInfo(provider.getUsername(), host, provider.getPort(), null);
+    }
+
+    private List<PeerDiscovery.PeerInfo> localProviders(NodeId key) {
+        Map<String, Record> providers = records.get(key);
+        if (providers == null) {
+            return Collections.emptyList();
+        }
+        long now = System.currentTimeMillis();
+        List<PeerDiscovery.PeerInfo> result = new ArrayList<>();
+        synchronized (providers) {
+            for (Record record : providers.values()) {
+                if (record.expiresAtMillis > now) {
+                    result.add(record.provider);
+                }
+            }
+        }
+        return result;
+    }
+
+    // Sending RPCs
+
+    private DhtMessage request(byte type, NodeId key, List<PeerDiscovery.PeerInfo> providers) {
+        return new DhtMessage(type, rpcIds.incrementAndGet(), self(), key, List.of(), providers);
+    }
+
+    private DhtMessage response(byte type, DhtMessage request, List<Contact> contacts,
+                                List<PeerDiscovery.PeerInfo> providers) {
+        return new DhtMessage(type, request.rpcId, self(), null, contacts, providers);
+    }
+
+    private Contact self() {
+        return new Contact(id, "", network.getPort());
+    }
+
+    private DhtMessage call(String host, int port, DhtMessage request) throws IOException {
+        return await(network.request(host, port, request));
+    }
+
+    private static DhtMessage await(CompletableFuture<DhtMessage> future) throws IOException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted");
+        }
+    }
+
+    /**
+     * A node on the configured DHT port, announcing files under this name
+     */
+    public static DhtNode fromConfig(String name, int transferPort) {
+        UdpDhtNetwork network = new UdpDhtNetwork(new InetSocketAddress(ConfigUtils.getDhtPort()),
+            ConfigUtils.getDhtRpcTimeout());
+        return new DhtNode(NodeId.random(), network, name, transferPort, ConfigUtils.getDhtRepublishInterval());
+    }
+
+    /**
+     * Parse a comma-separated host:port list; a bare host uses the configured DHT port
+     */
+    public static List<InetSocketAddress> parseSeeds(String seedList) throws IOException {
+        List<InetSocketAddress> result = new ArrayList<>();
+        for (String seed : seedList.split(",")) {
+            seed = seed.trim();
+            if (seed.isEmpty()) {
+                continue;
+            }
+            int colon = seed.lastIndexOf(':');
+            try {
+                if (colon < 0) {
+                    result.add(new InetSocketAddress(seed, ConfigUtils.getDhtPort()));
+                } else {
+                    result.add(new InetSocketAddress(seed.substring(0, colon), Integer.parseInt(seed.substring(colon + 1))));
+                }
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Invalid DHT seed " + seed);
+            }
+        }
+        return result;
+    }
+}
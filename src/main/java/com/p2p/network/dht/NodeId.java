@@ -0,0 +1,153 @@
+package com.p2p.network.dht;
+
+import com.p2p.hash.HashCache;
+import com.p2p.hash.TreeHash;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A 256-bit point in the DHT key space
+ *
+ * Node ids and content keys share the space: a file's key is the tree hash of its
+ * bytes, and it is stored on the nodes whose ids are closest to it by XOR distance.
+ */
+public final class NodeId {
+    public static final int BITS = 256;
+    public static final int BYTES = BITS / 8;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final byte[] bytes;
+    private final int hash;
+
+    private NodeId(byte[] bytes) {
+        this.bytes = bytes;
+        this.hash = Arrays.hashCode(bytes);
+    }
+
+    public static NodeId of(byte[] bytes) {
+        if (bytes.length != BYTES) {
+            throw new IllegalArgumentException("Node id must be " + BYTES + " bytes, got " + bytes.length);
+        }
+        return new NodeId(bytes.clone());
+    }
+
+    public static NodeId random() {
+        byte[] bytes = new byte[BYTES];
+        RANDOM.nextBytes(bytes);
+        return new NodeId(bytes);
+    }
+
+    /**
+     * A random id whose bucket index relative to self is the given one, used to
+     * refresh that bucket
+     */
+    public static NodeId randomInBucket(NodeId self, int bucket) {
+        byte[] bytes = self.bytes.clone();
+        byte[] noise = new byte[BYTES];
+        ThreadLocalRandom.current().nextBytes(noise);
+        // Keep the bits above the bucket's, flip the bucket's bit, randomize the rest
+        int bitFromTop = BITS - 1 - bucket;
+        for (int bit = bitFromTop; bit < BITS; bit++) {
+            int index = bit / 8;
+            int mask = 0x80 >>> (bit % 8);
+            boolean value = bit == bitFromTop
+                ? (bytes[index] & mask) == 0
+                : (noise[index] & mask) != 0;
+            bytes[index] = (byte) (value ? bytes[index] | mask : bytes[index] & ~mask);
+        }
+        return new NodeId(bytes);
+    }
+
+    public static NodeId fromHex(String hex) {
+        if (hex.length() != BYTES * 2) {
+            throw new IllegalArgumentException("Content hash must be " + BYTES * 2 + " hex digits: " + hex);
+        }
+        byte[] bytes = new byte[BYTES];
+        for (int i = 0; i < BYTES; i++) {
+            int high = Character.digit(hex.charAt(i * 2), 16);
+            int low = Character.digit(hex.charAt(i * 2 + 1), 16);
+            if (high < 0 || low < 0) {
+                throw new IllegalArgumentException("Not a hex content hash: " + hex);
+            }
+            bytes[i] = (byte) (high << 4 | low);
+        }
+        return new NodeId(bytes);
+    }
+
+    /**
+     * The content key of a file: its {@link TreeHash}, from the hash cache while the
+     * file is unchanged
+     */
+    public static NodeId ofFile(Path file) throws IOException {
+        return new NodeId(HashCache.getInstance().get(file, TreeHash.KIND, TreeHash::hash));
+    }
+
+    /**
+     * Index of the k-bucket other falls in relative to this id: the position of the
+     * highest differing bit, 0 to 255, or -1 for the same id
+     */
+    public int bucketIndex(NodeId other) {
+        for (int i = 0; i < BYTES; i++) {
+            int x = (bytes[i] ^ other.bytes[i]) & 0xFF;
+            if (x != 0) {
+                return (BYTES - 1 - i) * 8 + (31 - Integer.numberOfLeadingZeros(x));
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Negative if a is closer to this id than b, positive if farther, 0 if equally close
+     */
+    public int compareDistance(NodeId a, NodeId b) {
+        for (int i = 0; i < BYTES; i++) {
+            int da = (bytes[i] ^ a.bytes[i]) & 0xFF;
+            int db = (bytes[i] ^ b.bytes[i]) & 0xFF;
+            if (da != db) {
+                return da < db ? -1 : 1;
+            }
+        }
+        return 0;
+    }
+
+    public BigInteger distance(NodeId other) {
+        byte[] xor = new byte[BYTES];
+        for (int i = 0; i < BYTES; i++) {
+            xor[i] = (byte) (bytes[i] ^ other.bytes[i]);
+        }
+        return new BigInteger(1, xor);
+    }
+
+    byte[] bytes() {
+        return bytes;
+    }
+
+    public String toHex() {
+        StringBuilder hex = new StringBuilder(BYTES * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof NodeId && hash == ((NodeId) o).hash && Arrays.equals(bytes, ((NodeId) o).bytes);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return toHex().substring(0, 12);
+    }
+}
@@ -0,0 +1,132 @@
+package com.p2p.network.dht;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Kademlia k-buckets: bucket i holds up to k contacts whose XOR distance from this
+ * node has its highest bit at position i, least recently seen first
+ *
+ * A full bucket keeps its old contacts and puts newcomers in a replacement cache,
+ * since long-lived nodes are the likeliest to stay up. Rather than pinging the
+ * oldest contact before every insert, a contact is dropped once RPCs to it fail
+ * MAX_FAILURES times in a row, or at the first failure if a replacement is waiting,
+ * and the most recently seen replacement takes its place.
+ */
+class RoutingTable {
+    private static final int MAX_FAILURES = 2;
+
+    private final NodeId self;
+    private final int k;
+    private final Bucket[] buckets = new Bucket[NodeId.BITS];
+
+    private static final class Bucket {
+        final List<Contact> contacts = new ArrayList<>();
+        final List<Contact> replacements = new ArrayList<>();
+        final Map<NodeId, Integer> failures = new HashMap<>();
+        long lastTouchedNanos = System.nanoTime();
+    }
+
+    RoutingTable(NodeId self, int k) {
+        this.self = self;
+        this.k = k;
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new Bucket();
+        }
+    }
+
+    /**
+     * Record that a contact answered or sent a request
+     */
+    synchronized void seen(Contact contact) {
+        int index = self.bucketIndex(contact.getId());
+        if (index < 0) {
+            return;
+        }
+        Bucket bucket = buckets[index];
+        bucket.lastTouchedNanos = System.nanoTime();
+        bucket.failures.remove(contact.getId());
+        if (bucket.contacts.remove(contact) || bucket.contacts.size() < k) {
+            bucket.contacts.add(contact);
+            return;
+        }
+        bucket.replacements.remove(contact);
+        bucket.replacements.add(contact);
+        if (bucket.replacements.size() > k) {
+            bucket.replacements.remove(0);
+        }
+    }
+
+    /**
+     * Record that an RPC to a contact timed out
+     */
+    synchronized void failed(Contact contact) {
+        int index = self.bucketIndex(contact.getId());
+        if (index < 0) {
+            return;
+        }
+        Bucket bucket = buckets[index];
+        if (bucket.replacements.remove(contact) || !bucket.contacts.contains(contact)) {
+            return;
+        }
+        int failures = bucket.failures.merge(contact.getId(), 1, Integer::sum);
+        if (failures >= MAX_FAILURES || !bucket.replacements.isEmpty()) {
+            bucket.contacts.remove(contact);
+            bucket.failures.remove(contact.getId());
+            if (!bucket.replacements.isEmpty()) {
+                bucket.contacts.add(bucket.replacements.remove(bucket.replacements.size() - 1));
+            }
+        }
+    }
+
+    /**
+     * Up to count known contacts closest to target, closest first
+     */
+    synchronized List<Contact> closest(NodeId target, int count) {
+        List<Contact> all = new ArrayList<>();
+        for (Bucket bucket : buckets) {
+            all.addAll(bucket.contacts);
+        }
+        all.sort((a, b) -> target.compareDistance(a.getId(), b.getId()));
+        return new ArrayList<>(all.subList(0, Math.min(count, all.size())));
+    }
+
+    /**
+     * Mark the bucket target falls in as just looked up
+     */
+    synchronized void touch(NodeId target) {
+        int index = self.bucketIndex(target);
+        if (index >= 0) {
+            buckets[index].lastTouchedNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * Buckets not looked up within maxAgeNanos, from the nearest non-empty one
+     * upward; nearer buckets cover key ranges too small to hold any node yet
+     */
+    synchronized List<Integer> staleBuckets(long maxAgeNanos) {
+        List<Integer> stale = new ArrayList<>();
+        long now = System.nanoTime();
+        int lowest = 0;
+        while (lowest < buckets.length && buckets[lowest].contacts.isEmpty()) {
+            lowest++;
+        }
+        for (int i = lowest; i < buckets.length; i++) {
+            if (now - buckets[i].lastTouchedNanos > maxAgeNanos) {
+                stale.add(i);
+            }
+        }
+        return stale;
+    }
+
+    synchronized int size() {
+        int size = 0;
+        for (Bucket bucket : buckets) {
+            size += bucket.contacts.size();
+        }
+        return size;
+    }
+}
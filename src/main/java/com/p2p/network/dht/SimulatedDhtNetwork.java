@@ -0,0 +1,159 @@
+package com.p2p.network.dht;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * An in-process network connecting many DHT nodes, for simulations
+ *
+ * Every message is encoded and decoded as on the wire, so byte counts are real. With
+ * a latency range set, each one-way trip is delayed by a random time in the range;
+ * with none, requests are answered synchronously, which makes building a large
+ * network fast. Requests to a closed endpoint fail after the RPC timeout, as an
+ * unanswered datagram would.
+ */
+public class SimulatedDhtNetwork implements AutoCloseable {
+    private static final String HOST = "127.0.0.1";
+
+    private final Map<Integer, Endpoint> endpoints = new ConcurrentHashMap<>();
+    private final AtomicInteger nextPort = new AtomicInteger(1);
+    private final ScheduledExecutorService scheduler;
+    private final LongAdder messages = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private volatile long minLatencyMillis;
+    private volatile long maxLatencyMillis;
+    private volatile long timeoutMillis = 1000;
+
+    public SimulatedDhtNetwork() {
+        scheduler = Executors.newScheduledThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()), r -> {
+            Thread thread = new Thread(r, "dht-simulation");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Delay each one-way trip by a uniformly random time in [min, max]; 0, 0 for none
+     */
+    public void setLatency(long minMillis, long maxMillis) {
+        this.minLatencyMillis = minMillis;
+        this.maxLatencyMillis = Math.max(minMillis, maxMillis);
+    }
+
+    public void setTimeout(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * A new node attachment with its own port
+     */
+    public DhtNetwork endpoint() {
+        return new Endpoint(nextPort.getAndIncrement());
+    }
+
+    public long getMessageCount() {
+        return messages.sum();
+    }
+
+    public long getByteCount() {
+        return bytes.sum();
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    private long latency() {
+        long max = maxLatencyMillis;
+        return max == 0 ? 0 : ThreadLocalRandom.current().nextLong(minLatencyMillis, max + 1);
+    }
+
+    /**
+     * Encode and decode a message as the receiving side would see it
+     */
+    private DhtMessage transmit(DhtMessage message) throws IOException {
+        byte[] data = message.encode();
+        messages.increment();
+        bytes.add(data.length);
+        return DhtMessage.decode(data, 0, data.length, HOST);
+    }
+
+    private void deliver(Endpoint target, DhtMessage request, CompletableFuture<DhtMessage> response) {
+        if (target == null || target.handler == null) {
+            if (timeoutMillis == 0 || maxLatencyMillis == 0) {
+                response.completeExceptionally(new ConnectException("No simulated node answers"));
+            } else {
+                scheduler.schedule(() -> response.completeExceptionally(
+                    new SocketTimeoutException("No simulated node answers")), timeoutMillis, TimeUnit.MILLISECONDS);
+            }
+            return;
+        }
+        try {
+            DhtMessage answer = target.handler.apply(transmit(request));
+            if (answer == null) {
+                response.completeExceptionally(new IOException("Request not answered"));
+                return;
+            }
+            DhtMessage received = transmit(answer);
+            long delay = latency();
+            if (delay == 0) {
+                response.complete(received);
+            } else {
+                scheduler.schedule(() -> response.complete(received), delay, TimeUnit.MILLISECONDS);
+            }
+        } catch (IOException | RuntimeException e) {
+            response.completeExceptionally(e);
+        }
+    }
+
+    private final class Endpoint implements DhtNetwork {
+        private final int port;
+        private volatile Function<DhtMessage, DhtMessage> handler;
+
+        Endpoint(int port) {
+            this.port = port;
+        }
+
+        @Override
+        public void start(Function<DhtMessage, DhtMessage> handler) {
+            this.handler = handler;
+            endpoints.put(port, this);
+        }
+
+        @Override
+        public CompletableFuture<DhtMessage> request(String host, int port, DhtMessage request) {
+            CompletableFuture<DhtMessage> response = new CompletableFuture<>();
+            Endpoint target = endpoints.get(port);
+            long delay = latency();
+            if (delay == 0) {
+                deliver(target, request, response);
+            } else {
+                scheduler.schedule(() -> deliver(target, request, response), delay, TimeUnit.MILLISECONDS);
+            }
+            return response;
+        }
+
+        @Override
+        public int getPort() {
+            return port;
+        }
+
+        @Override
+        public void close() {
+            endpoints.remove(port);
+            handler = null;
+        }
+    }
+}
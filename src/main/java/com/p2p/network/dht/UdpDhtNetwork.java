@@ -0,0 +1,132 @@
+package com.p2p.network.dht;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * DHT RPCs as UDP datagrams, one request and one response per RPC, matched by RPC id
+ */
+public class UdpDhtNetwork implements DhtNetwork {
+    private static final int MAX_PACKET_SIZE = 65507;
+
+    private final InetSocketAddress bindAddress;
+    private final long timeoutMillis;
+    private final Map<Long, CompletableFuture<DhtMessage>> pending = new ConcurrentHashMap<>();
+
+    private DatagramSocket socket;
+    private Function<DhtMessage, DhtMessage> handler;
+    private ScheduledExecutorService timer;
+    private volatile boolean running = false;
+
+    /**
+     * @param bindAddress local address and port; port 0 picks a free one
+     */
+    public UdpDhtNetwork(InetSocketAddress bindAddress, long timeoutMillis) {
+        this.bindAddress = bindAddress;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    @Override
+    public synchronized void start(Function<DhtMessage, DhtMessage> handler) throws IOException {
+        if (running) {
+            return;
+        }
+        this.handler = handler;
+        socket = new DatagramSocket(bindAddress);
+        timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "dht-timeouts");
+            thread.setDaemon(true);
+            return thread;
+        });
+        running = true;
+        Thread receiver = new Thread(this::receiveLoop, "dht-receiver");
+        receiver.setDaemon(true);
+        receiver.start();
+    }
+
+    @Override
+    public CompletableFuture<DhtMessage> request(String host, int port, DhtMessage request) {
+        CompletableFuture<DhtMessage> response = new CompletableFuture<>();
+        if (!running) {
+            response.completeExceptionally(new IOException("DHT network closed"));
+            return response;
+        }
+        pending.put(request.rpcId, response);
+        try {
+            timer.schedule(() -> {
+                if (pending.remove(request.rpcId) != null) {
+                    response.completeExceptionally(new SocketTimeoutException("No answer from " + host + ":" + port));
+                }
+            }, timeoutMillis, TimeUnit.MILLISECONDS);
+            send(request, new InetSocketAddress(host, port));
+        } catch (IOException | RejectedExecutionException | IllegalArgumentException e) {
+            pending.remove(request.rpcId);
+            response.completeExceptionally(e instanceof IOException ? e : new IOException(e.getMessage(), e));
+        }
+        return response;
+    }
+
+    @Override
+    public int getPort() {
+        return socket.getLocalPort();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        timer.shutdownNow();
+        socket.close();
+        IOException closed = new IOException("DHT network closed");
+        pending.values().forEach(future -> future.completeExceptionally(closed));
+        pending.clear();
+    }
+
+    private void send(DhtMessage message, InetSocketAddress to) throws IOException {
+        byte[] data = message.encode();
+        socket.send(new DatagramPacket(data, data.length, to));
+    }
+
+    private void receiveLoop() {
+        byte[] buffer = new byte[MAX_PACKET_SIZE];
+        while (running) {
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            try {
+                socket.receive(packet);
+                DhtMessage message = DhtMessage.decode(packet.getData(), packet.getOffset(), packet.getLength(),
+                    packet.getAddress().getHostAddress());
+                if (message.isRequest()) {
+                    DhtMessage response = handler.apply(message);
+                    if (response != null) {
+                        send(response, (InetSocketAddress) packet.getSocketAddress());
+                    }
+                } else {
+                    CompletableFuture<DhtMessage> future = pending.remove(message.rpcId);
+                    if (future != null) {
+                        future.complete(message);
+                    }
+                }
+            } catch (IOException e) {
+                if (running && !socket.isClosed()) {
+                    System.err.println("Dropped DHT packet: " + e.getMessage());
+                }
+            } catch (RuntimeException e) {
+                // One bad packet must not stop the node from hearing the rest
+                System.err.println("Dropped DHT packet: " + e);
+            }
+        }
+    }
+}
@@ -0,0 +1,591 @@
+package com.p2p.network.gossip;
+
+import com.p2p.network.PeerDiscovery;
+import com.p2p.network.PeerSource;
+import com.p2p.utils.ConfigUtils;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * SWIM-style gossip membership over UDP
+ *
+ * Each protocol period a node pings one member, taken round-robin from a shuffled
+ * list so every member is probed once per pass. If no ack arrives within the ack
+ * timeout it asks INDIRECT_PROBES other members to ping the target on its behalf,
+ * which gets around a single bad link. If the period ends without any ack the target
+ * is suspected, not removed: the suspicion spreads, and the target refutes it by
+ * raising its incarnation if it hears it. A member still suspected after the
+ * suspicion timeout is declared dead.
+ *
+ * State changes are not sent as messages of their own. Every ping, ack and ping-req
+ * carries the least-sent recent updates that fit in a packet, and each update is
+ * piggybacked about RETRANSMIT_MULTIPLIER * log10(n) times, so news reaches every
+ * member in O(log n) periods. A node therefore sends a constant number of packets
+ * per period whatever the size of the cluster.
+ *
+ * A node joins by sending JOIN to its seeds, which answer with their full member
+ * list, and keeps retrying the seeds while it knows no members. Every
+ * SYNC_INTERVAL_PERIODS periods per SYNC_SCALE members it also exchanges full lists
+ * with one random member the same way; the interval grows with the list so the
+ * bytes this costs per period stay flat. Piggybacked updates are only sent a
+ * bounded number of times, so a burst of joins can leave some members without
+ * news that the exchange then repairs.
+ */
+public class GossipMembership implements PeerSource {
+    private static final int MAX_PACKET_SIZE = 1400;
+    private static final int MAX_JOIN_ACK_SIZE = 60000;
+    private static final int INDIRECT_PROBES = 3;
+    private static final int RETRANSMIT_MULTIPLIER = 4;
+    private static final int SUSPICION_MULTIPLIER = 5;
+    private static final int LEAVE_FANOUT = 4;
+    private static final int SYNC_INTERVAL_PERIODS = 10;
+    private static final int SYNC_SCALE = 32;
+    // Periods a dead member's id is remembered, so late ALIVE reports about it are ignored
+    private static final int DEAD_RETENTION_PERIODS = 60;
+
+    private final String name;
+    private final int transferPort;
+    private final InetSocketAddress bindAddress;
+    private final long periodMillis;
+    private final List<InetSocketAddress> seeds;
+    private final String id = UUID.randomUUID().toString();
+
+    // Guarded by this
+    private int incarnation;
+    private final Map<String, Member> members = new HashMap<>();
+    private final Map<String, Long> suspectedAtNanos = new HashMap<>();
+    private final Map<String, Member> dead = new HashMap<>();
+    private final Map<String, Long> deadAtNanos = new HashMap<>();
+    private final Map<String, Broadcast> broadcasts = new HashMap<>();
+    private final List<String> probeOrder = new ArrayList<>();
+    private int probeIndex;
+    private int periodsUntilSync = SYNC_INTERVAL_PERIODS;
+
+    private final Map<Long, Runnable> ackHandlers = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong(ThreadLocalRandom.current().nextLong());
+    private final LongAdder packetsSent = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+
+    private DatagramSocket socket;
+    private ScheduledExecutorService scheduler;
+    private Thread receiverThread;
+    private volatile boolean running = false;
+    private volatile boolean leaving = false;
+
+    private static final class Broadcast {
+        final Member update;
+        int transmits;
+
+        Broadcast(Member update) {
+            this.update = update;
+        }
+    }
+
+    /**
+     * @param bindAddress local address and gossip port; port 0 picks a free one
+     * @param seeds members to join through; may include this node's own address
+     */
+    public GossipMembership(String name, int transferPort, InetSocketAddress bindAddress,
+                            long periodMillis, List<InetSocketAddress> seeds) {
+        this.name = name;
+        this.transferPort = transferPort;
+        this.bindAddress = bindAddress;
+        this.periodMillis = Math.max(50, periodMillis);
+        this.seeds = new ArrayList<>(seeds);
+    }
+
+    public synchronized void start() throws IOException {
+        if (running) {
+            return;
+        }
+        socket = new DatagramSocket(bindAddress);
+        leaving = false;
+        running = true;
+
+        receiverThread = new Thread(this::receiveLoop, "gossip-receiver");
+        receiverThread.setDaemon(true);
+        receiverThread.start();
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "gossip-protocol");
+            thread.setDaemon(true);
+            return thread;
+        });
+        synchronized (this) {
+            // Spread news of this node from here too, not only from the seed that admits it
+            queue(self());
+        }
+        joinSeeds();
+        // Start at a random offset so nodes started together do not probe in step
+        long offset = ThreadLocalRandom.current().nextLong(periodMillis);
+        scheduler.scheduleAtFixedRate(this::protocolPeriod, offset, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Tell a few members this node is leaving, so it is removed at once instead of
+     * after a suspicion timeout, then stop
+     */
+    public void leave() {
+        List<Member> targets;
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            leaving = true;
+            queue(self().withState(incarnation, Member.State.DEAD));
+            targets = randomMembers(LEAVE_FANOUT, null);
+        }
+        for (Member target : targets) {
+            sendWithBroadcasts(GossipMessage.PING, nextSequence(), address(target), null, 0);
+        }
+        stop();
+    }
+
+    /**
+     * Stop without telling anyone; the other members detect the failure
+     */
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        scheduler.shutdownNow();
+        socket.close();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * The port gossip is received on
+     */
+    public int getPort() {
+        return socket.getLocalPort();
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Members believed alive or suspected, excluding this node
+     */
+    public synchronized List<Member> getMembers() {
+        return new ArrayList<>(members.values());
+    }
+
+    @Override
+    public List<PeerDiscovery.PeerInfo> getPeers() {
+        List<PeerDiscovery.PeerInfo> peers = new ArrayList<>();
+        for (Member member : getMembers()) {
+            peers.add(new PeerDiscovery.PeerInfo(member.getName(), member.getHost(), member.getTransferPort(), null));
+        }
+        return peers;
+    }
+
+    public long getPacketsSent() {
+        return packetsSent.sum();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    // Protocol period, on the scheduler thread
+
+    private void protocolPeriod() {
+        Member target;
+        Member syncTarget = null;
+        synchronized (this) {
+            expireSuspects();
+            target = nextProbeTarget();
+            if (target != null && --periodsUntilSync <= 0) {
+                periodsUntilSync = SYNC_INTERVAL_PERIODS * (1 + members.size() / SYNC_SCALE);
+                syncTarget = randomMembers(1, null).get(0);
+            }
+        }
+        if (target == null) {
+            joinSeeds();
+            return;
+        }
+        if (syncTarget != null) {
+            send(new GossipMessage(GossipMessage.JOIN, nextSequence(), id, null, 0, snapshot()),
+                address(syncTarget), MAX_JOIN_ACK_SIZE);
+        }
+
+        long probeSequence = nextSequence();
+        AtomicBoolean acked = new AtomicBoolean();
+        ackHandlers.put(probeSequence, () -> acked.set(true));
+        sendWithBroadcasts(GossipMessage.PING, probeSequence, address(target), null, 0);
+
+        long ackTimeout = Math.max(10, periodMillis / 5);
+        schedule(() -> {
+            if (acked.get()) {
+                return;
+            }
+            List<Member> helpers;
+            synchronized (this) {
+                helpers = randomMembers(INDIRECT_PROBES, target.getId());
+            }
+            for (Member helper : helpers) {
+                sendWithBroadcasts(GossipMessage.PING_REQ, probeSequence, address(helper),
+                    target.getHost(), target.getGossipPort());
+            }
+        }, ackTimeout);
+
+        schedule(() -> {
+            ackHandlers.remove(probeSequence);
+            if (!acked.get()) {
+                suspect(target);
+            }
+        }, periodMillis * 9 / 10);
+    }
+
+    private void joinSeeds() {
+        List<Member> self = List.of(self());
+        for (InetSocketAddress seed : seeds) {
+            if (seed.getPort() == socket.getLocalPort() && seed.getAddress() != null
+                    && (seed.getAddress().isLoopbackAddress() || seed.getAddress().isAnyLocalAddress())) {
+                continue;
+            }
+            send(new GossipMessage(GossipMessage.JOIN, nextSequence(), id, null, 0, self), seed, MAX_PACKET_SIZE);
+        }
+    }
+
+    private synchronized void suspect(Member target) {
+        Member current = members.get(target.getId());
+        if (current != null && current.getState() == Member.State.ALIVE
+                && current.getIncarnation() == target.getIncarnation()) {
+            apply(current.withState(current.getIncarnation(), Member.State.SUSPECT), true);
+        }
+    }
+
+    private void expireSuspects() {
+        long now = System.nanoTime();
+        long timeout = suspicionTimeoutNanos();
+        for (Map.Entry<String, Long> entry : new ArrayList<>(suspectedAtNanos.entrySet())) {
+            if (now - entry.getValue() > timeout) {
+                Member member = members.get(entry.getKey());
+                if (member != null) {
+                    apply(member.withState(member.getIncarnation(), Member.State.DEAD), true);
+                }
+            }
+        }
+        long retention = TimeUnit.MILLISECONDS.toNanos(periodMillis * DEAD_RETENTION_PERIODS);
+        for (Iterator<Map.Entry<String, Long>> it = deadAtNanos.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Long> entry = it.next();
+            if (now - entry.getValue() > retention) {
+                dead.remove(entry.getKey());
+                it.remove();
+            }
+        }
+    }
+
+    private long suspicionTimeoutNanos() {
+        double scale = Math.max(1, Math.log10(members.size() + 1));
+        return TimeUnit.MILLISECONDS.toNanos((long) (SUSPICION_MULTIPLIER * scale * periodMillis));
+    }
+
+    private Member nextProbeTarget() {
+        while (true) {
+            if (probeIndex >= probeOrder.size()) {
+                if (members.isEmpty()) {
+                    return null;
+                }
+                probeOrder.clear();
+                probeOrder.addAll(members.keySet());
+                Collections.shuffle(probeOrder);
+                probeIndex = 0;
+            }
+            Member member = members.get(probeOrder.get(probeIndex++));
+            if (member != null) {
+                return member;
+            }
+        }
+    }
+
+    private List<Member> randomMembers(int count, String excludeId) {
+        List<Member> candidates = new ArrayList<>(members.values());
+        if (excludeId != null) {
+            candidates.removeIf(member -> member.getId().equals(excludeId));
+        }
+        Collections.shuffle(candidates);
+        return candidates.subList(0, Math.min(count, candidates.size()));
+    }
+
+    // Receiving
+
+    private void receiveLoop() {
+        byte[] buffer = new byte[65536];
+        while (running) {
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            try {
+                socket.receive(packet);
+                GossipMessage message = GossipMessage.decode(packet.getData(), packet.getOffset(), packet.getLength());
+                handle(message, (InetSocketAddress) packet.getSocketAddress());
+            } catch (IOException e) {
+                if (running && !socket.isClosed()) {
+                    System.err.println("Dropped gossip packet: " + e.getMessage());
+                }
+            } catch (RuntimeException e) {
+                // One bad packet must not stop this node from answering probes
+                System.err.println("Dropped gossip packet: " + e);
+            }
+        }
+    }
+
+    private void handle(GossipMessage message, InetSocketAddress from) {
+        if (message.senderId.equals(id)) {
+            return;
+        }
+        synchronized (this) {
+            String sourceHost = from.getAddress().getHostAddress();
+            // A full list is a snapshot, not news; spreading all of it again would flood
+            // the cluster. Only the sender's own entry is news, when it is joining.
+            boolean snapshot = message.type == GossipMessage.JOIN || message.type == GossipMessage.JOIN_ACK;
+            for (Member update : message.updates) {
+                if (update.getHost().isEmpty()) {
+                    // Members leave their own host blank; the packet source is the address that reaches them
+                    update = update.withHost(sourceHost);
+                }
+                apply(update, !snapshot || update.getId().equals(message.senderId));
+            }
+        }
+
+        switch (message.type) {
+            case GossipMessage.PING:
+                sendWithBroadcasts(GossipMessage.ACK, message.sequence, from, null, 0);
+                break;
+            case GossipMessage.ACK:
+                Runnable handler = ackHandlers.remove(message.sequence);
+                if (handler != null) {
+                    handler.run();
+                }
+                break;
+            case GossipMessage.PING_REQ:
+                long relaySequence = nextSequence();
+                ackHandlers.put(relaySequence,
+                    () -> sendWithBroadcasts(GossipMessage.ACK, message.sequence, from, null, 0));
+                schedule(() -> ackHandlers.remove(relaySequence), periodMillis);
+                sendWithBroadcasts(GossipMessage.PING, relaySequence,
+                    new InetSocketAddress(message.targetHost, message.targetPort), null, 0);
+                break;
+            case GossipMessage.JOIN:
+                send(new GossipMessage(GossipMessage.JOIN_ACK, message.sequence, id, null, 0, snapshot()),
+                    from, MAX_JOIN_ACK_SIZE);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Merge one report into the member table; call with the lock held
+     */
+    private void apply(Member update, boolean disseminate) {
+        if (update.getId().equals(id)) {
+            // A leaving node hears its own goodbye echoed back and must not refute it
+            if (update.getState() != Member.State.ALIVE && update.getIncarnation() >= incarnation && !leaving) {
+                // Refute: only this node may raise its own incarnation
+                incarnation = update.getIncarnation() + 1;
+                queue(self());
+            }
+            return;
+        }
+
+        Member current = members.get(update.getId());
+        if (current == null) {
+            Member tombstone = dead.get(update.getId());
+            if (tombstone != null && !update.overrides(tombstone)) {
+                return;
+            }
+            if (update.getState() == Member.State.DEAD) {
+                markDead(update, disseminate);
+                return;
+            }
+            members.put(update.getId(), update);
+            dead.remove(update.getId());
+            deadAtNanos.remove(update.getId());
+            if (update.getState() == Member.State.SUSPECT) {
+                suspectedAtNanos.put(update.getId(), System.nanoTime());
+            }
+            // Probe newcomers within this pass
+            if (!probeOrder.isEmpty()) {
+                int position = probeIndex + ThreadLocalRandom.current().nextInt(probeOrder.size() - probeIndex + 1);
+                probeOrder.add(position, update.getId());
+            }
+            if (disseminate) {
+                queue(update);
+            }
+            return;
+        }
+
+        if (!update.overrides(current)) {
+            return;
+        }
+        if (update.getState() == Member.State.DEAD) {
+            members.remove(update.getId());
+            suspectedAtNanos.remove(update.getId());
+            markDead(update.withHost(current.getHost()), disseminate);
+            return;
+        }
+        members.put(update.getId(), update);
+        if (update.getState() == Member.State.SUSPECT) {
+            suspectedAtNanos.putIfAbsent(update.getId(), System.nanoTime());
+        } else {
+            suspectedAtNanos.remove(update.getId());
+        }
+        if (disseminate) {
+            queue(update);
+        }
+    }
+
+    private void markDead(Member update, boolean disseminate) {
+        dead.put(update.getId(), update);
+        deadAtNanos.put(update.getId(), System.nanoTime());
+        if (disseminate) {
+            queue(update);
+        }
+    }
+
+    // Sending
+
+    private void queue(Member update) {
+        // A newer report about a member replaces the older one still being spread
+        broadcasts.put(update.getId(), new Broadcast(update));
+    }
+
+    private synchronized List<Member> snapshot() {
+        List<Member> result = new ArrayList<>(members.size() + dead.size() + 1);
+        result.add(self());
+        result.addAll(members.values());
+        // A member wrongly declared dead that missed the news learns it here and refutes
+        result.addAll(dead.values());
+        return result;
+    }
+
+    private Member self() {
+        return new Member(id, name, "", socket.getLocalPort(), transferPort, incarnation, Member.State.ALIVE);
+    }
+
+    private void sendWithBroadcasts(byte type, long messageSequence, InetSocketAddress to,
+                                    String targetHost, int targetPort) {
+        List<Broadcast> pending;
+        List<Member> updates;
+        synchronized (this) {
+            // Least-sent first; transmit counts only change under the lock
+            pending = new ArrayList<>(broadcasts.values());
+            pending.sort(Comparator.comparingInt(broadcast -> broadcast.transmits));
+            updates = new ArrayList<>(pending.size());
+            for (Broadcast broadcast : pending) {
+                updates.add(broadcast.update);
+            }
+        }
+
+        int included = send(new GossipMessage(type, messageSequence, id, targetHost, targetPort, updates),
+            to, MAX_PACKET_SIZE);
+
+        synchronized (this) {
+            int limit = RETRANSMIT_MULTIPLIER * (int) Math.ceil(Math.log10(members.size() + 2));
+            for (int i = 0; i < included; i++) {
+                Broadcast broadcast = pending.get(i);
+                broadcast.transmits++;
+                if (broadcast.transmits >= limit && broadcasts.get(broadcast.update.getId()) == broadcast) {
+                    broadcasts.remove(broadcast.update.getId());
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of updates that fit in the packet
+     */
+    private int send(GossipMessage message, InetSocketAddress to, int maxBytes) {
+        if (!running) {
+            return 0;
+        }
+        try {
+            int[] included = new int[1];
+            byte[] data = message.encode(maxBytes, included);
+            socket.send(new DatagramPacket(data, data.length, to));
+            packetsSent.increment();
+            bytesSent.add(data.length);
+            return included[0];
+        } catch (IOException e) {
+            if (running) {
+                System.err.println("Gossip send to " + to + " failed: " + e.getMessage());
+            }
+            return 0;
+        }
+    }
+
+    private void schedule(Runnable task, long delayMillis) {
+        try {
+            scheduler.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Stopped
+        }
+    }
+
+    private long nextSequence() {
+        return sequence.incrementAndGet();
+    }
+
+    /**
+     * A gossip node configured from gossip.* settings
+     */
+    public static GossipMembership fromConfig(String name, int transferPort) throws IOException {
+        return new GossipMembership(name, transferPort, new InetSocketAddress(ConfigUtils.getGossipPort()),
+            ConfigUtils.getGossipInterval(), parseSeeds(ConfigUtils.getGossipSeeds()));
+    }
+
+    /**
+     * Parse a comma-separated host:port list; a bare host uses the configured gossip port
+     */
+    static List<InetSocketAddress> parseSeeds(String seedList) throws IOException {
+        List<InetSocketAddress> result = new ArrayList<>();
+        for (String seed : seedList.split(",")) {
+            seed = seed.trim();
+            if (seed.isEmpty()) {
+                continue;
+            }
+            int colon = seed.lastIndexOf(':');
+            try {
+                if (colon < 0) {
+                    result.add(new InetSocketAddress(seed, ConfigUtils.getGossipPort()));
+                } else {
+                    result.add(new InetSocketAddress(seed.substring(0, colon), Integer.parseInt(seed.substring(colon + 1))));
+                }
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Invalid gossip seed " + seed);
+            }
+        }
+        return result;
+    }
+
+    private static InetSocketAddress address(Member member) {
+        return new InetSocketAddress(member.getHost(), member.getGossipPort());
+    }
+}
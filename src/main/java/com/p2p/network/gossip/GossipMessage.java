@@ -0,0 +1,132 @@
+package com.p2p.network.gossip;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Wire format of the gossip protocol
+ *
+ * Header: magic, version, type, sequence number and sender id; a PING_REQ adds the
+ * address to probe. Every message then carries a list of membership updates, which
+ * is how state changes spread without messages of their own.
+ */
+final class GossipMessage {
+    static final byte PING = 1;
+    static final byte ACK = 2;
+    static final byte PING_REQ = 3;
+    static final byte JOIN = 4;
+    static final byte JOIN_ACK = 5;
+
+    private static final int MAGIC = 0x50325047; // "P2PG"
+    // 2: the PING_REQ target port is an unsigned short, like the member ports
+    private static final byte VERSION = 2;
+
+    final byte type;
+    final long sequence;
+    final String senderId;
+    // PING_REQ only
+    final String targetHost;
+    final int targetPort;
+    final List<Member> updates;
+
+    GossipMessage(byte type, long sequence, String senderId, String targetHost, int targetPort, List<Member> updates) {
+        this.type = type;
+        this.sequence = sequence;
+        this.senderId = senderId;
+        this.targetHost = targetHost;
+        this.targetPort = targetPort;
+        this.updates = updates;
+    }
+
+    /**
+     * Encode with as many updates as fit in maxBytes, in list order
+     *
+     * @return the encoded message; updates.size() may be larger than what was included
+     */
+    byte[] encode(int maxBytes, int[] includedUpdates) throws IOException {
+        ByteArrayOutputStream header = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(header);
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeByte(type);
+        out.writeLong(sequence);
+        out.writeUTF(senderId);
+        if (type == PING_REQ) {
+            out.writeUTF(targetHost);
+            out.writeShort(targetPort);
+        }
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream(256);
+        DataOutputStream bodyOut = new DataOutputStream(body);
+        ByteArrayOutputStream entry = new ByteArrayOutputStream(64);
+        DataOutputStream entryOut = new DataOutputStream(entry);
+        int budget = maxBytes - header.size() - 2;
+        int count = 0;
+        for (Member update : updates) {
+            entry.reset();
+            writeMember(entryOut, update);
+            if (body.size() + entry.size() > budget || count == 0xFFFF) {
+                break;
+            }
+            entry.writeTo(bodyOut);
+            count++;
+        }
+        out.writeShort(count);
+        body.writeTo(out);
+        if (includedUpdates != null) {
+            includedUpdates[0] = count;
+        }
+        return header.toByteArray();
+    }
+
+    static GossipMessage decode(byte[] data, int offset, int length) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, offset, length));
+        if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+            throw new IOException("Not a gossip message");
+        }
+        byte type = in.readByte();
+        long sequence = in.readLong();
+        String senderId = in.readUTF();
+        String targetHost = null;
+        int targetPort = 0;
+        if (type == PING_REQ) {
+            targetHost = in.readUTF();
+            targetPort = in.readUnsignedShort();
+        }
+        int count = in.readUnsignedShort();
+        List<Member> updates = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            updates.add(readMember(in));
+        }
+        return new GossipMessage(type, sequence, senderId, targetHost, targetPort, updates);
+    }
+
+    private static void writeMember(DataOutputStream out, Member member) throws IOException {
+        out.writeUTF(member.getId());
+        out.writeUTF(member.getName());
+        out.writeUTF(member.getHost());
+        out.writeShort(member.getGossipPort());
+        out.writeShort(member.getTransferPort());
+        out.writeInt(member.getIncarnation());
+        out.writeByte(member.getState().ordinal());
+    }
+
+    private static Member readMember(DataInputStream in) throws IOException {
+        String id = in.readUTF();
+        String name = in.readUTF();
+        String host = in.readUTF();
+        int gossipPort = in.readUnsignedShort();
+        int transferPort = in.readUnsignedShort();
+        int incarnation = in.readInt();
+        int state = in.readUnsignedByte();
+        if (state >= Member.State.values().length) {
+            throw new IOException("Unknown member state " + state);
+        }
+        return new Member(id, name, host, gossipPort, transferPort, incarnation, Member.State.values()[state]);
+    }
+}
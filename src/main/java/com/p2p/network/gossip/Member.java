@@ -0,0 +1,86 @@
+package com.p2p.network.gossip;
+
+/**
+ * One node of the gossip membership as last heard about
+ *
+ * The incarnation number is owned by the member itself: it only increases, and only
+ * the member raises it, to refute a suspicion. Among conflicting reports about a
+ * member the one with the higher incarnation wins; at equal incarnation DEAD beats
+ * SUSPECT beats ALIVE.
+ */
+public final class Member {
+
+    public enum State {
+        ALIVE, SUSPECT, DEAD
+    }
+
+    private final String id;
+    private final String name;
+    private final String host;
+    private final int gossipPort;
+    private final int transferPort;
+    private final int incarnation;
+    private final State state;
+
+    public Member(String id, String name, String host, int gossipPort, int transferPort,
+                  int incarnation, State state) {
+        this.id = id;
+        this.name = name;
+        this.host = host;
+        this.gossipPort = gossipPort;
+        this.transferPort = transferPort;
+        this.incarnation = incarnation;
+        this.state = state;
+    }
+
+    Member withState(int incarnation, State state) {
+        return new Member(id, name, host, gossipPort, transferPort, incarnation, state);
+    }
+
+    Member withHost(String host) {
+        return new Member(id, name, host, gossipPort, transferPort, incarnation, state);
+    }
+
+    /**
+     * Whether this report should replace what is known as current
+     */
+    boolean overrides(Member current) {
+        if (incarnation != current.incarnation) {
+            return incarnation > current.incarnation;
+        }
+        return state.ordinal() > current.state.ordinal();
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getGossipPort() {
+        return gossipPort;
+    }
+
+    public int getTransferPort() {
+        return transferPort;
+    }
+
+    public int getIncarnation() {
+        return incarnation;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    @Override
+    public String toString() {
+        return name + "@" + host + ":" + gossipPort + " " + state + "/" + incarnation;
+    }
+}
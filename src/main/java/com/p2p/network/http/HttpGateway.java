@@ -0,0 +1,555 @@
+package com.p2p.network.http;
+
+import com.p2p.network.TransferListener;
+import com.p2p.utils.ConfigUtils;
+import com.p2p.utils.FileUtils;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Read-only HTTP/1.1 access to the downloads and shared directories, for clients
+ * that do not speak the FileServer protocol
+ *
+ * GET and HEAD on /downloads/... and /shared/... return files, or a plain HTML
+ * listing for directories. Single and multiple byte ranges, If-None-Match,
+ * If-Modified-Since and If-Range are honoured, and connections are kept alive
+ * unless the client says otherwise. Each connection has its own thread, blocked on
+ * its socket; file bodies go to the socket with FileChannel.transferTo, so they
+ * never pass through the Java heap.
+ */
+public class HttpGateway {
+    private static final int MAX_CONNECTIONS = 512;
+    private static final int IDLE_TIMEOUT = 15000;
+    private static final int MAX_REQUESTS_PER_CONNECTION = 10000;
+    private static final int MAX_RANGES = 16;
+    private static final DateTimeFormatter HTTP_DATE =
+        DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US).withZone(ZoneOffset.UTC);
+
+    private final InetSocketAddress bindAddress;
+    private final Map<String, Path> mounts = new LinkedHashMap<>();
+    private final TransferListener listener;
+    private final Semaphore connectionSlots = new Semaphore(MAX_CONNECTIONS);
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private ServerSocketChannel serverChannel;
+    private ExecutorService workers;
+    private volatile boolean running;
+
+    /**
+     * @param mounts first path segment to the directory it serves
+     */
+    public HttpGateway(InetSocketAddress bindAddress, Map<String, Path> mounts, TransferListener listener) {
+        this.bindAddress = bindAddress;
+        for (Map.Entry<String, Path> mount : mounts.entrySet()) {
+            this.mounts.put(mount.getKey(), mount.getValue().toAbsolutePath().normalize());
+        }
+        this.listener = listener;
+    }
+
+    public static HttpGateway fromConfig(TransferListener listener) {
+        Map<String, Path> mounts = new LinkedHashMap<>();
+        mounts.put("downloads", Paths.get(ConfigUtils.getDownloadsDirectory()));
+        mounts.put("shared", Paths.get(ConfigUtils.getSharedDirectory()));
+        return new HttpGateway(new InetSocketAddress(ConfigUtils.getHttpPort()), mounts, listener);
+    }
+
+    public synchronized void start() throws IOException {
+        if (running) {
+            return;
+        }
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        serverChannel.bind(bindAddress, 256);
+        workers = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "http-connection");
+            thread.setDaemon(true);
+            return thread;
+        });
+        running = true;
+        Thread acceptor = new Thread(this::acceptLoop, "http-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        listener.log("HTTP gateway listening on port " + getPort());
+    }
+
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+            listener.log("Error stopping HTTP gateway: " + e.getMessage());
+        }
+        workers.shutdownNow();
+    }
+
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    public long getRequestCount() {
+        return requests.sum();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                if (!connectionSlots.tryAcquire()) {
+                    // Over the limit: answer at once rather than queue behind idle keep-alives
+                    try (SocketChannel rejected = channel) {
+                        writeAll(rejected, ByteBuffer.wrap(("HTTP/1.1 503 Service Unavailable\r\n"
+                            + "Content-Length: 0\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1)));
+                    } catch (IOException e) {
+                        // The client is gone anyway
+                    }
+                    continue;
+                }
+                workers.submit(() -> {
+                    try {
+                        handleConnection(channel);
+                    } finally {
+                        connectionSlots.release();
+                    }
+                });
+            } catch (IOException e) {
+                if (running) {
+                    listener.log("HTTP gateway error: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void handleConnection(SocketChannel channel) {
+        try (SocketChannel open = channel) {
+            open.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            open.socket().setSoTimeout(IDLE_TIMEOUT);
+            InputStream in = new BufferedInputStream(open.socket().getInputStream());
+            for (int served = 0; running; served++) {
+                HttpRequest request;
+                try {
+                    request = HttpRequest.read(in);
+                } catch (HttpRequest.BadRequest e) {
+                    sendError(open, e.status, e.getMessage(), false);
+                    return;
+                }
+                if (request == null) {
+                    return;
+                }
+                requests.increment();
+                boolean keepAlive = request.keepAlive() && served + 1 < MAX_REQUESTS_PER_CONNECTION;
+                if (!respond(open, in, request, keepAlive)) {
+                    return;
+                }
+            }
+        } catch (SocketTimeoutException e) {
+            // Idle keep-alive connection
+        } catch (IOException e) {
+            // Client went away mid-response; nothing to tell it
+        }
+    }
+
+    /**
+     * Answer one request
+     *
+     * @return whether the connection stays open
+     */
+    private boolean respond(SocketChannel channel, InputStream in, HttpRequest request, boolean keepAlive)
+            throws IOException {
+        boolean head = "HEAD".equals(request.method);
+        if (!head && !"GET".equals(request.method)) {
+            sendError(channel, 405, "Only GET and HEAD are supported", false);
+            return false;
+        }
+        if (request.header("transfer-encoding") != null) {
+            sendError(channel, 501, "Request bodies are not supported", false);
+            return false;
+        }
+        // Discard any body so the next request starts where expected
+        long body = request.contentLength();
+        while (body > 0) {
+            long skipped = in.skip(body);
+            if (skipped <= 0 && in.read() < 0) {
+                return false;
+            }
+            body -= Math.max(1, skipped);
+        }
+
+        String target = request.target;
+        int query = target.indexOf('?');
+        if (query >= 0) {
+            target = target.substring(0, query);
+        }
+        String path;
+        try {
+            path = URLDecoder.decode(target.replace("+", "%2B"), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            sendError(channel, 400, "Malformed path", keepAlive);
+            return keepAlive;
+        }
+        if (!path.startsWith("/")) {
+            sendError(channel, 400, "Path must be absolute", keepAlive);
+            return keepAlive;
+        }
+        if (path.equals("/")) {
+            List<String> names = new ArrayList<>();
+            for (String mount : mounts.keySet()) {
+                names.add(mount + "/");
+            }
+            sendListing(channel, "/", names, head, keepAlive);
+            return keepAlive;
+        }
+
+        String relative = path.substring(1);
+        int slash = relative.indexOf('/');
+        String mount = slash < 0 ? relative : relative.substring(0, slash);
+        Path root = mounts.get(mount);
+        Path file = root == null ? null : FileUtils.resolveInside(root, slash < 0 ? "" : relative.substring(slash + 1));
+        if (file == null) {
+            sendError(channel, 404, "Not found", keepAlive);
+            return keepAlive;
+        }
+        if (Files.isDirectory(file)) {
+            if (!path.endsWith("/")) {
+                sendRedirect(channel, encodePath(path) + "/", keepAlive);
+                return keepAlive;
+            }
+            List<String> names = new ArrayList<>();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(file)) {
+                TreeSet<String> sorted = new TreeSet<>();
+                for (Path entry : entries) {
+                    sorted.add(entry.getFileName() + (Files.isDirectory(entry) ? "/" : ""));
+                }
+                names.addAll(sorted);
+            }
+            sendListing(channel, path, names, head, keepAlive);
+            return keepAlive;
+        }
+        sendFile(channel, request, file, head, keepAlive);
+        return keepAlive;
+    }
+
+    private void sendFile(SocketChannel channel, HttpRequest request, Path file, boolean head, boolean keepAlive)
+            throws IOException {
+        try (FileChannel source = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = source.size();
+            long lastModified = Files.getLastModifiedTime(file).toMillis();
+            String etag = "\"" + Long.toHexString(size) + "-" + Long.toHexString(lastModified) + "\"";
+            String modified = HTTP_DATE.format(Instant.ofEpochMilli(lastModified));
+
+            if (notModified(request, etag, lastModified)) {
+                StringBuilder headers = statusLine(304, "Not Modified", keepAlive);
+                headers.append("ETag: ").append(etag).append("\r\n");
+                headers.append("Last-Modified: ").append(modified).append("\r\n\r\n");
+                writeAll(channel, ascii(headers));
+                return;
+            }
+
+            List<long[]> ranges = null;
+            String range = request.header("range");
+            String ifRange = request.header("if-range");
+            if (range != null && (ifRange == null || ifRange.equals(etag) || ifRange.equals(modified))) {
+                ranges = parseRanges(range, size);
+                if (ranges != null && ranges.isEmpty()) {
+                    StringBuilder headers = statusLine(416, "Range Not Satisfiable", keepAlive);
+                    headers.append("Content-Range: bytes */").append(size).append("\r\n");
+                    headers.append("Content-Length: 0\r\n\r\n");
+                    writeAll(channel, ascii(headers));
+                    return;
+                }
+            }
+
+            String contentType = contentType(file);
+            StringBuilder headers;
+            List<byte[]> partHeaders = null;
+            String boundary = null;
+            if (ranges == null) {
+                headers = statusLine(200, "OK", keepAlive);
+                headers.append("Content-Type: ").append(contentType).append("\r\n");
+                headers.append("Content-Length: ").append(size).append("\r\n");
+            } else if (ranges.size() == 1) {
+                long[] only = ranges.get(0);
+                headers = statusLine(206, "Partial Content", keepAlive);
+                headers.append("Content-Type: ").append(contentType).append("\r\n");
+                headers.append("Content-Range: bytes ").append(only[0]).append('-').append(only[1] - 1)
+                    .append('/').append(size).append("\r\n");
+                headers.append("Content-Length: ").append(only[1] - only[0]).append("\r\n");
+            } else {
+                boundary = Long.toHexString(ThreadLocalRandom.current().nextLong());
+                partHeaders = new ArrayList<>();
+                long length = 0;
+                for (long[] part : ranges) {
+                    byte[] partHeader = ("\r\n--" + boundary + "\r\nContent-Type: " + contentType
+                        + "\r\nContent-Range: bytes " + part[0] + "-" + (part[1] - 1) + "/" + size + "\r\n\r\n")
+                        .getBytes(StandardCharsets.ISO_8859_1);
+                    partHeaders.add(partHeader);
+                    length += partHeader.length + part[1] - part[0];
+                }
+                length += ("\r\n--" + boundary + "--\r\n").length();
+                headers = statusLine(206, "Partial Content", keepAlive);
+                headers.append("Content-Type: multipart/byteranges; boundary=").append(boundary).append("\r\n");
+                headers.append("Content-Length: ").append(length).append("\r\n");
+            }
+            headers.append("Accept-Ranges: bytes\r\n");
+            headers.append("ETag: ").append(etag).append("\r\n");
+            headers.append("Last-Modified: ").append(modified).append("\r\n\r\n");
+            writeAll(channel, ascii(headers));
+            if (head) {
+                return;
+            }
+
+            if (ranges == null) {
+                transfer(source, channel, 0, size);
+            } else if (partHeaders == null) {
+                transfer(source, channel, ranges.get(0)[0], ranges.get(0)[1]);
+            } else {
+                for (int i = 0; i < ranges.size(); i++) {
+                    writeAll(channel, ByteBuffer.wrap(partHeaders.get(i)));
+                    transfer(source, channel, ranges.get(i)[0], ranges.get(i)[1]);
+                }
+                writeAll(channel, ByteBuffer.wrap(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.ISO_8859_1)));
+            }
+        }
+    }
+
+    private static boolean notModified(HttpRequest request, String etag, long lastModified) {
+        String ifNoneMatch = request.header("if-none-match");
+        if (ifNoneMatch != null) {
+            for (String candidate : ifNoneMatch.split(",")) {
+                String tag = candidate.trim();
+                if (tag.startsWith("W/")) {
+                    tag = tag.substring(2);
+                }
+                if (tag.equals("*") || tag.equals(etag)) {
+                    return true;
+                }
+            }
+            // If-Modified-Since is ignored whenever If-None-Match is present
+            return false;
+        }
+        String ifModifiedSince = request.header("if-modified-since");
+        if (ifModifiedSince != null) {
+            try {
+                long since = ZonedDateTime.parse(ifModifiedSince, HTTP_DATE).toInstant().toEpochMilli();
+                return lastModified / 1000 <= since / 1000;
+            } catch (DateTimeParseException e) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The satisfiable ranges of a "bytes=" header as [start, end) pairs; empty when none
+     * is satisfiable, null when the header is not understood and should be ignored
+     */
+    static List<long[]> parseRanges(String header, long size) {
+        String value = header.trim();
+        if (!value.toLowerCase(Locale.ROOT).startsWith("bytes=")) {
+            return null;
+        }
+        List<long[]> ranges = new ArrayList<>();
+        String[] specs = value.substring(6).split(",");
+        if (specs.length > MAX_RANGES) {
+            return null;
+        }
+        for (String spec : specs) {
+            String part = spec.trim();
+            int dash = part.indexOf('-');
+            if (dash < 0) {
+                return null;
+            }
+            try {
+                String first = part.substring(0, dash).trim();
+                String last = part.substring(dash + 1).trim();
+                long start;
+                long end;
+                if (first.isEmpty()) {
+                    // Suffix: the last n bytes
+                    long suffix = Long.parseLong(last);
+                    if (suffix < 0) {
+                        return null;
+                    }
+                    if (suffix == 0 || size == 0) {
+                        continue;
+                    }
+                    start = Math.max(0, size - suffix);
+                    end = size;
+                } else {
+                    start = Long.parseLong(first);
+                    end = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last) + 1;
+                    if (start < 0 || end <= start) {
+                        return null;
+                    }
+                    if (start >= size) {
+                        continue;
+                    }
+                    end = Math.min(end, size);
+                }
+                ranges.add(new long[] {start, end});
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return ranges;
+    }
+
+    private void transfer(FileChannel source, SocketChannel channel, long start, long end) throws IOException {
+        long position = start;
+        while (position < end) {
+            long sent = source.transferTo(position, end - position, channel);
+            if (sent <= 0) {
+                throw new IOException("File shrank while sending");
+            }
+            position += sent;
+        }
+        bytesSent.add(end - start);
+    }
+
+    private void sendListing(SocketChannel channel, String path, List<String> names, boolean head, boolean keepAlive)
+            throws IOException {
+        StringBuilder html = new StringBuilder("<!DOCTYPE html>\n<html><head><meta charset=\"utf-8\"><title>")
+            .append(escape(path)).append("</title></head><body><h1>").append(escape(path)).append("</h1><ul>\n");
+        if (!path.equals("/")) {
+            html.append("<li><a href=\"../\">../</a></li>\n");
+        }
+        for (String name : names) {
+            html.append("<li><a href=\"").append(encodeSegment(name)).append("\">").append(escape(name))
+                .append("</a></li>\n");
+        }
+        html.append("</ul></body></html>\n");
+        byte[] body = html.toString().getBytes(StandardCharsets.UTF_8);
+        StringBuilder headers = statusLine(200, "OK", keepAlive);
+        headers.append("Content-Type: text/html; charset=utf-8\r\n");
+        headers.append("Content-Length: ").append(body.length).append("\r\n\r\n");
+        writeAll(channel, ascii(headers));
+        if (!head) {
+            writeAll(channel, ByteBuffer.wrap(body));
+        }
+    }
+
+    private static void sendRedirect(SocketChannel channel, String location, boolean keepAlive) throws IOException {
+        StringBuilder headers = statusLine(301, "Moved Permanently", keepAlive);
+        headers.append("Location: ").append(location).append("\r\n");
+        headers.append("Content-Length: 0\r\n\r\n");
+        writeAll(channel, ascii(headers));
+    }
+
+    private static void sendError(SocketChannel channel, int status, String message, boolean keepAlive)
+            throws IOException {
+        byte[] body = (message + "\n").getBytes(StandardCharsets.UTF_8);
+        StringBuilder headers = statusLine(status, reason(status), keepAlive);
+        headers.append("Content-Type: text/plain; charset=utf-8\r\n");
+        headers.append("Content-Length: ").append(body.length).append("\r\n\r\n");
+        writeAll(channel, ascii(headers));
+        writeAll(channel, ByteBuffer.wrap(body));
+    }
+
+    private static StringBuilder statusLine(int status, String reason, boolean keepAlive) {
+        StringBuilder headers = new StringBuilder(256);
+        headers.append("HTTP/1.1 ").append(status).append(' ').append(reason).append("\r\n");
+        headers.append("Date: ").append(HTTP_DATE.format(Instant.now())).append("\r\n");
+        headers.append("Server: p2p-file-transfer\r\n");
+        headers.append("Connection: ").append(keepAlive ? "keep-alive" : "close").append("\r\n");
+        return headers;
+    }
+
+    private static String reason(int status) {
+        switch (status) {
+            case 400:
+                return "Bad Request";
+            case 404:
+                return "Not Found";
+            case 405:
+                return "Method Not Allowed";
+            case 431:
+                return "Request Header Fields Too Large";
+            case 501:
+                return "Not Implemented";
+            default:
+                return "Error";
+        }
+    }
+
+    private static String contentType(Path file) {
+        try {
+            String probed = Files.probeContentType(file);
+            if (probed != null) {
+                return probed;
+            }
+        } catch (IOException e) {
+            // fall through
+        }
+        return "application/octet-stream";
+    }
+
+    private static ByteBuffer ascii(StringBuilder text) {
+        return ByteBuffer.wrap(text.toString().getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private static void writeAll(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static String encodePath(String path) {
+        StringBuilder encoded = new StringBuilder();
+        for (String segment : path.split("/", -1)) {
+            if (encoded.length() > 0 || path.startsWith("/")) {
+                encoded.append('/');
+            }
+            encoded.append(encodeSegment(segment));
+        }
+        return encoded.substring(path.startsWith("/") ? 1 : 0);
+    }
+
+    private static String encodeSegment(String segment) {
+        boolean directory = segment.endsWith("/");
+        String name = directory ? segment.substring(0, segment.length() - 1) : segment;
+        return URLEncoder.encode(name, StandardCharsets.UTF_8).replace("+", "%20") + (directory ? "/" : "");
+    }
+
+    private static String escape(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+}
@@ -0,0 +1,141 @@
+package com.p2p.network.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Request line and headers of one HTTP/1.x request
+ */
+final class HttpRequest {
+    private static final int MAX_LINE = 8192;
+    private static final int MAX_HEADERS = 100;
+
+    final String method;
+    final String target;
+    final String version;
+    // Lower-case names; repeated headers are joined with commas
+    private final Map<String, String> headers;
+
+    private HttpRequest(String method, String target, String version, Map<String, String> headers) {
+        this.method = method;
+        this.target = target;
+        this.version = version;
+        this.headers = headers;
+    }
+
+    /**
+     * Thrown for a request that cannot be parsed; the connection is answered with the
+     * status and closed
+     */
+    static final class BadRequest extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        final int status;
+
+        BadRequest(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    /**
+     * Read the next request, or null when the peer closed the connection between requests
+     */
+    static HttpRequest read(InputStream in) throws IOException {
+        String requestLine = readLine(in);
+        // Tolerate the blank lines some clients send between requests
+        while (requestLine != null && requestLine.isEmpty()) {
+            requestLine = readLine(in);
+        }
+        if (requestLine == null) {
+            return null;
+        }
+        String[] parts = requestLine.split(" ");
+        if (parts.length != 3 || !parts[2].startsWith("HTTP/1.")) {
+            throw new BadRequest(400, "Malformed request line");
+        }
+
+        Map<String, String> headers = new HashMap<>();
+        for (int count = 0; ; count++) {
+            String line = readLine(in);
+            if (line == null) {
+                throw new BadRequest(400, "Connection closed inside the headers");
+            }
+            if (line.isEmpty()) {
+                break;
+            }
+            if (count >= MAX_HEADERS) {
+                throw new BadRequest(431, "Too many headers");
+            }
+            int colon = line.indexOf(':');
+            if (colon <= 0) {
+                throw new BadRequest(400, "Malformed header");
+            }
+            String name = line.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+            String value = line.substring(colon + 1).trim();
+            headers.merge(name, value, (first, second) -> first + ", " + second);
+        }
+        return new HttpRequest(parts[0], parts[1], parts[2], headers);
+    }
+
+    /**
+     * One CRLF- or LF-terminated line in ISO-8859-1, or null at end of stream before any byte
+     */
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+        while (true) {
+            int b = in.read();
+            if (b == -1) {
+                if (line.size() == 0) {
+                    return null;
+                }
+                throw new BadRequest(400, "Connection closed inside a line");
+            }
+            if (b == '\n') {
+                break;
+            }
+            if (line.size() >= MAX_LINE) {
+                throw new BadRequest(431, "Line too long");
+            }
+            line.write(b);
+        }
+        String text = line.toString(StandardCharsets.ISO_8859_1);
+        return text.endsWith("\r") ? text.substring(0, text.length() - 1) : text;
+    }
+
+    String header(String name) {
+        return headers.get(name);
+    }
+
+    /**
+     * Whether the connection may serve another request after this one
+     */
+    boolean keepAlive() {
+        String connection = headers.getOrDefault("connection", "").toLowerCase(Locale.ROOT);
+        if ("HTTP/1.0".equals(version)) {
+            return connection.contains("keep-alive");
+        }
+        return !connection.contains("close");
+    }
+
+    long contentLength() throws BadRequest {
+        String value = headers.get("content-length");
+        if (value == null) {
+            return 0;
+        }
+        try {
+            long length = Long.parseLong(value.trim());
+            if (length >= 0) {
+                return length;
+            }
+        } catch (NumberFormatException e) {
+            // fall through
+        }
+        throw new BadRequest(400, "Invalid Content-Length");
+    }
+}
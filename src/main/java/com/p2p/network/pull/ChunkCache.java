@@ -0,0 +1,329 @@
+package com.p2p.network.pull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Off-heap cache of the most requested chunks of shared files
+ *
+ * The budget is direct memory cut into CHUNK_SIZE slots, allocated a slab at a time
+ * as the cache fills, so cached data lives outside the Java heap and never fragments.
+ * Chunks are keyed by path together with the file's size and modification time; the
+ * first request that sees a new size or time drops every chunk of the old version.
+ *
+ * Eviction is least recently used, but a chunk is only admitted on its second miss
+ * within a recent-history window. One pass over a large file that nobody asks for
+ * again therefore streams past without flushing the popular chunks. Misses that are
+ * not admitted are served from the page cache with zero-copy by the caller.
+ *
+ * A chunk being written to a peer is pinned and cannot be evicted or reused until
+ * it is released.
+ */
+public class ChunkCache {
+    public static final int CHUNK_SIZE = 1024 * 1024;
+    private static final int SLAB_SLOTS = 1024;
+
+    private final int slotCount;
+    // Guarded by this; a slab is allocated when its first slot is taken
+    private final ByteBuffer[] slabs;
+
+    // Guarded by this
+    private final LinkedHashMap<Key, Chunk> chunks = new LinkedHashMap<>(16, 0.75f, true);
+    // Only paths with cached chunks have an entry
+    private final Map<String, Version> versions = new HashMap<>();
+    private final LinkedHashMap<Key, Boolean> missedOnce;
+    private final ArrayDeque<Integer> freeSlots = new ArrayDeque<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder bytesFromMemory = new LongAdder();
+    private final LongAdder bytesFromDisk = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    /**
+     * @param budgetBytes off-heap memory to use; rounded down to whole chunks
+     */
+    public ChunkCache(long budgetBytes) {
+        this.slotCount = (int) Math.min(Integer.MAX_VALUE, budgetBytes / CHUNK_SIZE);
+        this.slabs = new ByteBuffer[(slotCount + SLAB_SLOTS - 1) / SLAB_SLOTS];
+        for (int slot = 0; slot < slotCount; slot++) {
+            freeSlots.add(slot);
+        }
+        int history = Math.max(64, slotCount * 2);
+        this.missedOnce = new LinkedHashMap<Key, Boolean>(16, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Boolean> eldest) {
+                return size() > history;
+            }
+        };
+    }
+
+    /**
+     * Identity of one chunk of one version of a file
+     */
+    private static final class Key {
+        final String path;
+        final long size;
+        final long lastModified;
+        final int index;
+
+        Key(String path, long size, long lastModified, int index) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.index = index;
+        }
+
+        boolean sameVersion(Key other) {
+            return size == other.size && lastModified == other.lastModified;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return index == other.index && size == other.size && lastModified == other.lastModified
+                && path.equals(other.path);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(path, size, lastModified, index);
+        }
+    }
+
+    /**
+     * The version of a file whose chunks are cached, and how many of them are
+     */
+    private static final class Version {
+        final Key key;
+        int chunks;
+
+        Version(Key key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * A cached chunk; read it through {@link #data()} and hand it back with
+     * {@link ChunkCache#release}
+     */
+    public static final class Chunk {
+        private final int slot;
+        private final ByteBuffer view;
+        private int pins;
+        private boolean dropped;
+
+        private Chunk(int slot, ByteBuffer view) {
+            this.slot = slot;
+            this.view = view;
+        }
+
+        /**
+         * The chunk's bytes, as a new buffer positioned at its start
+         */
+        public ByteBuffer data() {
+            return view.duplicate();
+        }
+    }
+
+    public boolean isEnabled() {
+        return slotCount > 0;
+    }
+
+    /**
+     * The pinned chunk, read from the file if it is worth caching, or null when
+     * the caller should serve this chunk straight from the file
+     */
+    public Chunk acquire(String path, long size, long lastModified, int index, FileChannel file) throws IOException {
+        if (slotCount == 0) {
+            return null;
+        }
+        Key key = new Key(path, size, lastModified, index);
+        int slot;
+        ByteBuffer target;
+        synchronized (this) {
+            invalidateOtherVersions(key);
+            Chunk cached = chunks.get(key);
+            if (cached != null) {
+                cached.pins++;
+                hits.increment();
+                return cached;
+            }
+            misses.increment();
+            if (missedOnce.remove(key) == null) {
+                missedOnce.put(key, Boolean.TRUE);
+                return null;
+            }
+            slot = takeSlot();
+            if (slot < 0) {
+                // Everything is pinned; serve this one from disk
+                return null;
+            }
+            target = slotBuffer(slot);
+        }
+
+        // Read outside the lock; the slot belongs to no one else until it is published
+        long offset = (long) index * CHUNK_SIZE;
+        int length = (int) Math.min(CHUNK_SIZE, size - offset);
+        target.limit(length);
+        try {
+            while (target.hasRemaining()) {
+                if (file.read(target, offset + target.position()) < 0) {
+                    throw new IOException("File shrank while caching " + path);
+                }
+            }
+        } catch (IOException e) {
+            synchronized (this) {
+                freeSlots.add(slot);
+            }
+            throw e;
+        }
+        target.flip();
+        Chunk loaded = new Chunk(slot, target.asReadOnlyBuffer());
+        loaded.pins = 1;
+
+        synchronized (this) {
+            Version current = versions.get(path);
+            if (current != null && !current.key.sameVersion(key) || chunks.containsKey(key)) {
+                // Superseded or loaded twice; serve this copy once and then free it
+                loaded.dropped = true;
+            } else {
+                chunks.put(key, loaded);
+                if (current == null) {
+                    current = new Version(key);
+                    versions.put(path, current);
+                }
+                current.chunks++;
+            }
+        }
+        return loaded;
+    }
+
+    public synchronized void release(Chunk chunk) {
+        chunk.pins--;
+        if (chunk.pins == 0 && chunk.dropped) {
+            freeSlots.add(chunk.slot);
+        }
+    }
+
+    /**
+     * Count bytes sent without the cache, so the byte hit ratio covers every request
+     */
+    public void recordDiskBytes(long bytes) {
+        bytesFromDisk.add(bytes);
+    }
+
+    public void recordMemoryBytes(long bytes) {
+        bytesFromMemory.add(bytes);
+    }
+
+    private void invalidateOtherVersions(Key key) {
+        Version version = versions.get(key.path);
+        if (version == null || version.key.sameVersion(key)) {
+            return;
+        }
+        versions.remove(key.path);
+        Key known = version.key;
+        long chunkCount = (known.size + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        for (int index = 0; index < chunkCount; index++) {
+            Chunk stale = chunks.remove(new Key(known.path, known.size, known.lastModified, index));
+            if (stale != null) {
+                drop(stale);
+                invalidations.increment();
+            }
+        }
+    }
+
+    /**
+     * A free slot, evicting the least recently used unpinned chunk if needed; -1 if all are pinned
+     */
+    private int takeSlot() {
+        Integer free = freeSlots.poll();
+        if (free != null) {
+            return free;
+        }
+        for (Iterator<Map.Entry<Key, Chunk>> it = chunks.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Key, Chunk> victim = it.next();
+            if (victim.getValue().pins == 0) {
+                it.remove();
+                Version version = versions.get(victim.getKey().path);
+                if (--version.chunks == 0) {
+                    versions.remove(victim.getKey().path);
+                }
+                evictions.increment();
+                return victim.getValue().slot;
+            }
+        }
+        return -1;
+    }
+
+    private void drop(Chunk chunk) {
+        chunk.dropped = true;
+        if (chunk.pins == 0) {
+            freeSlots.add(chunk.slot);
+        }
+    }
+
+    private ByteBuffer slotBuffer(int slot) {
+        int slabIndex = slot / SLAB_SLOTS;
+        if (slabs[slabIndex] == null) {
+            int slots = Math.min(SLAB_SLOTS, slotCount - slabIndex * SLAB_SLOTS);
+            slabs[slabIndex] = ByteBuffer.allocateDirect(slots * CHUNK_SIZE);
+        }
+        ByteBuffer slab = slabs[slabIndex].duplicate();
+        int start = (slot % SLAB_SLOTS) * CHUNK_SIZE;
+        slab.limit(start + CHUNK_SIZE).position(start);
+        return slab.slice();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Share of chunk requests answered from memory
+     */
+    public double getHitRatio() {
+        long total = hits.sum() + misses.sum();
+        return total == 0 ? 0 : hits.sum() / (double) total;
+    }
+
+    /**
+     * Share of served bytes that came from memory
+     */
+    public double getByteHitRatio() {
+        long memory = bytesFromMemory.sum();
+        long total = memory + bytesFromDisk.sum();
+        return total == 0 ? 0 : memory / (double) total;
+    }
+
+    public synchronized int getCachedChunks() {
+        return chunks.size();
+    }
+
+    public long getCapacityBytes() {
+        return (long) slotCount * CHUNK_SIZE;
+    }
+
+    public String getSummary() {
+        return String.format("serve cache %d/%d chunks, hit ratio %.1f%% (%.1f%% of bytes), %d evictions, %d invalidations",
+            getCachedChunks(), slotCount, getHitRatio() * 100, getByteHitRatio() * 100, evictions.sum(),
+            invalidations.sum());
+    }
+}
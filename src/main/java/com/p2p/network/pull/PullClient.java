@@ -0,0 +1,238 @@
+package com.p2p.network.pull;
+
+import com.p2p.model.Transfer;
+import com.p2p.model.TransferType;
+import com.p2p.network.PeerDiscovery;
+import com.p2p.network.TransferListener;
+import com.p2p.network.transport.Transport;
+import com.p2p.network.transport.TransportChannel;
+import com.p2p.network.transport.Transports;
+import com.p2p.utils.FileUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fetches files, or ranges of them, from another peer's shared directory
+ *
+ * A download first asks for the size, then splits the file into parts of at least
+ * MIN_PART_SIZE and fetches them over parallel connections, each writing at its own
+ * offset of a ".part" file that is renamed once every part has arrived. Every part
+ * names the modification time seen at the start, so a file that changes on the peer
+ * mid-download fails the download instead of producing a mix of both versions.
+ */
+public class PullClient {
+    private static final int CONNECTION_TIMEOUT = 10000;
+    private static final int READ_TIMEOUT = 30000;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long MIN_PART_SIZE = 4L * 1024 * 1024;
+    private static final String PART_SUFFIX = ".part";
+
+    private final TransferListener listener;
+    private final Transport transport;
+
+    public PullClient(TransferListener listener) {
+        this(listener, Transports.getDefault());
+    }
+
+    public PullClient(TransferListener listener, Transport transport) {
+        this.listener = listener;
+        this.transport = transport;
+    }
+
+    /**
+     * Size and modification time of a shared file
+     */
+    public RemoteFile stat(String host, int port, String path) throws IOException {
+        try (TransportChannel channel = connect(host, port)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(channel.getOutputStream()));
+            PullProtocol.writeRequest(out, path, 0, new long[0]);
+            return PullProtocol.readHeader(new DataInputStream(channel.getInputStream()), path);
+        }
+    }
+
+    /**
+     * Read up to length bytes at offset; fewer come back only at the end of the file
+     */
+    public byte[] readRange(String host, int port, String path, long offset, int length) throws IOException {
+        try (TransportChannel channel = connect(host, port)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(channel.getOutputStream()));
+            DataInputStream in = new DataInputStream(new BufferedInputStream(channel.getInputStream(), BUFFER_SIZE));
+            PullProtocol.writeRequest(out, path, 0, new long[] {offset, length});
+            PullProtocol.readHeader(in, path);
+            byte[] data = new byte[(int) in.readLong()];
+            in.readFully(data);
+            return data;
+        }
+    }
+
+    /**
+     * Download a whole file into the directory under a name that does not clash,
+     * reporting progress and the finished transfer to the listener
+     *
+     * @param connections the most parts to fetch at once
+     */
+    public Transfer download(PeerDiscovery.PeerInfo peer, String path, Path directory, int connections,
+                             int localUserId) throws IOException {
+        String host = peer.getIpAddress();
+        int port = peer.getPort();
+        listener.log("Requesting " + path + " from " + peer);
+        RemoteFile remote = stat(host, port, path);
+
+        Files.createDirectories(directory);
+        // Creating the ".part" file claims the name, so concurrent downloads of the
+        // same name never share one
+        Path target;
+        Path partial;
+        FileChannel claimed;
+        while (true) {
+            target = FileUtils.resolveUniquePath(directory, remote.getName(), PART_SUFFIX);
+            partial = target.resolveSibling(target.getFileName() + PART_SUFFIX);
+            try {
+                claimed = FileChannel.open(partial, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+                break;
+            } catch (FileAlreadyExistsException e) {
+                // Taken since it was picked; pick again
+            }
+        }
+        Transfer transfer = new Transfer(localUserId, target.getFileName().toString(), remote.getSize(),
+            TransferType.RECEIVED, peer.getUsername());
+        transfer.setPeerIpAddress(host + ":" + port);
+        transfer.setFilePath(target.toString());
+        transfer.setStatus(Transfer.TransferStatus.IN_PROGRESS);
+        listener.onTransferProgress(transfer, 0);
+
+        int parts = (int) Math.max(1, Math.min(connections, remote.getSize() / MIN_PART_SIZE));
+        long partSize = (remote.getSize() + parts - 1) / Math.max(1, parts);
+        Progress progress = new Progress(transfer);
+        ExecutorService executor = Executors.newFixedThreadPool(parts);
+        try (FileChannel file = claimed) {
+            List<Future<Void>> results = new ArrayList<>();
+            for (int i = 0; i < parts; i++) {
+                long offset = i * partSize;
+                long length = Math.min(partSize, remote.getSize() - offset);
+                results.add(executor.submit(() -> {
+                    fetchPart(host, port, remote, offset, length, file, progress);
+                    return null;
+                }));
+            }
+            for (Future<Void> result : results) {
+                result.get();
+            }
+            file.force(false);
+        } catch (IOException | ExecutionException e) {
+            Files.deleteIfExists(partial);
+            fail(transfer, e instanceof ExecutionException ? e.getCause() : e);
+            throw e instanceof ExecutionException ? asIOException(e.getCause()) : (IOException) e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            Files.deleteIfExists(partial);
+            fail(transfer, e);
+            throw new IOException("Download interrupted: " + path);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // Never replace a file that arrived under the same name meanwhile
+        while (true) {
+            try {
+                Files.move(partial, target);
+                break;
+            } catch (FileAlreadyExistsException e) {
+                target = FileUtils.resolveUniquePath(directory, remote.getName(), PART_SUFFIX);
+            }
+        }
+        transfer.setFileName(target.getFileName().toString());
+        transfer.setFilePath(target.toString());
+        transfer.setStatus(Transfer.TransferStatus.COMPLETED);
+        listener.log("Downloaded " + path + " (" + FileUtils.formatFileSize(remote.getSize()) + ") from "
+            + peer.getUsername() + " over " + parts + (parts == 1 ? " connection" : " connections"));
+        listener.onFileReceived(transfer);
+        return transfer;
+    }
+
+    private void fetchPart(String host, int port, RemoteFile remote, long offset, long length,
+                           FileChannel file, Progress progress) throws IOException {
+        try (TransportChannel channel = connect(host, port)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(channel.getOutputStream()));
+            DataInputStream in = new DataInputStream(channel.getInputStream());
+            PullProtocol.writeRequest(out, remote.getPath(), remote.getLastModified(), new long[] {offset, length});
+            RemoteFile current = PullProtocol.readHeader(in, remote.getPath());
+            long served = in.readLong();
+            if (current.getSize() != remote.getSize() || served != length) {
+                throw new IOException("File changed on the peer: " + remote.getPath());
+            }
+
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long position = offset;
+            long end = offset + length;
+            while (position < end) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, end - position));
+                if (read < 0) {
+                    throw new EOFException("Connection closed before the end of " + remote.getPath());
+                }
+                ByteBuffer wrapped = ByteBuffer.wrap(buffer, 0, read);
+                while (wrapped.hasRemaining()) {
+                    position += file.write(wrapped, position);
+                }
+                progress.add(read);
+            }
+        }
+    }
+
+    private TransportChannel connect(String host, int port) throws IOException {
+        TransportChannel channel = transport.connect(host, port, CONNECTION_TIMEOUT);
+        channel.setReadTimeout(READ_TIMEOUT);
+        return channel;
+    }
+
+    private void fail(Transfer transfer, Throwable cause) {
+        transfer.setStatus(Transfer.TransferStatus.FAILED);
+        listener.log("Download failed: " + transfer.getFileName() + ": " + cause.getMessage());
+        listener.onFileReceived(transfer);
+    }
+
+    private static IOException asIOException(Throwable cause) {
+        return cause instanceof IOException ? (IOException) cause : new IOException(cause);
+    }
+
+    /**
+     * Bytes received across all parts, reported once per percent
+     */
+    private final class Progress {
+        private final Transfer transfer;
+        private final AtomicLong bytes = new AtomicLong();
+        private final AtomicInteger lastPercent = new AtomicInteger();
+
+        Progress(Transfer transfer) {
+            this.transfer = transfer;
+        }
+
+        void add(int count) {
+            long total = bytes.addAndGet(count);
+            int percent = (int) (total * 100 / Math.max(1, transfer.getFileSize()));
+            int last = lastPercent.get();
+            if (percent > last && lastPercent.compareAndSet(last, percent)) {
+                listener.onTransferProgress(transfer, total);
+            }
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.p2p.network.pull;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+/**
+ * Wire format of pull requests on the file server port
+ *
+ * Request: the command string, the path relative to the peer's shared directory,
+ * the modification time the asker expects (0 for any), then the number of ranges and
+ * an offset and length for each; a length of -1 runs to the end of the file and no
+ * ranges at all only asks for the size. Response: a status string and, when it is OK,
+ * the file's size and modification time followed by each range as its actual length
+ * and that many bytes. The expected time lets the parts of one download, fetched over
+ * separate connections, refuse to mix two versions of a file.
+ */
+public final class PullProtocol {
+    public static final String COMMAND = "\0GET";
+
+    static final String OK = "OK";
+    static final String NOT_FOUND = "NOT_FOUND";
+    static final String CHANGED = "CHANGED";
+    static final String BAD_RANGE = "BAD_RANGE";
+    static final String UNSUPPORTED = "UNSUPPORTED";
+    private static final String LEGACY_READY = "READY";
+
+    // Keeps a hostile request from making the server allocate a huge range table
+    static final int MAX_RANGES = 1024;
+
+    private PullProtocol() {
+    }
+
+    static void writeRequest(DataOutputStream out, String path, long expectedModified, long[] ranges) throws IOException {
+        out.writeUTF(COMMAND);
+        out.writeUTF(path);
+        out.writeLong(expectedModified);
+        out.writeInt(ranges.length / 2);
+        for (long value : ranges) {
+            out.writeLong(value);
+        }
+        out.flush();
+    }
+
+    /**
+     * Read the status and header of a response, failing unless it is OK
+     *
+     * A peer that predates pulling takes the command for a pushed file name: it
+     * answers READY or drops the connection, and both mean it does not serve files.
+     */
+    static RemoteFile readHeader(DataInputStream in, String path) throws IOException {
+        String status;
+        try {
+            status = in.readUTF();
+        } catch (EOFException e) {
+            status = UNSUPPORTED;
+        }
+        switch (status) {
+            case OK:
+                return new RemoteFile(path, in.readLong(), in.readLong());
+            case NOT_FOUND:
+                throw new FileNotFoundException("Peer does not share " + path);
+            case CHANGED:
+                throw new IOException("File changed on the peer: " + path);
+            case UNSUPPORTED:
+            case LEGACY_READY:
+                throw new IOException("Peer does not serve files");
+            default:
+                throw new IOException("Peer refused " + path + ": " + status);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.p2p.network.pull;
+
+/**
+ * Size and modification time of a file in a peer's shared directory
+ */
+public final class RemoteFile {
+    private final String path;
+    private final long size;
+    private final long lastModified;
+
+    public RemoteFile(String path, long size, long lastModified) {
+        this.path = path;
+        this.size = size;
+        this.lastModified = lastModified;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public String getName() {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+}
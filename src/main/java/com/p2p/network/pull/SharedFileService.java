@@ -0,0 +1,146 @@
+package com.p2p.network.pull;
+
+import com.p2p.network.transport.TransportChannel;
+import com.p2p.utils.ConfigUtils;
+import com.p2p.utils.FileUtils;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Serves ranges of the files in this peer's shared directory
+ *
+ * Only regular files whose real path lies inside the shared directory are served,
+ * so neither ".." nor a symbolic link can reach anything else.
+ *
+ * File data bypasses the response stream: chunks held by the ChunkCache are written
+ * from off-heap memory, and everything else goes from the page cache to the socket
+ * through TransportChannel.transferFrom.
+ */
+public class SharedFileService {
+    private static SharedFileService instance;
+
+    private final Path root;
+    private final ChunkCache cache;
+
+    public SharedFileService(Path root) {
+        this(root, new ChunkCache(0));
+    }
+
+    public SharedFileService(Path root, ChunkCache cache) {
+        this.root = root.toAbsolutePath().normalize();
+        this.cache = cache;
+    }
+
+    public static synchronized SharedFileService getInstance() {
+        if (instance == null) {
+            instance = new SharedFileService(Paths.get(ConfigUtils.getSharedDirectory()),
+                new ChunkCache(ConfigUtils.getServeCacheSize()));
+        }
+        return instance;
+    }
+
+    public ChunkCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Answer a pull request whose command has already been read
+     *
+     * @param out buffered stream over the channel, used for the headers
+     */
+    public void serve(DataInputStream in, DataOutputStream out, TransportChannel channel) throws IOException {
+        String path = in.readUTF();
+        long expectedModified = in.readLong();
+        int rangeCount = in.readInt();
+        if (rangeCount < 0 || rangeCount > PullProtocol.MAX_RANGES) {
+            reply(out, PullProtocol.BAD_RANGE);
+            return;
+        }
+        long[] ranges = new long[rangeCount * 2];
+        for (int i = 0; i < ranges.length; i++) {
+            ranges[i] = in.readLong();
+        }
+
+        Path file = resolve(path);
+        if (file == null) {
+            reply(out, PullProtocol.NOT_FOUND);
+            return;
+        }
+        try (FileChannel source = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = source.size();
+            long lastModified = Files.getLastModifiedTime(file).toMillis();
+            if (expectedModified != 0 && expectedModified != lastModified) {
+                reply(out, PullProtocol.CHANGED);
+                return;
+            }
+            for (int i = 0; i < ranges.length; i += 2) {
+                if (ranges[i] < 0 || ranges[i] > size || ranges[i + 1] < -1) {
+                    reply(out, PullProtocol.BAD_RANGE);
+                    return;
+                }
+            }
+
+            out.writeUTF(PullProtocol.OK);
+            out.writeLong(size);
+            out.writeLong(lastModified);
+            for (int i = 0; i < ranges.length; i += 2) {
+                long offset = ranges[i];
+                long length = ranges[i + 1] < 0 ? size - offset : Math.min(ranges[i + 1], size - offset);
+                out.writeLong(length);
+                out.flush();
+                sendRange(channel, source, file.toString(), size, lastModified, offset, length);
+            }
+            out.flush();
+        }
+    }
+
+    private void sendRange(TransportChannel channel, FileChannel source, String key, long size, long lastModified,
+                           long offset, long length) throws IOException {
+        if (!cache.isEnabled()) {
+            channel.transferFrom(source, offset, length);
+            return;
+        }
+        long end = offset + length;
+        for (long position = offset; position < end; ) {
+            int index = (int) (position / ChunkCache.CHUNK_SIZE);
+            long chunkStart = (long) index * ChunkCache.CHUNK_SIZE;
+            long chunkEnd = Math.min(end, chunkStart + ChunkCache.CHUNK_SIZE);
+            ChunkCache.Chunk chunk = cache.acquire(key, size, lastModified, index, source);
+            if (chunk != null) {
+                try {
+                    ByteBuffer data = chunk.data();
+                    data.limit((int) (chunkEnd - chunkStart)).position((int) (position - chunkStart));
+                    channel.write(data);
+                } finally {
+                    cache.release(chunk);
+                }
+                cache.recordMemoryBytes(chunkEnd - position);
+            } else {
+                channel.transferFrom(source, position, chunkEnd - position);
+                cache.recordDiskBytes(chunkEnd - position);
+            }
+            position = chunkEnd;
+        }
+    }
+
+    /**
+     * The shared file for a relative path, or null when there is none
+     */
+    Path resolve(String path) {
+        Path file = FileUtils.resolveInside(root, path);
+        return file != null && Files.isRegularFile(file) ? file : null;
+    }
+
+    private static void reply(DataOutputStream out, String status) throws IOException {
+        out.writeUTF(status);
+        out.flush();
+    }
+}
@@ -0,0 +1,583 @@
+package com.p2p.network.sync;
+
+import com.p2p.hash.FileStamp;
+import com.p2p.model.Transfer;
+import com.p2p.model.TransferType;
+import com.p2p.network.FileClient;
+import com.p2p.network.PeerDiscovery;
+import com.p2p.network.TransferListener;
+import com.p2p.network.transport.Transport;
+import com.p2p.network.transport.Transports;
+import com.p2p.utils.ConfigUtils;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Sends new and changed files in watched folders to configured peers
+ *
+ * A watch thread turns file system events into deadlines, one per path: every event
+ * for a path moves its deadline to a full debounce interval later, so a burst of
+ * writes to one file becomes one send. The sync thread sends a file once its
+ * deadline has passed and its modification time is also at least the debounce
+ * interval old, which holds back files still being written without events reaching
+ * us. A file that changes while it is being sent is sent again. Files go out with
+ * their path through {@link SyncSender}, so the peer replaces its copy; a peer that
+ * does not take sync pushes gets an ordinary push instead.
+ *
+ * What was sent to whom is kept in a {@link SyncState}. At startup a directory whose
+ * stamp matches the recorded one is not listed, since no entry in it was added,
+ * removed or renamed; only its subdirectories are visited. Files rewritten in place
+ * while nothing was running do not change their directory's stamp, so the skipped
+ * directories are listed afterwards by a background sweep of at most
+ * SWEEP_ENTRIES_PER_TICK entries per tick.
+ */
+public class FolderSync {
+    private static final long TICK_MILLIS = 250;
+    private static final long SEND_BUDGET_MILLIS = 1000;
+    private static final long RETRY_DELAY_MILLIS = 30_000;
+    private static final int SWEEP_ENTRIES_PER_TICK = 2000;
+    // A listing is only trusted for directories whose stamp is older than this, as
+    // in HashCache: a change within the same timestamp tick could leave it unchanged
+    private static final long RACY_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+    private final List<Path> roots;
+    private final List<String> peers;
+    private final long debounceMillis;
+    private final SyncState state;
+    private final String senderName;
+    private final int localUserId;
+    private final TransferListener listener;
+    private final Transport transport;
+    private volatile Consumer<Transfer> sendListener = transfer -> { };
+
+    // Path -> earliest send time in epoch millis; written by both threads
+    private final Map<Path, Long> pending = new ConcurrentHashMap<>();
+    private final Map<WatchKey, Path> watchKeys = new ConcurrentHashMap<>();
+    // Directories to scan (created or overflowed), from the watch thread
+    private final Queue<Path> rescans = new ConcurrentLinkedQueue<>();
+    // Sync thread only
+    private final Deque<Path> sweep = new ArrayDeque<>();
+    private boolean watchLimitLogged;
+
+    private final AtomicLong filesSent = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong sendsFailed = new AtomicLong();
+    private final AtomicLong directoriesListed = new AtomicLong();
+    private final AtomicLong directoriesSkipped = new AtomicLong();
+    private volatile boolean caughtUp;
+
+    private WatchService watcher;
+    private Thread watchThread;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param peers each either host:port or the username of a discovered peer
+     */
+    public FolderSync(List<Path> roots, List<String> peers, long debounceMillis, Path stateFile, String senderName,
+                      int localUserId, TransferListener listener, Transport transport) {
+        this.roots = new ArrayList<>();
+        for (Path root : roots) {
+            this.roots.add(root.toAbsolutePath().normalize());
+        }
+        this.peers = new ArrayList<>(peers);
+        this.debounceMillis = Math.max(0, debounceMillis);
+        this.state = new SyncState(stateFile);
+        this.senderName = senderName;
+        this.localUserId = localUserId;
+        this.listener = listener;
+        this.transport = transport;
+    }
+
+    /**
+     * A sync of the configured folders, or null when no folder or no peer is configured
+     */
+    public static FolderSync fromConfig(String senderName, int localUserId, TransferListener listener) {
+        List<Path> roots = new ArrayList<>();
+        Path downloads = Paths.get(ConfigUtils.getDownloadsDirectory()).toAbsolutePath().normalize();
+        for (String folder : split(ConfigUtils.getSyncFolders())) {
+            Path root = Paths.get(folder).toAbsolutePath().normalize();
+            // Received files would be sent back, and back again by a peer that syncs its own
+            if (root.startsWith(downloads) || downloads.startsWith(root)) {
+                listener.log("Not syncing " + root + ": it overlaps the downloads directory");
+                continue;
+            }
+            roots.add(root);
+        }
+        List<String> peers = split(ConfigUtils.getSyncPeers());
+        if (roots.isEmpty() || peers.isEmpty()) {
+            return null;
+        }
+        String stateFile = ConfigUtils.getSyncStateFile();
+        return new FolderSync(roots, peers, ConfigUtils.getSyncDebounce(),
+            stateFile.isEmpty() ? null : Paths.get(stateFile), senderName, localUserId, listener,
+            Transports.getDefault());
+    }
+
+    private static List<String> split(String list) {
+        List<String> result = new ArrayList<>();
+        for (String item : list.split(",")) {
+            if (!item.trim().isEmpty()) {
+                result.add(item.trim());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Called with each transfer just before it starts, so a host can record it
+     */
+    public void setSendListener(Consumer<Transfer> sendListener) {
+        this.sendListener = sendListener;
+    }
+
+    public synchronized void start() throws IOException {
+        if (scheduler != null) {
+            return;
+        }
+        watcher = FileSystems.getDefault().newWatchService();
+        watchThread = new Thread(this::watchLoop, "folder-watch");
+        watchThread.setDaemon(true);
+        watchThread.start();
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "folder-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.execute(this::catchUp);
+        scheduler.scheduleWithFixedDelay(this::tickQuietly, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (scheduler == null) {
+            return;
+        }
+        scheduler.shutdownNow();
+        scheduler = null;
+        try {
+            watcher.close();
+        } catch (IOException e) {
+            // The watch thread exits either way
+        }
+        try {
+            watchThread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        state.close();
+    }
+
+    /**
+     * Find what changed while nothing was watching, listing only directories whose
+     * entries changed, then start the sweep of the rest
+     */
+    private void catchUp() {
+        long start = System.nanoTime();
+        for (Path root : roots) {
+            if (!Files.isDirectory(root)) {
+                listener.log("Sync folder " + root + " does not exist");
+                continue;
+            }
+            scan(root, false);
+        }
+        listener.log(String.format("Watching %s for %s: %d directories listed, %d unchanged, %d files to send (%d ms)",
+            roots, peers, directoriesListed.get(), directoriesSkipped.get(), pending.size(),
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+        caughtUp = sweep.isEmpty();
+    }
+
+    /**
+     * Watch a directory tree, listing each directory unless its recorded listing is
+     * still current
+     *
+     * @param force list the top directory even if it looks unchanged, after events
+     *              for it were lost
+     */
+    private void scan(Path top, boolean force) {
+        Deque<Path> directories = new ArrayDeque<>();
+        directories.push(top);
+        while (!directories.isEmpty() && !Thread.currentThread().isInterrupted()) {
+            Path directory = directories.pop();
+            // Watch before looking, so nothing created in between goes unseen
+            watch(directory);
+            FileStamp stamp;
+            try {
+                stamp = FileStamp.of(directory);
+            } catch (IOException e) {
+                state.forget(directory);
+                continue;
+            }
+            String[] known = force && directory.equals(top) ? null : state.getSubdirectories(directory, stamp);
+            if (known != null) {
+                directoriesSkipped.incrementAndGet();
+                sweep.add(directory);
+                for (String name : known) {
+                    directories.push(directory.resolve(name));
+                }
+            } else {
+                list(directory, stamp, directories);
+            }
+        }
+    }
+
+    /**
+     * List a directory, queue its files that some peer lacks and record the listing
+     *
+     * @param subdirectories receives the subdirectories to visit; null to skip them
+     * @return the number of entries
+     */
+    private int list(Path directory, FileStamp stamp, Deque<Path> subdirectories) {
+        List<String> directoryNames = new ArrayList<>();
+        Set<String> fileNames = new HashSet<>();
+        long now = System.currentTimeMillis();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+            for (Path entry : entries) {
+                String name = entry.getFileName().toString();
+                if (isIgnored(name)) {
+                    continue;
+                }
+                BasicFileAttributes attributes;
+                try {
+                    attributes = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                } catch (IOException e) {
+                    continue;
+                }
+                if (attributes.isDirectory()) {
+                    directoryNames.add(name);
+                    if (subdirectories != null) {
+                        subdirectories.push(entry);
+                    }
+                } else if (attributes.isRegularFile()) {
+                    fileNames.add(name);
+                    if (needsSend(entry)) {
+                        pending.putIfAbsent(entry, now);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            listener.log("Failed to list " + directory + ": " + e.getMessage());
+            return 0;
+        }
+        directoriesListed.incrementAndGet();
+        boolean racy = System.currentTimeMillis() * 1_000_000L - stamp.getModifiedNanos() < RACY_WINDOW_NANOS;
+        state.setListing(directory, racy ? null : stamp, directoryNames, fileNames);
+        return directoryNames.size() + fileNames.size();
+    }
+
+    private void watch(Path directory) {
+        try {
+            WatchKey key = directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+            watchKeys.put(key, directory);
+        } catch (ClosedWatchServiceException e) {
+            // Stopping
+        } catch (IOException e) {
+            // Typically the inotify watch limit; such directories are only synced by scans
+            if (!watchLimitLogged) {
+                watchLimitLogged = true;
+                listener.log("Cannot watch " + directory + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Turn events into deadlines and directory scans; runs on the watch thread
+     */
+    private void watchLoop() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watcher.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            Path directory = watchKeys.get(key);
+            if (directory != null) {
+                long deadline = System.currentTimeMillis() + debounceMillis;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        rescans.add(directory);
+                        continue;
+                    }
+                    Path path = directory.resolve((Path) event.context());
+                    if (isIgnored(path.getFileName().toString())) {
+                        continue;
+                    }
+                    if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                        pending.remove(path);
+                        state.forget(path);
+                    } else if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                        if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                            rescans.add(path);
+                        }
+                    } else {
+                        // Each event pushes the deadline back, coalescing a burst into one send
+                        pending.put(path, deadline);
+                    }
+                }
+            }
+            if (!key.reset()) {
+                watchKeys.remove(key);
+            }
+        }
+    }
+
+    private void tickQuietly() {
+        try {
+            tick();
+        } catch (RuntimeException e) {
+            System.err.println("Folder sync failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Scan new or overflowed directories, advance the sweep and send what is due;
+     * runs on the sync thread
+     */
+    private void tick() {
+        Path directory;
+        while ((directory = rescans.poll()) != null) {
+            scan(directory, true);
+        }
+
+        int budget = SWEEP_ENTRIES_PER_TICK;
+        while (budget > 0 && !sweep.isEmpty()) {
+            directory = sweep.poll();
+            try {
+                budget -= Math.max(1, list(directory, FileStamp.of(directory), null));
+            } catch (IOException e) {
+                state.forget(directory);
+            }
+            if (sweep.isEmpty()) {
+                listener.log("Sync sweep finished: " + pending.size() + " files to send");
+            }
+        }
+        caughtUp = sweep.isEmpty();
+
+        long sendUntil = System.currentTimeMillis() + SEND_BUDGET_MILLIS;
+        for (Map.Entry<Path, Long> entry : pending.entrySet()) {
+            if (System.currentTimeMillis() >= sendUntil || Thread.currentThread().isInterrupted()) {
+                break;
+            }
+            long now = System.currentTimeMillis();
+            if (entry.getValue() <= now) {
+                sendIfSettled(entry.getKey(), entry.getValue(), now);
+            }
+        }
+    }
+
+    private void sendIfSettled(Path file, long deadline, long now) {
+        FileStamp stamp;
+        try {
+            stamp = FileStamp.of(file);
+        } catch (IOException e) {
+            pending.remove(file, deadline);
+            return;
+        }
+        long modifiedMillis = TimeUnit.NANOSECONDS.toMillis(stamp.getModifiedNanos());
+        if (now - modifiedMillis < debounceMillis) {
+            // Written recently without an event reaching us; wait for it to go quiet
+            pending.replace(file, deadline, modifiedMillis + debounceMillis);
+            return;
+        }
+        // Only when no event arrived meanwhile; one that did has set a later deadline
+        if (!pending.remove(file, deadline)) {
+            return;
+        }
+        for (String peer : peers) {
+            int bit = state.peerBit(peer);
+            if (bit < 0 || state.isSent(file, stamp, bit)) {
+                continue;
+            }
+            if (!send(file, stamp, peer)) {
+                sendsFailed.incrementAndGet();
+                pending.putIfAbsent(file, System.currentTimeMillis() + RETRY_DELAY_MILLIS);
+                continue;
+            }
+            FileStamp after;
+            try {
+                after = FileStamp.of(file);
+            } catch (IOException e) {
+                return;
+            }
+            if (after.equals(stamp)) {
+                state.markSent(file, stamp, bit);
+            } else {
+                // Changed while it was read, so the peer may have a mix of versions
+                pending.put(file, System.currentTimeMillis() + debounceMillis);
+                return;
+            }
+        }
+    }
+
+    private boolean send(Path file, FileStamp stamp, String peer) {
+        PeerDiscovery.PeerInfo target = resolve(peer);
+        if (target == null) {
+            listener.log("Sync peer " + peer + " is not available");
+            return false;
+        }
+        String path = relativePath(file);
+        Transfer transfer = new Transfer(localUserId, path, stamp.getSize(), TransferType.SENT, target.getUsername());
+        transfer.setPeerIpAddress(target.getIpAddress());
+        transfer.setFilePath(file.toString());
+        sendListener.accept(transfer);
+
+        boolean[] success = new boolean[1];
+        TransferListener capture = new TransferListener() {
+            @Override
+            public void log(String message) {
+                listener.log(message);
+            }
+
+            @Override
+            public void onTransferProgress(Transfer t, long bytesTransferred) {
+                listener.onTransferProgress(t, bytesTransferred);
+            }
+
+            @Override
+            public void onTransferComplete(Transfer t, boolean ok) {
+                success[0] = ok;
+                listener.onTransferComplete(t, ok);
+            }
+
+            @Override
+            public void onFileReceived(Transfer t) {
+                listener.onFileReceived(t);
+            }
+        };
+        // Synchronous on the sync thread, so sends go out one at a time
+        if (!new SyncSender(senderName, capture, transport).sendFile(file, path, stamp.getSize(),
+                target.getIpAddress(), target.getPort(), transfer)) {
+            listener.log(target.getUsername() + " does not take sync pushes, sending " + path + " as a new file");
+            new FileClient(senderName, capture, transport).sendFile(file.toFile(), target.getIpAddress(),
+                target.getPort(), transfer);
+        }
+        if (success[0]) {
+            filesSent.incrementAndGet();
+            bytesSent.addAndGet(stamp.getSize());
+        }
+        return success[0];
+    }
+
+    /**
+     * The file's path below the parent of the innermost sync folder holding it, so
+     * that it starts with the folder's name, with '/' separators
+     */
+    private String relativePath(Path file) {
+        Path root = null;
+        for (Path candidate : roots) {
+            if (file.startsWith(candidate) && (root == null || candidate.startsWith(root))) {
+                root = candidate;
+            }
+        }
+        Path relative = root == null ? file.getFileName() : root.relativize(file);
+        if (root != null && root.getFileName() != null) {
+            relative = root.getFileName().resolve(relative);
+        }
+        StringBuilder path = new StringBuilder();
+        for (Path segment : relative) {
+            if (path.length() > 0) {
+                path.append('/');
+            }
+            path.append(segment);
+        }
+        return path.toString();
+    }
+
+    /**
+     * A host:port as given, or a username among the available peers; null if absent
+     */
+    private static PeerDiscovery.PeerInfo resolve(String peer) {
+        int colon = peer.lastIndexOf(':');
+        if (colon > 0) {
+            try {
+                return new PeerDiscovery.PeerInfo(peer, peer.substring(0, colon),
+                    Integer.parseInt(peer.substring(colon + 1)), null);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        for (PeerDiscovery.PeerInfo info : PeerDiscovery.getAvailablePeers()) {
+            if (peer.equals(info.getUsername())) {
+                return info;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Hidden files and the usual names of partial downloads and editor temporaries
+     */
+    static boolean isIgnored(String name) {
+        return name.startsWith(".") || name.endsWith("~") || name.endsWith(".tmp") || name.endsWith(".part")
+            || name.endsWith(".crdownload") || name.endsWith(".swp");
+    }
+
+    private boolean needsSend(Path file) {
+        FileStamp stamp;
+        try {
+            stamp = FileStamp.of(file);
+        } catch (IOException e) {
+            return false;
+        }
+        for (String peer : peers) {
+            int bit = state.peerBit(peer);
+            if (bit >= 0 && !state.isSent(file, stamp, bit)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public long getFilesSent() {
+        return filesSent.get();
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Whether the startup scan and the sweep after it have finished
+     */
+    public boolean isCaughtUp() {
+        return caughtUp;
+    }
+
+    public List<Path> getRoots() {
+        return Collections.unmodifiableList(roots);
+    }
+
+    public String getSummary() {
+        return String.format("sync %d files sent (%d failed), %d pending, %d directories listed, %d unchanged",
+            filesSent.get(), sendsFailed.get(), pending.size(), directoriesListed.get(), directoriesSkipped.get());
+    }
+}
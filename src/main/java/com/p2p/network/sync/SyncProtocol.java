@@ -0,0 +1,36 @@
+package com.p2p.network.sync;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Wire format of folder sync pushes on the file server port
+ *
+ * The sender opens with the command string, the file's path below the parent of its
+ * sync folder with '/' separators (so it starts with the folder's name), its size and
+ * the sender's name. The receiver answers READY, REFUSED for a path it will not
+ * write, or UNSUPPORTED when it does not take sync pushes (the sender then pushes the
+ * file as a new one on a new connection). The sender follows with the file's bytes,
+ * and the receiver, having replaced its copy at that path, closes with SUCCESS or
+ * FAILED.
+ */
+public final class SyncProtocol {
+    public static final String COMMAND = "\0SYNC";
+
+    static final String READY = "READY";
+    static final String REFUSED = "REFUSED";
+    static final String UNSUPPORTED = "UNSUPPORTED";
+    static final String SUCCESS = "SUCCESS";
+    static final String FAILED = "FAILED";
+
+    private SyncProtocol() {
+    }
+
+    static void writeOffer(DataOutputStream out, String path, long fileSize, String senderName) throws IOException {
+        out.writeUTF(COMMAND);
+        out.writeUTF(path);
+        out.writeLong(fileSize);
+        out.writeUTF(senderName);
+        out.flush();
+    }
+}
@@ -0,0 +1,163 @@
+package com.p2p.network.sync;
+
+import com.p2p.model.Transfer;
+import com.p2p.model.TransferType;
+import com.p2p.network.TransferListener;
+import com.p2p.utils.FileUtils;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Receives one folder sync push into the same relative path under the sync
+ * subdirectory of the downloads directory, replacing the copy a previous push left
+ * there
+ *
+ * Pushes are kept to their own subdirectory, and every path must start with a
+ * folder's name, so a peer can only replace files that sync pushes wrote and never
+ * a file received or saved in the downloads directory some other way.
+ *
+ * The bytes go to a temporary file beside the target, which is then renamed over it,
+ * so a reader of the target sees either the old version or the whole new one.
+ */
+public class SyncReceiver {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String SUBDIRECTORY = "sync";
+
+    private final Path syncDirectory;
+    private final int localUserId;
+    private final TransferListener listener;
+
+    public SyncReceiver(Path downloadsDirectory, int localUserId, TransferListener listener) {
+        this.syncDirectory = downloadsDirectory.resolve(SUBDIRECTORY);
+        this.localUserId = localUserId;
+        this.listener = listener;
+    }
+
+    /**
+     * Handle a push after its command string has been read
+     */
+    public void receive(DataInputStream in, DataOutputStream out, String remoteAddress) throws IOException {
+        String path = in.readUTF();
+        long fileSize = in.readLong();
+        String senderUsername = in.readUTF();
+        Path target = fileSize < 0 ? null : resolveTarget(path);
+        if (target == null) {
+            listener.log("Refused sync of " + path + " from " + senderUsername);
+            out.writeUTF(SyncProtocol.REFUSED);
+            out.flush();
+            return;
+        }
+        out.writeUTF(SyncProtocol.READY);
+        out.flush();
+        listener.log("Receiving sync of " + path + " (" + FileUtils.formatFileSize(fileSize) + ") from "
+            + senderUsername);
+
+        Transfer transfer = new Transfer(localUserId, path, fileSize, TransferType.RECEIVED, senderUsername);
+        transfer.setPeerIpAddress(remoteAddress);
+        transfer.setFilePath(target.toString());
+        transfer.setStatus(Transfer.TransferStatus.IN_PROGRESS);
+
+        Path temporary = null;
+        boolean success;
+        try {
+            temporary = Files.createTempFile(target.getParent(), ".sync", ".part");
+            receiveFile(in, temporary, fileSize, transfer);
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            success = true;
+        } catch (IOException e) {
+            listener.log("Failed to receive sync of " + path + ": " + e.getMessage());
+            success = false;
+        }
+
+        if (success) {
+            transfer.setStatus(Transfer.TransferStatus.COMPLETED);
+            listener.log("File synced successfully: " + path);
+        } else {
+            transfer.setStatus(Transfer.TransferStatus.FAILED);
+            try {
+                if (temporary != null) {
+                    Files.deleteIfExists(temporary);
+                }
+            } catch (IOException e) {
+                listener.log("Failed to clean up partial file: " + e.getMessage());
+            }
+        }
+        try {
+            out.writeUTF(success ? SyncProtocol.SUCCESS : SyncProtocol.FAILED);
+            out.flush();
+        } finally {
+            listener.onFileReceived(transfer);
+        }
+    }
+
+    /**
+     * The file the path names under the sync directory, with its directories created,
+     * or null when the path is not a plain relative one below a folder's name or would
+     * lead outside through ".." or a symbolic link
+     */
+    private Path resolveTarget(String path) {
+        if (path.isEmpty() || path.indexOf('\0') >= 0 || path.indexOf('\\') >= 0 || path.indexOf(':') >= 0) {
+            return null;
+        }
+        String[] segments = path.split("/", -1);
+        // FolderSync always sends the folder's name first
+        if (segments.length < 2) {
+            return null;
+        }
+        for (String segment : segments) {
+            if (segment.isEmpty() || segment.equals(".") || segment.equals("..")) {
+                return null;
+            }
+        }
+        Path base = syncDirectory.toAbsolutePath().normalize();
+        Path target;
+        try {
+            target = base.resolve(path).normalize();
+        } catch (InvalidPathException e) {
+            return null;
+        }
+        if (!target.startsWith(base) || target.equals(base)) {
+            return null;
+        }
+        try {
+            Files.createDirectories(target.getParent());
+            if (!target.getParent().toRealPath().startsWith(base.toRealPath()) || Files.isDirectory(target)) {
+                return null;
+            }
+        } catch (IOException e) {
+            // A file where a directory of the path should be
+            return null;
+        }
+        return target;
+    }
+
+    private void receiveFile(DataInputStream in, Path file, long fileSize, Transfer transfer) throws IOException {
+        try (OutputStream out = Files.newOutputStream(file)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long received = 0;
+            int lastProgress = 0;
+            while (received < fileSize) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, fileSize - received));
+                if (read < 0) {
+                    throw new EOFException("Connection closed before the end of the file");
+                }
+                out.write(buffer, 0, read);
+                received += read;
+
+                int progress = (int) (received * 100 / fileSize);
+                if (progress != lastProgress) {
+                    lastProgress = progress;
+                    listener.onTransferProgress(transfer, received);
+                }
+            }
+        }
+    }
+}
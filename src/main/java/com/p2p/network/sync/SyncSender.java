@@ -0,0 +1,85 @@
+package com.p2p.network.sync;
+
+import com.p2p.model.Transfer;
+import com.p2p.network.TransferListener;
+import com.p2p.network.transport.Transport;
+import com.p2p.network.transport.TransportChannel;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Pushes one file of a sync folder to the same relative path on a peer, replacing
+ * the peer's previous copy there
+ */
+class SyncSender {
+    private static final int CONNECTION_TIMEOUT = 10000;
+    private static final int READ_TIMEOUT = 30000;
+    // Sent a slice at a time so progress is reported during large files
+    private static final long SLICE_SIZE = 4L * 1024 * 1024;
+
+    private final String senderName;
+    private final TransferListener listener;
+    private final Transport transport;
+
+    SyncSender(String senderName, TransferListener listener, Transport transport) {
+        this.senderName = senderName;
+        this.listener = listener;
+        this.transport = transport;
+    }
+
+    /**
+     * Push the file, reporting the outcome through {@link TransferListener#onTransferComplete}
+     *
+     * A peer that predates sync pushes takes the command for a file name and drops the
+     * connection, or waits for bytes that never come; both count as unsupported.
+     *
+     * @param path the file's path below the parent of its sync folder, '/'-separated
+     * @return false if the peer does not take sync pushes, in which case nothing was sent
+     */
+    boolean sendFile(Path file, String path, long size, String host, int port, Transfer transfer) {
+        try (TransportChannel channel = transport.connect(host, port, CONNECTION_TIMEOUT)) {
+            channel.setReadTimeout(READ_TIMEOUT);
+            DataOutputStream out = new DataOutputStream(channel.getOutputStream());
+            DataInputStream in = new DataInputStream(channel.getInputStream());
+            String response;
+            try {
+                SyncProtocol.writeOffer(out, path, size, senderName);
+                response = in.readUTF();
+            } catch (EOFException | SocketException | SocketTimeoutException e) {
+                return false;
+            }
+            if (SyncProtocol.UNSUPPORTED.equals(response)) {
+                return false;
+            }
+            if (!SyncProtocol.READY.equals(response)) {
+                throw new IOException("Peer not ready to receive " + path + ": " + response);
+            }
+
+            transfer.setStatus(Transfer.TransferStatus.IN_PROGRESS);
+            try (FileChannel source = FileChannel.open(file, StandardOpenOption.READ)) {
+                for (long position = 0; position < size; position += SLICE_SIZE) {
+                    long length = Math.min(SLICE_SIZE, size - position);
+                    channel.transferFrom(source, position, length);
+                    listener.onTransferProgress(transfer, position + length);
+                }
+            }
+
+            response = in.readUTF();
+            boolean success = SyncProtocol.SUCCESS.equals(response);
+            listener.log(success ? "File synced successfully: " + path : "Peer reported transfer failure: " + response);
+            listener.onTransferComplete(transfer, success);
+        } catch (IOException e) {
+            listener.log("Transfer error: " + e.getMessage());
+            listener.onTransferComplete(transfer, false);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,402 @@
+package com.p2p.network.sync;
+
+import com.p2p.hash.FileStamp;
+import com.p2p.utils.RecordLog;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * What the watched folders looked like when they were last synced
+ *
+ * For every file it holds the {@link FileStamp} last sent and which peers have that
+ * version. For every directory that was listed it holds the directory's own stamp
+ * and its subdirectories: a directory's stamp changes whenever an entry is added,
+ * removed or renamed in it, so while it matches, the directory need not be listed
+ * again to find new files.
+ *
+ * Peers are numbered the first time they are seen, so a file's peers fit in one
+ * long and at most 64 peers can be synced.
+ *
+ * Changes are appended to a {@link RecordLog} and replayed at startup; the log is
+ * rewritten once superseded records outnumber live ones.
+ */
+class SyncState {
+    static final int MAX_PEERS = 64;
+
+    private static final int MAGIC = 0x50325359;
+    private static final int FORMAT_VERSION = 1;
+    private static final int MIN_COMPACT_GARBAGE = 1024;
+
+    private static final byte PEER = 'P';
+    private static final byte SENT = 'S';
+    private static final byte LISTING = 'L';
+    private static final byte FORGET_FILE = 'F';
+    private static final byte FORGET_DIRECTORY = 'D';
+
+    // Guarded by this; null keeps the state in memory only
+    private RecordLog log;
+    private final Map<String, Integer> peers = new HashMap<>();
+    private final Map<String, Directory> directories = new HashMap<>();
+    private long liveRecords;
+    private long garbageRecords;
+
+    private static final class Directory {
+        // Null until the directory has been listed at a stamp worth trusting
+        FileStamp stamp;
+        String[] subdirectories = new String[0];
+        final Map<String, Sent> files = new HashMap<>();
+    }
+
+    private static final class Sent {
+        final FileStamp stamp;
+        long peers;
+
+        Sent(FileStamp stamp) {
+            this.stamp = stamp;
+        }
+    }
+
+    /**
+     * @param stateFile where to keep the state between runs; null for memory only
+     */
+    SyncState(Path stateFile) {
+        if (stateFile != null) {
+            log = new RecordLog(stateFile, MAGIC, FORMAT_VERSION);
+            try {
+                log.read(this::replay);
+            } catch (IOException e) {
+                System.err.println("Sync state " + stateFile + " unavailable, keeping it in memory: " + e.getMessage());
+                log = null;
+            }
+        }
+    }
+
+    /**
+     * The bit that stands for a peer, or -1 once MAX_PEERS have been numbered
+     */
+    synchronized int peerBit(String peer) {
+        Integer bit = peers.get(peer);
+        if (bit == null) {
+            if (peers.size() >= MAX_PEERS) {
+                return -1;
+            }
+            bit = peers.size();
+            peers.put(peer, bit);
+            liveRecords++;
+            append(out -> {
+                out.writeByte(PEER);
+                out.writeUTF(peer);
+                out.writeInt(peers.get(peer));
+            });
+        }
+        return bit;
+    }
+
+    /**
+     * Whether this version of the file has been sent to the peer
+     */
+    synchronized boolean isSent(Path file, FileStamp stamp, int peerBit) {
+        Directory directory = directories.get(file.getParent().toString());
+        Sent sent = directory == null ? null : directory.files.get(file.getFileName().toString());
+        return sent != null && sent.stamp.equals(stamp) && (sent.peers & 1L << peerBit) != 0;
+    }
+
+    synchronized void markSent(Path file, FileStamp stamp, int peerBit) {
+        String parent = file.getParent().toString();
+        String name = file.getFileName().toString();
+        long peerMask = applySent(parent, name, stamp, 1L << peerBit);
+        append(out -> writeSent(out, parent, name, stamp, peerMask));
+    }
+
+    /**
+     * The subdirectories recorded for a directory, or null unless it was listed at
+     * exactly this stamp
+     */
+    synchronized String[] getSubdirectories(Path directory, FileStamp stamp) {
+        Directory known = directories.get(directory.toString());
+        return known != null && known.stamp != null && known.stamp.equals(stamp) ? known.subdirectories : null;
+    }
+
+    /**
+     * Record a listing of a directory and forget the files it no longer holds
+     *
+     * @param stamp the directory's stamp when it was listed, or null if the listing
+     *              may have missed an entry written in the same timestamp tick
+     */
+    synchronized void setListing(Path directory, FileStamp stamp, Collection<String> subdirectories,
+                                 Set<String> files) {
+        String path = directory.toString();
+        Directory known = directories.get(path);
+        if (known != null) {
+            List<String> gone = new ArrayList<>();
+            for (String name : known.files.keySet()) {
+                if (!files.contains(name)) {
+                    gone.add(name);
+                }
+            }
+            for (String name : gone) {
+                applyForgetFile(path, name);
+                append(out -> {
+                    out.writeByte(FORGET_FILE);
+                    out.writeUTF(path);
+                    out.writeUTF(name);
+                });
+            }
+        }
+        String[] names = subdirectories.toArray(new String[0]);
+        applyListing(path, stamp, names);
+        append(out -> writeListing(out, path, stamp, names));
+    }
+
+    /**
+     * Forget a deleted file, or a deleted directory with everything under it
+     */
+    synchronized void forget(Path path) {
+        String parent = path.getParent() == null ? null : path.getParent().toString();
+        String name = path.getFileName() == null ? null : path.getFileName().toString();
+        String full = path.toString();
+        boolean known = parent != null && directories.containsKey(parent)
+            && directories.get(parent).files.containsKey(name);
+        if (known) {
+            applyForgetFile(parent, name);
+            append(out -> {
+                out.writeByte(FORGET_FILE);
+                out.writeUTF(parent);
+                out.writeUTF(name);
+            });
+        }
+        if (directories.containsKey(full)) {
+            applyForgetDirectory(full);
+            append(out -> {
+                out.writeByte(FORGET_DIRECTORY);
+                out.writeUTF(full);
+            });
+        }
+    }
+
+    synchronized int getDirectoryCount() {
+        return directories.size();
+    }
+
+    synchronized void close() {
+        if (log != null) {
+            log.close();
+        }
+    }
+
+    /**
+     * Add peers to a file's version, or start a new version with only them
+     *
+     * @return every peer that now has this version
+     */
+    private long applySent(String parent, String name, FileStamp stamp, long peerMask) {
+        Directory directory = directories.computeIfAbsent(parent, p -> new Directory());
+        Sent sent = directory.files.get(name);
+        if (sent == null) {
+            liveRecords++;
+        } else {
+            garbageRecords++;
+        }
+        if (sent == null || !sent.stamp.equals(stamp)) {
+            sent = new Sent(stamp);
+            directory.files.put(name, sent);
+        }
+        sent.peers |= peerMask;
+        return sent.peers;
+    }
+
+    private void applyListing(String path, FileStamp stamp, String[] subdirectories) {
+        Directory directory = directories.computeIfAbsent(path, p -> new Directory());
+        if (directory.stamp != null || directory.subdirectories.length > 0) {
+            garbageRecords++;
+        } else {
+            liveRecords++;
+        }
+        directory.stamp = stamp;
+        directory.subdirectories = subdirectories;
+    }
+
+    private void applyForgetFile(String parent, String name) {
+        Directory directory = directories.get(parent);
+        if (directory != null && directory.files.remove(name) != null) {
+            liveRecords--;
+            garbageRecords += 2;
+        }
+    }
+
+    private void applyForgetDirectory(String path) {
+        String prefix = path.endsWith(File.separator) ? path : path + File.separator;
+        for (Iterator<Map.Entry<String, Directory>> it = directories.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Directory> entry = it.next();
+            if (entry.getKey().equals(path) || entry.getKey().startsWith(prefix)) {
+                Directory directory = entry.getValue();
+                boolean listed = directory.stamp != null || directory.subdirectories.length > 0;
+                long records = directory.files.size() + (listed ? 1 : 0);
+                liveRecords -= records;
+                garbageRecords += records + 1;
+                it.remove();
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface RecordWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private void append(RecordWriter writer) {
+        if (log == null) {
+            return;
+        }
+        byte[] record = encode(writer);
+        try {
+            if (record != null) {
+                log.append(record);
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to write sync state " + log.getFile() + ": " + e.getMessage());
+            log.close();
+            log = null;
+            return;
+        }
+        if (garbageRecords > liveRecords && garbageRecords >= MIN_COMPACT_GARBAGE) {
+            compact();
+        }
+    }
+
+    private void compact() {
+        garbageRecords = 0;
+        List<byte[]> records = new ArrayList<>();
+        for (Map.Entry<String, Integer> peer : peers.entrySet()) {
+            add(records, encode(out -> {
+                out.writeByte(PEER);
+                out.writeUTF(peer.getKey());
+                out.writeInt(peer.getValue());
+            }));
+        }
+        for (Map.Entry<String, Directory> entry : directories.entrySet()) {
+            String path = entry.getKey();
+            Directory directory = entry.getValue();
+            if (directory.stamp != null || directory.subdirectories.length > 0) {
+                add(records, encode(out -> writeListing(out, path, directory.stamp, directory.subdirectories)));
+            }
+            for (Map.Entry<String, Sent> file : directory.files.entrySet()) {
+                Sent sent = file.getValue();
+                add(records, encode(out -> writeSent(out, path, file.getKey(), sent.stamp, sent.peers)));
+            }
+        }
+        try {
+            log.rewrite(records);
+        } catch (IOException e) {
+            System.err.println("Failed to compact sync state " + log.getFile() + ": " + e.getMessage());
+        }
+    }
+
+    private static void add(List<byte[]> records, byte[] record) {
+        if (record != null) {
+            records.add(record);
+        }
+    }
+
+    /**
+     * One record's payload, or null for a path too long for the format
+     */
+    private static byte[] encode(RecordWriter writer) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(128);
+        try {
+            writer.write(new DataOutputStream(buffer));
+        } catch (UTFDataFormatException e) {
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return buffer.toByteArray();
+    }
+
+    private static void writeSent(DataOutputStream out, String parent, String name, FileStamp stamp,
+                                  long peerMask) throws IOException {
+        out.writeByte(SENT);
+        out.writeUTF(parent);
+        out.writeUTF(name);
+        writeStamp(out, stamp);
+        out.writeLong(peerMask);
+    }
+
+    private static void writeListing(DataOutputStream out, String path, FileStamp stamp, String[] subdirectories)
+            throws IOException {
+        out.writeByte(LISTING);
+        out.writeUTF(path);
+        out.writeBoolean(stamp != null);
+        if (stamp != null) {
+            writeStamp(out, stamp);
+        }
+        out.writeInt(subdirectories.length);
+        for (String name : subdirectories) {
+            out.writeUTF(name);
+        }
+    }
+
+    private static void writeStamp(DataOutputStream out, FileStamp stamp) throws IOException {
+        out.writeLong(stamp.getSize());
+        out.writeLong(stamp.getModifiedNanos());
+        out.writeLong(stamp.getInode());
+    }
+
+    private static FileStamp readStamp(DataInputStream in) throws IOException {
+        return new FileStamp(in.readLong(), in.readLong(), in.readLong());
+    }
+
+    private void replay(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        byte type = in.readByte();
+        switch (type) {
+            case PEER:
+                peers.put(in.readUTF(), in.readInt());
+                liveRecords++;
+                break;
+            case SENT: {
+                String parent = in.readUTF();
+                String name = in.readUTF();
+                FileStamp stamp = readStamp(in);
+                long peerMask = in.readLong();
+                // The record holds every peer of its version, so it replaces the last one
+                applySent(parent, name, stamp, peerMask);
+                directories.get(parent).files.get(name).peers = peerMask;
+                break;
+            }
+            case LISTING: {
+                String path = in.readUTF();
+                FileStamp stamp = in.readBoolean() ? readStamp(in) : null;
+                String[] subdirectories = new String[in.readInt()];
+                for (int i = 0; i < subdirectories.length; i++) {
+                    subdirectories[i] = in.readUTF();
+                }
+                applyListing(path, stamp, subdirectories);
+                break;
+            }
+            case FORGET_FILE:
+                applyForgetFile(in.readUTF(), in.readUTF());
+                break;
+            case FORGET_DIRECTORY:
+                applyForgetDirectory(in.readUTF());
+                break;
+            default:
+                throw new IOException("Unknown sync record type " + type);
+        }
+    }
+}
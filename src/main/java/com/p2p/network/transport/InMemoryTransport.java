@@ -0,0 +1,300 @@
+package com.p2p.network.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.BindException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * In-process transport that connects peers through bounded memory pipes
+ *
+ * Each instance is its own little network: listeners registered on one instance are
+ * only reachable through that instance. It lets the protocol and disk layers be
+ * profiled and exercised without the kernel network stack.
+ */
+public class InMemoryTransport implements Transport {
+    private static final int DEFAULT_PIPE_CAPACITY = 256 * 1024;
+    private static final String REMOTE_ADDRESS = "127.0.0.1";
+
+    private final Map<Integer, MemoryListener> listeners = new ConcurrentHashMap<>();
+    private final AtomicInteger nextEphemeralPort = new AtomicInteger(49152);
+    private final int pipeCapacity;
+
+    public InMemoryTransport() {
+        this(DEFAULT_PIPE_CAPACITY);
+    }
+
+    public InMemoryTransport(int pipeCapacity) {
+        this.pipeCapacity = pipeCapacity;
+    }
+
+    @Override
+    public TransportChannel connect(String host, int port, int timeoutMillis) throws IOException {
+        MemoryListener listener = listeners.get(port);
+        if (listener == null || listener.isClosed()) {
+            throw new ConnectException("Connection refused: no in-memory listener on port " + port);
+        }
+        Pipe toServer = new Pipe(pipeCapacity);
+        Pipe toClient = new Pipe(pipeCapacity);
+        listener.pending.add(new MemoryChannel(toServer, toClient));
+        return new MemoryChannel(toClient, toServer);
+    }
+
+    @Override
+    public TransportListener listen(int port) throws IOException {
+        int boundPort = port == 0 ? nextEphemeralPort.getAndIncrement() : port;
+        MemoryListener listener = new MemoryListener(boundPort);
+        if (listeners.putIfAbsent(boundPort, listener) != null) {
+            throw new BindException("Address already in use: in-memory port " + boundPort);
+        }
+        return listener;
+    }
+
+    @Override
+    public String getName() {
+        return "memory";
+    }
+
+    private class MemoryListener implements TransportListener {
+        private final BlockingQueue<MemoryChannel> pending = new LinkedBlockingQueue<>();
+        private final int port;
+        private volatile boolean closed = false;
+
+        MemoryListener(int port) {
+            this.port = port;
+        }
+
+        @Override
+        public TransportChannel accept() throws IOException {
+            try {
+                while (!closed) {
+                    MemoryChannel channel = pending.poll(100, TimeUnit.MILLISECONDS);
+                    if (channel != null) {
+                        return channel;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Accept interrupted");
+            }
+            throw new IOException("Listener closed");
+        }
+
+        @Override
+        public int getPort() {
+            return port;
+        }
+
+        @Override
+        public boolean isClosed() {
+            return closed;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            listeners.remove(port, this);
+            MemoryChannel channel;
+            while ((channel = pending.poll()) != null) {
+                channel.close();
+            }
+        }
+    }
+
+    private static class MemoryChannel implements TransportChannel {
+        private final Pipe in;
+        private final Pipe out;
+        private final InputStream inputStream;
+        private final OutputStream outputStream;
+        private volatile int readTimeoutMillis;
+        private volatile boolean open = true;
+
+        MemoryChannel(Pipe in, Pipe out) {
+            this.in = in;
+            this.out = out;
+            this.inputStream = new InputStream() {
+                @Override
+                public int read() throws IOException {
+                    byte[] single = new byte[1];
+                    return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    return MemoryChannel.this.in.read(b, off, len, readTimeoutMillis);
+                }
+
+                @Override
+                public void close() {
+                    MemoryChannel.this.close();
+                }
+            };
+            this.outputStream = new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    write(new byte[]{(byte) b}, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    MemoryChannel.this.out.write(b, off, len);
+                }
+
+                @Override
+                public void close() {
+                    MemoryChannel.this.close();
+                }
+            };
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return inputStream;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return outputStream;
+        }
+
+        @Override
+        public void setReadTimeout(int timeoutMillis) {
+            this.readTimeoutMillis = timeoutMillis;
+        }
+
+        @Override
+        public String getRemoteAddress() {
+            return REMOTE_ADDRESS;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+            open = false;
+            in.closeReader();
+            out.closeWriter();
+        }
+    }
+
+    /**
+     * Bounded single-direction byte ring shared by a writer and a reader
+     */
+    private static class Pipe {
+        private final byte[] buffer;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition notEmpty = lock.newCondition();
+        private final Condition notFull = lock.newCondition();
+        private int head;
+        private int count;
+        private boolean writerClosed;
+        private boolean readerClosed;
+
+        Pipe(int capacity) {
+            this.buffer = new byte[capacity];
+        }
+
+        int read(byte[] b, int off, int len, int timeoutMillis) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            lock.lock();
+            try {
+                long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+                while (count == 0) {
+                    if (readerClosed) {
+                        throw new IOException("Channel closed");
+                    }
+                    if (writerClosed) {
+                        return -1;
+                    }
+                    if (timeoutMillis > 0) {
+                        if (remaining <= 0) {
+                            throw new SocketTimeoutException("Read timed out");
+                        }
+                        remaining = notEmpty.awaitNanos(remaining);
+                    } else {
+                        notEmpty.await();
+                    }
+                }
+                int n = Math.min(len, count);
+                int first = Math.min(n, buffer.length - head);
+                System.arraycopy(buffer, head, b, off, first);
+                System.arraycopy(buffer, 0, b, off + first, n - first);
+                head = (head + n) % buffer.length;
+                count -= n;
+                notFull.signal();
+                return n;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Read interrupted");
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void write(byte[] b, int off, int len) throws IOException {
+            lock.lock();
+            try {
+                while (len > 0) {
+                    while (count == buffer.length && !readerClosed && !writerClosed) {
+                        notFull.await();
+                    }
+                    if (readerClosed || writerClosed) {
+                        throw new IOException("Broken pipe");
+                    }
+                    int n = Math.min(len, buffer.length - count);
+                    int tail = (head + count) % buffer.length;
+                    int first = Math.min(n, buffer.length - tail);
+                    System.arraycopy(b, off, buffer, tail, first);
+                    System.arraycopy(b, off + first, buffer, 0, n - first);
+                    count += n;
+                    off += n;
+                    len -= n;
+                    notEmpty.signal();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Write interrupted");
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void closeWriter() {
+            lock.lock();
+            try {
+                writerClosed = true;
+                notEmpty.signalAll();
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void closeReader() {
+            lock.lock();
+            try {
+                readerClosed = true;
+                notEmpty.signalAll();
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package com.p2p.network.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * java.nio SocketChannel transport
+ *
+ * Channels run in non-blocking mode with one selector per direction, which gives reads
+ * a real timeout (Channels.newInputStream ignores SO_TIMEOUT) and keeps the door open
+ * for FileChannel.transferTo on the underlying SocketChannel.
+ */
+public class NioTransport implements Transport {
+
+    @Override
+    public TransportChannel connect(String host, int port, int timeoutMillis) throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        try {
+            channel.configureBlocking(false);
+            if (!channel.connect(new InetSocketAddress(host, port))) {
+                try (Selector selector = Selector.open()) {
+                    channel.register(selector, SelectionKey.OP_CONNECT);
+                    if (selector.select(timeoutMillis) == 0) {
+                        throw new SocketTimeoutException("Connect timed out");
+                    }
+                }
+                // Throws ConnectException when the peer refused
+                channel.finishConnect();
+            }
+            return new NioChannel(channel);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public TransportListener listen(int port) throws IOException {
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        serverChannel.bind(new InetSocketAddress(port));
+        return new TransportListener() {
+            @Override
+            public TransportChannel accept() throws IOException {
+                SocketChannel channel = serverChannel.accept();
+                channel.configureBlocking(false);
+                return new NioChannel(channel);
+            }
+
+            @Override
+            public int getPort() {
+                return serverChannel.socket().getLocalPort();
+            }
+
+            @Override
+            public boolean isClosed() {
+                return !serverChannel.isOpen();
+            }
+
+            @Override
+            public void close() throws IOException {
+                serverChannel.close();
+            }
+        };
+    }
+
+    @Override
+    public String getName() {
+        return "nio";
+    }
+
+    static class NioChannel implements TransportChannel {
+        private final SocketChannel channel;
+        private final Selector readSelector;
+        private final Selector writeSelector;
+        private final InputStream inputStream;
+        private final OutputStream outputStream;
+        private volatile int readTimeoutMillis;
+
+        NioChannel(SocketChannel channel) throws IOException {
+            this.channel = channel;
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            this.readSelector = Selector.open();
+            this.writeSelector = Selector.open();
+            channel.register(readSelector, SelectionKey.OP_READ);
+            channel.register(writeSelector, SelectionKey.OP_WRITE);
+            this.inputStream = new NioInputStream();
+            this.outputStream = new NioOutputStream();
+        }
+
+        SocketChannel getSocketChannel() {
+            return channel;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return inputStream;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return outputStream;
+        }
+
+        @Override
+        public void setReadTimeout(int timeoutMillis) {
+            this.readTimeoutMillis = timeoutMillis;
+        }
+
+        @Override
+        public String getRemoteAddress() {
+            return channel.socket().getInetAddress().getHostAddress();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void write(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                if (channel.write(buffer) == 0) {
+                    awaitWritable();
+                }
+            }
+        }
+
+        @Override
+        public void transferFrom(FileChannel file, long position, long count) throws IOException {
+            long end = position + count;
+            while (position < end) {
+                long sent = file.transferTo(position, end - position, channel);
+                if (sent == 0) {
+                    if (position >= file.size()) {
+                        throw new IOException("File ended before the requested range");
+                    }
+                    awaitWritable();
+                }
+                position += sent;
+            }
+        }
+
+        private void awaitWritable() throws IOException {
+            writeSelector.select();
+            writeSelector.selectedKeys().clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                readSelector.close();
+                writeSelector.close();
+            } finally {
+                channel.close();
+            }
+        }
+
+        private class NioInputStream extends InputStream {
+            @Override
+            public int read() throws IOException {
+                byte[] single = new byte[1];
+                return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) {
+                    return 0;
+                }
+                ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+                while (true) {
+                    int read = channel.read(buffer);
+                    if (read != 0) {
+                        return read;
+                    }
+                    if (readSelector.select(readTimeoutMillis) == 0 && readTimeoutMillis > 0) {
+                        throw new SocketTimeoutException("Read timed out");
+                    }
+                    readSelector.selectedKeys().clear();
+                }
+            }
+
+            @Override
+            public int available() throws IOException {
+                return 0;
+            }
+
+            @Override
+            public void close() throws IOException {
+                NioChannel.this.close();
+            }
+        }
+
+        private class NioOutputStream extends OutputStream {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+                NioChannel.this.write(buffer);
+            }
+
+            @Override
+            public void close() throws IOException {
+                NioChannel.this.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.p2p.network.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Blocking java.net.Socket transport; the original FileClient/FileServer behaviour
+ *
+ * Accepted sockets come from a ServerSocketChannel so they have a channel behind
+ * them, which lets the server send file ranges with FileChannel.transferTo.
+ */
+public class TcpTransport implements Transport {
+
+    @Override
+    public TransportChannel connect(String host, int port, int timeoutMillis) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), timeoutMillis);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        return new SocketChannelAdapter(socket);
+    }
+
+    @Override
+    public TransportListener listen(int port) throws IOException {
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        serverChannel.bind(new InetSocketAddress(port));
+        ServerSocket serverSocket = serverChannel.socket();
+        return new TransportListener() {
+            @Override
+            public TransportChannel accept() throws IOException {
+                return new SocketChannelAdapter(serverSocket.accept());
+            }
+
+            @Override
+            public int getPort() {
+                return serverSocket.getLocalPort();
+            }
+
+            @Override
+            public boolean isClosed() {
+                return serverSocket.isClosed();
+            }
+
+            @Override
+            public void close() throws IOException {
+                serverSocket.close();
+            }
+        };
+    }
+
+    @Override
+    public String getName() {
+        return "tcp";
+    }
+
+    private static class SocketChannelAdapter implements TransportChannel {
+        private final Socket socket;
+
+        SocketChannelAdapter(Socket socket) {
+            this.socket = socket;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return socket.getInputStream();
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            return socket.getOutputStream();
+        }
+
+        @Override
+        public void setReadTimeout(int timeoutMillis) throws IOException {
+            socket.setSoTimeout(timeoutMillis);
+        }
+
+        @Override
+        public String getRemoteAddress() {
+            return socket.getInetAddress().getHostAddress();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return !socket.isClosed();
+        }
+
+        @Override
+        public void write(ByteBuffer buffer) throws IOException {
+            SocketChannel channel = socket.getChannel();
+            if (channel == null) {
+                TransportChannel.super.write(buffer);
+                return;
+            }
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+
+        @Override
+        public void transferFrom(FileChannel file, long position, long count) throws IOException {
+            SocketChannel channel = socket.getChannel();
+            if (channel == null) {
+                TransportChannel.super.transferFrom(file, position, count);
+                return;
+            }
+            long end = position + count;
+            while (position < end) {
+                long sent = file.transferTo(position, end - position, channel);
+                if (sent <= 0) {
+                    throw new IOException("File ended before the requested range");
+                }
+                position += sent;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+}
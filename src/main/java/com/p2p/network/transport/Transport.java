@@ -0,0 +1,28 @@
+package com.p2p.network.transport;
+
+import java.io.IOException;
+
+/**
+ * Connection-oriented transport used by FileClient and FileServer
+ *
+ * Implementations must report an unreachable peer with java.net.ConnectException and
+ * an expired read timeout with java.net.SocketTimeoutException, so callers can keep
+ * handling those cases the way they do for plain sockets.
+ */
+public interface Transport {
+
+    /**
+     * Open a channel to a listening peer
+     */
+    TransportChannel connect(String host, int port, int timeoutMillis) throws IOException;
+
+    /**
+     * Start accepting channels on the given port
+     */
+    TransportListener listen(int port) throws IOException;
+
+    /**
+     * Short name used in configuration and logs
+     */
+    String getName();
+}
@@ -0,0 +1,60 @@
+package com.p2p.network.transport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Bidirectional byte stream between two peers
+ */
+public interface TransportChannel extends Closeable {
+
+    InputStream getInputStream() throws IOException;
+
+    OutputStream getOutputStream() throws IOException;
+
+    /**
+     * Set the read timeout in milliseconds; 0 waits forever
+     */
+    void setReadTimeout(int timeoutMillis) throws IOException;
+
+    /**
+     * Textual address of the remote peer, as used for transfer records
+     */
+    String getRemoteAddress();
+
+    boolean isOpen();
+
+    /**
+     * Write the buffer's remaining bytes, bypassing any stream buffering; callers must
+     * flush their own streams first
+     */
+    default void write(ByteBuffer buffer) throws IOException {
+        WritableByteChannel sink = Channels.newChannel(getOutputStream());
+        while (buffer.hasRemaining()) {
+            sink.write(buffer);
+        }
+    }
+
+    /**
+     * Send count bytes of the file starting at position. Socket-backed channels
+     * override this with FileChannel.transferTo so the kernel sends straight from the
+     * page cache without copying through the heap.
+     */
+    default void transferFrom(FileChannel file, long position, long count) throws IOException {
+        WritableByteChannel sink = Channels.newChannel(getOutputStream());
+        long end = position + count;
+        while (position < end) {
+            long sent = file.transferTo(position, end - position, sink);
+            if (sent <= 0) {
+                throw new IOException("File ended before the requested range");
+            }
+            position += sent;
+        }
+    }
+}
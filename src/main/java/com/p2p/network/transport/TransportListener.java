@@ -0,0 +1,19 @@
+package com.p2p.network.transport;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Server side of a transport: hands out one channel per incoming connection
+ */
+public interface TransportListener extends Closeable {
+
+    /**
+     * Block until a peer connects; throws once the listener is closed
+     */
+    TransportChannel accept() throws IOException;
+
+    int getPort();
+
+    boolean isClosed();
+}
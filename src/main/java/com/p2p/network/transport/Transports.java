@@ -0,0 +1,29 @@
+package com.p2p.network.transport;
+
+import com.p2p.utils.ConfigUtils;
+
+/**
+ * Factory for the configured transport
+ */
+public class Transports {
+
+    private Transports() {
+    }
+
+    /**
+     * Transport named by the transport setting, falling back to blocking TCP
+     */
+    public static Transport getDefault() {
+        return forName(ConfigUtils.getTransportName());
+    }
+
+    public static Transport forName(String name) {
+        if ("nio".equalsIgnoreCase(name)) {
+            return new NioTransport();
+        }
+        if (name != null && !"tcp".equalsIgnoreCase(name)) {
+            System.err.println("Unknown transport '" + name + "', using tcp");
+        }
+        return new TcpTransport();
+    }
+}
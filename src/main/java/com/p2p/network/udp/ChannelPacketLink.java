@@ -0,0 +1,59 @@
+package com.p2p.network.udp;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PacketLink backed by a non-blocking DatagramChannel
+ */
+public class ChannelPacketLink implements PacketLink {
+    private static final int SOCKET_BUFFER_SIZE = 4 * 1024 * 1024;
+
+    private final DatagramChannel channel;
+    private final Selector selector;
+
+    public ChannelPacketLink(InetSocketAddress bindAddress) throws IOException {
+        this.channel = DatagramChannel.open();
+        channel.setOption(StandardSocketOptions.SO_RCVBUF, SOCKET_BUFFER_SIZE);
+        channel.setOption(StandardSocketOptions.SO_SNDBUF, SOCKET_BUFFER_SIZE);
+        channel.bind(bindAddress);
+        channel.configureBlocking(false);
+        this.selector = Selector.open();
+        channel.register(selector, SelectionKey.OP_READ);
+    }
+
+    @Override
+    public void send(ByteBuffer packet, SocketAddress target) throws IOException {
+        channel.send(packet, target);
+    }
+
+    @Override
+    public SocketAddress receive(ByteBuffer packet) throws IOException {
+        return channel.receive(packet);
+    }
+
+    @Override
+    public void awaitReadable(long timeoutNanos) throws IOException {
+        long millis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(timeoutNanos));
+        selector.select(millis);
+        selector.selectedKeys().clear();
+    }
+
+    @Override
+    public InetSocketAddress getLocalAddress() throws IOException {
+        return (InetSocketAddress) channel.getLocalAddress();
+    }
+
+    @Override
+    public void close() throws IOException {
+        selector.close();
+        channel.close();
+    }
+}
@@ -0,0 +1,126 @@
+package com.p2p.network.udp;
+
+/**
+ * Delay-based congestion controller for the UDP transfer mode
+ *
+ * The window grows while the measured queueing delay (smoothed RTT minus the minimum
+ * RTT seen) stays under a target and shrinks in proportion once it goes above, in the
+ * spirit of LEDBAT but scaled to the window so long fat paths fill quickly. Losses only
+ * halve the window when they coincide with a standing queue; isolated losses on an
+ * otherwise idle path are treated as random and cost a few percent, which is what
+ * keeps throughput up on long lossy links where TCP collapses.
+ */
+class DelayBasedCongestionControl {
+    private static final double MIN_WINDOW = 4;
+    private static final double GAIN = 0.25;
+    private static final double RANDOM_LOSS_BACKOFF = 0.95;
+    private static final double CONGESTION_LOSS_BACKOFF = 0.5;
+    private static final long MIN_RTT_WINDOW_NANOS = 10_000_000_000L;
+
+    private final double maxWindow;
+    private final long targetDelayNanos;
+
+    private double window = 16;
+    private boolean slowStart = true;
+
+    private long latestRttNanos;
+    private long smoothedRttNanos;
+    private long rttVarianceNanos;
+    private long minRttNanos = Long.MAX_VALUE;
+    private long minRttStampNanos;
+    private long lastBackoffNanos;
+
+    DelayBasedCongestionControl(int maxWindowPackets, long targetDelayNanos) {
+        this.maxWindow = maxWindowPackets;
+        this.targetDelayNanos = targetDelayNanos;
+    }
+
+    void onRttSample(long rttNanos, long now) {
+        if (rttNanos <= 0) {
+            return;
+        }
+        latestRttNanos = rttNanos;
+        if (smoothedRttNanos == 0) {
+            smoothedRttNanos = rttNanos;
+            rttVarianceNanos = rttNanos / 2;
+        } else {
+            long error = Math.abs(smoothedRttNanos - rttNanos);
+            rttVarianceNanos = (3 * rttVarianceNanos + error) / 4;
+            smoothedRttNanos = (7 * smoothedRttNanos + rttNanos) / 8;
+        }
+        // Let the base delay float upward slowly so a route change is picked up
+        if (rttNanos < minRttNanos || now - minRttStampNanos > MIN_RTT_WINDOW_NANOS) {
+            minRttNanos = rttNanos;
+            minRttStampNanos = now;
+        }
+    }
+
+    void onAck(int newlyAcked) {
+        if (newlyAcked <= 0) {
+            return;
+        }
+        long queueDelay = getQueueingDelayNanos();
+        if (slowStart) {
+            // The smoothed RTT lags by several round trips at exponential growth, so leave
+            // slow start on the first raw sample that shows a queue forming
+            if (latestRttNanos - minRttNanos > targetDelayNanos / 4) {
+                slowStart = false;
+            } else {
+                window += newlyAcked;
+            }
+        } else {
+            // Proportional control: per round trip the window moves by GAIN * offTarget of
+            // itself, so it converges on the target queue in a few RTTs at any path BDP
+            double offTarget = Math.max(-1.0, (targetDelayNanos - queueDelay) / (double) targetDelayNanos);
+            window += GAIN * offTarget * newlyAcked;
+        }
+        window = Math.max(MIN_WINDOW, Math.min(maxWindow, window));
+    }
+
+    void onLoss(long now) {
+        // React at most once per round trip so a burst of losses counts as one event
+        if (now - lastBackoffNanos < getSmoothedRttNanos()) {
+            return;
+        }
+        lastBackoffNanos = now;
+        slowStart = false;
+        // The controller itself holds the queue near the target, so only a queue beyond it
+        // marks the loss as congestive
+        boolean congested = getQueueingDelayNanos() > targetDelayNanos;
+        window *= congested ? CONGESTION_LOSS_BACKOFF : RANDOM_LOSS_BACKOFF;
+        window = Math.max(MIN_WINDOW, window);
+    }
+
+    void onTimeout() {
+        slowStart = false;
+        window = MIN_WINDOW;
+    }
+
+    int getWindow() {
+        return (int) window;
+    }
+
+    /**
+     * Inter-packet gap that spreads one window over one smoothed RTT
+     */
+    long getPacingIntervalNanos() {
+        long rtt = getSmoothedRttNanos();
+        double gain = slowStart ? 2.0 : 1.25;
+        return (long) (rtt / (window * gain));
+    }
+
+    long getSmoothedRttNanos() {
+        return smoothedRttNanos == 0 ? 100_000_000L : smoothedRttNanos;
+    }
+
+    long getRetransmitTimeoutNanos() {
+        return Math.max(200_000_000L, getSmoothedRttNanos() + 4 * rttVarianceNanos);
+    }
+
+    long getQueueingDelayNanos() {
+        if (minRttNanos == Long.MAX_VALUE) {
+            return 0;
+        }
+        return Math.max(0, smoothedRttNanos - minRttNanos);
+    }
+}
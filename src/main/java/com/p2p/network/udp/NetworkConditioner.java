@@ -0,0 +1,128 @@
+package com.p2p.network.udp;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loss and latency simulator wrapped around a PacketLink
+ *
+ * Outgoing packets pass through an emulated bottleneck: they queue behind each other at
+ * the configured bandwidth, are tail-dropped when the queue delay exceeds its limit,
+ * are randomly dropped with the configured loss rate, and are then delivered after the
+ * one-way latency plus jitter. Used by the benchmarks to reproduce long fat lossy links
+ * on loopback.
+ */
+public class NetworkConditioner implements PacketLink {
+    private final PacketLink delegate;
+    private final double lossRate;
+    private final long latencyNanos;
+    private final long jitterNanos;
+    private final long bytesPerSecond;
+    private final long maxQueueNanos;
+    private final ScheduledExecutorService scheduler;
+
+    private final Object queueLock = new Object();
+    private long nextDepartureNanos;
+
+    private final AtomicLong packetsSent = new AtomicLong();
+    private final AtomicLong packetsDropped = new AtomicLong();
+
+    /**
+     * @param lossRate       probability in [0, 1) that a packet is lost
+     * @param latencyMillis  one-way propagation delay
+     * @param jitterMillis   uniform extra delay in [0, jitter)
+     * @param bytesPerSecond bottleneck bandwidth, 0 for unlimited
+     * @param maxQueueMillis bottleneck buffer expressed as queueing delay
+     */
+    public NetworkConditioner(PacketLink delegate, double lossRate, double latencyMillis,
+                              double jitterMillis, long bytesPerSecond, double maxQueueMillis) {
+        this.delegate = delegate;
+        this.lossRate = lossRate;
+        this.latencyNanos = (long) (latencyMillis * 1_000_000);
+        this.jitterNanos = (long) (jitterMillis * 1_000_000);
+        this.bytesPerSecond = bytesPerSecond;
+        this.maxQueueNanos = (long) (maxQueueMillis * 1_000_000);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "network-conditioner");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void send(ByteBuffer packet, SocketAddress target) throws IOException {
+        packetsSent.incrementAndGet();
+        int size = packet.remaining();
+        long now = System.nanoTime();
+
+        long departure = now;
+        if (bytesPerSecond > 0) {
+            synchronized (queueLock) {
+                long start = Math.max(now, nextDepartureNanos);
+                if (start - now > maxQueueNanos) {
+                    packetsDropped.incrementAndGet();
+                    return;
+                }
+                departure = start + size * 1_000_000_000L / bytesPerSecond;
+                nextDepartureNanos = departure;
+            }
+        }
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (lossRate > 0 && random.nextDouble() < lossRate) {
+            packetsDropped.incrementAndGet();
+            return;
+        }
+
+        long delay = departure - now + latencyNanos;
+        if (jitterNanos > 0) {
+            delay += random.nextLong(jitterNanos);
+        }
+
+        ByteBuffer copy = ByteBuffer.allocate(size);
+        copy.put(packet).flip();
+        scheduler.schedule(() -> {
+            try {
+                delegate.send(copy, target);
+            } catch (IOException e) {
+                // The link is closing; a lost packet is an acceptable outcome
+            }
+        }, delay, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public SocketAddress receive(ByteBuffer packet) throws IOException {
+        return delegate.receive(packet);
+    }
+
+    @Override
+    public void awaitReadable(long timeoutNanos) throws IOException {
+        delegate.awaitReadable(timeoutNanos);
+    }
+
+    @Override
+    public InetSocketAddress getLocalAddress() throws IOException {
+        return delegate.getLocalAddress();
+    }
+
+    public long getPacketsSent() {
+        return packetsSent.get();
+    }
+
+    public long getPacketsDropped() {
+        return packetsDropped.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        scheduler.shutdownNow();
+        delegate.close();
+    }
+}
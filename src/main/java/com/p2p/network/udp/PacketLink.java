@@ -0,0 +1,33 @@
+package com.p2p.network.udp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * Non-blocking datagram endpoint used by the UDP transfer mode
+ *
+ * Abstracting the socket lets the loss and latency simulator sit between the
+ * transfer logic and the real channel.
+ */
+public interface PacketLink extends Closeable {
+
+    /**
+     * Send the remaining bytes of the buffer to the given address
+     */
+    void send(ByteBuffer packet, SocketAddress target) throws IOException;
+
+    /**
+     * Receive one datagram into the buffer, returning its source or null if none is queued
+     */
+    SocketAddress receive(ByteBuffer packet) throws IOException;
+
+    /**
+     * Block until a datagram may be available or the timeout elapses
+     */
+    void awaitReadable(long timeoutNanos) throws IOException;
+
+    InetSocketAddress getLocalAddress() throws IOException;
+}
@@ -0,0 +1,249 @@
+package com.p2p.network.udp;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Accepts UDP transfer sessions on a well-known port
+ *
+ * Each session gets its own ephemeral socket, announced to the sender through the
+ * HELLO_ACK source address, so the listener never has to demultiplex data packets.
+ */
+public class UdpListener implements Runnable {
+    private final PacketLink link;
+    private final SessionHandler handler;
+    private final ExecutorService executor;
+    private final LinkFactory sessionLinks;
+    private final Map<String, UdpReceiver> sessions = new ConcurrentHashMap<>();
+    private volatile boolean running = false;
+
+    /**
+     * Description of an incoming session as announced by the sender
+     */
+    public static final class Incoming {
+        private final String fileName;
+        private final long fileSize;
+        private final String senderName;
+        private final InetSocketAddress remoteAddress;
+
+        Incoming(String fileName, long fileSize, String senderName, InetSocketAddress remoteAddress) {
+            this.fileName = fileName;
+            this.fileSize = fileSize;
+            this.senderName = senderName;
+            this.remoteAddress = remoteAddress;
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        public long getFileSize() {
+            return fileSize;
+        }
+
+        public String getSenderName() {
+            return senderName;
+        }
+
+        public InetSocketAddress getRemoteAddress() {
+            return remoteAddress;
+        }
+    }
+
+    /**
+     * Callbacks for the owner of the listener
+     */
+    public interface SessionHandler {
+        /**
+         * Choose where to store the incoming file, or return null to reject it
+         */
+        Path accept(Incoming incoming);
+
+        void onProgress(Incoming incoming, long bytesReceived);
+
+        void onComplete(Incoming incoming, Path path, boolean success);
+
+        void log(String message);
+    }
+
+    /**
+     * Opens the per-session sockets; the benchmark substitutes impaired links here
+     */
+    public interface LinkFactory {
+        PacketLink open(InetSocketAddress bindAddress) throws IOException;
+    }
+
+    public UdpListener(PacketLink link, SessionHandler handler, ExecutorService executor) {
+        this(link, handler, executor, ChannelPacketLink::new);
+    }
+
+    public UdpListener(PacketLink link, SessionHandler handler, ExecutorService executor,
+                       LinkFactory sessionLinks) {
+        this.link = link;
+        this.handler = handler;
+        this.executor = executor;
+        this.sessionLinks = sessionLinks;
+    }
+
+    @Override
+    public void run() {
+        running = true;
+        ByteBuffer inBuffer = ByteBuffer.allocate(UdpProtocol.MAX_PACKET);
+        ByteBuffer outBuffer = ByteBuffer.allocate(64);
+
+        while (running) {
+            try {
+                link.awaitReadable(500_000_000L);
+                SocketAddress from;
+                inBuffer.clear();
+                while (running && (from = link.receive(inBuffer)) != null) {
+                    inBuffer.flip();
+                    if (inBuffer.remaining() > 9 && inBuffer.get() == UdpProtocol.HELLO) {
+                        onHello(inBuffer, (InetSocketAddress) from, outBuffer);
+                    }
+                    inBuffer.clear();
+                }
+            } catch (IOException e) {
+                if (running) {
+                    handler.log("UDP listener error: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void onHello(ByteBuffer hello, InetSocketAddress from, ByteBuffer outBuffer) throws IOException {
+        // Session id, file size, payload size and FEC group before the two strings
+        if (hello.remaining() < 19) {
+            return;
+        }
+        long sessionId = hello.getLong();
+        long fileSize = hello.getLong();
+        int payloadSize = hello.getShort() & 0xFFFF;
+        int fecGroup = hello.get() & 0xFF;
+        String fileName = UdpProtocol.getString(hello);
+        String senderName = fileName == null ? null : UdpProtocol.getString(hello);
+        if (senderName == null) {
+            return;
+        }
+
+        String key = from + "#" + sessionId;
+        UdpReceiver existing = sessions.get(key);
+        if (existing != null) {
+            // Our HELLO_ACK was lost; the session socket answers again
+            existing.sendHelloAck();
+            return;
+        }
+
+        // Checked before accept(), which starts tracking the transfer
+        if (payloadSize <= 0 || payloadSize > UdpProtocol.MAX_PACKET - UdpProtocol.DATA_HEADER) {
+            refuse(sessionId, from, outBuffer);
+            return;
+        }
+        Incoming incoming = new Incoming(fileName, fileSize, senderName, from);
+        Path target = handler.accept(incoming);
+        if (target == null) {
+            refuse(sessionId, from, outBuffer);
+            return;
+        }
+
+        PacketLink sessionLink;
+        try {
+            sessionLink = sessionLinks.open(new InetSocketAddress(link.getLocalAddress().getAddress(), 0));
+        } catch (IOException e) {
+            abandon(incoming, target, sessionId, from, outBuffer, e);
+            return;
+        }
+        FileChannel output;
+        try {
+            output = FileChannel.open(target, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            closeSessionLink(sessionLink);
+            abandon(incoming, target, sessionId, from, outBuffer, e);
+            return;
+        }
+        UdpReceiver receiver = new UdpReceiver(sessionLink, from, sessionId, fileSize, payloadSize,
+            fecGroup, output, handler::log, bytes -> handler.onProgress(incoming, bytes));
+        sessions.put(key, receiver);
+
+        executor.submit(() -> {
+            boolean success = false;
+            try {
+                success = receiver.receive();
+            } catch (IOException e) {
+                handler.log("UDP session error: " + e.getMessage());
+            }
+
+            try {
+                output.close();
+            } catch (IOException e) {
+                handler.log("Error closing received file: " + e.getMessage());
+                success = false;
+            }
+            if (!success) {
+                try {
+                    Files.deleteIfExists(target);
+                } catch (IOException e) {
+                    handler.log("Failed to clean up partial file: " + e.getMessage());
+                }
+            }
+            handler.onComplete(incoming, target, success);
+
+            try {
+                if (success) {
+                    receiver.linger();
+                }
+            } catch (IOException e) {
+                // The sender already has the data; a lost DONE only costs it a timeout
+            } finally {
+                sessions.remove(key);
+                closeSessionLink(sessionLink);
+            }
+        });
+    }
+
+    /**
+     * Give up on an accepted session that could not be started
+     */
+    private void abandon(Incoming incoming, Path target, long sessionId, InetSocketAddress from,
+                         ByteBuffer outBuffer, IOException cause) throws IOException {
+        handler.log("Cannot start UDP session for " + incoming.getFileName() + ": " + cause.getMessage());
+        handler.onComplete(incoming, target, false);
+        refuse(sessionId, from, outBuffer);
+    }
+
+    private void closeSessionLink(PacketLink sessionLink) {
+        try {
+            sessionLink.close();
+        } catch (IOException e) {
+            handler.log("Error closing UDP session socket: " + e.getMessage());
+        }
+    }
+
+    private void refuse(long sessionId, InetSocketAddress from, ByteBuffer outBuffer) throws IOException {
+        UdpProtocol.writeHelloAck(outBuffer, sessionId, UdpProtocol.STATUS_FAILED);
+        link.send(outBuffer, from);
+    }
+
+    public void stop() {
+        running = false;
+        try {
+            link.close();
+        } catch (IOException e) {
+            handler.log("Error stopping UDP listener: " + e.getMessage());
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+}
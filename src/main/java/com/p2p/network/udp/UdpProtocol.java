@@ -0,0 +1,101 @@
+package com.p2p.network.udp;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Wire format for the UDP transfer mode
+ *
+ * Every packet starts with a one byte type and the 8 byte session id. Data packets
+ * carry a sequence number and the sender's send timestamp, which the receiver echoes
+ * back in its acknowledgments so RTT can be measured even for retransmissions.
+ */
+final class UdpProtocol {
+    static final byte HELLO = 1;
+    static final byte HELLO_ACK = 2;
+    static final byte DATA = 3;
+    static final byte PARITY = 4;
+    static final byte ACK = 5;
+    static final byte DONE = 6;
+
+    static final byte STATUS_OK = 0;
+    static final byte STATUS_FAILED = 1;
+
+    /** Bytes of header in front of a DATA payload */
+    static final int DATA_HEADER = 1 + 8 + 4 + 8;
+    /** Maximum number of SACK blocks carried by one ACK */
+    static final int MAX_SACK_BLOCKS = 64;
+    static final int MAX_PACKET = 65507;
+
+    private UdpProtocol() {
+    }
+
+    static void writeHello(ByteBuffer buf, long sessionId, long fileSize, int payloadSize,
+                           int fecGroup, String fileName, String sender) {
+        buf.clear();
+        buf.put(HELLO);
+        buf.putLong(sessionId);
+        buf.putLong(fileSize);
+        buf.putShort((short) payloadSize);
+        buf.put((byte) fecGroup);
+        putString(buf, fileName);
+        putString(buf, sender);
+        buf.flip();
+    }
+
+    static void writeHelloAck(ByteBuffer buf, long sessionId, byte status) {
+        buf.clear();
+        buf.put(HELLO_ACK);
+        buf.putLong(sessionId);
+        buf.put(status);
+        buf.flip();
+    }
+
+    static void writeDone(ByteBuffer buf, long sessionId, byte status) {
+        buf.clear();
+        buf.put(DONE);
+        buf.putLong(sessionId);
+        buf.put(status);
+        buf.flip();
+    }
+
+    /**
+     * ACK layout: cumulative (next expected seq), echoed send timestamp, block count,
+     * then [start, end) pairs of sequence ranges received above the cumulative point
+     */
+    static void writeAck(ByteBuffer buf, long sessionId, int cumulative, long echoTimestamp,
+                         int[] sackBlocks, int blockCount) {
+        buf.clear();
+        buf.put(ACK);
+        buf.putLong(sessionId);
+        buf.putInt(cumulative);
+        buf.putLong(echoTimestamp);
+        buf.put((byte) blockCount);  // at most MAX_SACK_BLOCKS, read back unsigned
+        for (int i = 0; i < blockCount * 2; i++) {
+            buf.putInt(sackBlocks[i]);
+        }
+        buf.flip();
+    }
+
+    static void putString(ByteBuffer buf, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        buf.putShort((short) bytes.length);
+        buf.put(bytes);
+    }
+
+    /**
+     * The next length-prefixed string, or null if the packet ends first
+     */
+    static String getString(ByteBuffer buf) {
+        if (buf.remaining() < 2) {
+            return null;
+        }
+        int length = buf.getShort() & 0xFFFF;
+        if (buf.remaining() < length) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,374 @@
+package com.p2p.network.udp;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+/**
+ * Receiving side of one UDP transfer session
+ *
+ * Packets are written straight to their file offset as they arrive, so reordering and
+ * retransmissions never need buffering beyond the received-sequence bitmap. Each ACK
+ * reports the cumulative point plus up to {@link UdpProtocol#MAX_SACK_BLOCKS} ranges
+ * received above it.
+ */
+public class UdpReceiver {
+    private static final int RING = 1 << 16;
+    private static final int MASK = RING - 1;
+    private static final long IDLE_TIMEOUT_NANOS = 30_000_000_000L;
+    private static final long DELAYED_ACK_NANOS = 5_000_000L;
+    private static final int ACK_STRIDE = 4;
+    private static final long LINGER_NANOS = 2_000_000_000L;
+
+    private final PacketLink link;
+    private final SocketAddress peer;
+    private final long sessionId;
+    private final long fileSize;
+    private final int payloadSize;
+    private final int fecGroup;
+    private final FileChannel output;
+    private final Consumer<String> log;
+    private final LongConsumer progress;
+
+    private final long[] received = new long[RING / 64];
+    private final int totalPackets;
+    private int cumulative;
+    private int highestReceived = -1;
+    private long lastEchoTimestamp;
+    private int unackedPackets;
+    private long firstUnackedNanos;
+
+    private final Map<Integer, FecGroupState> fecGroups = new HashMap<>();
+    private int retiredGroups;
+    private long packetsRecovered;
+
+    private final ByteBuffer inBuffer = ByteBuffer.allocateDirect(UdpProtocol.MAX_PACKET);
+    private final ByteBuffer outBuffer = ByteBuffer.allocateDirect(UdpProtocol.MAX_PACKET);
+    private final int[] sackBlocks = new int[UdpProtocol.MAX_SACK_BLOCKS * 2];
+
+    private static final class FecGroupState {
+        final byte[] xor;
+        int dataCount;
+        boolean parityReceived;
+
+        FecGroupState(int payloadSize) {
+            this.xor = new byte[payloadSize];
+        }
+    }
+
+    public UdpReceiver(PacketLink link, SocketAddress peer, long sessionId, long fileSize,
+                       int payloadSize, int fecGroup, FileChannel output,
+                       Consumer<String> log, LongConsumer progress) {
+        this.link = link;
+        this.peer = peer;
+        this.sessionId = sessionId;
+        this.fileSize = fileSize;
+        this.payloadSize = payloadSize;
+        this.fecGroup = fecGroup;
+        this.output = output;
+        this.log = log;
+        this.progress = progress;
+        this.totalPackets = (int) ((fileSize + payloadSize - 1) / payloadSize);
+    }
+
+    public void sendHelloAck() throws IOException {
+        synchronized (outBuffer) {
+            UdpProtocol.writeHelloAck(outBuffer, sessionId, UdpProtocol.STATUS_OK);
+            link.send(outBuffer, peer);
+        }
+    }
+
+    /**
+     * Run the session until every packet has been written, returning false on timeout
+     * or a write failure
+     */
+    public boolean receive() throws IOException {
+        sendHelloAck();
+        long lastPacketNanos = System.nanoTime();
+        int lastPercent = -1;
+
+        try {
+            while (cumulative < totalPackets) {
+                long now = System.nanoTime();
+                if (now - lastPacketNanos > IDLE_TIMEOUT_NANOS) {
+                    log.accept("UDP receive timed out");
+                    return false;
+                }
+                if (unackedPackets > 0 && now - firstUnackedNanos >= DELAYED_ACK_NANOS) {
+                    sendAck();
+                }
+
+                link.awaitReadable(unackedPackets > 0 ? DELAYED_ACK_NANOS : 100_000_000L);
+                while (cumulative < totalPackets && receivePacket()) {
+                    lastPacketNanos = System.nanoTime();
+                    byte type = inBuffer.get();
+                    if (inBuffer.getLong() != sessionId) {
+                        continue;
+                    }
+                    if (type == UdpProtocol.DATA) {
+                        onData();
+                    } else if (type == UdpProtocol.PARITY && fecGroup > 1) {
+                        onParity();
+                    }
+                }
+
+                int percent = totalPackets == 0 ? 100 : (int) ((long) cumulative * 100 / totalPackets);
+                if (percent != lastPercent) {
+                    lastPercent = percent;
+                    progress.accept(Math.min(fileSize, (long) cumulative * payloadSize));
+                }
+            }
+        } catch (IOException e) {
+            log.accept("UDP receive failed: " + e.getMessage());
+            sendDone(UdpProtocol.STATUS_FAILED);
+            return false;
+        }
+
+        sendAck();
+        sendDone(UdpProtocol.STATUS_OK);
+        if (packetsRecovered > 0) {
+            log.accept("Forward error correction recovered " + packetsRecovered + " packets");
+        }
+        return true;
+    }
+
+    /**
+     * Keep answering for a while in case our DONE was lost and the sender probes again
+     */
+    public void linger() throws IOException {
+        long deadline = System.nanoTime() + LINGER_NANOS;
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            link.awaitReadable(remaining);
+            boolean probed = false;
+            while (receivePacket()) {
+                if (inBuffer.get() == UdpProtocol.DATA && inBuffer.getLong() == sessionId) {
+                    probed = true;
+                }
+            }
+            if (probed) {
+                sendDone(UdpProtocol.STATUS_OK);
+            }
+        }
+    }
+
+    private boolean receivePacket() throws IOException {
+        inBuffer.clear();
+        SocketAddress from = link.receive(inBuffer);
+        inBuffer.flip();
+        return from != null && inBuffer.remaining() >= 9;
+    }
+
+    private void onData() throws IOException {
+        if (inBuffer.remaining() < 12) {
+            return;
+        }
+        int seq = inBuffer.getInt();
+        lastEchoTimestamp = inBuffer.getLong();
+
+        if (seq < cumulative || seq >= totalPackets || isReceived(seq)) {
+            // Duplicate: the sender is probing or our ACK was lost
+            sendAck();
+            return;
+        }
+        if (seq - cumulative >= RING) {
+            return;
+        }
+
+        int payloadStart = inBuffer.position();
+        long offset = (long) seq * payloadSize;
+        while (inBuffer.hasRemaining()) {
+            output.write(inBuffer, offset + inBuffer.position() - payloadStart);
+        }
+
+        boolean inOrder = seq == cumulative;
+        markReceived(seq);
+
+        if (fecGroup > 1) {
+            inBuffer.position(payloadStart);
+            accumulateForFec(seq);
+        }
+
+        unackedPackets++;
+        if (unackedPackets == 1) {
+            firstUnackedNanos = System.nanoTime();
+        }
+        // Holes are reported at once so the sender can repair them; in-order data is
+        // acknowledged in strides, with the delayed-ACK timer covering the tail
+        if (!inOrder || highestReceived >= cumulative || unackedPackets >= ACK_STRIDE) {
+            sendAck();
+        }
+    }
+
+    private void accumulateForFec(int seq) throws IOException {
+        int group = seq / fecGroup;
+        if (group < retiredGroups) {
+            return;
+        }
+        FecGroupState state = fecGroups.computeIfAbsent(group, g -> new FecGroupState(payloadSize));
+        xorInto(state.xor);
+        state.dataCount++;
+        tryRecover(group, state);
+    }
+
+    private void onParity() throws IOException {
+        if (inBuffer.remaining() < 5) {
+            return;
+        }
+        int groupStart = inBuffer.getInt();
+        inBuffer.get();
+        int group = groupStart / fecGroup;
+        if (group < retiredGroups) {
+            return;
+        }
+        FecGroupState state = fecGroups.get(group);
+        if (state == null) {
+            // No state either means nothing arrived yet or the group already completed
+            if (anyReceived(group)) {
+                return;
+            }
+            state = new FecGroupState(payloadSize);
+            fecGroups.put(group, state);
+        }
+        if (state.parityReceived) {
+            return;
+        }
+        xorInto(state.xor);
+        state.parityReceived = true;
+        tryRecover(group, state);
+    }
+
+    private void tryRecover(int group, FecGroupState state) throws IOException {
+        int start = group * fecGroup;
+        int size = Math.min(fecGroup, totalPackets - start);
+        if (state.dataCount == size) {
+            fecGroups.remove(group);
+            return;
+        }
+        if (!state.parityReceived || state.dataCount != size - 1) {
+            return;
+        }
+
+        for (int seq = start; seq < start + size; seq++) {
+            if (seq >= cumulative && !isReceived(seq)) {
+                long offset = (long) seq * payloadSize;
+                int length = (int) Math.min(payloadSize, fileSize - offset);
+                output.write(ByteBuffer.wrap(state.xor, 0, length), offset);
+                markReceived(seq);
+                packetsRecovered++;
+                break;
+            }
+        }
+        fecGroups.remove(group);
+        sendAck();
+    }
+
+    private void xorInto(byte[] target) {
+        int length = Math.min(inBuffer.remaining(), target.length);
+        int base = inBuffer.position();
+        for (int i = 0; i < length; i++) {
+            target[i] ^= inBuffer.get(base + i);
+        }
+    }
+
+    private boolean anyReceived(int group) {
+        int start = group * fecGroup;
+        int end = Math.min(start + fecGroup, totalPackets);
+        for (int seq = start; seq < end; seq++) {
+            if (seq < cumulative || isReceived(seq)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isReceived(int seq) {
+        int slot = seq & MASK;
+        return (received[slot >>> 6] & (1L << slot)) != 0;
+    }
+
+    private void markReceived(int seq) {
+        int slot = seq & MASK;
+        received[slot >>> 6] |= 1L << slot;
+        if (seq > highestReceived) {
+            highestReceived = seq;
+        }
+        while (cumulative < totalPackets && isReceived(cumulative)) {
+            int c = cumulative & MASK;
+            received[c >>> 6] &= ~(1L << c);
+            cumulative++;
+        }
+        if (fecGroup > 1) {
+            while ((retiredGroups + 1) * fecGroup <= cumulative) {
+                fecGroups.remove(retiredGroups++);
+            }
+        }
+    }
+
+    /**
+     * First received sequence in [from, limit], or -1; skips whole words of the ring
+     */
+    private int nextReceived(int from, int limit) {
+        int seq = from;
+        while (seq <= limit) {
+            int slot = seq & MASK;
+            long word = received[slot >>> 6] >>> (slot & 63);
+            if (word != 0) {
+                int found = seq + Long.numberOfTrailingZeros(word);
+                return found <= limit ? found : -1;
+            }
+            seq += 64 - (slot & 63);
+        }
+        return -1;
+    }
+
+    private int nextMissing(int from, int limit) {
+        int seq = from;
+        while (seq <= limit) {
+            int slot = seq & MASK;
+            long word = ~received[slot >>> 6] >>> (slot & 63);
+            if (word != 0) {
+                return Math.min(seq + Long.numberOfTrailingZeros(word), limit + 1);
+            }
+            seq += 64 - (slot & 63);
+        }
+        return limit + 1;
+    }
+
+    private void sendAck() throws IOException {
+        int blocks = 0;
+        int seq = cumulative + 1;
+        while (blocks < UdpProtocol.MAX_SACK_BLOCKS && seq <= highestReceived) {
+            int start = nextReceived(seq, highestReceived);
+            if (start < 0) {
+                break;
+            }
+            int end = nextMissing(start, highestReceived);
+            sackBlocks[blocks * 2] = start;
+            sackBlocks[blocks * 2 + 1] = end;
+            blocks++;
+            seq = end + 1;
+        }
+        synchronized (outBuffer) {
+            UdpProtocol.writeAck(outBuffer, sessionId, cumulative, lastEchoTimestamp, sackBlocks, blocks);
+            link.send(outBuffer, peer);
+        }
+        unackedPackets = 0;
+    }
+
+    private void sendDone(byte status) throws IOException {
+        synchronized (outBuffer) {
+            UdpProtocol.writeDone(outBuffer, sessionId, status);
+            link.send(outBuffer, peer);
+        }
+    }
+
+    public long getPacketsRecovered() {
+        return packetsRecovered;
+    }
+}
@@ -0,0 +1,421 @@
+package com.p2p.network.udp;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+/**
+ * Sending side of the UDP transfer mode
+ *
+ * A single thread drives the whole session: it drains acknowledgments, detects losses
+ * from the selective acknowledgment blocks, and paces new and retransmitted packets
+ * according to the delay-based congestion controller. With forward error correction
+ * enabled, one XOR parity packet follows every group of data packets so the receiver
+ * can rebuild a single lost packet per group without waiting a round trip.
+ */
+public class UdpSender {
+    /** Sequence ring size; also the hard cap on packets in flight */
+    private static final int RING = 1 << 16;
+    private static final int MASK = RING - 1;
+    private static final int DUP_THRESHOLD = 3;
+    private static final int MAX_BURST = 4;
+    private static final int HANDSHAKE_ATTEMPTS = 20;
+    private static final long HANDSHAKE_INTERVAL_NANOS = 500_000_000L;
+    private static final long IDLE_TIMEOUT_NANOS = 30_000_000_000L;
+    private static final long TARGET_DELAY_NANOS = 25_000_000L;
+
+    private static final byte FREE = 0;
+    private static final byte IN_FLIGHT = 1;
+    private static final byte ACKED = 2;
+    private static final byte LOST = 3;
+
+    private final PacketLink link;
+    private final int payloadSize;
+    private final int fecGroup;
+    private final Consumer<String> log;
+    private final LongConsumer progress;
+
+    private final DelayBasedCongestionControl congestion;
+    private final byte[] state = new byte[RING];
+    private final long[] sentAt = new long[RING];
+    private final boolean[] retransmitted = new boolean[RING];
+    private final int[] retransmitQueue = new int[RING];
+    private int retransmitHead;
+    private int retransmitTail;
+
+    private final ByteBuffer outBuffer = ByteBuffer.allocateDirect(UdpProtocol.MAX_PACKET);
+    private final ByteBuffer inBuffer = ByteBuffer.allocateDirect(UdpProtocol.MAX_PACKET);
+    private final byte[] parity;
+
+    private FileChannel fileChannel;
+    private long fileSize;
+    private int totalPackets;
+    private long sessionId;
+    private SocketAddress dataTarget;
+
+    private int sndUna;
+    private int nextSeq;
+    private int inFlight;
+    private int highestSacked = -1;
+    private int lossScanFrom;
+    private long lastAckNanos;
+    private long lastProgressNanos;
+    private byte doneStatus = -1;
+
+    private long packetsSent;
+    private long packetsRetransmitted;
+
+    public UdpSender(PacketLink link, int payloadSize, int fecGroup,
+                     Consumer<String> log, LongConsumer progress) {
+        this.link = link;
+        this.payloadSize = payloadSize;
+        this.fecGroup = fecGroup;
+        this.log = log;
+        this.progress = progress;
+        this.congestion = new DelayBasedCongestionControl(RING / 2, TARGET_DELAY_NANOS);
+        this.parity = fecGroup > 1 ? new byte[payloadSize] : null;
+    }
+
+    /**
+     * Send the file to the peer's UDP listener, returning true once the peer confirms
+     * that every byte has been written
+     */
+    public boolean send(Path file, String fileName, String senderName, InetSocketAddress peer)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            this.fileChannel = channel;
+            this.fileSize = channel.size();
+            long packets = (fileSize + payloadSize - 1) / payloadSize;
+            if (packets > Integer.MAX_VALUE) {
+                throw new IOException("File too large for UDP transfer mode");
+            }
+            this.totalPackets = (int) packets;
+            this.sessionId = ThreadLocalRandom.current().nextLong();
+
+            if (!handshake(fileName, senderName, peer)) {
+                return false;
+            }
+            return transferLoop();
+        }
+    }
+
+    private boolean handshake(String fileName, String senderName, InetSocketAddress peer)
+            throws IOException {
+        for (int attempt = 0; attempt < HANDSHAKE_ATTEMPTS; attempt++) {
+            UdpProtocol.writeHello(outBuffer, sessionId, fileSize, payloadSize,
+                parity != null ? fecGroup : 0, fileName, senderName);
+            link.send(outBuffer, peer);
+
+            long deadline = System.nanoTime() + HANDSHAKE_INTERVAL_NANOS;
+            long remaining;
+            while ((remaining = deadline - System.nanoTime()) > 0) {
+                link.awaitReadable(remaining);
+                SocketAddress from;
+                while ((from = receive()) != null) {
+                    // Type, session id and status; anything shorter is not ours
+                    if (inBuffer.remaining() < 10 || inBuffer.get() != UdpProtocol.HELLO_ACK || inBuffer.getLong() != sessionId) {
+                        continue;
+                    }
+                    if (inBuffer.get() != UdpProtocol.STATUS_OK) {
+                        log.accept("Peer rejected UDP transfer");
+                        return false;
+                    }
+                    dataTarget = from;
+                    return true;
+                }
+            }
+        }
+        log.accept("No response from UDP peer at " + peer);
+        return false;
+    }
+
+    private boolean transferLoop() throws IOException {
+        long now = System.nanoTime();
+        lastAckNanos = now;
+        lastProgressNanos = now;
+        long nextSendNanos = now;
+        long nextScanNanos = now;
+        long doneProbeNanos = 0;
+        int lastPercent = -1;
+
+        while (true) {
+            drainAcks();
+            now = System.nanoTime();
+
+            if (doneStatus >= 0) {
+                logSummary();
+                return doneStatus == UdpProtocol.STATUS_OK;
+            }
+            if (now - lastAckNanos > IDLE_TIMEOUT_NANOS) {
+                log.accept("UDP transfer timed out waiting for acknowledgments");
+                return false;
+            }
+
+            int percent = fileSize == 0 ? 100 : (int) (Math.min(fileSize, (long) sndUna * payloadSize) * 100 / fileSize);
+            if (percent != lastPercent) {
+                lastPercent = percent;
+                progress.accept(Math.min(fileSize, (long) sndUna * payloadSize));
+            }
+
+            if (now >= nextScanNanos) {
+                scanForTimeouts(now);
+                nextScanNanos = now + Math.max(5_000_000L, congestion.getSmoothedRttNanos() / 2);
+            }
+
+            if (sndUna == totalPackets) {
+                // Everything is acknowledged; nudge the receiver until its DONE arrives
+                if (now >= doneProbeNanos) {
+                    writeDataPacket(Math.max(0, totalPackets - 1), now);
+                    link.send(outBuffer, dataTarget);
+                    doneProbeNanos = now + congestion.getRetransmitTimeoutNanos();
+                }
+                link.awaitReadable(doneProbeNanos - now);
+                continue;
+            }
+
+            boolean haveRetransmit = retransmitHead != retransmitTail;
+            boolean haveNew = nextSeq < totalPackets && nextSeq - sndUna < RING - 1;
+            long waitNanos;
+            if ((haveRetransmit || haveNew) && inFlight < congestion.getWindow()) {
+                if (now >= nextSendNanos) {
+                    if (haveRetransmit) {
+                        int seq = retransmitQueue[retransmitHead];
+                        retransmitHead = (retransmitHead + 1) & MASK;
+                        if (seq >= sndUna && state[seq & MASK] == LOST) {
+                            packetsRetransmitted++;
+                            sendData(seq, now);
+                        }
+                    } else {
+                        sendData(nextSeq++, now);
+                    }
+                    long interval = congestion.getPacingIntervalNanos();
+                    nextSendNanos = Math.max(nextSendNanos, now - interval * MAX_BURST) + interval;
+                    continue;
+                }
+                waitNanos = nextSendNanos - now;
+            } else {
+                waitNanos = Math.min(congestion.getRetransmitTimeoutNanos(), nextScanNanos - now);
+            }
+
+            if (waitNanos >= 1_000_000L) {
+                link.awaitReadable(waitNanos);
+            } else if (waitNanos > 0) {
+                LockSupport.parkNanos(waitNanos);
+            }
+        }
+    }
+
+    private void sendData(int seq, long now) throws IOException {
+        boolean firstTransmission = state[seq & MASK] == FREE;
+        int payloadStart = writeDataPacket(seq, now);
+        if (firstTransmission && parity != null) {
+            accumulateParity(seq, payloadStart, outBuffer.limit() - payloadStart);
+        }
+
+        link.send(outBuffer, dataTarget);
+        packetsSent++;
+        if (state[seq & MASK] != IN_FLIGHT) {
+            inFlight++;
+        }
+        state[seq & MASK] = IN_FLIGHT;
+        sentAt[seq & MASK] = now;
+        retransmitted[seq & MASK] = !firstTransmission;
+
+        if (firstTransmission && parity != null
+                && (seq % fecGroup == fecGroup - 1 || seq == totalPackets - 1)) {
+            sendParity(seq - seq % fecGroup, seq % fecGroup + 1);
+        }
+    }
+
+    /**
+     * Fill the output buffer with the DATA packet for seq, returning the payload offset
+     */
+    private int writeDataPacket(int seq, long now) throws IOException {
+        long offset = (long) seq * payloadSize;
+        int length = (int) Math.max(0, Math.min(payloadSize, fileSize - offset));
+
+        outBuffer.clear();
+        outBuffer.put(UdpProtocol.DATA);
+        outBuffer.putLong(sessionId);
+        outBuffer.putInt(seq);
+        outBuffer.putLong(now);
+        int payloadStart = outBuffer.position();
+        outBuffer.limit(payloadStart + length);
+        while (outBuffer.hasRemaining()) {
+            if (fileChannel.read(outBuffer, offset + outBuffer.position() - payloadStart) < 0) {
+                throw new IOException("File shrank during transfer");
+            }
+        }
+        outBuffer.flip();
+        return payloadStart;
+    }
+
+    private void accumulateParity(int seq, int payloadStart, int length) {
+        if (seq % fecGroup == 0) {
+            Arrays.fill(parity, (byte) 0);
+        }
+        for (int i = 0; i < length; i++) {
+            parity[i] ^= outBuffer.get(payloadStart + i);
+        }
+    }
+
+    private void sendParity(int groupStart, int groupSize) throws IOException {
+        outBuffer.clear();
+        outBuffer.put(UdpProtocol.PARITY);
+        outBuffer.putLong(sessionId);
+        outBuffer.putInt(groupStart);
+        outBuffer.put((byte) groupSize);
+        outBuffer.put(parity);
+        outBuffer.flip();
+        link.send(outBuffer, dataTarget);
+    }
+
+    private SocketAddress receive() throws IOException {
+        inBuffer.clear();
+        SocketAddress from = link.receive(inBuffer);
+        inBuffer.flip();
+        return from;
+    }
+
+    private void drainAcks() throws IOException {
+        while (receive() != null) {
+            if (inBuffer.remaining() < 9) {
+                continue;
+            }
+            byte type = inBuffer.get();
+            if (inBuffer.getLong() != sessionId) {
+                continue;
+            }
+            if (type == UdpProtocol.DONE && inBuffer.hasRemaining()) {
+                doneStatus = inBuffer.get();
+            } else if (type == UdpProtocol.ACK) {
+                processAck();
+            }
+        }
+    }
+
+    private void processAck() {
+        // Cumulative point, echoed timestamp and block count, then the blocks; a short
+        // or stray datagram is skipped rather than read past its end
+        if (inBuffer.remaining() < 13) {
+            return;
+        }
+        long now = System.nanoTime();
+        int cumulative = inBuffer.getInt();
+        long echo = inBuffer.getLong();
+        int blocks = inBuffer.get() & 0xFF;
+        if (inBuffer.remaining() < blocks * 8) {
+            return;
+        }
+        lastAckNanos = now;
+        congestion.onRttSample(now - echo, now);
+
+        int newlyAcked = 0;
+        while (sndUna < cumulative && sndUna < nextSeq) {
+            newlyAcked += markAcked(sndUna);
+            // The slot is reused by sndUna + RING once the window moves on
+            state[sndUna & MASK] = FREE;
+            sndUna++;
+        }
+        for (int b = 0; b < blocks; b++) {
+            int start = Math.max(inBuffer.getInt(), sndUna);
+            int end = Math.min(inBuffer.getInt(), nextSeq);
+            for (int seq = start; seq < end; seq++) {
+                newlyAcked += markAcked(seq);
+            }
+            if (end - 1 > highestSacked) {
+                highestSacked = end - 1;
+            }
+        }
+
+        boolean lossDetected = false;
+        int scanEnd = highestSacked - DUP_THRESHOLD;
+        for (int seq = Math.max(sndUna, lossScanFrom); seq <= scanEnd; seq++) {
+            if (state[seq & MASK] == IN_FLIGHT) {
+                markLost(seq);
+                lossDetected = true;
+            }
+        }
+        lossScanFrom = Math.max(lossScanFrom, scanEnd + 1);
+
+        if (newlyAcked > 0) {
+            lastProgressNanos = now;
+        }
+        if (lossDetected) {
+            congestion.onLoss(now);
+        }
+        congestion.onAck(newlyAcked);
+    }
+
+    private int markAcked(int seq) {
+        int slot = seq & MASK;
+        byte previous = state[slot];
+        if (previous == ACKED || previous == FREE) {
+            return 0;
+        }
+        if (previous == IN_FLIGHT) {
+            inFlight--;
+        }
+        state[slot] = ACKED;
+        return 1;
+    }
+
+    private void markLost(int seq) {
+        int slot = seq & MASK;
+        state[slot] = LOST;
+        inFlight--;
+        retransmitQueue[retransmitTail] = seq;
+        retransmitTail = (retransmitTail + 1) & MASK;
+    }
+
+    /**
+     * Retransmission timer. A retransmission outstanding longer than the RTO is lost again,
+     * since the duplicate threshold cannot see it. Original transmissions are only expired
+     * when acknowledgments stop making progress altogether: while they flow, an unacked
+     * original is either in a hole SACK will report or was received beyond the blocks the
+     * last ACK had room for.
+     */
+    private void scanForTimeouts(long now) {
+        long rto = congestion.getRetransmitTimeoutNanos();
+        boolean stalled = now - lastProgressNanos > rto;
+        boolean expired = false;
+        for (int seq = sndUna; seq < nextSeq; seq++) {
+            int slot = seq & MASK;
+            if (state[slot] == IN_FLIGHT && now - sentAt[slot] > rto
+                    && (stalled || retransmitted[slot])) {
+                markLost(seq);
+                expired = true;
+            }
+        }
+        if (expired) {
+            if (stalled) {
+                congestion.onTimeout();
+                lastProgressNanos = now;
+            } else {
+                congestion.onLoss(now);
+            }
+        }
+    }
+
+    private void logSummary() {
+        log.accept(String.format("UDP transfer finished: %d packets sent, %d retransmitted, srtt %.1f ms",
+            packetsSent, packetsRetransmitted, congestion.getSmoothedRttNanos() / 1_000_000.0));
+    }
+
+    public long getPacketsSent() {
+        return packetsSent;
+    }
+
+    public long getPacketsRetransmitted() {
+        return packetsRetransmitted;
+    }
+}
@@ -40,12 +40,59 @@ public class ConfigUtils {
         properties.setProperty("connection.timeout", "10000"); // 10 seconds
         properties.setProperty("buffer.size", "8192");
         properties.setProperty("downloads.directory", "downloads");
+        properties.setProperty("transport", "tcp"); // tcp or nio
+        properties.setProperty("udp.enabled", "false");
+        properties.setProperty("udp.payload.size", "1400");
+        properties.setProperty("udp.fec.group", "0"); // 0 disables forward error correction
+        properties.setProperty("daemon.name", ""); // empty uses the host name
+        properties.setProperty("peer.cache.ttl", "5000");
+        properties.setProperty("discovery.mode", "database"); // database, lan or both
+        properties.setProperty("lan.discovery.group", "239.255.80.80");
+        properties.setProperty("lan.discovery.port", "8890");
+        properties.setProperty("lan.discovery.interval", "5000");
+        properties.setProperty("lan.discovery.interface", ""); // empty uses the system default
+        properties.setProperty("gossip.port", "8891");
+        properties.setProperty("gossip.seeds", ""); // comma-separated host:port list
+        properties.setProperty("gossip.interval", "1000");
+        properties.setProperty("dht.enabled", "false");
+        properties.setProperty("dht.port", "8892");
+        properties.setProperty("dht.seeds", ""); // comma-separated host:port list
+        properties.setProperty("dht.republish.interval", "3600000");
+        properties.setProperty("dht.rpc.timeout", "2000");
+        properties.setProperty("shared.directory", "shared");
+        properties.setProperty("catalog.rescan.interval", "30000");
+        properties.setProperty("catalog.sync.enabled", "false");
+        properties.setProperty("catalog.sync.interval", "30000");
+        properties.setProperty("pull.connections", "4");
+        properties.setProperty("serve.cache.size", "0");
+        properties.setProperty("http.enabled", "false");
+        properties.setProperty("http.port", "8893");
+        properties.setProperty("hash.cache.file", "cache/hashes.bin"); // empty keeps hashes in memory only
+        properties.setProperty("dedup.enabled", "false");
+        properties.setProperty("chunk.store.file", "cache/chunks.bin"); // empty keeps the chunk index in memory only
+        properties.setProperty("sync.folders", ""); // empty disables watched folders
+        properties.setProperty("sync.peers", "");
+        properties.setProperty("sync.debounce", "2000");
+        properties.setProperty("sync.state.file", "cache/sync.bin"); // empty keeps sync state in memory only
+        properties.setProperty("sync.receive", "false");
+        properties.setProperty("presence.heartbeat.interval", "10000");
+        properties.setProperty("presence.expiry", "30000");
+        properties.setProperty("advertise.address", ""); // empty detects the outgoing interface address
+        properties.setProperty("log.max.lines", "5000");
+        properties.setProperty("log.file", "logs/activity.log"); // empty disables the log file
+        properties.setProperty("log.file.max.size", "10485760"); // 10MB
+        properties.setProperty("log.file.count", "5");
 
         // Database configuration
         properties.setProperty("db.url", "jdbc:mysql://localhost:3306/p2p_system");
         properties.setProperty("db.user", "root");
         properties.setProperty("db.password", "");
         properties.setProperty("db.driver", "com.mysql.cj.jdbc.Driver");
+        properties.setProperty("db.pool.max.size", "10");
+        properties.setProperty("db.pool.borrow.timeout", "5000");
+        properties.setProperty("db.pool.leak.threshold", "60000"); // 0 disables leak detection
+        properties.setProperty("db.write.batch.size", "100");
+        properties.setProperty("db.write.flush.interval", "200");
     }
 
     public static void saveConfiguration() {
@@ -116,6 +163,241 @@ public class ConfigUtils {
         return envDir != null ? envDir : getProperty("downloads.directory", "downloads");
     }
 
+    public static String getTransportName() {
+        String envTransport = EnvLoader.getEnv("TRANSPORT");
+        return envTransport != null ? envTransport : getProperty("transport", "tcp");
+    }
+
+    public static boolean isUdpTransferEnabled() {
+        String envUdp = EnvLoader.getEnv("UDP_ENABLED");
+        return envUdp != null ? Boolean.parseBoolean(envUdp) : getBooleanProperty("udp.enabled", false);
+    }
+
+    public static int getUdpPayloadSize() {
+        int envPayload = EnvLoader.getEnvInt("UDP_PAYLOAD_SIZE", -1);
+        return envPayload != -1 ? envPayload : getIntProperty("udp.payload.size", 1400);
+    }
+
+    public static int getUdpFecGroup() {
+        int envGroup = EnvLoader.getEnvInt("UDP_FEC_GROUP", -1);
+        return envGroup != -1 ? envGroup : getIntProperty("udp.fec.group", 0);
+    }
+
+    public static String getDaemonName() {
+        String envName = EnvLoader.getEnv("DAEMON_NAME");
+        return envName != null ? envName : getProperty("daemon.name", "");
+    }
+
+    public static long getPeerCacheTtl() {
+        long envTtl = EnvLoader.getEnvLong("PEER_CACHE_TTL", -1);
+        return envTtl != -1 ? envTtl : getLongProperty("peer.cache.ttl", 5000L);
+    }
+
+    public static String getDiscoveryMode() {
+        String envMode = EnvLoader.getEnv("DISCOVERY_MODE");
+        return envMode != null ? envMode : getProperty("discovery.mode", "database");
+    }
+
+    public static String getLanDiscoveryGroup() {
+        String envGroup = EnvLoader.getEnv("LAN_DISCOVERY_GROUP");
+        return envGroup != null ? envGroup : getProperty("lan.discovery.group", "239.255.80.80");
+    }
+
+    public static int getLanDiscoveryPort() {
+        int envPort = EnvLoader.getEnvInt("LAN_DISCOVERY_PORT", -1);
+        return envPort != -1 ? envPort : getIntProperty("lan.discovery.port", 8890);
+    }
+
+    public static long getLanDiscoveryInterval() {
+        long envInterval = EnvLoader.getEnvLong("LAN_DISCOVERY_INTERVAL", -1);
+        return envInterval != -1 ? envInterval : getLongProperty("lan.discovery.interval", 5000L);
+    }
+
+    public static String getLanDiscoveryInterface() {
+        String envInterface = EnvLoader.getEnv("LAN_DISCOVERY_INTERFACE");
+        return envInterface != null ? envInterface : getProperty("lan.discovery.interface", "");
+    }
+
+    public static int getGossipPort() {
+        int envPort = EnvLoader.getEnvInt("GOSSIP_PORT", -1);
+        return envPort != -1 ? envPort : getIntProperty("gossip.port", 8891);
+    }
+
+    public static String getGossipSeeds() {
+        String envSeeds = EnvLoader.getEnv("GOSSIP_SEEDS");
+        return envSeeds != null ? envSeeds : getProperty("gossip.seeds", "");
+    }
+
+    public static long getGossipInterval() {
+        long envInterval = EnvLoader.getEnvLong("GOSSIP_INTERVAL", -1);
+        return envInterval != -1 ? envInterval : getLongProperty("gossip.interval", 1000L);
+    }
+
+    public static boolean isDhtEnabled() {
+        String envEnabled = EnvLoader.getEnv("DHT_ENABLED");
+        return envEnabled != null ? Boolean.parseBoolean(envEnabled) : getBooleanProperty("dht.enabled", false);
+    }
+
+    public static int getDhtPort() {
+        int envPort = EnvLoader.getEnvInt("DHT_PORT", -1);
+        return envPort != -1 ? envPort : getIntProperty("dht.port", 8892);
+    }
+
+    public static String getDhtSeeds() {
+        String envSeeds = EnvLoader.getEnv("DHT_SEEDS");
+        return envSeeds != null ? envSeeds : getProperty("dht.seeds", "");
+    }
+
+    public static long getDhtRepublishInterval() {
+        long envInterval = EnvLoader.getEnvLong("DHT_REPUBLISH_INTERVAL", -1);
+        return envInterval != -1 ? envInterval : getLongProperty("dht.republish.interval", 3600000L);
+    }
+
+    public static long getDhtRpcTimeout() {
+        long envTimeout = EnvLoader.getEnvLong("DHT_RPC_TIMEOUT", -1);
+        return envTimeout != -1 ? envTimeout : getLongProperty("dht.rpc.timeout", 2000L);
+    }
+
+    public static String getSharedDirectory() {
+        String envDirectory = EnvLoader.getEnv("SHARED_DIRECTORY");
+        return envDirectory != null ? envDirectory : getProperty("shared.directory", "shared");
+    }
+
+    public static long getCatalogRescanInterval() {
+        long envInterval = EnvLoader.getEnvLong("CATALOG_RESCAN_INTERVAL", -1);
+        return envInterval != -1 ? envInterval : getLongProperty("catalog.rescan.interval", 30000L);
+    }
+
+    public static boolean isCatalogSyncEnabled() {
+        String envEnabled = EnvLoader.getEnv("CATALOG_SYNC_ENABLED");
+        return envEnabled != null ? Boolean.parseBoolean(envEnabled) : getBooleanProperty("catalog.sync.enabled", false);
+    }
+
+    public static long getCatalogSyncInterval() {
+        long envInterval = EnvLoader.getEnvLong("CATALOG_SYNC_INTERVAL", -1);
+        return envInterval != -1 ? envInterval : getLongProperty("catalog.sync.interval", 30000L);
+    }
+
+    public static int getPullConnections() {
+        int envConnections = EnvLoader.getEnvInt("PULL_CONNECTIONS", -1);
+        return envConnections != -1 ? envConnections : getIntProperty("pull.connections", 4);
+    }
+
+    public static long getServeCacheSize() {
+        long envSize = EnvLoader.getEnvLong("SERVE_CACHE_SIZE", -1);
+        return envSize != -1 ? envSize : getLongProperty("serve.cache.size", 0L);
+    }
+
+    public static boolean isHttpEnabled() {
+        String envHttp = EnvLoader.getEnv("HTTP_ENABLED");
+        return envHttp != null ? Boolean.parseBoolean(envHttp) : getBooleanProperty("http.enabled", false);
+    }
+
+    public static int getHttpPort() {
+        int envPort = EnvLoader.getEnvInt("HTTP_PORT", -1);
+        return envPort != -1 ? envPort : getIntProperty("http.port", 8893);
+    }
+
+    public static String getHashCacheFile() {
+        String envFile = EnvLoader.getEnv("HASH_CACHE_FILE");
+        return envFile != null ? envFile : getProperty("hash.cache.file", "cache/hashes.bin");
+    }
+
+    public static boolean isDedupEnabled() {
+        String envDedup = EnvLoader.getEnv("DEDUP_ENABLED");
+        return envDedup != null ? Boolean.parseBoolean(envDedup) : getBooleanProperty("dedup.enabled", false);
+    }
+
+    public static String getChunkStoreFile() {
+        String envFile = EnvLoader.getEnv("CHUNK_STORE_FILE");
+        return envFile != null ? envFile : getProperty("chunk.store.file", "cache/chunks.bin");
+    }
+
+    public static String getSyncFolders() {
+        String envFolders = EnvLoader.getEnv("SYNC_FOLDERS");
+        return envFolders != null ? envFolders : getProperty("sync.folders", "");
+    }
+
+    public static String getSyncPeers() {
+        String envPeers = EnvLoader.getEnv("SYNC_PEERS");
+        return envPeers != null ? envPeers : getProperty("sync.peers", "");
+    }
+
+    public static long getSyncDebounce() {
+        long envDebounce = EnvLoader.getEnvLong("SYNC_DEBOUNCE", -1);
+        return envDebounce != -1 ? envDebounce : getLongProperty("sync.debounce", 2000L);
+    }
+
+    public static String getSyncStateFile() {
+        String envFile = EnvLoader.getEnv("SYNC_STATE_FILE");
+        return envFile != null ? envFile : getProperty("sync.state.file", "cache/sync.bin");
+    }
+
+    public static boolean isSyncReceiveEnabled() {
+        String envEnabled = EnvLoader.getEnv("SYNC_RECEIVE");
+        return envEnabled != null ? Boolean.parseBoolean(envEnabled) : getBooleanProperty("sync.receive", false);
+    }
+
+    public static long getPresenceHeartbeatInterval() {
+        long envInterval = EnvLoader.getEnvLong("PRESENCE_HEARTBEAT_INTERVAL", -1);
+        return envInterval != -1 ? envInterval : getLongProperty("presence.heartbeat.interval", 10000L);
+    }
+
+    public static long getPresenceExpiry() {
+        long envExpiry = EnvLoader.getEnvLong("PRESENCE_EXPIRY", -1);
+        return envExpiry != -1 ? envExpiry : getLongProperty("presence.expiry", 30000L);
+    }
+
+    public static String getAdvertiseAddress() {
+        String envAddress = EnvLoader.getEnv("ADVERTISE_ADDRESS");
+        return envAddress != null ? envAddress : getProperty("advertise.address", "");
+    }
+
+    public static int getLogMaxLines() {
+        int envLines = EnvLoader.getEnvInt("LOG_MAX_LINES", -1);
+        return envLines != -1 ? envLines : getIntProperty("log.max.lines", 5000);
+    }
+
+    public static String getLogFile() {
+        String envFile = EnvLoader.getEnv("LOG_FILE");
+        return envFile != null ? envFile : getProperty("log.file", "logs/activity.log");
+    }
+
+    public static long getLogFileMaxSize() {
+        long envSize = EnvLoader.getEnvLong("LOG_FILE_MAX_SIZE", -1);
+        return envSize != -1 ? envSize : getLongProperty("log.file.max.size", 10485760L);
+    }
+
+    public static int getLogFileCount() {
+        int envCount = EnvLoader.getEnvInt("LOG_FILE_COUNT", -1);
+        return envCount != -1 ? envCount : getIntProperty("log.file.count", 5);
+    }
+
+    public static int getDbPoolMaxSize() {
+        int envSize = EnvLoader.getEnvInt("DB_POOL_MAX_SIZE", -1);
+        return envSize != -1 ? envSize : getIntProperty("db.pool.max.size", 10);
+    }
+
+    public static long getDbPoolBorrowTimeout() {
+        long envTimeout = EnvLoader.getEnvLong("DB_POOL_BORROW_TIMEOUT", -1);
+        return envTimeout != -1 ? envTimeout : getLongProperty("db.pool.borrow.timeout", 5000L);
+    }
+
+    public static long getDbPoolLeakThreshold() {
+        long envThreshold = EnvLoader.getEnvLong("DB_POOL_LEAK_THRESHOLD", -1);
+        return envThreshold != -1 ? envThreshold : getLongProperty("db.pool.leak.threshold", 60000L);
+    }
+
+    public static int getDbWriteBatchSize() {
+        int envSize = EnvLoader.getEnvInt("DB_WRITE_BATCH_SIZE", -1);
+        return envSize != -1 ? envSize : getIntProperty("db.write.batch.size", 100);
+    }
+
+    public static long getDbWriteFlushInterval() {
+        long envInterval = EnvLoader.getEnvLong("DB_WRITE_FLUSH_INTERVAL", -1);
+        return envInterval != -1 ? envInterval : getLongProperty("db.write.flush.interval", 200L);
+    }
+
     public static String getDatabaseUrl() {
         return EnvLoader.getDatabaseUrl();
     }
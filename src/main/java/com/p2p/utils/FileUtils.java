@@ -1,6 +1,10 @@
 package com.p2p.utils;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
 import java.text.DecimalFormat;
 
 /**
@@ -71,6 +75,53 @@ public class FileUtils {
         return true;
     }
     
+    /**
+     * Resolve a path in the given directory that does not clash with an existing file,
+     * appending _1, _2, ... before the extension when needed
+     */
+    public static Path resolveUniquePath(Path directory, String fileName) {
+        return resolveUniquePath(directory, fileName, "");
+    }
+
+    /**
+     * Like {@link #resolveUniquePath(Path, String)}, also skipping names whose
+     * sibling with the suffix appended exists, such as an unfinished ".part" file
+     */
+    public static Path resolveUniquePath(Path directory, String fileName, String suffix) {
+        Path filePath = directory.resolve(fileName);
+        int counter = 1;
+        while (Files.exists(filePath)
+                || (!suffix.isEmpty() && Files.exists(directory.resolve(filePath.getFileName() + suffix)))) {
+            String nameWithoutExt = getFileNameWithoutExtension(fileName);
+            String extension = getFileExtension(fileName);
+            String newFileName = nameWithoutExt + "_" + counter +
+                (extension.isEmpty() ? "" : "." + extension);
+            filePath = directory.resolve(newFileName);
+            counter++;
+        }
+        return filePath;
+    }
+
+    /**
+     * Resolve a relative path inside the root directory, or null when it is absolute,
+     * does not exist, or leads outside the root through ".." or a symbolic link
+     */
+    public static Path resolveInside(Path root, String relative) {
+        if (relative.startsWith("/") || relative.startsWith("\\") || relative.indexOf('\0') >= 0) {
+            return null;
+        }
+        try {
+            Path base = root.toAbsolutePath().normalize();
+            Path resolved = base.resolve(relative).normalize();
+            if (!resolved.startsWith(base) || !Files.exists(resolved)) {
+                return null;
+            }
+            return resolved.toRealPath().startsWith(base.toRealPath()) ? resolved : null;
+        } catch (InvalidPathException | IOException e) {
+            return null;
+        }
+    }
+
     /**
      * Get safe file name for storage
      */
@@ -0,0 +1,53 @@
+package com.p2p.utils;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.util.Collections;
+
+/**
+ * Utility class for working out the address peers should use to reach this node
+ */
+public class NetworkUtils {
+
+    /**
+     * The address to publish to other peers: advertise.address if configured, otherwise
+     * the local address the host would use for outgoing traffic
+     */
+    public static String getAdvertisedAddress() {
+        String configured = ConfigUtils.getAdvertiseAddress();
+        if (!configured.isEmpty()) {
+            return configured;
+        }
+
+        // Connecting a UDP socket only selects a route; no packet is sent
+        try (DatagramSocket socket = new DatagramSocket()) {
+            socket.connect(new InetSocketAddress("192.0.2.1", 9));
+            InetAddress local = socket.getLocalAddress();
+            if (local != null && !local.isAnyLocalAddress() && !local.isLoopbackAddress()) {
+                return local.getHostAddress();
+            }
+        } catch (IOException e) {
+            // No default route; fall back to scanning the interfaces
+        }
+
+        try {
+            for (NetworkInterface nic : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+                if (!nic.isUp() || nic.isLoopback() || nic.isVirtual()) {
+                    continue;
+                }
+                for (InetAddress address : Collections.list(nic.getInetAddresses())) {
+                    if (address instanceof Inet4Address && !address.isLinkLocalAddress()) {
+                        return address.getHostAddress();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Could not list network interfaces: " + e.getMessage());
+        }
+        return InetAddress.getLoopbackAddress().getHostAddress();
+    }
+}
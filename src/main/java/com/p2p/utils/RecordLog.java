@@ -0,0 +1,167 @@
+package com.p2p.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only file of binary records, each framed by its length and a CRC32
+ *
+ * The file starts with a magic number and a format version. Reading stops at the
+ * first record that is cut short or fails its checksum, as a crash in the middle of
+ * an append leaves it, and the file is truncated there so later appends follow the
+ * last good record. A file with another magic or version is deleted. Rewriting
+ * replaces the whole file atomically through a temporary sibling.
+ */
+public class RecordLog implements AutoCloseable {
+    private static final int HEADER_SIZE = 8;
+    private static final int MAX_RECORD_SIZE = 256 * 1024 * 1024;
+
+    private final Path file;
+    private final int magic;
+    private final int version;
+    private DataOutputStream out;
+
+    /**
+     * Receives each record's payload in file order
+     */
+    @FunctionalInterface
+    public interface RecordHandler {
+        void accept(byte[] payload) throws IOException;
+    }
+
+    public RecordLog(Path file, int magic, int version) {
+        this.file = file;
+        this.magic = magic;
+        this.version = version;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Hand every intact record to the handler and cut off whatever follows them
+     */
+    public synchronized void read(RecordHandler handler) throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+        long fileSize = Files.size(file);
+        long valid = HEADER_SIZE;
+        boolean known;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            known = fileSize >= HEADER_SIZE && in.readInt() == magic && in.readInt() == version;
+            while (known && valid < fileSize) {
+                int length = in.readInt();
+                if (length <= 0 || length > MAX_RECORD_SIZE) {
+                    break;
+                }
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                if (in.readInt() != crc(payload)) {
+                    break;
+                }
+                handler.accept(payload);
+                valid += 8 + length;
+            }
+        } catch (EOFException e) {
+            // Record cut short at the end
+            known = true;
+        }
+        if (!known) {
+            System.err.println(file + " has an unknown format; starting empty");
+            Files.delete(file);
+            return;
+        }
+        if (valid < fileSize) {
+            System.err.println("Dropped " + (fileSize - valid) + " bytes of incomplete records from " + file);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.truncate(valid);
+            }
+        }
+    }
+
+    /**
+     * Append one record and flush it to the file
+     */
+    public synchronized void append(byte[] payload) throws IOException {
+        if (out == null) {
+            open();
+        }
+        writeRecord(out, payload);
+        out.flush();
+    }
+
+    /**
+     * Replace the file with exactly these records
+     */
+    public synchronized void rewrite(Iterable<byte[]> payloads) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            createParent();
+            try (DataOutputStream rewritten = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                rewritten.writeInt(magic);
+                rewritten.writeInt(version);
+                for (byte[] payload : payloads) {
+                    writeRecord(rewritten, payload);
+                }
+            }
+            close();
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // Every record was flushed when it was appended
+            }
+            out = null;
+        }
+    }
+
+    private void open() throws IOException {
+        createParent();
+        boolean fresh = !Files.exists(file) || Files.size(file) == 0;
+        out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file,
+            StandardOpenOption.CREATE, StandardOpenOption.APPEND)));
+        if (fresh) {
+            out.writeInt(magic);
+            out.writeInt(version);
+        }
+    }
+
+    private void createParent() throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+    }
+
+    private static void writeRecord(DataOutputStream out, byte[] payload) throws IOException {
+        out.writeInt(payload.length);
+        out.write(payload);
+        out.writeInt(crc(payload));
+    }
+
+    private static int crc(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+}
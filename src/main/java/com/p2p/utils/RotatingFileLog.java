@@ -0,0 +1,156 @@
+package com.p2p.utils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Append-only text log on disk that rolls over by size
+ *
+ * Text is queued and written by a background thread, so callers on the EDT never
+ * wait for the disk. When the current file would grow past maxBytes it is renamed to
+ * name.1 and older files shift up by one; at most maxFiles rotated files are kept.
+ */
+public class RotatingFileLog implements AutoCloseable {
+    private static final long CLOSE_TIMEOUT_MILLIS = 5000;
+
+    private final File file;
+    private final long maxBytes;
+    private final int maxFiles;
+    private final BlockingQueue<String> queue = new LinkedBlockingQueue<>();
+    private final Thread writerThread;
+    private volatile boolean running = true;
+
+    private Writer writer;
+    private long size;
+
+    public RotatingFileLog(File file, long maxBytes, int maxFiles) {
+        this.file = file;
+        this.maxBytes = Math.max(1024, maxBytes);
+        this.maxFiles = Math.max(1, maxFiles);
+        this.writerThread = new Thread(this::run, "rotating-file-log");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /**
+     * Queue text to be written as is; include the line separators
+     */
+    public void append(String text) {
+        if (running && !text.isEmpty()) {
+            queue.add(text);
+        }
+    }
+
+    /**
+     * Write what is queued and close the file
+     */
+    @Override
+    public void close() {
+        running = false;
+        writerThread.interrupt();
+        try {
+            writerThread.join(CLOSE_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        try {
+            while (running) {
+                String text;
+                try {
+                    text = queue.take();
+                } catch (InterruptedException e) {
+                    break;
+                }
+                write(text);
+                // Write everything else that is already waiting before flushing once
+                while ((text = queue.poll()) != null) {
+                    write(text);
+                }
+                flush();
+            }
+            String text;
+            while ((text = queue.poll()) != null) {
+                write(text);
+            }
+        } finally {
+            closeWriter();
+        }
+    }
+
+    private void write(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        try {
+            if (writer == null) {
+                open();
+            } else if (size > 0 && size + bytes.length > maxBytes) {
+                closeWriter();
+                rotate();
+                open();
+            }
+            writer.write(text);
+            size += bytes.length;
+        } catch (IOException e) {
+            System.err.println("Error writing log file " + file + ": " + e.getMessage());
+            closeWriter();
+        }
+    }
+
+    private void open() throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+        size = file.length();
+        writer = new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8);
+    }
+
+    private void rotate() {
+        File oldest = rotated(maxFiles);
+        if (oldest.exists() && !oldest.delete()) {
+            System.err.println("Could not delete old log file " + oldest);
+        }
+        for (int i = maxFiles - 1; i >= 1; i--) {
+            File from = rotated(i);
+            if (from.exists()) {
+                from.renameTo(rotated(i + 1));
+            }
+        }
+        if (!file.renameTo(rotated(1))) {
+            System.err.println("Could not rotate log file " + file);
+        }
+    }
+
+    private File rotated(int index) {
+        return new File(file.getPath() + "." + index);
+    }
+
+    private void flush() {
+        if (writer != null) {
+            try {
+                writer.flush();
+            } catch (IOException e) {
+                System.err.println("Error flushing log file " + file + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private void closeWriter() {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                System.err.println("Error closing log file " + file + ": " + e.getMessage());
+            }
+            writer = null;
+        }
+    }
+}